@@ -1298,6 +1298,38 @@ public interface CoreSession {
     DocumentModelList query(String query, String queryType, Filter filter,
             long limit, long offset, long countUpTo) throws ClientException;
 
+    /**
+     * Executes the given query and returns the page of results that matches
+     * the filter and comes after the given keyset cursor.
+     * <p>
+     * Instead of skipping an offset, the database seeks directly to the
+     * position of the cursor, so that deep pages are as fast as the first one.
+     * The results are ordered by the ORDER BY clause of the query followed by
+     * the document id. The cursor for the next page is returned by
+     * {@link DocumentModelList#cursor}.
+     * <p>
+     * The values of the ORDER BY properties should not be {@code null}.
+     *
+     * @param query the query to execute
+     * @param queryType the query type, like "NXQL"
+     * @param filter the filter to apply to result, must be {@code null} or a
+     *            {@link org.nuxeo.ecm.core.api.impl.FacetFilter FacetFilter}
+     * @param limit the maximum number of documents to retrieve
+     * @param cursor the cursor returned by the previous page, or {@code null}
+     *            for the first page
+     * @param countUpTo if {@code -1}, return a {@link DocumentModelList} that
+     *            includes the number of documents after the cursor. <br>
+     *            If {@code 0}, don't return it. <br>
+     *            If {@code n}, return it when it is smaller than {@code n}
+     *            else return a total size of {@code -1}.
+     * @return the query result
+     * @throws ClientException
+     *
+     * @since 5.9.1
+     */
+    DocumentModelList query(String query, String queryType, Filter filter,
+            long limit, String cursor, long countUpTo) throws ClientException;
+
     /**
      *
      * @throws ClientException
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.api.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+
+/**
+ * Base class for {@link DocumentModelList} implementations, providing
+ * defaults for the information added to the interface's implementations over
+ * time, so that subclasses don't have to implement it.
+ *
+ * @since 5.9.1
+ */
+public abstract class AbstractDocumentModelList extends
+        ArrayList<DocumentModel> implements DocumentModelList {
+
+    private static final long serialVersionUID = 1L;
+
+    public AbstractDocumentModelList() {
+    }
+
+    public AbstractDocumentModelList(int size) {
+        super(size);
+    }
+
+    public AbstractDocumentModelList(Collection<DocumentModel> list) {
+        super(list);
+    }
+
+    @Override
+    public long totalSize() {
+        return size();
+    }
+
+    /**
+     * Returns the keyset cursor to pass to a following query to get the next
+     * page of the bigger list this is a part of.
+     * <p>
+     * The default implementation returns {@code null}.
+     *
+     * @return the cursor, or {@code null} if there is no next page or the
+     *         query was not done with a cursor
+     */
+    public String cursor() {
+        return null;
+    }
+
+}
@@ -13,23 +13,22 @@
 
 package org.nuxeo.ecm.core.api.impl;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import org.nuxeo.ecm.core.api.DocumentModel;
-import org.nuxeo.ecm.core.api.DocumentModelList;
 
 /**
  * @author Bogdan Stefanescu
  * @author Florent Guillaume
  */
-public class DocumentModelListImpl extends ArrayList<DocumentModel> implements
-        DocumentModelList {
+public class DocumentModelListImpl extends AbstractDocumentModelList {
 
     private static final long serialVersionUID = 4214422534444037559L;
 
     protected long totalSize = -1;
 
+    protected String cursor;
+
     public DocumentModelListImpl() {
     }
 
@@ -69,4 +68,16 @@ public class DocumentModelListImpl extends ArrayList<DocumentModel> implements
         return totalSize;
     }
 
+    /**
+     * @since 5.9.1
+     */
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public String cursor() {
+        return cursor;
+    }
+
 }
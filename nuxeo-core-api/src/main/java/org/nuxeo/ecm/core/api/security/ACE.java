@@ -28,6 +28,11 @@ public final class ACE implements Serializable, Cloneable {
     private final String permission;
     private final boolean isGranted;
 
+    // interned ids of the username and permission, see NameSet
+    private transient int usernameId;
+
+    private transient int permissionId;
+
     public ACE(String username, String permission, boolean isGranted) {
         this.username = username;
         this.permission = permission;
@@ -46,6 +51,22 @@ public final class ACE implements Serializable, Cloneable {
         return permission;
     }
 
+    int getUsernameId() {
+        int id = usernameId;
+        if (id == 0) {
+            usernameId = id = NameSet.getId(username);
+        }
+        return id;
+    }
+
+    int getPermissionId() {
+        int id = permissionId;
+        if (id == 0) {
+            permissionId = id = NameSet.getId(permission);
+        }
+        return id;
+    }
+
     /**
      * Checks if this privilege is granted.
      *
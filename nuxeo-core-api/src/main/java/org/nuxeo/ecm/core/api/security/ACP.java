@@ -69,6 +69,19 @@ public interface ACP extends Serializable, Cloneable {
      */
     Access getAccess(String[] principals, String[] permissions);
 
+    /**
+     * Checks the access on the ACLs for the given interned permissions and
+     * principals, like {@link #getAccess(String[], String[])} but without
+     * comparing names.
+     *
+     * @param principals the principals to check
+     * @param permissions the permissions to check
+     * @return Access.GRANT if granted, Access.DENY if denied or Access.UNKNOWN
+     *         if no rule for that permission exists. Never returns null.
+     * @since 5.9.1
+     */
+    Access getAccess(NameSet principals, NameSet permissions);
+
     /**
      * Replaces the modifiable user entries (associated with the
      * currentDocument) related to the current ACP.
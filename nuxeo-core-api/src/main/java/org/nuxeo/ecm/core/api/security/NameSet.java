@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.api.security;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable set of principals or permissions to check, with each name
+ * interned to an integer id so that an {@link ACE} is matched with two bit
+ * tests instead of string comparisons against each name.
+ * <p>
+ * Names are interned for the life of the JVM, they are only principal and
+ * permission names, whose number is bounded.
+ *
+ * @since 5.9.1
+ */
+public final class NameSet {
+
+    private static final ConcurrentMap<String, Integer> IDS = new ConcurrentHashMap<String, Integer>();
+
+    private static final AtomicInteger LAST_ID = new AtomicInteger();
+
+    /** Id of the {@code null} name, never interned in the map. */
+    private static final int NULL_ID = LAST_ID.incrementAndGet();
+
+    private static final int EVERYONE_ID = getId(SecurityConstants.EVERYONE);
+
+    private static final int EVERYTHING_ID = getId(SecurityConstants.EVERYTHING);
+
+    private final String[] names;
+
+    private final BitSet ids;
+
+    /** Whether the Everything permission implies one of the names. */
+    private final boolean impliedByEverything;
+
+    /**
+     * Gets the interned id of a name, allocating it if needed.
+     */
+    static int getId(String name) {
+        if (name == null) {
+            return NULL_ID;
+        }
+        Integer id = IDS.get(name);
+        if (id == null) {
+            Integer newId = Integer.valueOf(LAST_ID.incrementAndGet());
+            id = IDS.putIfAbsent(name, newId);
+            if (id == null) {
+                id = newId;
+            }
+        }
+        return id.intValue();
+    }
+
+    /**
+     * Creates the set for the given principals or permissions, as returned
+     * for instance by {@code SecurityService.getPrincipalsToCheck} or
+     * {@code SecurityService.getPermissionsToCheck}.
+     */
+    public NameSet(String... names) {
+        this.names = names;
+        ids = new BitSet();
+        boolean implied = false;
+        for (String name : names) {
+            ids.set(getId(name));
+            if (!SecurityConstants.RESTRICTED_READ.equals(name)) {
+                // RESTRICTED_READ is not implied by EVERYTHING
+                implied = true;
+            }
+        }
+        impliedByEverything = implied;
+    }
+
+    /**
+     * Gets the names of this set.
+     * <p>
+     * The returned array is shared and must not be modified.
+     */
+    public String[] getNames() {
+        return names;
+    }
+
+    /**
+     * Checks if the principal of the ACE is one of these principals, or is
+     * Everyone.
+     */
+    public boolean matchesPrincipal(ACE ace) {
+        int id = ace.getUsernameId();
+        if (id == EVERYONE_ID) {
+            return names.length != 0;
+        }
+        return ids.get(id);
+    }
+
+    /**
+     * Checks if the permission of the ACE is one of these permissions, or is
+     * Everything and implies one of them.
+     */
+    public boolean matchesPermission(ACE ace) {
+        int id = ace.getPermissionId();
+        if (id == EVERYTHING_ID && impliedByEverything) {
+            return true;
+        }
+        return ids.get(id);
+    }
+
+}
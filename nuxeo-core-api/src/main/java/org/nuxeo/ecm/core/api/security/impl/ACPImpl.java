@@ -29,6 +29,7 @@ import org.nuxeo.ecm.core.api.security.ACE;
 import org.nuxeo.ecm.core.api.security.ACL;
 import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.api.security.NameSet;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.api.security.UserAccess;
 import org.nuxeo.ecm.core.api.security.UserEntry;
@@ -48,6 +49,12 @@ public class ACPImpl implements ACP {
 
     private transient Map<String, Access> cache;
 
+    /**
+     * Above this number of principal and permission pairs, names are interned
+     * instead of being compared for each ACE.
+     */
+    private static final int MAX_NAMES_COMPARED = 8;
+
     public ACPImpl() {
         owners = new ArrayList<String>();
         acls = new ArrayList<ACL>();
@@ -201,6 +208,9 @@ public class ACPImpl implements ACP {
 
     @Override
     public Access getAccess(String[] principals, String[] permissions) {
+        if (principals.length * permissions.length > MAX_NAMES_COMPARED) {
+            return getAccess(new NameSet(principals), new NameSet(permissions));
+        }
         for (ACL acl : acls) {
             for (ACE ace : acl) {
                 // fully check ACE in turn against username/permissions
@@ -214,6 +224,22 @@ public class ACPImpl implements ACP {
         return Access.UNKNOWN;
     }
 
+    @Override
+    public Access getAccess(NameSet principals, NameSet permissions) {
+        // indexed loops, no iterator allocation
+        for (int i = 0, len = acls.size(); i < len; i++) {
+            ACL acl = acls.get(i);
+            for (int j = 0, n = acl.size(); j < n; j++) {
+                ACE ace = acl.get(j);
+                if (principals.matchesPrincipal(ace)
+                        && permissions.matchesPermission(ace)) {
+                    return ace.isGranted() ? Access.GRANT : Access.DENY;
+                }
+            }
+        }
+        return Access.UNKNOWN;
+    }
+
     public static Access getAccess(ACE ace, String[] principals,
             String[] permissions) {
         String acePerm = ace.getPermission();
@@ -14,6 +14,7 @@
 
 package org.nuxeo.ecm.core.api.security;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -113,6 +114,59 @@ public class TestACP {
         assertSame(UNKNOWN, acp.getAccess("jack", READ));
     }
 
+    @Test
+    public void testCheckAccessNameSet() {
+        ACL acl1 = new ACLImpl("acl1");
+        acl1.add(new ACE());
+        acl1.add(new ACE("joe", RESTRICTED_READ, true));
+        acl1.add(new ACE("group1", WRITE, false));
+        acl1.add(new ACE("group2", EVERYTHING, true));
+        acp.addACL(acl1);
+        ACL acl2 = new ACLImpl("acl2");
+        acl2.add(new ACE(EVERYONE, READ, true));
+        acl2.add(new ACE(EVERYONE, EVERYTHING, false));
+        acp.addACL(acl2);
+
+        String[][] principalsList = { {}, { "joe" }, { "jack", EVERYONE },
+                { "jack", "group1", EVERYONE },
+                { "jack", "group1", "group2", EVERYONE }, { "group3" } };
+        String[][] permissionsList = { {}, { READ }, { RESTRICTED_READ },
+                { WRITE }, { READ, BROWSE, EVERYTHING },
+                { RESTRICTED_READ, WRITE, EVERYTHING },
+                { REMOVE, WRITE_PROPERTIES, WRITE, EVERYTHING } };
+        for (String[] principals : principalsList) {
+            for (String[] permissions : permissionsList) {
+                Access expected = Access.UNKNOWN;
+                FOUND_ACE: for (ACL acl : acp.getACLs()) {
+                    for (ACE ace : acl) {
+                        Access access = ACPImpl.getAccess(ace, principals,
+                                permissions);
+                        if (access != Access.UNKNOWN) {
+                            expected = access;
+                            break FOUND_ACE;
+                        }
+                    }
+                }
+                String message = Arrays.toString(principals)
+                        + Arrays.toString(permissions);
+                assertSame(message, expected, acp.getAccess(new NameSet(
+                        principals), new NameSet(permissions)));
+                assertSame(message, expected, acp.getAccess(principals,
+                        permissions));
+            }
+        }
+        assertSame(Access.DENY, acp.getAccess(new NameSet("group1"),
+                new NameSet(WRITE)));
+        // Everything implies Write
+        assertSame(GRANT, acp.getAccess(new NameSet("group2"), new NameSet(
+                WRITE)));
+        assertSame(GRANT, acp.getAccess(new NameSet("joe"), new NameSet(
+                RESTRICTED_READ)));
+        // Everything doesn't imply RestrictedRead
+        assertSame(UNKNOWN, acp.getAccess(new NameSet("group3"),
+                new NameSet(RESTRICTED_READ)));
+    }
+
     @Test
     public void testCheckAccessNullACE() {
         ACL acl1 = new ACLImpl("acl1");
@@ -58,4 +58,20 @@ public interface FilterableQuery extends Query {
     QueryResult execute(QueryFilter queryFilter, long countUpTo)
             throws QueryException;
 
+    /**
+     * Makes a query to the backend with filtering on the BROWSE permission for
+     * the principal, facets, and query transformers, without limit, offset
+     * or count, whose documents are read by batches using
+     * {@link QueryResult#nextDocuments}.
+     * <p>
+     * The backend may read the matching ids from the database as the result
+     * is iterated instead of loading them all, so the result size is unknown
+     * and the result <b>must</b> be closed.
+     *
+     * @param queryFilter the query filter, without limit and offset
+     * @return a query result object describing the resulting documents
+     * @since 5.9.1
+     */
+    QueryResult executeStreamed(QueryFilter queryFilter) throws QueryException;
+
 }
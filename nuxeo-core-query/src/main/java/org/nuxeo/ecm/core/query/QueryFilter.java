@@ -28,6 +28,11 @@ import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
  * filtering on facets, and applying query transformers.
  * <p>
  * You can also include a limit and offset, to get a subset of the total.
+ * <p>
+ * Instead of an offset, a keyset cursor can be used: the query then returns
+ * the results after the position designated by the cursor, which is
+ * efficient even for deep pages. The cursor for the next page is returned by
+ * the query itself, the first page is requested using {@link #CURSOR_FIRST}.
  *
  * @author Florent Guillaume
  */
@@ -39,6 +44,13 @@ public class QueryFilter implements Serializable {
             new String[0], null,
             Collections.<SQLQuery.Transformer> emptyList(), 0, 0);
 
+    /**
+     * The cursor to pass to get the first page of a keyset-paginated query.
+     *
+     * @since 5.9.1
+     */
+    public static final String CURSOR_FIRST = "";
+
     /** The principal. Note that this MUST be {@link Serializable}. */
     protected final Principal principal;
 
@@ -54,6 +66,8 @@ public class QueryFilter implements Serializable {
 
     protected final long offset;
 
+    protected final String cursor;
+
     /**
      * Constructs a query filter.
      * <p>
@@ -63,6 +77,24 @@ public class QueryFilter implements Serializable {
             String[] permissions, FacetFilter facetFilter,
             Collection<SQLQuery.Transformer> queryTransformers, long limit,
             long offset) {
+        this(principal, principals, permissions, facetFilter,
+                queryTransformers, limit, offset, null);
+    }
+
+    /**
+     * Constructs a query filter using a keyset cursor.
+     * <p>
+     * Note that the principal MUST be {@link Serializable}.
+     *
+     * @param cursor the cursor returned by the query for the previous page,
+     *            {@link #CURSOR_FIRST} for the first page, or {@code null}
+     *            for no keyset pagination
+     * @since 5.9.1
+     */
+    public QueryFilter(Principal principal, String[] principals,
+            String[] permissions, FacetFilter facetFilter,
+            Collection<SQLQuery.Transformer> queryTransformers, long limit,
+            long offset, String cursor) {
         this.principal = principal;
         this.principals = principals;
         this.permissions = permissions;
@@ -70,6 +102,7 @@ public class QueryFilter implements Serializable {
         this.queryTransformers = queryTransformers;
         this.limit = limit;
         this.offset = offset;
+        this.cursor = cursor;
     }
 
     public static QueryFilter withoutLimitOffset(QueryFilter other) {
@@ -110,4 +143,13 @@ public class QueryFilter implements Serializable {
         return offset;
     }
 
+    /**
+     * Gets the keyset cursor, or {@code null} if there is none.
+     *
+     * @since 5.9.1
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
 }
@@ -14,6 +14,7 @@
 package org.nuxeo.ecm.core.query;
 
 import java.util.Iterator;
+import java.util.List;
 
 import org.nuxeo.ecm.core.api.DocumentModelList;
 
@@ -73,4 +74,28 @@ public interface QueryResult {
 
     Iterator getDocuments(int start);
 
+    /**
+     * Gets the next documents of the result, fetched in bulk.
+     * <p>
+     * This allows a caller to go through a large result without fetching all
+     * the documents at once, and to stop as soon as it has enough of them.
+     * Documents that don't exist anymore are skipped.
+     *
+     * @param max the maximum number of documents to return
+     * @return the core documents, or an empty list if there are no more
+     * @since 5.9.1
+     */
+    List nextDocuments(int max) throws QueryException;
+
+    /**
+     * Releases the resources held by the result.
+     * <p>
+     * Must be called when done with a result returned by
+     * {@link FilterableQuery#executeStreamed}, which may read it from the
+     * database as it is iterated.
+     *
+     * @since 5.9.1
+     */
+    void close();
+
 }
@@ -27,10 +27,12 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.ecm.core.api.IterableQueryResult;
 import org.nuxeo.ecm.core.api.Lock;
+import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.query.QueryFilter;
 import org.nuxeo.ecm.core.storage.PartialList;
 import org.nuxeo.ecm.core.storage.StorageException;
 import org.nuxeo.ecm.core.storage.sql.Binary;
+import org.nuxeo.ecm.core.storage.sql.IdStream;
 import org.nuxeo.ecm.core.storage.sql.Mapper;
 import org.nuxeo.ecm.core.storage.sql.Model;
 import org.nuxeo.ecm.core.storage.sql.Node;
@@ -200,6 +202,12 @@ public class ConnectionImpl implements Session {
         return getSession().getNodesByIds(ids);
     }
 
+    @Override
+    public List<Node> getNodesWithRelatedByIds(List<Serializable> ids)
+            throws StorageException {
+        return getSession().getNodesWithRelatedByIds(ids);
+    }
+
     @Override
     public Node getNodeByPath(String path, Node node) throws StorageException {
         return getSession().getNodeByPath(path, node);
@@ -241,6 +249,12 @@ public class ConnectionImpl implements Session {
         return getSession().getChildren(parent, name, complexProp);
     }
 
+    @Override
+    public void prepareAddChildNodes(Node parent, List<String> names)
+            throws StorageException {
+        getSession().prepareAddChildNodes(parent, names);
+    }
+
     @Override
     public Node addChildNode(Node parent, String name, Long pos,
             String typeName, boolean complexProp) throws StorageException {
@@ -368,6 +382,12 @@ public class ConnectionImpl implements Session {
         return getSession().query(query, queryType, queryFilter, countUpTo);
     }
 
+    @Override
+    public IdStream queryIds(String query, String queryType,
+            QueryFilter queryFilter) throws StorageException {
+        return getSession().queryIds(query, queryType, queryFilter);
+    }
+
     @Override
     public IterableQueryResult queryAndFetch(String query, String queryType,
             QueryFilter queryFilter, Object... params) throws StorageException {
@@ -408,4 +428,20 @@ public class ConnectionImpl implements Session {
         getSession().rebuildReadAcls();
     }
 
+    @Override
+    public ACP getCachedMergedACP(Serializable id) {
+        if (session == null) {
+            return null;
+        }
+        return session.getCachedMergedACP(id);
+    }
+
+    @Override
+    public void putCachedMergedACP(Serializable id, ACP acp,
+            Serializable[] dependencies) {
+        if (session != null) {
+            session.putCachedMergedACP(id, acp, dependencies);
+        }
+    }
+
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.nuxeo.ecm.core.storage.sql.ChunkedBinaryManager.ChunkedBinary;
+import org.nuxeo.runtime.services.streaming.FileSource;
+import org.nuxeo.runtime.services.streaming.StreamSource;
+import org.nuxeo.runtime.test.NXRuntimeTestCase;
+
+public class TestChunkedBinaryManager extends NXRuntimeTestCase {
+
+    protected static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    protected ChunkedBinaryManager newBinaryManager() throws Exception {
+        ChunkedBinaryManager binaryManager = new ChunkedBinaryManager();
+        binaryManager.initialize(new RepositoryDescriptor());
+        return binaryManager;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ChunkedBinaryManager binaryManager = newBinaryManager();
+        byte[] bytes = randomBytes(10 * 1024 * 1024, 1);
+        String digest = DigestUtils.md5Hex(bytes);
+        assertNull(binaryManager.getBinary(digest));
+
+        Binary binary = binaryManager.getBinary(new ByteArrayInputStream(
+                bytes));
+        assertEquals(digest, binary.getDigest());
+        assertEquals(bytes.length, binary.getLength());
+        int chunks = ((ChunkedBinary) binary).getChunkCount();
+        assertTrue("" + chunks, chunks >= 3);
+        assertTrue("" + chunks,
+                chunks <= bytes.length / ChunkedBinaryManager.MIN_CHUNK_SIZE);
+        assertEquals(chunks, countFiles(binaryManager.getStorageDir()));
+        assertEquals(1, countFiles(binaryManager.getManifestDir()));
+
+        binary = binaryManager.getBinary(digest);
+        assertNotNull(binary);
+        assertEquals(bytes.length, binary.getLength());
+        assertArrayEquals(bytes, IOUtils.toByteArray(binary.getStream()));
+        StreamSource source = binary.getStreamSource();
+        // no single file, must not be taken for a file by callers
+        assertFalse(source instanceof FileSource);
+        assertEquals(bytes.length, source.getLength());
+        assertArrayEquals(bytes, IOUtils.toByteArray(source.getStream()));
+
+        // storing it again doesn't add anything
+        binaryManager.getBinary(new ByteArrayInputStream(bytes));
+        assertEquals(chunks, countFiles(binaryManager.getStorageDir()));
+        assertEquals(1, countFiles(binaryManager.getManifestDir()));
+
+        // empty binary
+        binary = binaryManager.getBinary(new ByteArrayInputStream(
+                new byte[0]));
+        assertEquals(0, binary.getLength());
+        assertEquals(-1, binary.getStream().read());
+    }
+
+    @Test
+    public void testSkip() throws Exception {
+        ChunkedBinaryManager binaryManager = newBinaryManager();
+        byte[] bytes = randomBytes(6 * 1024 * 1024, 2);
+        Binary binary = binaryManager.getBinary(new ByteArrayInputStream(
+                bytes));
+        int[] offsets = { 0, 1, 300 * 1000, 2 * 1024 * 1024 + 7,
+                bytes.length - 10 };
+        for (int offset : offsets) {
+            InputStream in = binary.getStream();
+            try {
+                assertEquals(offset, in.skip(offset));
+                byte[] buf = new byte[10];
+                new DataInputStream(in).readFully(buf);
+                assertArrayEquals(Arrays.copyOfRange(bytes, offset,
+                        offset + 10), buf);
+            } finally {
+                in.close();
+            }
+        }
+        InputStream in = binary.getStream();
+        try {
+            assertEquals(bytes.length, in.skip(bytes.length + 100));
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testRandomAccess() throws Exception {
+        ChunkedBinaryManager binaryManager = newBinaryManager();
+        byte[] bytes = randomBytes(6 * 1024 * 1024, 2);
+        ChunkedBinary binary = (ChunkedBinary) binaryManager.getBinary(new ByteArrayInputStream(
+                bytes));
+        assertTrue(binary.getChunkCount() > 1);
+
+        // reads spanning chunk boundaries
+        byte[] buf = new byte[1024 * 1024];
+        int[] offsets = { 0, 300 * 1000, 2 * 1024 * 1024 + 7,
+                bytes.length - 10 };
+        for (int offset : offsets) {
+            int n = binary.read(offset, buf, 0, buf.length);
+            int expected = Math.min(buf.length, bytes.length - offset);
+            assertEquals(expected, n);
+            assertArrayEquals(Arrays.copyOfRange(bytes, offset, offset + n),
+                    Arrays.copyOf(buf, n));
+        }
+        assertEquals(-1, binary.read(bytes.length, buf, 0, 10));
+
+        SeekableByteChannel channel = binary.getChannel();
+        try {
+            assertEquals(bytes.length, channel.size());
+            channel.position(bytes.length - 5);
+            ByteBuffer bb = ByteBuffer.allocate(10);
+            assertEquals(5, channel.read(bb));
+            assertEquals(-1, channel.read(bb));
+            assertEquals(bytes.length, channel.position());
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testSharedChunks() throws Exception {
+        ChunkedBinaryManager binaryManager = newBinaryManager();
+        byte[] bytes = randomBytes(8 * 1024 * 1024, 3);
+        // same content with a few bytes inserted in the middle
+        byte[] modified = new byte[bytes.length + 5];
+        int middle = bytes.length / 2;
+        System.arraycopy(bytes, 0, modified, 0, middle);
+        System.arraycopy("hello".getBytes("UTF-8"), 0, modified, middle, 5);
+        System.arraycopy(bytes, middle, modified, middle + 5, bytes.length
+                - middle);
+
+        ChunkedBinary binary1 = (ChunkedBinary) binaryManager.getBinary(new ByteArrayInputStream(
+                bytes));
+        ChunkedBinary binary2 = (ChunkedBinary) binaryManager.getBinary(new ByteArrayInputStream(
+                modified));
+        int total = binary1.getChunkCount() + binary2.getChunkCount();
+        int stored = countFiles(binaryManager.getStorageDir());
+        // only the chunks around the insertion differ
+        assertTrue(stored + "/" + total, stored <= binary1.getChunkCount() + 2);
+        assertTrue(stored < total);
+        assertArrayEquals(modified, IOUtils.toByteArray(binary2.getStream()));
+    }
+
+    @Test
+    public void testGC() throws Exception {
+        ChunkedBinaryManager binaryManager = newBinaryManager();
+        byte[] bytes = randomBytes(3 * 1024 * 1024, 4);
+        byte[] other = randomBytes(3 * 1024 * 1024, 5);
+        String digest = DigestUtils.md5Hex(bytes);
+        ChunkedBinary binary = (ChunkedBinary) binaryManager.getBinary(new ByteArrayInputStream(
+                bytes));
+        int chunks = binary.getChunkCount();
+        binary = (ChunkedBinary) binaryManager.getBinary(new ByteArrayInputStream(
+                other));
+        int otherChunks = binary.getChunkCount();
+        assertEquals(chunks + otherChunks,
+                countFiles(binaryManager.getStorageDir()));
+        assertEquals(2, countFiles(binaryManager.getManifestDir()));
+
+        // sleep before GC to pass its time threshold
+        Thread.sleep(3 * 1000);
+
+        // GC in non-delete mode
+        BinaryGarbageCollector gc = binaryManager.getGarbageCollector();
+        gc.start();
+        gc.mark(digest);
+        gc.stop(false);
+        BinaryManagerStatus status = gc.getStatus();
+        assertEquals(chunks, status.numBinaries);
+        assertEquals(bytes.length, status.sizeBinaries);
+        assertEquals(otherChunks, status.numBinariesGC);
+        assertEquals(other.length, status.sizeBinariesGC);
+        // still there
+        assertEquals(chunks + otherChunks,
+                countFiles(binaryManager.getStorageDir()));
+        assertEquals(2, countFiles(binaryManager.getManifestDir()));
+
+        // real GC
+        gc.start();
+        gc.mark(digest);
+        gc.stop(true);
+        status = gc.getStatus();
+        assertEquals(chunks, status.numBinaries);
+        assertEquals(otherChunks, status.numBinariesGC);
+        assertEquals(chunks, countFiles(binaryManager.getStorageDir()));
+        assertEquals(1, countFiles(binaryManager.getManifestDir()));
+        assertArrayEquals(bytes, IOUtils.toByteArray(binaryManager.getBinary(
+                digest).getStream()));
+    }
+
+    protected static int countFiles(File dir) {
+        int n = 0;
+        for (File f : dir.listFiles()) {
+            if (f.isDirectory()) {
+                n += countFiles(f);
+            } else {
+                n++;
+            }
+        }
+        return n;
+    }
+
+}
@@ -25,6 +25,8 @@ import static org.junit.Assert.assertTrue;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
@@ -120,6 +122,152 @@ public class TestDefaultBinaryManager extends NXRuntimeTestCase {
         assertTrue(source.getFile().exists());
     }
 
+    @Test
+    public void testStreamingExistingDigest() throws IOException {
+        DefaultBinaryManager binaryManager = new DefaultBinaryManager();
+        binaryManager.initialize(new RepositoryDescriptor());
+        byte[] bytes = CONTENT.getBytes("UTF-8");
+        binaryManager.getBinary(new ByteArrayInputStream(bytes));
+        assertEquals(1, countFiles(binaryManager.getStorageDir()));
+        File stored = binaryManager.getFileForDigest(CONTENT_MD5, false);
+        stored.setLastModified(stored.lastModified() - 10 * 1000);
+        long lastModified = stored.lastModified();
+
+        // same content from a file, digested without copy
+        File file = File.createTempFile("test-", ".data");
+        try {
+            FileUtils.writeFile(file, bytes);
+            FileSource source = new FileSource(file);
+            Binary binary = binaryManager.getBinary(source);
+            assertEquals(CONTENT_MD5, binary.getDigest());
+            assertEquals(stored, source.getFile());
+            // source left untouched, store unchanged but its date updated
+            assertTrue(file.exists());
+            assertEquals(1, countFiles(binaryManager.getStorageDir()));
+            assertTrue(stored.lastModified() > lastModified);
+            assertEquals(CONTENT,
+                    IOUtils.toString(binary.getStream(), "UTF-8"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testGCResumeFromCheckpoint() throws Exception {
+        DefaultBinaryManager binaryManager = new DefaultBinaryManager();
+        binaryManager.initialize(new RepositoryDescriptor());
+        byte[] bytes = CONTENT.getBytes("UTF-8");
+        binaryManager.getBinary(new ByteArrayInputStream(bytes));
+        binaryManager.getBinary(new ByteArrayInputStream(
+                "abc".getBytes("UTF-8")));
+        assertEquals(2, countFiles(binaryManager.getStorageDir()));
+
+        // sleep before GC to pass its time threshold
+        Thread.sleep(3 * 1000);
+
+        // checkpoint of an interrupted GC that swept the shard of CONTENT
+        File checkpointFile = new File(
+                binaryManager.getStorageDir().getParentFile(),
+                LocalBinaryManager.DefaultBinaryGarbageCollector.CHECKPOINT_FILE);
+        FileUtils.writeFile(checkpointFile, "delete=true\nshard."
+                + CONTENT_MD5.substring(0, 2) + "=1," + bytes.length
+                + ",0,0\n");
+
+        // nothing marked, but the swept shard is skipped
+        BinaryGarbageCollector gc = binaryManager.getGarbageCollector();
+        gc.start();
+        gc.stop(true);
+        BinaryManagerStatus status = gc.getStatus();
+        assertEquals(1, status.numBinaries);
+        assertEquals(bytes.length, status.sizeBinaries);
+        assertEquals(1, status.numBinariesGC);
+        assertEquals(3, status.sizeBinariesGC);
+        assertEquals(2, status.numShards);
+        assertEquals(2, status.numShardsSwept);
+        assertEquals(1, countFiles(binaryManager.getStorageDir()));
+        assertNotNull(binaryManager.getBinary(CONTENT_MD5));
+        // complete GC, checkpoint removed
+        assertFalse(checkpointFile.exists());
+
+        // next GC starts from scratch
+        gc.start();
+        gc.stop(true);
+        status = gc.getStatus();
+        assertEquals(0, status.numBinaries);
+        assertEquals(1, status.numBinariesGC);
+        assertEquals(0, countFiles(binaryManager.getStorageDir()));
+    }
+
+    @Test
+    public void testGCSizingPersisted() throws Exception {
+        DefaultBinaryManager binaryManager = new DefaultBinaryManager();
+        binaryManager.initialize(new RepositoryDescriptor());
+        binaryManager.getBinary(new ByteArrayInputStream(
+                CONTENT.getBytes("UTF-8")));
+        binaryManager.getBinary(new ByteArrayInputStream(
+                "abc".getBytes("UTF-8")));
+        File statsFile = new File(
+                binaryManager.getStorageDir().getParentFile(),
+                LocalBinaryManager.DefaultBinaryGarbageCollector.STATS_FILE);
+        try {
+            LocalBinaryManager.DefaultBinaryGarbageCollector gc = (LocalBinaryManager.DefaultBinaryGarbageCollector) binaryManager.getGarbageCollector();
+            gc.start();
+            gc.mark(CONTENT_MD5);
+            gc.stop(false);
+            assertEquals("2", gc.readProperties(statsFile).getProperty(
+                    LocalBinaryManager.DefaultBinaryGarbageCollector.STATS_BINARIES));
+
+            // a new GC, as after a restart, is sized from the recorded count
+            FileUtils.writeFile(statsFile, "binaries=5000000\n");
+            LocalBinaryManager.DefaultBinaryGarbageCollector newGC = new LocalBinaryManager.DefaultBinaryGarbageCollector(
+                    binaryManager);
+            assertEquals(5000000,
+                    newGC.getExpected(LocalBinaryManager.DefaultBinaryGarbageCollector.STATS_BINARIES));
+            newGC.start();
+            assertEquals(5000000, newGC.marks.getCapacity());
+            newGC.stop(false);
+        } finally {
+            statsFile.delete();
+        }
+    }
+
+    @Test
+    public void testRandomAccess() throws Exception {
+        DefaultBinaryManager binaryManager = new DefaultBinaryManager();
+        binaryManager.initialize(new RepositoryDescriptor());
+        byte[] bytes = CONTENT.getBytes("UTF-8");
+        Binary binary = binaryManager.getBinary(new ByteArrayInputStream(bytes));
+
+        // positional read
+        byte[] buf = new byte[4];
+        assertEquals(4, binary.read(5, buf, 0, 4));
+        assertEquals("is a", new String(buf, "UTF-8"));
+        assertEquals(2, binary.read(bytes.length - 2, buf, 0, 4));
+        assertEquals(-1, binary.read(bytes.length, buf, 0, 4));
+
+        // channel
+        SeekableByteChannel channel = binary.getChannel();
+        try {
+            assertEquals(bytes.length, channel.size());
+            channel.position(10);
+            ByteBuffer bb = ByteBuffer.allocate(4);
+            assertEquals(4, channel.read(bb));
+            assertEquals("file", new String(bb.array(), "UTF-8"));
+        } finally {
+            channel.close();
+        }
+
+        // mapped, truncated at the end
+        ByteBuffer mapped = binary.map(15, 100);
+        assertEquals(bytes.length - 15, mapped.remaining());
+        byte[] end = new byte[mapped.remaining()];
+        mapped.get(end);
+        assertEquals("au caf\u00e9", new String(end, "UTF-8"));
+
+        // mapped after the end, empty
+        assertEquals(0, binary.map(bytes.length + 10, 100).remaining());
+    }
+
     protected static int countFiles(File dir) {
         int n = 0;
         for (File f : dir.listFiles()) {
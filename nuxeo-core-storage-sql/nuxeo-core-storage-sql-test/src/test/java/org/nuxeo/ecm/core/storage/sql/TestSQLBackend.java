@@ -81,6 +81,10 @@ public class TestSQLBackend extends SQLBackendTestCase {
 
     protected Boolean aclOptimizationsConcurrentUpdate;
 
+    protected Boolean aclOptimizationsAsyncUpdate;
+
+    protected Boolean combinedReadsEnabled;
+
     @Override
     @Before
     public void setUp() throws Exception {
@@ -97,6 +101,12 @@ public class TestSQLBackend extends SQLBackendTestCase {
         if (aclOptimizationsConcurrentUpdate != null) {
             descriptor.aclOptimizationsConcurrentUpdate = aclOptimizationsConcurrentUpdate.booleanValue();
         }
+        if (aclOptimizationsAsyncUpdate != null) {
+            descriptor.aclOptimizationsAsyncUpdate = aclOptimizationsAsyncUpdate.booleanValue();
+        }
+        if (combinedReadsEnabled != null) {
+            descriptor.combinedReadsEnabled = combinedReadsEnabled.booleanValue();
+        }
         return descriptor;
     }
 
@@ -713,6 +723,88 @@ public class TestSQLBackend extends SQLBackendTestCase {
         session.close();
     }
 
+    @Test
+    public void testAsyncUpdateReadAcls() throws Exception {
+        assumeTrue(DatabaseHelper.DATABASE instanceof DatabasePostgreSQL);
+        repository.close();
+        try {
+            aclOptimizationsAsyncUpdate = Boolean.TRUE;
+            repository = newRepository(-1, false);
+            SessionImpl session = (SessionImpl) repository.getConnection();
+            Node root = session.getRootNode();
+            Node folder = session.addChildNode(root, "folder", null,
+                    "TestDoc", false);
+            session.addChildNode(folder, "doc", null, "TestDoc", false);
+            Node other = session.addChildNode(root, "other", null, "TestDoc",
+                    false);
+            Node doc2 = session.addChildNode(other, "doc2", null, "TestDoc",
+                    false);
+            // read acls of new documents are computed at save time
+            session.save();
+            assertEquals(0, queryReadable(session, "bob"));
+
+            // ACL change on the folder, subtree updated by the work
+            ACLRow acl = new ACLRow(0, "test", true, "Read", "bob", null);
+            folder.getCollectionProperty(Model.ACL_PROP).setValue(
+                    new ACLRow[] { acl });
+            session.requireReadAclsUpdate();
+            session.save();
+            assertEquals(0, queryReadable(session, "bob"));
+            updateReadAclsBatches(session);
+            // staged, not yet visible
+            assertEquals(0, queryReadable(session, "bob"));
+            assertEquals(2, session.swapReadAcls());
+            assertEquals(2, queryReadable(session, "bob"));
+
+            // move under the folder
+            session.move(doc2, folder, "doc2");
+            session.save();
+            assertEquals(2, queryReadable(session, "bob"));
+            updateReadAclsBatches(session);
+            assertEquals(1, session.swapReadAcls());
+            assertEquals(3, queryReadable(session, "bob"));
+
+            // nothing staged, nothing swapped
+            assertEquals(0, session.updateReadAclsBatch(500));
+            assertEquals(0, session.swapReadAcls());
+
+            // ACL removed, update interrupted before the swap
+            folder.getCollectionProperty(Model.ACL_PROP).setValue(
+                    new ACLRow[0]);
+            session.requireReadAclsUpdate();
+            session.save();
+            updateReadAclsBatches(session);
+            assertEquals(3, queryReadable(session, "bob"));
+            session.close();
+
+            // the staged read acls are swapped in at startup
+            repository.close();
+            repository = newRepository(-1, false);
+            session = (SessionImpl) repository.getConnection();
+            assertEquals(0, queryReadable(session, "bob"));
+            assertEquals(0, session.swapReadAcls());
+            session.close();
+        } finally {
+            aclOptimizationsAsyncUpdate = null;
+        }
+    }
+
+    /** Does the batches of an asynchronous read acls update, but no swap. */
+    protected void updateReadAclsBatches(SessionImpl session)
+            throws Exception {
+        while (session.updateReadAclsBatch(500) != 0) {
+            // next batch
+        }
+    }
+
+    protected int queryReadable(Session session, String principal)
+            throws Exception {
+        QueryFilter qf = new QueryFilter(null, new String[] { principal },
+                new String[] { "Read" }, null,
+                Collections.<SQLQuery.Transformer> emptyList(), 0, 0);
+        return session.query("SELECT * FROM TestDoc", qf, false).list.size();
+    }
+
     private static final int ITERATIONS = 5;
 
     private static final int THREADS = 5;
@@ -1867,6 +1959,90 @@ public class TestSQLBackend extends SQLBackendTestCase {
         session.save();
     }
 
+    protected static void createTree(Session session, Node parent,
+            int depth, int width) throws StorageException {
+        for (int i = 0; i < width; i++) {
+            Node node = session.addChildNode(parent, "node" + i, null,
+                    "TestDoc", false);
+            node.setSimpleProperty("tst:title", "title" + depth + i);
+            node.setCollectionProperty("tst:subjects", new String[] { "s" + i });
+            session.addChildNode(node, "complex", null, "TestDoc", true);
+            if (depth > 1) {
+                createTree(session, node, depth - 1, width);
+            }
+        }
+    }
+
+    protected static void checkTree(Session session, Node parent, int depth,
+            int width) throws StorageException {
+        assertEquals(width, session.getChildren(parent, null, false).size());
+        for (int i = 0; i < width; i++) {
+            Node node = session.getChildNode(parent, "node" + i, false);
+            assertNotNull(node);
+            assertEquals("title" + depth + i,
+                    node.getSimpleProperty("tst:title").getString());
+            assertEquals(Arrays.asList("s" + i),
+                    Arrays.asList(node.getCollectionProperty("tst:subjects").getStrings()));
+            assertNotNull(session.getChildNode(node, "complex", true));
+            if (depth > 1) {
+                checkTree(session, node, depth - 1, width);
+            }
+        }
+    }
+
+    @Test
+    public void testCopyDeepTree() throws Exception {
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Node small = session.addChildNode(root, "small", null, "TestDoc",
+                false);
+        createTree(session, small, 1, 1);
+        // 168 and 310 descendants, including complex properties
+        Node big = session.addChildNode(root, "big", null, "TestDoc", false);
+        createTree(session, big, 3, 4);
+        Node bigger = session.addChildNode(root, "bigger", null, "TestDoc",
+                false);
+        createTree(session, bigger, 3, 5);
+        // separate destinations so that all copies see the same state
+        Node dest1 = session.addChildNode(root, "dest1", null, "TestDoc",
+                false);
+        Node dest2 = session.addChildNode(root, "dest2", null, "TestDoc",
+                false);
+        Node dest3 = session.addChildNode(root, "dest3", null, "TestDoc",
+                false);
+        session.save();
+
+        JDBCConnection jdbc = (JDBCConnection) ((SoftRefCachingMapper) ((SessionImpl) session).getMapper()).mapper;
+        jdbc.countExecutes = true;
+        jdbc.executeCount = 0;
+        session.copy(small, dest1, "small2");
+        jdbc.executeCount = 0;
+        session.copy(big, dest2, "big2");
+        int bigCount = jdbc.executeCount;
+        jdbc.executeCount = 0;
+        session.copy(bigger, dest3, "bigger2");
+        int biggerCount = jdbc.executeCount;
+        jdbc.countExecutes = false;
+        session.save();
+        if (DatabaseHelper.DATABASE instanceof DatabasePostgreSQL) {
+            // recursive copy done in the database, whatever the size, with
+            // fewer statements than the 84 copied documents
+            assertEquals(bigCount, biggerCount);
+            assertTrue(bigCount < 84);
+        }
+
+        session.close();
+        session = repository.getConnection();
+        checkTree(session, session.getNodeByPath("/dest1/small2", null), 1, 1);
+        Node big2 = session.getNodeByPath("/dest2/big2", null);
+        assertFalse(big2.getId().equals(big.getId()));
+        checkTree(session, big2, 3, 4);
+        checkTree(session, session.getNodeByPath("/dest3/bigger2", null), 3,
+                5);
+        // original untouched
+        checkTree(session, session.getNodeByPath("/big", null), 3, 4);
+    }
+
     @Test
     public void testVersioning() throws Exception {
         Session session = repository.getConnection();
@@ -3602,6 +3778,224 @@ public class TestSQLBackend extends SQLBackendTestCase {
         it.close();
     }
 
+    @Test
+    public void testQueryCountUpToAndIdStream() throws Exception {
+        if (this instanceof TestSQLBackendNet
+                || this instanceof ITSQLBackendNet) {
+            return;
+        }
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Set<Serializable> ids = new HashSet<Serializable>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(session.addChildNode(root, "doc" + i, null, "TestDoc",
+                    false).getId());
+        }
+        session.save();
+        String nxql = "SELECT * FROM TestDoc ORDER BY ecm:name";
+        PartialList<Serializable> res;
+
+        // no limit
+        res = session.query(nxql, "NXQL", QueryFilter.EMPTY, -1);
+        assertEquals(10, res.list.size());
+        assertEquals(10, res.totalSize);
+        res = session.query(nxql, "NXQL", QueryFilter.EMPTY, 5);
+        assertEquals(-2, res.totalSize);
+        res = session.query(nxql, "NXQL", QueryFilter.EMPTY, 20);
+        assertEquals(10, res.totalSize);
+
+        // last page, total deduced from it
+        QueryFilter qf = new QueryFilter(null, null, new String[0], null,
+                Collections.<SQLQuery.Transformer> emptyList(), 4, 8);
+        res = session.query(nxql, "NXQL", qf, -1);
+        assertEquals(2, res.list.size());
+        assertEquals(10, res.totalSize);
+        // full page, total counted
+        qf = new QueryFilter(null, null, new String[0], null,
+                Collections.<SQLQuery.Transformer> emptyList(), 4, 0);
+        res = session.query(nxql, "NXQL", qf, -1);
+        assertEquals(4, res.list.size());
+        assertEquals(10, res.totalSize);
+        res = session.query(nxql, "NXQL", qf, 5);
+        assertEquals(-2, res.totalSize);
+        res = session.query(nxql, "NXQL", qf, 20);
+        assertEquals(10, res.totalSize);
+        // offset past the end
+        qf = new QueryFilter(null, null, new String[0], null,
+                Collections.<SQLQuery.Transformer> emptyList(), 4, 20);
+        res = session.query(nxql, "NXQL", qf, -1);
+        assertEquals(0, res.list.size());
+        assertEquals(10, res.totalSize);
+
+        // id stream
+        IdStream stream = session.queryIds(nxql, "NXQL", QueryFilter.EMPTY);
+        Set<Serializable> streamed = new HashSet<Serializable>();
+        try {
+            while (stream.hasNext()) {
+                streamed.add(stream.next());
+            }
+        } finally {
+            stream.close();
+        }
+        assertEquals(ids, streamed);
+    }
+
+    @Test
+    public void testQueryKeysetCursor() throws Exception {
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        for (int i = 0; i < 10; i++) {
+            Node node = session.addChildNode(root, "doc" + i, null,
+                    "TestDoc", false);
+            node.setSimpleProperty("tst:title", "title" + (i % 3));
+        }
+        session.save();
+        // with and without proxies
+        checkQueryKeysetCursor(session,
+                "SELECT * FROM TestDoc ORDER BY tst:title DESC");
+        checkQueryKeysetCursor(session,
+                "SELECT * FROM TestDoc WHERE ecm:isProxy = 0 ORDER BY tst:title DESC");
+    }
+
+    protected void checkQueryKeysetCursor(Session session, String nxql)
+            throws Exception {
+        List<Serializable> ids = new ArrayList<Serializable>();
+        List<String> titles = new ArrayList<String>();
+        List<Integer> sizes = new ArrayList<Integer>();
+        String cursor = QueryFilter.CURSOR_FIRST;
+        while (cursor != null) {
+            QueryFilter qf = new QueryFilter(null, null, new String[0], null,
+                    Collections.<SQLQuery.Transformer> emptyList(), 4, 0,
+                    cursor);
+            PartialList<Serializable> res = session.query(nxql, "NXQL", qf,
+                    0);
+            sizes.add(Integer.valueOf(res.list.size()));
+            for (Serializable id : res.list) {
+                ids.add(id);
+                titles.add((String) session.getNodeById(id).getSimpleProperty(
+                        "tst:title").getValue());
+            }
+            cursor = res.cursor;
+        }
+        assertEquals(Arrays.asList(Integer.valueOf(4), Integer.valueOf(4),
+                Integer.valueOf(2)), sizes);
+        assertEquals(10, new HashSet<Serializable>(ids).size());
+        List<String> sorted = new ArrayList<String>(titles);
+        Collections.sort(sorted, Collections.reverseOrder());
+        assertEquals(sorted, titles);
+    }
+
+    @Test
+    public void testQueryKeysetCursorNulls() throws Exception {
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        for (int i = 0; i < 10; i++) {
+            Node node = session.addChildNode(root, "doc" + i, null,
+                    "TestDoc", false);
+            if (i % 3 != 0) {
+                node.setSimpleProperty("tst:title", "title" + (i % 3));
+            }
+        }
+        session.save();
+        // pages of 3 so that cursors fall on NULL titles
+        checkQueryKeysetCursorNulls(session,
+                "SELECT * FROM TestDoc ORDER BY tst:title");
+        checkQueryKeysetCursorNulls(session,
+                "SELECT * FROM TestDoc ORDER BY tst:title DESC");
+    }
+
+    protected void checkQueryKeysetCursorNulls(Session session, String nxql)
+            throws Exception {
+        List<Serializable> ids = new ArrayList<Serializable>();
+        List<String> titles = new ArrayList<String>();
+        String cursor = QueryFilter.CURSOR_FIRST;
+        while (cursor != null) {
+            QueryFilter qf = new QueryFilter(null, null, new String[0], null,
+                    Collections.<SQLQuery.Transformer> emptyList(), 3, 0,
+                    cursor);
+            PartialList<Serializable> res = session.query(nxql, "NXQL", qf,
+                    0);
+            for (Serializable id : res.list) {
+                ids.add(id);
+                titles.add((String) session.getNodeById(id).getSimpleProperty(
+                        "tst:title").getValue());
+            }
+            cursor = res.cursor;
+        }
+        assertEquals(10, ids.size());
+        assertEquals(10, new HashSet<Serializable>(ids).size());
+        // the 4 NULL titles are contiguous, at the start or the end
+        int first = titles.indexOf(null);
+        int last = titles.lastIndexOf(null);
+        assertEquals(3, last - first);
+        assertTrue(first == 0 || last == 9);
+        List<String> nonNull = new ArrayList<String>(titles);
+        nonNull.removeAll(Collections.singleton(null));
+        List<String> sorted = new ArrayList<String>(nonNull);
+        Collections.sort(sorted);
+        if (nxql.endsWith("DESC")) {
+            Collections.reverse(sorted);
+        }
+        assertEquals(sorted, nonNull);
+    }
+
+    @Test
+    public void testQueryPlanCache() throws Exception {
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Node folder1 = session.addChildNode(root, "folder1", null, "TestDoc",
+                false);
+        Node folder2 = session.addChildNode(root, "folder2", null, "TestDoc",
+                false);
+        for (int i = 0; i < 3; i++) {
+            Node node = session.addChildNode(folder1, "doc" + i, null,
+                    "TestDoc", false);
+            node.setSimpleProperty("tst:title", "title" + i);
+            node.setSimpleProperty("tst:count", Long.valueOf(i));
+        }
+        Node node = session.addChildNode(folder2, "doc", null, "TestDoc",
+                false);
+        node.setSimpleProperty("tst:title", "title1");
+        node.setSimpleProperty("tst:count", Long.valueOf(1));
+        session.save();
+
+        // same query with different literals, the second ones reuse the plan
+        PartialList<Serializable> res;
+        String nxql = "SELECT * FROM TestDoc WHERE tst:title = '%s' AND ecm:isProxy = 0";
+        res = session.query(String.format(nxql, "title0"), QueryFilter.EMPTY,
+                false);
+        assertEquals(1, res.list.size());
+        res = session.query(String.format(nxql, "title1"), QueryFilter.EMPTY,
+                false);
+        assertEquals(2, res.list.size());
+        res = session.query(String.format(nxql, "foo"), QueryFilter.EMPTY,
+                false);
+        assertEquals(0, res.list.size());
+
+        nxql = "SELECT * FROM TestDoc WHERE ecm:parentId = '%s' AND tst:count >= %d";
+        res = session.query(
+                String.format(nxql, folder1.getId(), Integer.valueOf(1)),
+                QueryFilter.EMPTY, false);
+        assertEquals(2, res.list.size());
+        res = session.query(
+                String.format(nxql, folder2.getId(), Integer.valueOf(1)),
+                QueryFilter.EMPTY, false);
+        assertEquals(Collections.singletonList(node.getId()), res.list);
+        res = session.query(
+                String.format(nxql, folder1.getId(), Integer.valueOf(0)),
+                QueryFilter.EMPTY, false);
+        assertEquals(3, res.list.size());
+
+        // path-resolving queries are not cached
+        nxql = "SELECT * FROM TestDoc WHERE ecm:path STARTSWITH '%s'";
+        res = session.query(String.format(nxql, "/folder1"),
+                QueryFilter.EMPTY, false);
+        assertEquals(3, res.list.size());
+        res = session.query(String.format(nxql, "/folder2"),
+                QueryFilter.EMPTY, false);
+        assertEquals(1, res.list.size());
+    }
+
     @Test
     public void testQueryComplexWhere() throws Exception {
         if (this instanceof TestSQLBackendNet
@@ -4166,6 +4560,67 @@ public class TestSQLBackend extends SQLBackendTestCase {
         assertEquals(0, jdbc.executeCount);
     }
 
+    @Test
+    public void testCombinedReads() throws Exception {
+        // only PostgreSQL and SQL Server return several result sets
+        assumeTrue(DatabaseHelper.DATABASE instanceof DatabasePostgreSQL);
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        List<Serializable> ids = new ArrayList<Serializable>();
+        for (int i = 0; i < 5; i++) {
+            Node node = session.addChildNode(root, "doc" + i, null,
+                    "TestDoc", false);
+            node.setSimpleProperty("tst:title", "title" + i);
+            node.setCollectionProperty("tst:subjects", new String[] { "s" + i,
+                    "t" + i });
+            node.setCollectionProperty("tst:tags", new String[] { "tag" + i });
+            ids.add(node.getId());
+        }
+        session.save();
+        session.close();
+        int sequentialCount = readTestDocs(ids);
+
+        // reconfigure repository with combined reads
+        repository.close();
+        try {
+            combinedReadsEnabled = Boolean.TRUE;
+            repository = newRepository(-1, false);
+            int combinedCount = readTestDocs(ids);
+            // the tables of the fragments are read in one statement
+            assertTrue(combinedCount + " vs " + sequentialCount,
+                    combinedCount < sequentialCount);
+        } finally {
+            combinedReadsEnabled = null;
+        }
+    }
+
+    /**
+     * Reads and checks the documents created by testCombinedReads in a new
+     * session, and returns the number of statements executed.
+     */
+    protected int readTestDocs(List<Serializable> ids) throws Exception {
+        Session session = repository.getConnection();
+        JDBCConnection jdbc = (JDBCConnection) ((SoftRefCachingMapper) ((SessionImpl) session).getMapper()).mapper;
+        jdbc.countExecutes = true;
+        jdbc.executeCount = 0;
+        List<Node> nodes = session.getNodesByIds(ids);
+        assertEquals(ids.size(), nodes.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Node node = nodes.get(i);
+            assertEquals(ids.get(i), node.getId());
+            assertEquals("title" + i,
+                    node.getSimpleProperty("tst:title").getString());
+            assertEquals(Arrays.asList("s" + i, "t" + i),
+                    Arrays.asList(node.getCollectionProperty("tst:subjects").getStrings()));
+            assertEquals(Arrays.asList("tag" + i),
+                    Arrays.asList(node.getCollectionProperty("tst:tags").getStrings()));
+        }
+        int count = jdbc.executeCount;
+        jdbc.countExecutes = false;
+        session.close();
+        return count;
+    }
+
     @Test
     public void testPathDeep() throws Exception {
         Session session = repository.getConnection();
@@ -4229,4 +4684,116 @@ public class TestSQLBackend extends SQLBackendTestCase {
         assertEquals(4, res.list.size());
     }
 
+    @Test
+    public void testPathIndex() throws Exception {
+        repository.close();
+        RepositoryDescriptor descriptor = newDescriptor(-1, false);
+        descriptor.pathIndexEnabled = true;
+        repository = new RepositoryImpl(descriptor);
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Node node = session.addChildNode(root, "r", null, "TestDoc", false);
+        Node folder = session.addChildNode(root, "folder", null, "TestDoc",
+                false);
+        String path = "/r";
+        for (int i = 0; i < 60; i++) {
+            node = session.addChildNode(node, "node" + i, null, "TestDoc",
+                    false);
+            path += "/node" + i;
+        }
+        // complex property with a colliding name is ignored
+        session.addChildNode(node, "node60", null, "TestDoc", true);
+        Serializable id = node.getId();
+        session.save();
+
+        // resolved with a cold cache
+        ((SessionImpl) session).clearCaches();
+        node = session.getNodeByPath(path, null);
+        assertNotNull(node);
+        assertEquals(id, node.getId());
+        assertEquals(path, node.getPath());
+        assertNull(session.getNodeByPath(path + "/node60", null));
+        assertNull(session.getNodeByPath("/r/node0/foo/node2", null));
+        ((SessionImpl) session).clearCaches();
+        node = session.getNodeByPath("node2/node3", session.getNodeByPath(
+                "/r/node0/node1", null));
+        assertEquals(path.substring(0, path.indexOf("/node4")),
+                node.getPath());
+
+        // unsaved move and creation are seen
+        folder = session.getNodeByPath("/folder", null);
+        node = session.getNodeByPath("/r/node0/node1", null);
+        session.move(node, folder, "moved");
+        assertNull(session.getNodeByPath("/r/node0/node1", null));
+        node = session.getNodeByPath("/folder/moved/node2", null);
+        assertNotNull(node);
+        session.addChildNode(node, "new", null, "TestDoc", false);
+        assertNotNull(session.getNodeByPath("/folder/moved/node2/new", null));
+        session.save();
+        ((SessionImpl) session).clearCaches();
+        assertNull(session.getNodeByPath("/r/node0/node1", null));
+        assertNotNull(session.getNodeByPath("/folder/moved/node2/new", null));
+
+        // copy and remove are seen
+        node = session.getNodeByPath("/folder/moved/node2", null);
+        session.copy(node, session.getRootNode(), "copy");
+        assertNotNull(session.getNodeByPath("/copy/node3/node4", null));
+        session.removeNode(session.getNodeByPath("/folder/moved", null));
+        assertNull(session.getNodeByPath("/folder/moved/node2/new", null));
+        session.save();
+        ((SessionImpl) session).clearCaches();
+        assertNull(session.getNodeByPath("/folder/moved/node2/new", null));
+        assertNotNull(session.getNodeByPath("/copy/new", null));
+    }
+
+    @Test
+    public void testHierarchyCache() throws Exception {
+        HierarchyCache cache = ((RepositoryImpl) repository).getHierarchyCache();
+        assertNotNull(cache);
+        Session session1 = repository.getConnection();
+        Node root = session1.getRootNode();
+        Node foo = session1.addChildNode(root, "foo", null, "TestDoc", false);
+        Node bar = session1.addChildNode(foo, "bar", null, "TestDoc", false);
+        Node gee = session1.addChildNode(bar, "gee", null, "TestDoc", false);
+        Node moo = session1.addChildNode(bar, "moo", null, "TestDoc", false);
+        session1.save();
+
+        // ancestors are cached by the first path computation
+        Session session2 = repository.getConnection();
+        assertEquals("/foo/bar/gee",
+                session2.getNodeById(gee.getId()).getPath());
+        assertTrue(cache.getSize() >= 3);
+        // then used for the siblings, even with a cold session
+        ((SessionImpl) session2).context.pristine.clear();
+        long hits = cache.hits.getCount();
+        assertEquals("/foo/bar/moo",
+                session2.getNodeById(moo.getId()).getPath());
+        assertTrue(cache.hits.getCount() > hits);
+
+        // rename of an ancestor in another session
+        session1.move(foo, root, "foo2");
+        // not committed yet
+        session2.save();
+        assertEquals("/foo/bar/moo",
+                session2.getNodeById(moo.getId()).getPath());
+        session1.save();
+        session2.save();
+        assertEquals("/foo2/bar/moo",
+                session2.getNodeById(moo.getId()).getPath());
+        assertEquals("/foo2/bar/gee",
+                session2.getNodeById(gee.getId()).getPath());
+
+        // uncommitted move in the session itself
+        session2.move(session2.getNodeById(bar.getId()),
+                session2.getRootNode(), "bar2");
+        assertEquals("/bar2/gee",
+                session2.getNodeById(gee.getId()).getPath());
+        assertEquals("/foo2/bar/gee",
+                session1.getNodeById(gee.getId()).getPath());
+        session2.save();
+        session1.save();
+        assertEquals("/bar2/gee",
+                session1.getNodeById(gee.getId()).getPath());
+    }
+
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+import org.nuxeo.ecm.core.storage.sql.jdbc.JDBCRowMapper;
+
+/**
+ * Tests of the bulk insert strategies (multi-row INSERT, COPY), and a
+ * benchmark comparing them to JDBC batching for the current database.
+ * <p>
+ * The benchmark is only run if the system property
+ * {@value #BENCHMARK_PROPERTY} is set to {@code true}.
+ *
+ * @since 5.9.1
+ */
+public class TestSQLBackendBulkInsert extends SQLBackendTestCase {
+
+    private static final Log log = LogFactory.getLog(TestSQLBackendBulkInsert.class);
+
+    public static final String BENCHMARK_PROPERTY = "nuxeo.test.bulkinsert.benchmark";
+
+    protected static final String TRICKY_TITLE = "a\tb\\c\nd'e\"f{g}h,i\rj";
+
+    protected boolean multiRow = true;
+
+    protected boolean copy = false;
+
+    @Override
+    protected RepositoryDescriptor newDescriptor(long clusteringDelay,
+            boolean fulltextDisabled) {
+        RepositoryDescriptor descriptor = super.newDescriptor(clusteringDelay,
+                fulltextDisabled);
+        descriptor.bulkInsertsMultiRow = multiRow;
+        descriptor.bulkInsertsCopy = copy;
+        return descriptor;
+    }
+
+    protected void reopenRepository(boolean multiRow, boolean copy)
+            throws Exception {
+        closeRepository();
+        this.multiRow = multiRow;
+        this.copy = copy;
+        repository = newRepository(-1, false);
+    }
+
+    protected static Calendar getCreated(int i) {
+        return new GregorianCalendar(2008, Calendar.JULY, 14, 12, 34, i % 60);
+    }
+
+    protected void createNodes(String folderName, int n) throws Exception {
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Node folder = session.addChildNode(root, folderName, null, "TestDoc",
+                false);
+        for (int i = 0; i < n; i++) {
+            Node node = session.addChildNode(folder, "doc" + i, null,
+                    "TestDoc", false);
+            node.setSimpleProperty("tst:title", TRICKY_TITLE + i);
+            node.setSimpleProperty("tst:count", Long.valueOf(i));
+            node.setSimpleProperty("tst:rate", Double.valueOf(i + 0.5));
+            node.setSimpleProperty("tst:created", getCreated(i));
+        }
+        session.save();
+        session.close();
+    }
+
+    protected void checkNodes(String folderName, int n) throws Exception {
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Node folder = session.getChildNode(root, folderName, false);
+        assertNotNull(folder);
+        assertEquals(n, session.getChildren(folder, null, false).size());
+        for (int i = 0; i < n; i += Math.max(1, n / 50)) {
+            Node node = session.getChildNode(folder, "doc" + i, false);
+            assertNotNull("doc" + i, node);
+            assertEquals(TRICKY_TITLE + i,
+                    node.getSimpleProperty("tst:title").getString());
+            assertEquals(Long.valueOf(i),
+                    node.getSimpleProperty("tst:count").getValue());
+            assertEquals(Double.valueOf(i + 0.5),
+                    node.getSimpleProperty("tst:rate").getValue());
+            Calendar created = (Calendar) node.getSimpleProperty(
+                    "tst:created").getValue();
+            assertEquals(getCreated(i).getTimeInMillis(),
+                    created.getTimeInMillis());
+        }
+        session.close();
+    }
+
+    @Test
+    public void testMultiRowInsert() throws Exception {
+        // not a multiple of the rows per statement, to have a remainder
+        int n = 257;
+        createNodes("folder", n);
+        // check with a fresh repository to avoid the caches
+        reopenRepository(true, false);
+        checkNodes("folder", n);
+    }
+
+    @Test
+    public void testCopyInsert() throws Exception {
+        assumeTrue(DatabaseHelper.DATABASE instanceof DatabasePostgreSQL);
+        reopenRepository(true, true);
+        int n = JDBCRowMapper.COPY_INSERT_MIN_ROWS + 1;
+        createNodes("folder", n);
+        reopenRepository(true, false);
+        checkNodes("folder", n);
+    }
+
+    @Test
+    public void testBenchmark() throws Exception {
+        assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+        int n = 5000;
+        String database = DatabaseHelper.DATABASE.getClass().getSimpleName();
+        benchmark(database, "batch", false, false, n);
+        benchmark(database, "multi-row", true, false, n);
+        if (DatabaseHelper.DATABASE instanceof DatabasePostgreSQL) {
+            benchmark(database, "copy", false, true, n);
+        }
+    }
+
+    protected void benchmark(String database, String strategy,
+            boolean multiRow, boolean copy, int n) throws Exception {
+        reopenRepository(multiRow, copy);
+        long t0 = System.currentTimeMillis();
+        createNodes("folder-" + strategy, n);
+        long elapsed = Math.max(1, System.currentTimeMillis() - t0);
+        log.warn(database + " bulk insert " + strategy + ": " + n
+                + " nodes in " + elapsed + " ms, " + (n * 1000L / elapsed)
+                + " nodes/s");
+        checkNodes("folder-" + strategy, n);
+    }
+
+}
@@ -710,6 +710,44 @@ public class TestSQLRepositoryAPI extends SQLRepositoryTestCase {
         assertEquals(0, docs.size());
     }
 
+    @Test
+    public void testGetDocuments() throws ClientException {
+        DocumentModel root = session.getRootDocument();
+        DocumentModel folder = session.createDocumentModel("/", "folder",
+                "Folder");
+        folder = session.createDocument(folder);
+        DocumentModel doc = session.createDocumentModel("/folder", "doc",
+                "File");
+        doc = session.createDocument(doc);
+        DocumentRef verRef = doc.checkIn(VersioningOption.MINOR, null);
+        DocumentModel proxy = session.createProxy(verRef, root.getRef());
+        session.save();
+        closeSession();
+        openSession();
+
+        DocumentModelList docs = session.getDocuments(new DocumentRef[] {
+                proxy.getRef(), new IdRef("nosuchid"), verRef,
+                new PathRef("/folder/doc"), folder.getRef() });
+        assertEquals(4, docs.size());
+        DocumentModel p = docs.get(0);
+        assertTrue(p.isProxy());
+        assertEquals(root.getRef(), p.getParentRef());
+        assertEquals(verRef.reference(), p.getSourceId());
+        DocumentModel v = docs.get(1);
+        assertTrue(v.isVersion());
+        assertEquals(doc.getId(), v.getSourceId());
+        assertEquals(folder.getRef(), v.getParentRef());
+        assertEquals("/folder/doc", v.getPathAsString());
+        DocumentModel d = docs.get(2);
+        assertEquals(doc.getId(), d.getId());
+        assertEquals(folder.getRef(), d.getParentRef());
+        assertEquals("/folder", docs.get(3).getPathAsString());
+
+        // proxy children
+        DocumentModelList children = session.getChildren(root.getRef());
+        assertEquals(2, children.size());
+    }
+
     @Test
     public void testGetChildrenIteratorRoot() throws ClientException {
         DocumentModel root = session.getRootDocument();
@@ -1752,6 +1790,77 @@ public class TestSQLRepositoryAPI extends SQLRepositoryTestCase {
         assertTrue(session.exists(childFile.getRef()));
     }
 
+    @Test
+    public void testCreateDocumentsBulk() throws ClientException {
+        DocumentModel folder1 = session.createDocument(session.createDocumentModel(
+                "/", "folder1", "Folder"));
+        DocumentModel folder2 = session.createDocument(session.createDocumentModel(
+                "/", "folder2", "Folder"));
+        session.createDocument(session.createDocumentModel("/folder1",
+                "existing", "File"));
+        session.save();
+
+        DocumentModel[] docModels = {
+                session.createDocumentModel("/folder1", "doc", "File"),
+                session.createDocumentModel("/folder2", "doc", "File"),
+                session.createDocumentModel("/folder1", "doc", "File"),
+                session.createDocumentModel("/folder1", "existing", "File") };
+        DocumentModel[] docs = session.createDocument(docModels);
+        assertEquals(4, docs.length);
+        assertEquals("/folder1/doc", docs[0].getPathAsString());
+        assertEquals(folder2.getRef(), docs[1].getParentRef());
+        assertEquals("/folder2/doc", docs[1].getPathAsString());
+        // name collisions resolved
+        assertEquals(folder1.getRef(), docs[2].getParentRef());
+        assertFalse("doc".equals(docs[2].getName()));
+        assertFalse("existing".equals(docs[3].getName()));
+        session.save();
+        assertEquals(4, session.getChildren(folder1.getRef()).size());
+
+        // missing folder
+        docModels = new DocumentModel[] {
+                session.createDocumentModel("/folder2", "other", "File"),
+                session.createDocumentModel("/nosuchfolder", "doc", "File") };
+        try {
+            session.createDocument(docModels);
+            fail();
+        } catch (ClientException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testCreateDocumentsBulkWithNewFolder() throws ClientException {
+        DocumentModel[] docModels = {
+                session.createDocumentModel("/", "folder", "OrderedFolder"),
+                session.createDocumentModel("/folder", "doc1", "File"),
+                session.createDocumentModel("/folder", "doc2", "File"),
+                session.createDocumentModel("/folder", "doc1", "File") };
+        DocumentModel[] docs = session.createDocument(docModels);
+        assertEquals(4, docs.length);
+        DocumentModel folder = docs[0];
+        assertEquals(folder.getRef(), docs[1].getParentRef());
+        assertEquals("/folder/doc1", docs[1].getPathAsString());
+        assertEquals("/folder/doc2", docs[2].getPathAsString());
+        assertFalse("doc1".equals(docs[3].getName()));
+        session.save();
+
+        // more children in the saved folder, appended in order
+        docModels = new DocumentModel[] {
+                session.createDocumentModel("/folder", "doc3", "File"),
+                session.createDocumentModel("/folder", "doc2", "File") };
+        docs = session.createDocument(docModels);
+        assertEquals("/folder/doc3", docs[0].getPathAsString());
+        assertFalse("doc2".equals(docs[1].getName()));
+        session.save();
+        DocumentModelList children = session.getChildren(folder.getRef());
+        assertEquals(5, children.size());
+        assertEquals("doc1", children.get(0).getName());
+        assertEquals("doc2", children.get(1).getName());
+        assertEquals("doc3", children.get(3).getName());
+        assertEquals(docs[1].getRef(), children.get(4).getRef());
+    }
+
     @Test
     public void testGetDataModel() throws ClientException {
         DocumentModel root = session.getRootDocument();
@@ -784,6 +784,58 @@ public class TestSQLRepositoryQuery extends SQLRepositoryTestCase {
         assertTrue(dml.totalSize() < 0);
     }
 
+    @Test
+    public void testQueryLimitsPostFiltered() throws Exception {
+        DocumentModelList dml;
+        createDocs();
+
+        String sql = "SELECT * FROM Document ORDER BY ecm:name";
+        // not a FacetFilter, so done by hand after the query
+        Filter filter = new Filter() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public boolean accept(DocumentModel docModel) {
+                return !docModel.getName().equals("testfile2");
+            }
+        };
+
+        dml = session.query(sql, filter, 0, 0, -1);
+        assertEquals(6, dml.size());
+        assertEquals(6, dml.totalSize());
+
+        dml = session.query(sql, filter, 2, 2, -1);
+        assertEquals(2, dml.size());
+        assertEquals(6, dml.totalSize());
+        assertEquals("testfile4", dml.get(0).getName());
+        assertEquals("testfolder1", dml.get(1).getName());
+
+        dml = session.query(sql, filter, 2, 10, -1);
+        assertEquals(0, dml.size());
+        assertEquals(6, dml.totalSize());
+
+        // no count, stops after the page
+        dml = session.query(sql, filter, 2, 2, 0);
+        assertEquals(2, dml.size());
+        assertEquals(2, dml.totalSize());
+        assertEquals("testfile4", dml.get(0).getName());
+
+        // count up to n
+        dml = session.query(sql, filter, 2, 0, 10);
+        assertEquals(2, dml.size());
+        assertEquals(6, dml.totalSize());
+
+        dml = session.query(sql, filter, 2, 0, 3);
+        assertEquals(2, dml.size());
+        assertEquals("testfile1", dml.get(0).getName());
+        assertEquals("testfile3", dml.get(1).getName());
+        assertTrue(dml.totalSize() < 0);
+
+        dml = session.query(sql, filter, 0, 0, 5);
+        assertEquals(6, dml.size());
+        assertTrue(dml.totalSize() < 0);
+    }
+
     // from TestSQLWithPath
     @Test
     public void testEcmPathEqual() throws Exception {
@@ -46,6 +46,7 @@ import org.nuxeo.ecm.core.api.DocumentRef;
 import org.nuxeo.ecm.core.api.DocumentSecurityException;
 import org.nuxeo.ecm.core.api.PathRef;
 import org.nuxeo.ecm.core.api.impl.DocumentModelImpl;
+import org.nuxeo.ecm.core.api.impl.UserPrincipal;
 import org.nuxeo.ecm.core.api.security.ACE;
 import org.nuxeo.ecm.core.api.security.ACL;
 import org.nuxeo.ecm.core.api.security.ACP;
@@ -671,4 +672,72 @@ public class TestSQLRepositorySecurity extends SQLRepositoryTestCase {
             closeSession(bobSession);
         }
     }
+
+    @Test
+    public void testMergedACPCacheInvalidation() throws ClientException {
+        DocumentModel root = session.getRootDocument();
+        DocumentModel folder1 = new DocumentModelImpl(root.getPathAsString(),
+                "folder1", "Folder");
+        folder1 = session.createDocument(folder1);
+        DocumentModel folder2 = new DocumentModelImpl(root.getPathAsString(),
+                "folder2", "Folder");
+        folder2 = session.createDocument(folder2);
+        DocumentModel doc = new DocumentModelImpl(folder1.getPathAsString(),
+                "doc", "File");
+        doc = session.createDocument(doc);
+        ACP acp = new ACPImpl();
+        ACL acl = new ACLImpl();
+        acl.add(new ACE("joe", READ, true));
+        acp.addACL(acl);
+        folder1.setACP(acp, true);
+        session.save();
+
+        CoreSession joeSession = openSessionAs("joe");
+        try {
+            DocumentRef ref = doc.getRef();
+            assertTrue(joeSession.hasPermission(ref, READ));
+            // computed twice, the second one from the cache
+            assertTrue(joeSession.hasPermission(ref, READ));
+            assertFalse(joeSession.hasPermission(ref, WRITE));
+
+            // ACL change on an ancestor in another session
+            acp = new ACPImpl();
+            acl = new ACLImpl();
+            acl.add(new ACE("joe", WRITE, true));
+            acp.addACL(acl);
+            folder1.setACP(acp, true);
+            session.save();
+            joeSession.save(); // process invalidations
+            assertFalse(joeSession.hasPermission(ref, READ));
+            assertTrue(joeSession.hasPermission(ref, WRITE));
+
+            // move under another ancestor
+            acp = new ACPImpl();
+            acl = new ACLImpl();
+            acl.add(new ACE("joe", READ, true));
+            acp.addACL(acl);
+            folder2.setACP(acp, true);
+            session.move(ref, folder2.getRef(), null);
+            session.save();
+            joeSession.save(); // process invalidations
+            assertTrue(joeSession.hasPermission(ref, READ));
+            assertFalse(joeSession.hasPermission(ref, WRITE));
+
+            // uncommitted ACL change seen by the session itself
+            acp = new ACPImpl();
+            acl = new ACLImpl();
+            acl.add(new ACE(EVERYONE, EVERYTHING, false));
+            acp.addACL(acl);
+            doc = session.getDocument(ref);
+            doc.setACP(acp, true);
+            assertFalse(session.hasPermission(new UserPrincipal("joe", null,
+                    false, false), ref, READ));
+            assertTrue(joeSession.hasPermission(ref, READ));
+            session.save();
+            joeSession.save(); // process invalidations
+            assertFalse(joeSession.hasPermission(ref, READ));
+        } finally {
+            closeSession(joeSession);
+        }
+    }
 }
@@ -19,9 +19,13 @@ package org.nuxeo.ecm.core.storage.sql;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
@@ -59,6 +63,65 @@ public class TestXORBinaryManager extends NXRuntimeTestCase {
         assertEquals(CONTENT, IOUtils.toString(binary.getStream(), "UTF-8"));
     }
 
+    @Test
+    public void testXORBinaryManagerRandomAccess() throws Exception {
+        XORBinaryManager binaryManager = new XORBinaryManager();
+        RepositoryDescriptor descriptor = new RepositoryDescriptor();
+        descriptor.binaryManagerKey = "abc";
+        binaryManager.initialize(descriptor);
+        byte[] bytes = CONTENT.getBytes("UTF-8");
+        Binary binary = binaryManager.getBinary(new ByteArrayInputStream(bytes));
+
+        // positional reads at offsets not aligned on the key
+        byte[] buf = new byte[4];
+        assertEquals(4, binary.read(5, buf, 0, 4));
+        assertEquals("is a", new String(buf, "UTF-8"));
+        assertEquals(4, binary.read(10, buf, 0, 4));
+        assertEquals("file", new String(buf, "UTF-8"));
+
+        // channel, going backwards
+        SeekableByteChannel channel = binary.getChannel();
+        try {
+            channel.position(15);
+            ByteBuffer bb = ByteBuffer.allocate(2);
+            assertEquals(2, channel.read(bb));
+            assertEquals("au", new String(bb.array(), "UTF-8"));
+            channel.position(0);
+            bb.clear();
+            assertEquals(2, channel.read(bb));
+            assertEquals("th", new String(bb.array(), "UTF-8"));
+        } finally {
+            channel.close();
+        }
+
+        // a stream and a channel read concurrently
+        InputStream in = binary.getStream();
+        channel = binary.getChannel();
+        try {
+            buf = new byte[5];
+            assertEquals(5, in.read(buf));
+            assertEquals("this ", new String(buf, "UTF-8"));
+            // not a multiple of the key length
+            channel.position(10);
+            ByteBuffer bb = ByteBuffer.allocate(3);
+            assertEquals(3, channel.read(bb));
+            assertEquals("fil", new String(bb.array(), "UTF-8"));
+            assertEquals(5, in.read(buf));
+            assertEquals("is a ", new String(buf, "UTF-8"));
+        } finally {
+            channel.close();
+            in.close();
+        }
+
+        // the stored file is scrambled, it cannot be mapped
+        try {
+            binary.map(0, bytes.length);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // ok
+        }
+    }
+
     protected static int countFiles(File dir) {
         int n = 0;
         for (File f : dir.listFiles()) {
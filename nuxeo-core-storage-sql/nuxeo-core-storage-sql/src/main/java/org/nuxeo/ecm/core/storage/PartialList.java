@@ -28,6 +28,13 @@ public class PartialList<E> implements Serializable {
 
     public final long totalSize;
 
+    /**
+     * The keyset cursor to get the next page, or {@code null}.
+     *
+     * @since 5.9.1
+     */
+    public final String cursor;
+
     /**
      * Constructs a partial list.
      * <p>
@@ -37,8 +44,24 @@ public class PartialList<E> implements Serializable {
      * @param totalSize the total size
      */
     public PartialList(List<E> list, long totalSize) {
+        this(list, totalSize, null);
+    }
+
+    /**
+     * Constructs a partial list with a keyset cursor.
+     * <p>
+     * The list MUST be {@link Serializable}.
+     *
+     * @param list the list (MUST be {@link Serializable})
+     * @param totalSize the total size
+     * @param cursor the cursor to get the next page, or {@code null} if there
+     *            is no next page
+     * @since 5.9.1
+     */
+    public PartialList(List<E> list, long totalSize, String cursor) {
         this.list = list;
         this.totalSize = totalSize;
+        this.cursor = cursor;
     }
 
 }
@@ -17,6 +17,11 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -85,14 +90,22 @@ abstract class AbstractBinaryManager implements BinaryManager {
 
     public static final int MAX_BUF_SIZE = 64 * 1024; // 64 kB
 
-    protected String storeAndDigest(InputStream in, OutputStream out)
-            throws IOException {
-        MessageDigest digest;
+    /**
+     * Gets a new {@link MessageDigest} for the configured digest algorithm.
+     *
+     * @since 5.9.1
+     */
+    protected MessageDigest getMessageDigest() throws IOException {
         try {
-            digest = MessageDigest.getInstance(descriptor.digest);
+            return MessageDigest.getInstance(descriptor.digest);
         } catch (NoSuchAlgorithmException e) {
             throw (IOException) new IOException().initCause(e);
         }
+    }
+
+    protected String storeAndDigest(InputStream in, OutputStream out)
+            throws IOException {
+        MessageDigest digest = getMessageDigest();
 
         int size = in.available();
         if (size == 0) {
@@ -193,6 +206,18 @@ abstract class AbstractBinaryManager implements BinaryManager {
             return new ScrambledStreamSource(file, scrambler);
         }
 
+        @Override
+        public SeekableByteChannel getChannel() throws IOException {
+            return new ScrambledFileChannel(FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ), scrambler);
+        }
+
+        @Override
+        public ByteBuffer map(long position, long size) {
+            throw new UnsupportedOperationException(
+                    "Cannot map a scrambled binary");
+        }
+
     }
 
     /**
@@ -221,7 +246,7 @@ abstract class AbstractBinaryManager implements BinaryManager {
 
     /**
      * A {@link FileInputStream} that is unscrambled on read using a
-     * {@link BinaryScrambler}.
+     * {@link BinaryScrambler}, which is repositioned before each read.
      */
     public static class ScrambledFileInputStream extends InputStream {
 
@@ -231,11 +256,22 @@ abstract class AbstractBinaryManager implements BinaryManager {
 
         protected final byte[] onebyte = new byte[1];
 
+        protected long pos;
+
         protected ScrambledFileInputStream(File file, BinaryScrambler scrambler)
                 throws IOException {
             is = new FileInputStream(file);
             this.scrambler = scrambler;
-            scrambler.reset();
+        }
+
+        protected void unscramble(byte[] b, int off, int n) {
+            // the scrambler may be shared with other streams and channels
+            synchronized (scrambler) {
+                scrambler.reset();
+                scrambler.skip(pos);
+                scrambler.unscrambleBuffer(b, off, n);
+            }
+            pos += n;
         }
 
         @Override
@@ -243,7 +279,7 @@ abstract class AbstractBinaryManager implements BinaryManager {
             int b = is.read();
             if (b != -1) {
                 onebyte[0] = (byte) b;
-                scrambler.unscrambleBuffer(onebyte, 0, 1);
+                unscramble(onebyte, 0, 1);
                 b = onebyte[0];
             }
             return b;
@@ -258,7 +294,7 @@ abstract class AbstractBinaryManager implements BinaryManager {
         public int read(byte[] b, int off, int len) throws IOException {
             int n = is.read(b, off, len);
             if (n != -1) {
-                scrambler.unscrambleBuffer(b, off, n);
+                unscramble(b, off, n);
             }
             return n;
         }
@@ -266,7 +302,7 @@ abstract class AbstractBinaryManager implements BinaryManager {
         @Override
         public long skip(long n) throws IOException {
             n = is.skip(n);
-            scrambler.skip(n);
+            pos += n;
             return n;
         }
 
@@ -281,5 +317,81 @@ abstract class AbstractBinaryManager implements BinaryManager {
         }
     }
 
+    /**
+     * A {@link SeekableByteChannel} on a file that is unscrambled on read
+     * using a {@link BinaryScrambler}, which is repositioned before each read.
+     *
+     * @since 5.9.1
+     */
+    public static class ScrambledFileChannel implements SeekableByteChannel {
+
+        protected final FileChannel channel;
+
+        protected final BinaryScrambler scrambler;
+
+        protected final byte[] buf = new byte[MAX_BUF_SIZE];
+
+        public ScrambledFileChannel(FileChannel channel,
+                BinaryScrambler scrambler) {
+            this.channel = channel;
+            this.scrambler = scrambler;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            long position = channel.position();
+            int len = Math.min(dst.remaining(), buf.length);
+            int n = channel.read(ByteBuffer.wrap(buf, 0, len));
+            if (n > 0) {
+                // the scrambler may be shared with other streams and
+                // channels
+                synchronized (scrambler) {
+                    scrambler.reset();
+                    scrambler.skip(position);
+                    scrambler.unscrambleBuffer(buf, 0, n);
+                }
+                dst.put(buf, 0, n);
+            }
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition)
+                throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
 
 }
@@ -17,6 +17,12 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
 
 import org.nuxeo.runtime.services.streaming.FileSource;
 import org.nuxeo.runtime.services.streaming.StreamSource;
@@ -102,6 +108,101 @@ public class Binary implements Serializable {
         return new FileInputStream(file);
     }
 
+    /**
+     * Gets a channel for random access to the binary.
+     *
+     * @return a read-only channel, positioned at the start
+     * @throws IOException
+     * @since 5.9.1
+     */
+    public SeekableByteChannel getChannel() throws IOException {
+        if (file == null) {
+            throw new UnsupportedOperationException("No file for binary "
+                    + digest);
+        }
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Reads bytes at a given position of the binary, without reading the
+     * bytes before it.
+     *
+     * @param position the position in the binary
+     * @param buf the buffer into which bytes are read
+     * @param off the offset in the buffer
+     * @param len the number of bytes to read
+     * @return the number of bytes read, less than {@code len} only if the end
+     *         of the binary is reached, or {@code -1} if the position is at or
+     *         after the end
+     * @throws IOException
+     * @since 5.9.1
+     */
+    public int read(long position, byte[] buf, int off, int len)
+            throws IOException {
+        SeekableByteChannel channel = getChannel();
+        try {
+            channel.position(position);
+            return readFully(channel, ByteBuffer.wrap(buf, off, len));
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Maps a range of the binary in memory, read-only. The range is truncated
+     * at the end of the binary, and is empty if it starts after the end.
+     * <p>
+     * This is only possible if the binary is stored unscrambled in a local
+     * file.
+     *
+     * @param position the position in the binary
+     * @param size the size of the range, at most {@link Integer#MAX_VALUE}
+     * @return the read-only buffer
+     * @throws IOException
+     * @throws UnsupportedOperationException if the binary is not stored
+     *             unscrambled in a local file
+     * @since 5.9.1
+     */
+    public ByteBuffer map(long position, long size) throws IOException {
+        if (file == null) {
+            throw new UnsupportedOperationException("No file for binary "
+                    + digest);
+        }
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        try {
+            size = Math.min(size, channel.size() - position);
+            if (size <= 0) {
+                // mapping outside of the file is unspecified
+                return ByteBuffer.allocate(0).asReadOnlyBuffer();
+            }
+            // the mapping stays valid after the channel is closed
+            return channel.map(MapMode.READ_ONLY, position, size);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads from a channel until the buffer is full or the end is reached.
+     *
+     * @return the number of bytes read, or {@code -1} if nothing could be read
+     *         because the end was reached
+     * @since 5.9.1
+     */
+    protected static int readFully(ReadableByteChannel channel, ByteBuffer buf)
+            throws IOException {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf);
+            if (n == -1) {
+                return total == 0 ? -1 : total;
+            }
+            total += n;
+        }
+        return total;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + '(' + digest + ')';
@@ -18,6 +18,8 @@ package org.nuxeo.ecm.core.storage.sql;
 
 import java.io.File;
 
+import org.nuxeo.runtime.api.Framework;
+
 /**
  *
  * @author "Stephane Lacoin (aka matic) slacoin@nuxeo.com"
@@ -26,17 +28,40 @@ import java.io.File;
  */
 public abstract class BinaryCachingManager extends AbstractBinaryManager {
 
+    /**
+     * Framework property to prefetch in the background the binaries not in
+     * the cache when they are loaded, for instance with their document.
+     * Default is {@code false}.
+     *
+     * @since 5.9.1
+     */
+    public static final String PREFETCH_PROP = "org.nuxeo.vcs.binarycache.prefetch";
+
     public abstract BinaryFileCache fileCache();
 
     @Override
     public Binary getBinary(String digest) {
-        // Check in the cache
-        File file = fileCache().getFile(digest);
+        // Check in the cache, the file is only fetched when read
+        File file = fileCache().getCachedFile(digest);
         if (file == null) {
+            if (Boolean.parseBoolean(Framework.getProperty(PREFETCH_PROP))) {
+                prefetch(digest);
+            }
             return new LazyBinary(digest, fileCache(), repositoryName);
         } else {
             return new Binary(file, digest, repositoryName);
         }
     }
 
+    /**
+     * Fetches a binary in the background into the cache, for instance when it
+     * is expected to be read soon.
+     *
+     * @param digest the binary digest
+     * @since 5.9.1
+     */
+    public void prefetch(String digest) {
+        fileCache().prefetch(digest);
+    }
+
 }
@@ -25,6 +25,17 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.LogFactory;
@@ -33,11 +44,45 @@ import org.nuxeo.common.file.LRUFileCache;
 /**
  * An abstract base class to implement a {@link FileCache} based on
  * {@link #fetchFile} and {@link #fetchLength} methods.
+ * <p>
+ * Concurrent requests for the same missing file share a single fetch, files
+ * can be prefetched in the background, and hits, misses and fetched bytes are
+ * counted.
  */
 public abstract class BinaryFileCache extends LRUFileCache {
 
     protected static final String LEN_DIGEST_SUFFIX = "-len";
 
+    /**
+     * Number of threads fetching files in the background.
+     *
+     * @since 5.9.1
+     */
+    public static final int PREFETCH_THREADS = 2;
+
+    /**
+     * Maximum number of prefetches waiting for a thread, further ones are
+     * dropped.
+     *
+     * @since 5.9.1
+     */
+    public static final int PREFETCH_QUEUE_SIZE = 1000;
+
+    /** Fetches in progress, shared by the threads requesting the same key. */
+    protected final ConcurrentMap<String, FutureTask<File>> fetches = new ConcurrentHashMap<String, FutureTask<File>>();
+
+    protected ExecutorService prefetchExecutor;
+
+    protected final AtomicLong hits = new AtomicLong();
+
+    protected final AtomicLong misses = new AtomicLong();
+
+    protected final AtomicLong sharedFetches = new AtomicLong();
+
+    protected final AtomicLong bytesFetched = new AtomicLong();
+
+    protected final AtomicLong prefetches = new AtomicLong();
+
     public BinaryFileCache(File dir, long maxSize) {
         super(dir, maxSize);
     }
@@ -128,20 +173,94 @@ public abstract class BinaryFileCache extends LRUFileCache {
         return fetchLength(key);
     }
 
+    /**
+     * Gets a file from the cache, without fetching it from storage.
+     *
+     * @return the file, or {@code null} if not in the cache
+     * @since 5.9.1
+     */
+    public File getCachedFile(String key) {
+        File file = super.getFile(key);
+        if (file != null) {
+            hits.incrementAndGet();
+        }
+        return file;
+    }
+
+    /**
+     * Gets a file from the cache, or fetches it from storage.
+     * <p>
+     * Concurrent calls for the same missing key share a single fetch.
+     */
     @Override
-    public File getFile(String key) {
+    public File getFile(final String key) {
 
         // get file from cache
         File file = super.getFile(key);
         if (file != null) {
+            hits.incrementAndGet();
+            return file;
+        }
+
+        // fetch file from storage, or wait for the fetch in progress
+        FutureTask<File> fetch = new FutureTask<File>(new Callable<File>() {
+            @Override
+            public File call() {
+                return fetchAndPutFile(key);
+            }
+        });
+        FutureTask<File> previous = fetches.putIfAbsent(key, fetch);
+        if (previous == null) {
+            try {
+                fetch.run();
+            } finally {
+                fetches.remove(key, fetch);
+            }
+        } else {
+            sharedFetches.incrementAndGet();
+            fetch = previous;
+        }
+        try {
+            return fetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LogFactory.getLog(BinaryFileCache.class).error(
+                    "Interrupted while fetching " + key + " on storage", e);
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Fetches a file from storage and puts it in the cache.
+     *
+     * @return the file, or {@code null} if missing from storage
+     * @since 5.9.1
+     */
+    protected File fetchAndPutFile(String key) {
+
+        // may have been fetched by another thread since the cache check
+        File file = super.getFile(key);
+        if (file != null) {
+            hits.incrementAndGet();
             return file;
         }
 
         // fetch file from storage
+        misses.incrementAndGet();
         File tmp = null;
         try {
             tmp = getTempFile();
             if (fetchFile(key, tmp)) {
+                bytesFetched.addAndGet(tmp.length());
                 file = putFile(key, tmp);
                 return file; // fetched file from storage
             }
@@ -155,6 +274,93 @@ public abstract class BinaryFileCache extends LRUFileCache {
             tmp.delete();
         }
         return null;
+    }
 
+    /**
+     * Fetches a file from storage in the background, if it's not already in
+     * the cache or being fetched.
+     * <p>
+     * Prefetches are dropped if too many are already waiting.
+     *
+     * @param key identify the file in cache
+     * @since 5.9.1
+     */
+    public void prefetch(final String key) {
+        if (fetches.containsKey(key) || super.getFile(key) != null) {
+            return;
+        }
+        getPrefetchExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                prefetches.incrementAndGet();
+                getFile(key);
+            }
+        });
+    }
+
+    protected synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    PREFETCH_THREADS, PREFETCH_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(PREFETCH_QUEUE_SIZE),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r,
+                                    "Nuxeo-BinaryFileCache-Prefetch");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, new ThreadPoolExecutor.DiscardPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            prefetchExecutor = executor;
+        }
+        return prefetchExecutor;
+    }
+
+    /**
+     * Gets the number of files found in the cache.
+     *
+     * @since 5.9.1
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of files fetched from storage, including missing ones.
+     *
+     * @since 5.9.1
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of requests that waited for a fetch already in progress
+     * instead of fetching the file again.
+     *
+     * @since 5.9.1
+     */
+    public long getSharedFetches() {
+        return sharedFetches.get();
+    }
+
+    /**
+     * Gets the number of bytes fetched from storage.
+     *
+     * @since 5.9.1
+     */
+    public long getBytesFetched() {
+        return bytesFetched.get();
+    }
+
+    /**
+     * Gets the number of prefetches run.
+     *
+     * @since 5.9.1
+     */
+    public long getPrefetches() {
+        return prefetches.get();
     }
 }
@@ -67,7 +67,8 @@ public interface BinaryGarbageCollector {
     /**
      * Gets the status of the binaries to GC and of those that won't be.
      * <p>
-     * Available after {@link #stop}.
+     * Available after {@link #stop}. During a GC, it may also be used to
+     * follow its progress.
      *
      * @return the status
      */
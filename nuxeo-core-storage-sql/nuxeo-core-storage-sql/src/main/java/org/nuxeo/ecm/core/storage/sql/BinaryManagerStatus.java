@@ -32,6 +32,15 @@ public class BinaryManagerStatus {
 
     public long sizeBinariesGC;
 
+    /** @since 5.9.1 */
+    public long numBinariesMarked;
+
+    /** @since 5.9.1 */
+    public long numShards;
+
+    /** @since 5.9.1 */
+    public long numShardsSwept;
+
     /**
      * The GC duration, in milliseconds
      */
@@ -67,4 +76,32 @@ public class BinaryManagerStatus {
         return sizeBinariesGC;
     }
 
+    /**
+     * The number of binaries marked as in use so far.
+     *
+     * @since 5.9.1
+     */
+    public long getNumBinariesMarked() {
+        return numBinariesMarked;
+    }
+
+    /**
+     * The number of storage shards (top-level directories) to sweep.
+     *
+     * @since 5.9.1
+     */
+    public long getNumShards() {
+        return numShards;
+    }
+
+    /**
+     * The number of storage shards already swept, to follow the progress of
+     * the GC.
+     *
+     * @since 5.9.1
+     */
+    public long getNumShardsSwept() {
+        return numShardsSwept;
+    }
+
 }
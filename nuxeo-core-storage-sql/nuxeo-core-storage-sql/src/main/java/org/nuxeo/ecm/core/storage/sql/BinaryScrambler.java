@@ -16,6 +16,9 @@ import java.io.File;
 
 /**
  * A scrambler/unscrambler of binaries.
+ * <p>
+ * The scrambler of a binary is shared by its streams and channels, which
+ * synchronize on it and reposition it before each unscrambling.
  *
  * @author Florent Guillaume
  */
@@ -38,6 +41,10 @@ public interface BinaryScrambler {
 
     /**
      * Skips n bytes during unscrambling.
+     * <p>
+     * After {@link #reset}, skipping n bytes must position the scrambler at
+     * offset n without processing the skipped bytes, as it's used for random
+     * access to the binary.
      */
     void skip(long n);
 
@@ -0,0 +1,767 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.runtime.services.streaming.AbstractStreamSource;
+import org.nuxeo.runtime.services.streaming.StreamSource;
+
+/**
+ * A filesystem-based binary manager that splits binaries into
+ * content-defined chunks, and stores each distinct chunk only once.
+ * <p>
+ * Chunk boundaries are found with a rolling hash over the content (Gear
+ * hash), so that an insertion or a deletion in a binary only changes the
+ * chunks around it, and binaries sharing large parts (successive versions of
+ * a document, copies with a modified header) share most of their chunks.
+ * <p>
+ * The format of the <em>binaries</em> directory is:
+ * <ul>
+ * <li><em>data/</em> hierarchy with the chunks, stored according to their
+ * digest,</li>
+ * <li><em>manifests/</em> hierarchy with the manifest of each binary, stored
+ * according to the digest of the whole binary, listing its chunks,</li>
+ * <li><em>tmp/</em> temporary storage during creation,</li>
+ * <li><em>config.xml</em> a file containing the configuration used.</li>
+ * </ul>
+ * The garbage collector deletes the unused manifests, then the chunks not
+ * referenced by any remaining manifest. Its status counts chunks.
+ * <p>
+ * This binary manager cannot be used with a binary scrambler.
+ *
+ * @since 5.9.1
+ */
+public class ChunkedBinaryManager extends LocalBinaryManager {
+
+    private static final Log log = LogFactory.getLog(ChunkedBinaryManager.class);
+
+    public static final String MANIFESTS = "manifests";
+
+    /** Minimum chunk size, except for the last chunk of a binary. */
+    public static final int MIN_CHUNK_SIZE = 256 * 1024; // 256 kB
+
+    /** Maximum chunk size. */
+    public static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024; // 4 MB
+
+    /**
+     * Number of hash bits that must be zero to end a chunk, giving an average
+     * of 1 MB beyond the minimum size.
+     */
+    public static final int CHUNK_MASK_BITS = 20;
+
+    /*
+     * The low bits of a Gear hash only depend on the last few bytes, use the
+     * high bits.
+     */
+    protected static final long CHUNK_MASK = ((1L << CHUNK_MASK_BITS) - 1) << (64 - CHUNK_MASK_BITS);
+
+    /*
+     * Changing the seed changes all the chunk boundaries, so existing chunks
+     * would not be shared with new binaries anymore.
+     */
+    private static final long GEAR_SEED = 0x4e7578656f564353L;
+
+    /** Random value for each byte, for the rolling hash. */
+    protected static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(GEAR_SEED);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    protected File manifestDir;
+
+    public ChunkedBinaryManager() {
+        super();
+        if (!(getBinaryScrambler() instanceof NullBinaryScrambler)) {
+            throw new IllegalStateException(
+                    "ChunkedBinaryManager cannot be used with a binary scrambler");
+        }
+    }
+
+    @Override
+    public void initialize(RepositoryDescriptor repositoryDescriptor)
+            throws IOException {
+        super.initialize(repositoryDescriptor);
+        manifestDir = new File(storageDir.getParentFile(), MANIFESTS);
+        manifestDir.mkdirs();
+    }
+
+    public File getManifestDir() {
+        return manifestDir;
+    }
+
+    /**
+     * Gets a file representing the manifest for a given binary digest.
+     *
+     * @param digest the digest
+     * @param createDir {@code true} if the directory containing the file itself
+     *            must be created
+     * @return the manifest file for this digest
+     */
+    public File getManifestFileForDigest(String digest, boolean createDir) {
+        return getFileForDigest(manifestDir, digest, createDir);
+    }
+
+    @Override
+    public Binary getBinary(InputStream in) throws IOException {
+        String digest = storeAndDigest(in);
+        return getBinary(digest);
+    }
+
+    @Override
+    public Binary getBinary(String digest) {
+        File manifest = getManifestFileForDigest(digest, false);
+        if (manifest == null) {
+            // invalid digest
+            return null;
+        }
+        if (!manifest.exists()) {
+            log.warn("cannot fetch content at " + manifest.getPath()
+                    + " (file does not exist), check your configuration");
+            return null;
+        }
+        List<File> chunks = new ArrayList<File>();
+        List<Long> lengths = new ArrayList<Long>();
+        try {
+            readManifest(manifest, chunks, lengths);
+        } catch (IOException e) {
+            log.error("cannot read manifest " + manifest.getPath(), e);
+            return null;
+        }
+        long[] lens = new long[lengths.size()];
+        for (int i = 0; i < lens.length; i++) {
+            lens[i] = lengths.get(i).longValue();
+        }
+        return new ChunkedBinary(manifest, digest, repositoryName,
+                chunks.toArray(new File[chunks.size()]), lens);
+    }
+
+    /**
+     * Splits the stream into chunks, stores the chunks not already present,
+     * then the manifest of the binary.
+     *
+     * @return the digest of the whole stream
+     */
+    @Override
+    protected String storeAndDigest(InputStream in) throws IOException {
+        MessageDigest digest = getMessageDigest();
+        StringBuilder manifest = new StringBuilder();
+        byte[] buf = new byte[MAX_BUF_SIZE];
+        byte[] chunk = new byte[MAX_CHUNK_SIZE];
+        int len = 0;
+        long hash = 0;
+        try {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                digest.update(buf, 0, n);
+                for (int i = 0; i < n; i++) {
+                    byte b = buf[i];
+                    chunk[len++] = b;
+                    hash = (hash << 1) + GEAR[b & 0xff];
+                    if ((len >= MIN_CHUNK_SIZE && (hash & CHUNK_MASK) == 0)
+                            || len == MAX_CHUNK_SIZE) {
+                        storeChunk(chunk, len, manifest);
+                        len = 0;
+                    }
+                }
+            }
+            if (len > 0) {
+                storeChunk(chunk, len, manifest);
+            }
+        } finally {
+            in.close();
+        }
+        String hexDigest = toHexString(digest.digest());
+        File file = getManifestFileForDigest(hexDigest, true);
+        if (file.exists()) {
+            // protect it from a GC in progress
+            touch(file);
+        } else {
+            byte[] bytes = manifest.toString().getBytes("UTF-8");
+            store(bytes, bytes.length, file);
+        }
+        return hexDigest;
+    }
+
+    /**
+     * Stores a chunk if not already present, and adds it to the manifest.
+     */
+    protected void storeChunk(byte[] chunk, int len, StringBuilder manifest)
+            throws IOException {
+        MessageDigest digest = getMessageDigest();
+        digest.update(chunk, 0, len);
+        String hexDigest = toHexString(digest.digest());
+        File file = getFileForDigest(hexDigest, true);
+        if (file.exists()) {
+            // shared with another binary, protect it from a GC in progress
+            touch(file);
+        } else {
+            store(chunk, len, file);
+        }
+        manifest.append(hexDigest).append(' ').append(len).append('\n');
+    }
+
+    /**
+     * Writes bytes to a temporary file then moves it to its destination.
+     */
+    protected void store(byte[] bytes, int len, File file) throws IOException {
+        File tmp = File.createTempFile("create_", ".tmp", tmpDir);
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(bytes, 0, len);
+            } finally {
+                out.close();
+            }
+            atomicMove(tmp, file);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Reads a manifest, made of lines with the digest and length of each
+     * chunk.
+     */
+    protected void readManifest(File manifest, List<File> chunks,
+            List<Long> lengths) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(manifest), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0) {
+                    continue;
+                }
+                int i = line.indexOf(' ');
+                if (i <= 0) {
+                    throw new IOException("Invalid manifest line: " + line);
+                }
+                String digest = line.substring(0, i);
+                if (chunks != null) {
+                    chunks.add(getFileForDigest(digest, false));
+                }
+                if (lengths != null) {
+                    try {
+                        lengths.add(Long.valueOf(line.substring(i + 1)));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid manifest line: "
+                                + line);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the chunk digests of a manifest.
+     */
+    protected List<String> readManifestDigests(File manifest)
+            throws IOException {
+        List<File> chunks = new ArrayList<File>();
+        readManifest(manifest, chunks, null);
+        List<String> digests = new ArrayList<String>(chunks.size());
+        for (File chunk : chunks) {
+            digests.add(chunk.getName());
+        }
+        return digests;
+    }
+
+    @Override
+    protected void createGarbageCollector() {
+        garbageCollector = new ChunkedBinaryGarbageCollector(this);
+    }
+
+    /**
+     * A {@link Binary} whose content is the concatenation of chunks.
+     */
+    public static class ChunkedBinary extends Binary {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final File manifest;
+
+        protected final File[] chunks;
+
+        protected final long[] lengths;
+
+        public ChunkedBinary(File manifest, String digest, String repoName,
+                File[] chunks, long[] lengths) {
+            super(digest, repoName);
+            this.manifest = manifest;
+            this.chunks = chunks;
+            this.lengths = lengths;
+        }
+
+        @Override
+        protected long computeLength() {
+            long length = 0;
+            for (long len : lengths) {
+                length += len;
+            }
+            return length;
+        }
+
+        @Override
+        public InputStream getStream() throws IOException {
+            return new ChunkedInputStream(chunks, lengths);
+        }
+
+        @Override
+        public StreamSource getStreamSource() {
+            return new ChunkedStreamSource(this);
+        }
+
+        @Override
+        public SeekableByteChannel getChannel() {
+            return new ChunkedChannel(chunks, lengths);
+        }
+
+        @Override
+        public ByteBuffer map(long position, long size) {
+            throw new UnsupportedOperationException(
+                    "Cannot map a chunked binary");
+        }
+
+        public int getChunkCount() {
+            return chunks.length;
+        }
+    }
+
+    /**
+     * A {@link StreamSource} reading a {@link ChunkedBinary}. There is no
+     * single file holding the content, so this is not a {@code FileSource}.
+     */
+    public static class ChunkedStreamSource extends AbstractStreamSource {
+
+        protected final ChunkedBinary binary;
+
+        public ChunkedStreamSource(ChunkedBinary binary) {
+            this.binary = binary;
+        }
+
+        @Override
+        public InputStream getStream() throws IOException {
+            return binary.getStream();
+        }
+
+        @Override
+        public long getLength() {
+            return binary.getLength();
+        }
+
+        @Override
+        public boolean canReopen() {
+            return true;
+        }
+    }
+
+    /**
+     * An {@link InputStream} reading chunk files one after the other, only
+     * opening a chunk when it is read. Skipping over whole chunks does not
+     * open them.
+     */
+    public static class ChunkedInputStream extends InputStream {
+
+        protected final File[] chunks;
+
+        protected final long[] lengths;
+
+        /** Index of the current chunk. */
+        protected int index = -1;
+
+        /** Stream on the current chunk, or {@code null} if not opened. */
+        protected InputStream current;
+
+        /** Position in the current chunk. */
+        protected long pos;
+
+        protected final byte[] onebyte = new byte[1];
+
+        public ChunkedInputStream(File[] chunks, long[] lengths) {
+            this.chunks = chunks;
+            this.lengths = lengths;
+        }
+
+        /**
+         * Opens the next chunk.
+         *
+         * @return {@code false} if there are no more chunks
+         */
+        protected boolean next() throws IOException {
+            closeCurrent();
+            if (index + 1 >= chunks.length) {
+                index = chunks.length;
+                return false;
+            }
+            index++;
+            pos = 0;
+            current = new FileInputStream(chunks[index]);
+            return true;
+        }
+
+        protected void closeCurrent() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int n = read(onebyte, 0, 1);
+            if (n == -1) {
+                return -1;
+            }
+            return onebyte[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (current == null && !next()) {
+                    return -1;
+                }
+                int n = current.read(b, off, len);
+                if (n != -1) {
+                    pos += n;
+                    return n;
+                }
+                closeCurrent();
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (n > 0) {
+                if (current == null) {
+                    // skip whole chunks without opening them
+                    while (index + 1 < chunks.length
+                            && lengths[index + 1] <= n) {
+                        index++;
+                        n -= lengths[index];
+                        skipped += lengths[index];
+                    }
+                    if (n == 0 || !next()) {
+                        break;
+                    }
+                }
+                long k = current.skip(Math.min(n, lengths[index] - pos));
+                pos += k;
+                n -= k;
+                skipped += k;
+                if (pos >= lengths[index] || k <= 0) {
+                    closeCurrent();
+                }
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return current == null ? 0 : current.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeCurrent();
+            index = chunks.length;
+        }
+    }
+
+    /**
+     * A {@link SeekableByteChannel} reading chunk files, only opening the
+     * chunk containing the current position.
+     *
+     * @since 5.9.1
+     */
+    public static class ChunkedChannel implements SeekableByteChannel {
+
+        protected final File[] chunks;
+
+        /** Offset of each chunk, followed by the total length. */
+        protected final long[] offsets;
+
+        protected long position;
+
+        /** Index of the opened chunk. */
+        protected int index = -1;
+
+        /** Channel on the opened chunk, or {@code null}. */
+        protected FileChannel current;
+
+        protected boolean open = true;
+
+        public ChunkedChannel(File[] chunks, long[] lengths) {
+            this.chunks = chunks;
+            offsets = new long[chunks.length + 1];
+            for (int i = 0; i < chunks.length; i++) {
+                offsets[i + 1] = offsets[i] + lengths[i];
+            }
+        }
+
+        protected void checkOpen() throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            checkOpen();
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            if (position >= offsets[chunks.length]) {
+                return -1;
+            }
+            int i = Arrays.binarySearch(offsets, 0, chunks.length, position);
+            if (i < 0) {
+                // insertion point minus one: chunk containing the position
+                i = -i - 2;
+            }
+            if (i != index) {
+                closeCurrent();
+                current = FileChannel.open(chunks[i].toPath(),
+                        StandardOpenOption.READ);
+                index = i;
+            }
+            // don't read beyond the chunk length in the manifest
+            int limit = dst.limit();
+            long remaining = offsets[i + 1] - position;
+            if (dst.remaining() > remaining) {
+                dst.limit(dst.position() + (int) remaining);
+            }
+            int n;
+            try {
+                n = current.read(dst, position - offsets[i]);
+            } finally {
+                dst.limit(limit);
+            }
+            if (n == -1) {
+                throw new IOException("Truncated chunk: " + chunks[i]);
+            }
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            checkOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition)
+                throws IOException {
+            checkOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position");
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            checkOpen();
+            return offsets[chunks.length];
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        protected void closeCurrent() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+                index = -1;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            closeCurrent();
+        }
+    }
+
+    /**
+     * Garbage collector deleting the manifests not marked, then the chunks
+     * not referenced by the remaining manifests.
+     */
+    public static class ChunkedBinaryGarbageCollector extends
+            DefaultBinaryGarbageCollector {
+
+        /**
+         * Checkpoint file, in the binaries directory, recording the manifest
+         * shards already swept by an interrupted GC.
+         */
+        public static final String MANIFESTS_CHECKPOINT_FILE = "gc-manifests-checkpoint.properties";
+
+        /** Statistics key of the number of manifests. */
+        protected static final String STATS_MANIFESTS = "manifests";
+
+        protected final ChunkedBinaryManager chunkedBinaryManager;
+
+        public ChunkedBinaryGarbageCollector(
+                ChunkedBinaryManager binaryManager) {
+            super(binaryManager);
+            chunkedBinaryManager = binaryManager;
+        }
+
+        @Override
+        protected String getMarksStatsKey() {
+            // the repository marks whole binaries, that is manifests
+            return STATS_MANIFESTS;
+        }
+
+        @Override
+        protected void sweep(long minTime, boolean delete) {
+            File manifestDir = chunkedBinaryManager.getManifestDir();
+            // the status is about chunks, don't count manifests
+            BinaryManagerStatus manifestStatus = new BinaryManagerStatus();
+            sweep(manifestDir, new File(manifestDir.getParentFile(),
+                    MANIFESTS_CHECKPOINT_FILE), minTime, delete,
+                    manifestStatus);
+            writeStat(STATS_MANIFESTS, Math.max(manifestStatus.numBinaries
+                    + manifestStatus.numBinariesGC,
+                    marks.getApproximateDistinctCount()));
+            // chunks of the manifests kept, computed even without delete
+            // sized from the chunks found by the previous GC
+            DigestBloomFilter chunkMarks = newMarks(getExpected(STATS_BINARIES));
+            markChunks(manifestDir, minTime, chunkMarks);
+            checkCapacity(chunkMarks, "chunks");
+            marks = chunkMarks;
+            super.sweep(minTime, delete);
+        }
+
+        /**
+         * Marks the chunks referenced by the manifests kept by the sweep:
+         * marked, or (re)created since the GC started. The top-level
+         * directories of the manifests are read in parallel.
+         */
+        protected void markChunks(File manifestDir, final long minTime,
+                final DigestBloomFilter chunkMarks) {
+            File[] files = manifestDir.listFiles();
+            if (files == null) {
+                // don't risk deleting chunks still in use
+                throw new RuntimeException("Cannot list directory: "
+                        + manifestDir);
+            }
+            ExecutorService executor = newExecutor(manifestDir);
+            final AtomicReference<RuntimeException> error = new AtomicReference<RuntimeException>();
+            for (final File file : files) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            markChunksRecursive(file, minTime, chunkMarks);
+                        } catch (RuntimeException e) {
+                            error.compareAndSet(null, e);
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    if (error.get() != null) {
+                        executor.shutdownNow();
+                    }
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted", e);
+            }
+            if (error.get() != null) {
+                throw error.get();
+            }
+        }
+
+        protected void markChunksRecursive(File file, long minTime,
+                DigestBloomFilter chunkMarks) {
+            if (file.isDirectory()) {
+                File[] files = file.listFiles();
+                if (files == null) {
+                    // don't risk deleting chunks still in use
+                    throw new RuntimeException("Cannot list directory: "
+                            + file);
+                }
+                for (File f : files) {
+                    markChunksRecursive(f, minTime, chunkMarks);
+                }
+            } else if (file.isFile()) {
+                if (file.lastModified() < minTime
+                        && !marks.mightContain(file.getName())) {
+                    return;
+                }
+                try {
+                    for (String digest : chunkedBinaryManager.readManifestDigests(file)) {
+                        chunkMarks.add(digest);
+                    }
+                } catch (IOException e) {
+                    // don't risk deleting chunks still in use
+                    throw new RuntimeException("Cannot read manifest: "
+                            + file, e);
+                }
+            }
+        }
+    }
+
+}
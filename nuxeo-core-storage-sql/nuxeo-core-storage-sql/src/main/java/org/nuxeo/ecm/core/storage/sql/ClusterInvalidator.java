@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import org.nuxeo.ecm.core.storage.StorageException;
+
+/**
+ * Transport pushing invalidations between cluster nodes.
+ * <p>
+ * Without a cluster invalidator, each cluster node polls the database cluster
+ * invalidations table at the beginning of each transaction (throttled by the
+ * clustering delay). With one, invalidations are pushed to the other nodes as
+ * soon as they are committed, and received invalidations are directly given
+ * to the local {@link InvalidationsPropagator}. The database table is then
+ * only read as a recovery log, when the transport says that some
+ * invalidations may have been lost.
+ *
+ * @since 5.9.1
+ */
+public interface ClusterInvalidator {
+
+    /**
+     * Initializes the invalidator and starts receiving invalidations from the
+     * other cluster nodes.
+     *
+     * @param nodeId the unique id of this cluster node
+     * @param repositoryDescriptor the repository descriptor
+     * @param propagator the propagator to which received invalidations are
+     *            sent
+     */
+    void initialize(String nodeId, RepositoryDescriptor repositoryDescriptor,
+            InvalidationsPropagator propagator) throws StorageException;
+
+    /**
+     * Stops receiving invalidations and releases all resources.
+     */
+    void close();
+
+    /**
+     * Sends invalidations to the other cluster nodes.
+     */
+    void sendInvalidations(Invalidations invalidations)
+            throws StorageException;
+
+    /**
+     * Checks if invalidations sent by other cluster nodes may have been lost,
+     * for instance because the transport is or was disconnected.
+     * <p>
+     * When this is the case the database recovery log must be read.
+     */
+    boolean isRecoveryNeeded();
+
+    /**
+     * Called just before the database recovery log is read, to reset the
+     * recovery state of the transport.
+     */
+    void startRecovery();
+
+}
@@ -13,11 +13,14 @@
 package org.nuxeo.ecm.core.storage.sql;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
 
-import org.apache.commons.io.output.NullOutputStream;
 import org.nuxeo.runtime.services.streaming.FileSource;
 
 /**
@@ -62,21 +65,93 @@ public class DefaultBinaryManager extends LocalBinaryManager implements
                 repositoryName);
     }
 
+    /**
+     * Size of the direct buffer used to digest files.
+     *
+     * @since 5.9.1
+     */
+    public static final int DIRECT_BUF_SIZE = 256 * 1024; // 256 kB
+
+    /** Direct buffers are costly to allocate, reuse them. */
+    private static final ThreadLocal<ByteBuffer> directBuffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(DIRECT_BUF_SIZE);
+        }
+    };
+
+    /**
+     * Digests the source file and stores it under its digest.
+     * <p>
+     * If a binary with the same digest is already stored, the source is not
+     * copied at all. Otherwise it's moved into the store, or linked, or as a
+     * last resort copied without going through the Java heap.
+     */
     protected String storeAndDigest(FileSource source) throws IOException {
         File sourceFile = source.getFile();
-        InputStream in = source.getStream();
-        OutputStream out = new NullOutputStream();
-        String digest;
+        String digest = digestFile(sourceFile);
+        File digestFile = getFileForDigest(digest, true);
+        if (digestFile.exists()) {
+            // already stored, just update date for the GC
+            touch(digestFile);
+        } else {
+            ingestFile(sourceFile, digestFile);
+        }
+        source.setFile(digestFile);
+        return digest;
+    }
+
+    /**
+     * Computes the digest of a file, reading it through a {@link FileChannel}
+     * into a direct buffer.
+     *
+     * @since 5.9.1
+     */
+    protected String digestFile(File file) throws IOException {
+        MessageDigest digest = getMessageDigest();
+        FileInputStream in = new FileInputStream(file);
         try {
-            digest = storeAndDigest(in, out);
+            FileChannel channel = in.getChannel();
+            ByteBuffer buf = directBuffers.get();
+            buf.clear();
+            while (channel.read(buf) != -1) {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
         } finally {
             in.close();
-            out.close();
         }
-        File digestFile = getFileForDigest(digest, true);
-        atomicMove(sourceFile, digestFile);
-        source.setFile(digestFile);
-        return digest;
+        return toHexString(digest.digest());
+    }
+
+    /**
+     * Moves a file into the store. An atomic rename is used if possible,
+     * then a hard link, then a copy.
+     *
+     * @since 5.9.1
+     */
+    protected void ingestFile(File source, File dest) throws IOException {
+        if (source.renameTo(dest)) {
+            return;
+        }
+        // rename refused, for instance if the source directory is read-only
+        try {
+            Files.createLink(dest.toPath(), source.toPath());
+            if (source.delete()) {
+                return;
+            }
+            // don't share the content with a file that may still change
+            dest.delete();
+        } catch (FileAlreadyExistsException e) {
+            // stored concurrently
+            return;
+        } catch (IOException e) {
+            // other filesystem, fall back to copy
+        } catch (UnsupportedOperationException e) {
+            // no hard links on this filesystem, fall back to copy
+        }
+        atomicMove(source, dest);
     }
 
 }
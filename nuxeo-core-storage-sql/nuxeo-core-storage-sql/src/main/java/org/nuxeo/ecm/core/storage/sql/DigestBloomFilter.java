@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Bloom filter of binary digests, stored off-heap.
+ * <p>
+ * Used by the binary garbage collector to record the marked binaries with a
+ * memory footprint of about 10 bits per digest for a 1% false positive rate,
+ * whatever the digest length. A false positive only means that an unused
+ * binary is kept until a later GC; there are no false negatives.
+ * <p>
+ * The hash functions depend on a seed, so that using a different seed for
+ * each GC run avoids always keeping the same unused binaries.
+ * <p>
+ * Additions are synchronized. Lookups are not, and must not be done
+ * concurrently with additions.
+ *
+ * @since 5.9.1
+ */
+public class DigestBloomFilter {
+
+    /** Maximum number of bits, limited by the capacity of a ByteBuffer. */
+    public static final long MAX_BITS = 8L * Integer.MAX_VALUE;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    protected final ByteBuffer bits;
+
+    protected final long capacity;
+
+    protected final long numBits;
+
+    protected final int numHashes;
+
+    protected final long seed1;
+
+    protected final long seed2;
+
+    protected long count;
+
+    /**
+     * Creates a Bloom filter sized for the given number of digests and false
+     * positive rate.
+     *
+     * @param expectedDigests the expected number of digests
+     * @param falsePositiveRate the false positive rate when holding the
+     *            expected number of digests
+     * @param seed the seed of the hash functions
+     */
+    public DigestBloomFilter(long expectedDigests, double falsePositiveRate,
+            long seed) {
+        expectedDigests = Math.max(1, expectedDigests);
+        capacity = expectedDigests;
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-expectedDigests
+                * Math.log(falsePositiveRate) / (ln2 * ln2));
+        m = Math.max(64, Math.min(m, MAX_BITS));
+        m = (m + 7) & ~7L; // whole bytes
+        numBits = m;
+        numHashes = Math.max(1,
+                (int) Math.round((double) m / expectedDigests * ln2));
+        bits = ByteBuffer.allocateDirect((int) (m >>> 3));
+        seed1 = FNV_OFFSET ^ seed;
+        seed2 = FNV_OFFSET ^ Long.rotateLeft(seed, 32) ^ 0x9e3779b97f4a7c15L;
+    }
+
+    /**
+     * Adds a digest to the filter.
+     */
+    public synchronized void add(String digest) {
+        long h1 = hash(digest, seed1);
+        long h2 = hash(digest, seed2);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            int index = (int) (bit >>> 3);
+            bits.put(index, (byte) (bits.get(index) | (1 << (bit & 7))));
+        }
+        count++;
+    }
+
+    /**
+     * Checks if a digest may have been added to the filter.
+     *
+     * @return {@code false} if the digest was definitely never added
+     */
+    public boolean mightContain(String digest) {
+        long h1 = hash(digest, seed1);
+        long h2 = hash(digest, seed2);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits.get((int) (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of additions done.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the number of digests the filter was sized for. Beyond it the
+     * false positive rate grows quickly.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Estimates the number of distinct digests added, from the number of bits
+     * set. Unlike {@link #getCount}, digests added several times are counted
+     * once.
+     *
+     * @return the estimate, or {@link Long#MAX_VALUE} if all the bits are set
+     */
+    public synchronized long getApproximateDistinctCount() {
+        long set = 0;
+        int size = bits.capacity();
+        int i = 0;
+        for (; i + 8 <= size; i += 8) {
+            set += Long.bitCount(bits.getLong(i));
+        }
+        for (; i < size; i++) {
+            set += Integer.bitCount(bits.get(i) & 0xff);
+        }
+        if (set >= numBits) {
+            return Long.MAX_VALUE;
+        }
+        return Math.round(-((double) numBits / numHashes)
+                * Math.log(1 - (double) set / numBits));
+    }
+
+    /**
+     * Gets the off-heap memory used, in bytes.
+     */
+    public long getSizeInBytes() {
+        return numBits >>> 3;
+    }
+
+    /**
+     * FNV-1a followed by the MurmurHash3 finalization mix.
+     */
+    protected static long hash(String s, long seed) {
+        long h = seed;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+/**
+ * A repository-wide cache of the parent id and name of committed hierarchy
+ * nodes, used to compute paths without walking the parent fragments of each
+ * session.
+ * <p>
+ * The path of each cached node is memoized along with the structure version
+ * of the cache, which changes only when a cached node is invalidated (or
+ * evicted after having been used as an ancestor), so that a move or rename
+ * of an ancestor is reflected in the paths of all the descendants, while
+ * invalidations of nodes not in the cache, like complex properties, keep the
+ * memoized paths.
+ * <p>
+ * Sessions use the stamp obtained by {@link #getStamp} before processing
+ * their received invalidations. Each invalidated node keeps the clock of its
+ * invalidation, so that a session cannot put a node invalidated since its
+ * stamp (its data may be stale), nor get a path going through a node
+ * invalidated since its stamp (the cache may be newer than what the session
+ * sees). Other nodes remain usable.
+ *
+ * @since 5.9.1
+ */
+public class HierarchyCache {
+
+    protected static final int SEGMENTS = 16; // power of two
+
+    protected final String repositoryName;
+
+    protected final Segment[] segments;
+
+    /** Incremented by each invalidation of a hierarchy row. */
+    protected final AtomicLong clock = new AtomicLong();
+
+    /** Clock of the last {@link #clear}. */
+    protected volatile long cleared;
+
+    /** Incremented when a memoized path may have changed. */
+    protected final AtomicLong structure = new AtomicLong();
+
+    protected final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    protected final Counter hits;
+
+    protected final Counter misses;
+
+    public HierarchyCache(String repositoryName, int maxSize) {
+        this.repositoryName = repositoryName;
+        final int maxSegmentSize = Math.max(maxSize / SEGMENTS, 1);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxSegmentSize, structure);
+        }
+        hits = registry.counter(metricName("hits"));
+        misses = registry.counter(metricName("misses"));
+    }
+
+    protected String metricName(String name) {
+        return MetricRegistry.name("nuxeo", "repositories", repositoryName,
+                "caches", "hierarchy", name);
+    }
+
+    /**
+     * A memoized path, valid for one structure version of the cache.
+     */
+    protected static final class Memo {
+
+        protected final String path;
+
+        protected final long version;
+
+        /** Latest invalidation clock of the nodes of the path. */
+        protected final long since;
+
+        protected Memo(String path, long version, long since) {
+            this.path = path;
+            this.version = version;
+            this.since = since;
+        }
+    }
+
+    protected static final class Entry {
+
+        protected final Serializable parentId;
+
+        protected final String name;
+
+        /** Invalidation clock of the node when it was put. */
+        protected final long since;
+
+        /** Set once the entry is used to compute the path of a child. */
+        protected volatile boolean ancestor;
+
+        protected volatile Memo memo;
+
+        protected Entry(Serializable parentId, String name, long since) {
+            this.parentId = parentId;
+            this.name = name;
+            this.since = since;
+        }
+    }
+
+    /**
+     * Part of the cache, with its own LRU order and lock.
+     * <p>
+     * Also keeps the clock of the last invalidation of recently invalidated
+     * ids, older ones being summarized by {@link #floor}.
+     */
+    protected static class Segment {
+
+        protected final LinkedHashMap<Serializable, Entry> map;
+
+        protected final LinkedHashMap<Serializable, Long> invalidated;
+
+        /** Clock of the invalidations no longer in {@link #invalidated}. */
+        protected long floor;
+
+        protected Segment(final int maxSize, final AtomicLong structure) {
+            map = new LinkedHashMap<Serializable, Entry>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<Serializable, Entry> eldest) {
+                    if (size() <= maxSize) {
+                        return false;
+                    }
+                    if (eldest.getValue().ancestor) {
+                        // descendants' memoized paths depend on it
+                        structure.incrementAndGet();
+                    }
+                    return true;
+                }
+            };
+            invalidated = new LinkedHashMap<Serializable, Long>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<Serializable, Long> eldest) {
+                    if (size() <= maxSize) {
+                        return false;
+                    }
+                    floor = Math.max(floor, eldest.getValue().longValue());
+                    return true;
+                }
+            };
+        }
+
+        protected synchronized Entry get(Serializable id) {
+            return map.get(id);
+        }
+
+        protected synchronized void put(Serializable id,
+                Serializable parentId, String name, long stamp) {
+            Long clock = invalidated.get(id);
+            long since = clock == null ? floor : clock.longValue();
+            if (since > stamp) {
+                // invalidated since the stamp, may be stale
+                return;
+            }
+            map.put(id, new Entry(parentId, name, since));
+        }
+
+        /**
+         * Invalidates an id, returns {@code true} if it was cached.
+         */
+        protected synchronized boolean invalidate(Serializable id, long clock) {
+            invalidated.remove(id); // refresh order
+            invalidated.put(id, Long.valueOf(clock));
+            return map.remove(id) != null;
+        }
+
+        protected synchronized void clear(long clock) {
+            map.clear();
+            invalidated.clear();
+            floor = clock;
+        }
+
+        protected synchronized int size() {
+            return map.size();
+        }
+    }
+
+    protected Segment getSegment(Serializable id) {
+        int h = id.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Gets the stamp to use by a session before processing its received
+     * invalidations.
+     */
+    public long getStamp() {
+        return clock.get();
+    }
+
+    /**
+     * Checks if a session with the given stamp can use the cache, which is
+     * not the case if the whole cache was invalidated since the stamp.
+     */
+    public boolean isUsable(long stamp) {
+        return cleared <= stamp;
+    }
+
+    /**
+     * Gets the path of a node.
+     *
+     * @param id the node id
+     * @param stamp the session stamp
+     * @return the path, or {@code null} if the node or one of its ancestors is
+     *         not cached, or was invalidated since the stamp
+     */
+    public String getPath(Serializable id, long stamp) {
+        Memo memo = isUsable(stamp) ? computePath(id, structure.get())
+                : null;
+        if (memo == null || memo.since > stamp) {
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        return memo.path;
+    }
+
+    protected Memo computePath(Serializable id, long v) {
+        Entry entry = getSegment(id).get(id);
+        if (entry == null) {
+            return null;
+        }
+        Memo memo = entry.memo;
+        if (memo != null && memo.version == v) {
+            return memo;
+        }
+        String path;
+        long since = entry.since;
+        if (entry.parentId == null) {
+            // root, or placeless document without initial slash
+            path = entry.name.isEmpty() ? "/" : entry.name;
+        } else {
+            Memo parentMemo = computePath(entry.parentId, v);
+            if (parentMemo == null) {
+                return null;
+            }
+            String parentPath = parentMemo.path;
+            path = parentPath.equals("/") ? "/" + entry.name : parentPath
+                    + "/" + entry.name;
+            since = Math.max(since, parentMemo.since);
+        }
+        entry.ancestor = true;
+        memo = new Memo(path, v, since);
+        entry.memo = memo;
+        return memo;
+    }
+
+    /**
+     * Puts the parent and name of a pristine hierarchy node seen by a session.
+     *
+     * @param id the node id
+     * @param parentId the parent id, or {@code null} for the root
+     * @param name the name
+     * @param stamp the session stamp
+     */
+    public void put(Serializable id, Serializable parentId, String name,
+            long stamp) {
+        getSegment(id).put(id, parentId, name, stamp);
+    }
+
+    /**
+     * Invalidates the hierarchy rows modified or deleted by a committed
+     * transaction, from this cluster node or another one.
+     * <p>
+     * Must be called after the invalidations have been propagated to the
+     * sessions' queues.
+     */
+    public void invalidate(Invalidations invalidations) {
+        if (invalidations == null) {
+            return;
+        }
+        if (invalidations.all) {
+            clear();
+            return;
+        }
+        if (invalidations.modified != null) {
+            for (RowId rowId : invalidations.modified) {
+                invalidate(rowId);
+            }
+        }
+        if (invalidations.deleted != null) {
+            for (RowId rowId : invalidations.deleted) {
+                invalidate(rowId);
+            }
+        }
+    }
+
+    protected void invalidate(RowId rowId) {
+        if (Model.HIER_TABLE_NAME.equals(rowId.tableName)) {
+            long c = clock.incrementAndGet();
+            if (getSegment(rowId.id).invalidate(rowId.id, c)) {
+                structure.incrementAndGet();
+            }
+        }
+    }
+
+    public void clear() {
+        long c = clock.incrementAndGet();
+        cleared = c;
+        for (Segment segment : segments) {
+            segment.clear(c);
+        }
+        structure.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of cached nodes.
+     */
+    public long getSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public void close() {
+        clear();
+        registry.remove(metricName("hits"));
+        registry.remove(metricName("misses"));
+    }
+
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.Serializable;
+import java.util.Iterator;
+
+/**
+ * A forward-only stream of the ids matched by a query, read from the database
+ * as they are iterated. It holds database resources and <b>must</b> be closed
+ * when done.
+ *
+ * @since 5.9.1
+ */
+public interface IdStream extends Iterator<Serializable> {
+
+    /**
+     * Closes the stream and releases its database resources.
+     */
+    void close();
+
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Compact binary encoding of {@link Invalidations}, used to send them to
+ * other cluster nodes.
+ * <p>
+ * The table names are written once in a header, then each invalidated id is
+ * written once per kind, packed according to its type (long, UUID string or
+ * generic string), followed by the bitset of its invalidated tables. The body
+ * may be deflated.
+ *
+ * @since 5.9.1
+ */
+public class InvalidationsCodec {
+
+    protected static final int VERSION = 1;
+
+    protected static final int FLAG_DEFLATED = 1;
+
+    protected static final int FLAG_ALL = 2;
+
+    protected static final int ID_LONG = 0;
+
+    protected static final int ID_UUID = 1;
+
+    protected static final int ID_STRING = 2;
+
+    /** Below this size (in bytes) the body is not worth deflating. */
+    protected static final int DEFLATE_THRESHOLD = 256;
+
+    private InvalidationsCodec() {
+        // utility class
+    }
+
+    /**
+     * Encodes invalidations into bytes.
+     *
+     * @param invalidations the invalidations
+     * @param compress {@code true} if the body should be deflated when large
+     *            enough
+     * @return the encoded bytes
+     */
+    public static byte[] encode(Invalidations invalidations, boolean compress)
+            throws IOException {
+        // table names dictionary
+        Map<String, Integer> tables = new LinkedHashMap<String, Integer>();
+        Map<Serializable, BitSet> modified = byId(invalidations.modified,
+                tables);
+        Map<Serializable, BitSet> deleted = byId(invalidations.deleted, tables);
+        int nbytes = (tables.size() + 7) / 8;
+
+        ByteArrayOutputStream bodyout = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bodyout);
+        writeVarInt(out, tables.size());
+        for (String tableName : tables.keySet()) {
+            out.writeUTF(tableName);
+        }
+        writeIds(out, modified, nbytes);
+        writeIds(out, deleted, nbytes);
+        out.flush();
+        byte[] body = bodyout.toByteArray();
+
+        int flags = invalidations.all ? FLAG_ALL : 0;
+        if (compress && body.length >= DEFLATE_THRESHOLD) {
+            flags |= FLAG_DEFLATED;
+        }
+        ByteArrayOutputStream baout = new ByteArrayOutputStream(
+                body.length / 2 + 2);
+        baout.write(VERSION);
+        baout.write(flags);
+        if ((flags & FLAG_DEFLATED) != 0) {
+            DeflaterOutputStream dout = new DeflaterOutputStream(baout,
+                    new Deflater(Deflater.BEST_SPEED));
+            dout.write(body);
+            dout.finish();
+        } else {
+            baout.write(body);
+        }
+        return baout.toByteArray();
+    }
+
+    /**
+     * Decodes invalidations from bytes.
+     *
+     * @param bytes the encoded bytes
+     * @return the invalidations
+     */
+    public static Invalidations decode(byte[] bytes) throws IOException {
+        if (bytes.length < 2 || bytes[0] != VERSION) {
+            throw new IOException("Unknown invalidations encoding");
+        }
+        int flags = bytes[1];
+        InputStream bodyin = new ByteArrayInputStream(bytes, 2,
+                bytes.length - 2);
+        if ((flags & FLAG_DEFLATED) != 0) {
+            bodyin = new InflaterInputStream(bodyin);
+        }
+        DataInputStream in = new DataInputStream(bodyin);
+        Invalidations invalidations = new Invalidations(
+                (flags & FLAG_ALL) != 0);
+        int ntables = readVarInt(in);
+        String[] tables = new String[ntables];
+        for (int i = 0; i < ntables; i++) {
+            tables[i] = in.readUTF();
+        }
+        int nbytes = (ntables + 7) / 8;
+        readIds(in, tables, nbytes, invalidations, Invalidations.MODIFIED);
+        readIds(in, tables, nbytes, invalidations, Invalidations.DELETED);
+        return invalidations;
+    }
+
+    /**
+     * Encodes invalidations into a Base64 string, suitable for storage in a
+     * character column.
+     */
+    public static String encodeString(Invalidations invalidations)
+            throws IOException {
+        return Base64.encodeBase64String(encode(invalidations, true));
+    }
+
+    /**
+     * Decodes invalidations from a Base64 string.
+     */
+    public static Invalidations decodeString(String string) throws IOException {
+        return decode(Base64.decodeBase64(string));
+    }
+
+    /**
+     * Splits invalidations into two halves, each holding about half of the
+     * invalidated rows.
+     */
+    public static List<Invalidations> split(Invalidations invalidations) {
+        Invalidations first = new Invalidations(invalidations.all);
+        Invalidations second = new Invalidations();
+        int size = size(invalidations);
+        int n = 0;
+        if (invalidations.modified != null) {
+            for (RowId rowId : invalidations.modified) {
+                (n++ < (size + 1) / 2 ? first : second).addModified(rowId);
+            }
+        }
+        if (invalidations.deleted != null) {
+            for (RowId rowId : invalidations.deleted) {
+                (n++ < (size + 1) / 2 ? first : second).addDeleted(rowId);
+            }
+        }
+        List<Invalidations> res = new ArrayList<Invalidations>(2);
+        res.add(first);
+        if (!second.isEmpty()) {
+            res.add(second);
+        }
+        return res;
+    }
+
+    /**
+     * Gets the number of invalidated rows.
+     */
+    public static int size(Invalidations invalidations) {
+        return (invalidations.modified == null ? 0
+                : invalidations.modified.size())
+                + (invalidations.deleted == null ? 0
+                        : invalidations.deleted.size());
+    }
+
+    /**
+     * Gets the id of one of the invalidated rows, or {@code null} if there are
+     * none.
+     */
+    public static Serializable getFirstId(Invalidations invalidations) {
+        Set<RowId> set = invalidations.modified;
+        if (set == null || set.isEmpty()) {
+            set = invalidations.deleted;
+        }
+        if (set == null || set.isEmpty()) {
+            return null;
+        }
+        return set.iterator().next().id;
+    }
+
+    protected static Map<Serializable, BitSet> byId(Set<RowId> rowIds,
+            Map<String, Integer> tables) {
+        if (rowIds == null) {
+            return null;
+        }
+        Map<Serializable, BitSet> res = new HashMap<Serializable, BitSet>();
+        for (RowId rowId : rowIds) {
+            Integer index = tables.get(rowId.tableName);
+            if (index == null) {
+                tables.put(rowId.tableName,
+                        index = Integer.valueOf(tables.size()));
+            }
+            BitSet bits = res.get(rowId.id);
+            if (bits == null) {
+                res.put(rowId.id, bits = new BitSet());
+            }
+            bits.set(index.intValue());
+        }
+        return res;
+    }
+
+    protected static void writeIds(DataOutput out,
+            Map<Serializable, BitSet> ids, int nbytes) throws IOException {
+        if (ids == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, ids.size());
+        for (Entry<Serializable, BitSet> en : ids.entrySet()) {
+            writeId(out, en.getKey());
+            BitSet bits = en.getValue();
+            for (int i = 0; i < nbytes; i++) {
+                int b = 0;
+                for (int j = 0; j < 8; j++) {
+                    if (bits.get(i * 8 + j)) {
+                        b |= 1 << j;
+                    }
+                }
+                out.writeByte(b);
+            }
+        }
+    }
+
+    protected static void readIds(DataInput in, String[] tables, int nbytes,
+            Invalidations invalidations, int kind) throws IOException {
+        int n = readVarInt(in);
+        if (n == 0) {
+            return;
+        }
+        Set<RowId> set = invalidations.getKindSet(kind);
+        for (int k = 0; k < n; k++) {
+            Serializable id = readId(in);
+            for (int i = 0; i < nbytes; i++) {
+                int b = in.readUnsignedByte();
+                for (int j = 0; j < 8; j++) {
+                    if ((b & (1 << j)) != 0) {
+                        set.add(new RowId(tables[i * 8 + j], id));
+                    }
+                }
+            }
+        }
+    }
+
+    protected static void writeId(DataOutput out, Serializable id)
+            throws IOException {
+        if (id instanceof Long) {
+            out.writeByte(ID_LONG);
+            out.writeLong(((Long) id).longValue());
+            return;
+        }
+        String string = (String) id;
+        if (isUUID(string)) {
+            out.writeByte(ID_UUID);
+            out.writeLong(parseHex(string, 0, 8) << 32
+                    | parseHex(string, 9, 13) << 16 | parseHex(string, 14, 18));
+            out.writeLong(parseHex(string, 19, 23) << 48
+                    | parseHex(string, 24, 36));
+        } else {
+            out.writeByte(ID_STRING);
+            out.writeUTF(string);
+        }
+    }
+
+    protected static Serializable readId(DataInput in) throws IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+        case ID_LONG:
+            return Long.valueOf(in.readLong());
+        case ID_UUID:
+            long msb = in.readLong();
+            long lsb = in.readLong();
+            StringBuilder buf = new StringBuilder(36);
+            appendHex(buf, msb >>> 32, 8);
+            buf.append('-');
+            appendHex(buf, msb >>> 16, 4);
+            buf.append('-');
+            appendHex(buf, msb, 4);
+            buf.append('-');
+            appendHex(buf, lsb >>> 48, 4);
+            buf.append('-');
+            appendHex(buf, lsb, 12);
+            return buf.toString();
+        case ID_STRING:
+            return in.readUTF();
+        default:
+            throw new IOException("Unknown id type: " + type);
+        }
+    }
+
+    /** Checks for a canonical lowercase UUID, which can be packed losslessly. */
+    protected static boolean isUUID(String string) {
+        if (string.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = string.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static long parseHex(String string, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = value << 4 | Character.digit(string.charAt(i), 16);
+        }
+        return value;
+    }
+
+    protected static void appendHex(StringBuilder buf, long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            buf.append(Character.forDigit((int) (value >>> (i * 4)) & 0xf, 16));
+        }
+    }
+
+    protected static void writeVarInt(DataOutput out, int value)
+            throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    protected static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+}
@@ -11,48 +11,166 @@
  */
 package org.nuxeo.ecm.core.storage.sql;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Propagator of invalidations to a set of {@link InvalidationsQueue}s.
+ * <p>
+ * Propagated invalidations are appended to a fixed-size ring, each under a
+ * new sequence number. Queues don't receive the invalidations themselves but
+ * remember the last sequence number they have read, and catch up from it when
+ * asked for their invalidations. Reading doesn't take a lock.
+ * <p>
+ * Appends are serialized, and an entry is published (visible to readers) at
+ * the same time as its sequence number, so once
+ * {@link #propagateInvalidations} returns, all the invalidations propagated
+ * before are visible to all queues. Entries already read by all the queues
+ * are released.
+ * <p>
+ * A queue that falls behind by more than the ring capacity has lost some
+ * invalidations, and gets an "invalidate all" instead.
  */
 public class InvalidationsPropagator {
 
-    public final ArrayList<InvalidationsQueue> queues; // used synchronized
+    /** Default capacity of the ring, a power of two. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** Registered queues, for bookkeeping only. */
+    public final CopyOnWriteArrayList<InvalidationsQueue> queues;
 
     /** used for debugging */
     public final String name;
 
+    /** Last sequence number published. Modified under the append lock. */
+    protected final AtomicLong sequence;
+
+    /** Last sequence number whose entry was released. Under the append lock. */
+    protected long released;
+
+    protected final Object appendLock = new Object();
+
+    protected final AtomicReferenceArray<Entry> ring;
+
+    protected final int mask;
+
     public InvalidationsPropagator(String name) {
-        queues = new ArrayList<InvalidationsQueue>();
+        this(name, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of propagations kept, rounded up to a power
+     *            of two
+     * @since 5.9.1
+     */
+    public InvalidationsPropagator(String name, int capacity) {
+        queues = new CopyOnWriteArrayList<InvalidationsQueue>();
         this.name = name;
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        ring = new AtomicReferenceArray<Entry>(size);
+        mask = size - 1;
+        sequence = new AtomicLong();
+    }
+
+    /**
+     * Propagated invalidations. Never modified once in the ring.
+     */
+    protected static final class Entry {
+
+        protected final long seq;
+
+        protected final Invalidations invalidations;
+
+        protected final InvalidationsQueue skipQueue;
+
+        protected Entry(long seq, Invalidations invalidations,
+                InvalidationsQueue skipQueue) {
+            this.seq = seq;
+            this.invalidations = invalidations;
+            this.skipQueue = skipQueue;
+        }
     }
 
-    public synchronized void addQueue(InvalidationsQueue queue) {
-        if (!queues.contains(queue)) {
-            queues.add(queue);
+    public void addQueue(InvalidationsQueue queue) {
+        if (queues.addIfAbsent(queue)) {
+            // only sees invalidations propagated from now on
+            queue.attach(this, sequence.get());
         }
     }
 
-    public synchronized void removeQueue(InvalidationsQueue queue) {
+    public void removeQueue(InvalidationsQueue queue) {
+        // read what's left before its entries can be released
+        queue.detach(this);
         queues.remove(queue);
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Propagates invalidations to all the queues except the skipped one.
+     * <p>
+     * The invalidations must not be modified afterwards, as they are shared
+     * by all the queues.
+     */
     public void propagateInvalidations(Invalidations invalidations,
             InvalidationsQueue skipQueue) {
-        Collection<InvalidationsQueue> qq;
-        synchronized (this) {
-            qq = (Collection<InvalidationsQueue>) queues.clone();
+        if (invalidations == null || invalidations.isEmpty()) {
+            return;
+        }
+        synchronized (appendLock) {
+            long seq = sequence.get() + 1;
+            ring.set((int) seq & mask, new Entry(seq, invalidations,
+                    skipQueue));
+            // publish, the entry is visible before the sequence number
+            sequence.set(seq);
+            release(seq);
+        }
+    }
+
+    /**
+     * Releases the entries read by all the queues, so that the invalidations
+     * don't stay referenced. Called under the append lock.
+     */
+    protected void release(long seq) {
+        long min = seq;
+        for (InvalidationsQueue queue : queues) {
+            min = Math.min(min, queue.position.get());
+        }
+        // an entry older than the ring capacity was already overwritten
+        long from = Math.max(released, min - mask - 1);
+        for (long s = from + 1; s <= min; s++) {
+            int index = (int) s & mask;
+            Entry entry = ring.get(index);
+            if (entry != null && entry.seq == s) {
+                ring.compareAndSet(index, entry, null);
+            }
         }
-        int n = 0;
-        for (InvalidationsQueue q : qq) {
-            if (q != skipQueue) {
-                q.addInvalidations(invalidations);
-                n++;
+        released = Math.max(released, min);
+    }
+
+    /**
+     * Reads the invalidations propagated after the given sequence number and
+     * not skipped for the queue, merging them into the given invalidations.
+     *
+     * @return the last sequence number read
+     */
+    protected long read(long from, InvalidationsQueue queue,
+            Invalidations invalidations) {
+        long last = sequence.get();
+        long seq = from;
+        while (seq < last) {
+            long next = seq + 1;
+            Entry entry = ring.get((int) next & mask);
+            if (entry == null || entry.seq != next) {
+                // overwritten before we could read it
+                invalidations.add(new Invalidations(true));
+                return sequence.get();
+            }
+            if (entry.skipQueue != queue) {
+                invalidations.add(entry.invalidations);
             }
+            seq = next;
         }
+        return seq;
     }
 
     @Override
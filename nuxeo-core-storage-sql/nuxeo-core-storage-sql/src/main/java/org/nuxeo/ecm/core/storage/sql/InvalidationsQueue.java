@@ -11,42 +11,97 @@
  */
 package org.nuxeo.ecm.core.storage.sql;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Queue of invalidations.
  * <p>
- * All invalidations added are accumulated (from multiple threads), then
- * returned when asked for.
+ * All invalidations propagated by the {@link InvalidationsPropagator} to which
+ * the queue is attached are accumulated (from multiple threads), then returned
+ * when asked for. The queue is only a position in the propagator's log, so a
+ * queue shared between several readers gives each invalidation to only one of
+ * them.
  */
 public class InvalidationsQueue {
 
-    public Invalidations queue; // used under synchronization
-
     /** used for debugging */
     public final String name;
 
+    /** The propagator we read from, or {@code null} if detached. */
+    protected volatile InvalidationsPropagator propagator;
+
+    /** Last sequence number read from the propagator. */
+    protected final AtomicLong position = new AtomicLong();
+
+    /** Invalidations read but not yet returned when detached. */
+    protected volatile Invalidations leftover; // modified synchronized
+
     public InvalidationsQueue(String name) {
-        queue = new Invalidations();
         this.name = name;
     }
 
     /**
-     * Adds invalidations.
-     * <p>
-     * May be called asynchronously from multiple threads.
+     * Starts reading from a propagator, after the given sequence number.
+     *
+     * @since 5.9.1
      */
-    public synchronized void addInvalidations(Invalidations invalidations) {
-        queue.add(invalidations);
+    protected synchronized void attach(InvalidationsPropagator propagator,
+            long seq) {
+        if (this.propagator != null) {
+            keepLeftover(this.propagator);
+        }
+        position.set(seq);
+        this.propagator = propagator;
+    }
+
+    /**
+     * Stops reading from a propagator, keeping what hasn't been returned yet.
+     *
+     * @since 5.9.1
+     */
+    protected synchronized void detach(InvalidationsPropagator propagator) {
+        if (this.propagator == propagator) {
+            keepLeftover(propagator);
+            this.propagator = null;
+        }
+    }
+
+    protected void keepLeftover(InvalidationsPropagator propagator) {
+        if (leftover == null) {
+            leftover = new Invalidations();
+        }
+        leftover.add(read(propagator));
     }
 
     /**
      * Gets the queued invalidations and resets the queue.
      */
-    public synchronized Invalidations getInvalidations() {
-        Invalidations invalidations = queue;
-        queue = new Invalidations();
+    public Invalidations getInvalidations() {
+        InvalidationsPropagator p = propagator;
+        Invalidations invalidations = p == null ? new Invalidations()
+                : read(p);
+        if (leftover != null) {
+            synchronized (this) {
+                // leftover may have been taken meanwhile, add(null) is a no-op
+                invalidations.add(leftover);
+                leftover = null;
+            }
+        }
         return invalidations;
     }
 
+    protected Invalidations read(InvalidationsPropagator p) {
+        for (;;) {
+            long from = position.get();
+            Invalidations invalidations = new Invalidations();
+            long to = p.read(from, this, invalidations);
+            if (to == from || position.compareAndSet(from, to)) {
+                return invalidations;
+            }
+            // another reader of this queue got them first, retry
+        }
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + '(' + name + ')';
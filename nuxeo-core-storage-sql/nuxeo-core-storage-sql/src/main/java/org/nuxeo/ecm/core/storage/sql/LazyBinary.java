@@ -11,9 +11,13 @@
  */
 package org.nuxeo.ecm.core.storage.sql;
 
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 
 import org.nuxeo.runtime.services.streaming.FileSource;
 import org.nuxeo.runtime.services.streaming.StreamSource;
@@ -54,8 +58,13 @@ public class LazyBinary extends Binary {
         return cache;
     }
 
-    @Override
-    public InputStream getStream() throws IOException {
+    /**
+     * Fetches the file from the cache if not already done.
+     *
+     * @return the file, or {@code null} if it cannot be fetched
+     * @since 5.9.1
+     */
+    protected File getCachedFile() {
         if (file == null) {
             file = cache().getFile(digest);
             if (file != null) {
@@ -63,19 +72,44 @@ public class LazyBinary extends Binary {
                 hasLength = true;
             }
         }
-        return file == null ? null : new FileInputStream(file);
+        return file;
+    }
+
+    /**
+     * Fetches the file into the cache in the background, if not already done.
+     *
+     * @since 5.9.1
+     */
+    public void prefetch() {
+        if (file == null) {
+            cache().prefetch(digest);
+        }
+    }
+
+    @Override
+    public InputStream getStream() throws IOException {
+        return getCachedFile() == null ? null : new FileInputStream(file);
     }
 
     @Override
     public StreamSource getStreamSource() {
-        if (file == null) {
-            file = cache().getFile(digest);
-            if (file != null) {
-                length = file.length();
-                hasLength = true;
-            }
+        return getCachedFile() == null ? null : new FileSource(file);
+    }
+
+    @Override
+    public SeekableByteChannel getChannel() throws IOException {
+        if (getCachedFile() == null) {
+            throw new FileNotFoundException("Cannot fetch binary " + digest);
+        }
+        return super.getChannel();
+    }
+
+    @Override
+    public ByteBuffer map(long position, long size) throws IOException {
+        if (getCachedFile() == null) {
+            throw new FileNotFoundException("Cannot fetch binary " + digest);
         }
-        return file == null ? null : new FileSource(file);
+        return super.map(position, size);
     }
 
 
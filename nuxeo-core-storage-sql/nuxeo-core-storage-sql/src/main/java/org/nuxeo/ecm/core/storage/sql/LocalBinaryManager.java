@@ -19,8 +19,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.common.Environment;
@@ -37,7 +47,9 @@ import org.nuxeo.runtime.api.Framework;
  * <ul>
  * <li><em>data/</em> hierarchy with the actual binaries in subdirectories,</li>
  * <li><em>tmp/</em> temporary storage during creation,</li>
- * <li><em>config.xml</em> a file containing the configuration used.</li>
+ * <li><em>config.xml</em> a file containing the configuration used,</li>
+ * <li><em>gc-checkpoint.properties</em> present only if a GC was interrupted,
+ * to resume it.</li>
  * </ul>
  *
  * When not using a binary scrambler, you should use
@@ -145,6 +157,17 @@ public class LocalBinaryManager extends AbstractBinaryManager {
      * @return the file for this digest
      */
     public File getFileForDigest(String digest, boolean createDir) {
+        return getFileForDigest(storageDir, digest, createDir);
+    }
+
+    /**
+     * Gets a file representing the storage for a given digest, in a given
+     * base directory using the same layout as the binaries.
+     *
+     * @since 5.9.1
+     */
+    protected File getFileForDigest(File baseDir, String digest,
+            boolean createDir) {
         int depth = descriptor.depth;
         if (digest.length() < 2 * depth) {
             return null;
@@ -156,7 +179,7 @@ public class LocalBinaryManager extends AbstractBinaryManager {
             }
             buf.append(digest.substring(2 * i, 2 * i + 2));
         }
-        File dir = new File(storageDir, buf.toString());
+        File dir = new File(baseDir, buf.toString());
         if (createDir) {
             dir.mkdirs();
         }
@@ -215,12 +238,12 @@ public class LocalBinaryManager extends AbstractBinaryManager {
             File tmp = File.createTempFile(dest.getName(), ".tmp",
                     dest.getParentFile());
             try {
-                InputStream in = null;
-                OutputStream out = null;
+                FileInputStream in = null;
+                FileOutputStream out = null;
                 try {
                     in = new FileInputStream(source);
                     out = new FileOutputStream(tmp);
-                    IOUtils.copy(in, out);
+                    transfer(in.getChannel(), out.getChannel());
                 } finally {
                     if (in != null) {
                         in.close();
@@ -242,6 +265,27 @@ public class LocalBinaryManager extends AbstractBinaryManager {
         }
     }
 
+    /**
+     * Copies the whole content of a file channel to another. The copy is done
+     * by the operating system when possible, without going through the Java
+     * heap.
+     *
+     * @since 5.9.1
+     */
+    protected static void transfer(FileChannel in, FileChannel out)
+            throws IOException {
+        long size = in.size();
+        long pos = 0;
+        while (pos < size) {
+            long n = in.transferTo(pos, size - pos, out);
+            if (n <= 0) {
+                throw new IOException("Could not copy file, stopped at "
+                        + pos + "/" + size);
+            }
+            pos += n;
+        }
+    }
+
     protected void createGarbageCollector() {
         garbageCollector = new DefaultBinaryGarbageCollector(this);
     }
@@ -255,12 +299,73 @@ public class LocalBinaryManager extends AbstractBinaryManager {
          */
         public static int TIME_RESOLUTION = 2000;
 
+        /**
+         * Framework property for the number of threads sweeping the storage
+         * in parallel. Default is {@value #DEFAULT_THREADS}.
+         *
+         * @since 5.9.1
+         */
+        public static final String THREADS_PROP = "org.nuxeo.vcs.binarygc.threads";
+
+        /** @since 5.9.1 */
+        public static final int DEFAULT_THREADS = 4;
+
+        /**
+         * Framework property for the expected number of binaries, used to size
+         * the set of marked digests. Default is {@value #DEFAULT_EXPECTED}, or
+         * the number of binaries found by the previous GC (recorded in
+         * {@link #STATS_FILE}) if larger.
+         *
+         * @since 5.9.1
+         */
+        public static final String EXPECTED_PROP = "org.nuxeo.vcs.binarygc.expected";
+
+        /** @since 5.9.1 */
+        public static final long DEFAULT_EXPECTED = 1000000;
+
+        /**
+         * False positive rate of the set of marked digests: fraction of the
+         * unused binaries that may be kept until a later GC.
+         *
+         * @since 5.9.1
+         */
+        public static final double FALSE_POSITIVE_RATE = 0.01;
+
+        /**
+         * Checkpoint file, in the binaries directory, recording the shards
+         * already swept by an interrupted GC.
+         *
+         * @since 5.9.1
+         */
+        public static final String CHECKPOINT_FILE = "gc-checkpoint.properties";
+
+        protected static final String CHECKPOINT_DELETE = "delete";
+
+        protected static final String CHECKPOINT_SHARD_PREFIX = "shard.";
+
+        /**
+         * Statistics file, in the binaries directory, recording the number of
+         * binaries found by the last GC, to size the next one across
+         * restarts.
+         *
+         * @since 5.9.1
+         */
+        public static final String STATS_FILE = "gc-stats.properties";
+
+        protected static final String STATS_BINARIES = "binaries";
+
         protected final LocalBinaryManager binaryManager;
 
         protected volatile long startTime;
 
         protected BinaryManagerStatus status;
 
+        /** The digests marked since start. */
+        protected DigestBloomFilter marks;
+
+        /** The shards already swept, with their status, for resume. */
+        protected Properties checkpoint;
+
         public DefaultBinaryGarbageCollector(LocalBinaryManager binaryManager) {
             this.binaryManager = binaryManager;
         }
@@ -272,6 +377,10 @@ public class LocalBinaryManager extends AbstractBinaryManager {
 
         @Override
         public BinaryManagerStatus getStatus() {
+            DigestBloomFilter m = marks;
+            if (m != null) {
+                status.numBinariesMarked = m.getCount();
+            }
             return status;
         }
 
@@ -286,18 +395,15 @@ public class LocalBinaryManager extends AbstractBinaryManager {
             if (startTime != 0) {
                 throw new RuntimeException("Alread started");
             }
+            marks = newMarks(getExpected(getMarksStatsKey()));
             startTime = System.currentTimeMillis();
             status = new BinaryManagerStatus();
         }
 
         @Override
         public void mark(String digest) {
-            File file = binaryManager.getFileForDigest(digest, false);
-            if (!file.exists()) {
-                log.error("Unknown file digest: " + digest);
-                return;
-            }
-            touch(file);
+            // no filesystem access, the sweep checks the marks
+            marks.add(digest);
         }
 
         @Override
@@ -305,17 +411,323 @@ public class LocalBinaryManager extends AbstractBinaryManager {
             if (startTime == 0) {
                 throw new RuntimeException("Not started");
             }
-            deleteOld(binaryManager.getStorageDir(), startTime
-                    - TIME_RESOLUTION, 0, delete);
-            status.gcDuration = System.currentTimeMillis() - startTime;
-            startTime = 0;
+            try {
+                status.numBinariesMarked = marks.getCount();
+                checkCapacity(marks, "binaries");
+                sweep(startTime - TIME_RESOLUTION, delete);
+                status.gcDuration = System.currentTimeMillis() - startTime;
+                // marks may be missing from the storage, size for both
+                writeStat(STATS_BINARIES, Math.max(status.numBinaries
+                        + status.numBinariesGC,
+                        marks.getApproximateDistinctCount()));
+            } finally {
+                marks = null;
+                startTime = 0;
+            }
+        }
+
+        /**
+         * Gets the statistics key of the number of digests marked between
+         * {@link #start} and {@link #stop}.
+         *
+         * @since 5.9.1
+         */
+        protected String getMarksStatsKey() {
+            return STATS_BINARIES;
+        }
+
+        /**
+         * Creates an empty set of marked digests.
+         *
+         * @param expected the expected number of digests
+         * @since 5.9.1
+         */
+        protected DigestBloomFilter newMarks(long expected) {
+            // new seed each time to vary the false positives
+            return new DigestBloomFilter(expected, FALSE_POSITIVE_RATE,
+                    new Random().nextLong());
+        }
+
+        /**
+         * Gets the expected number of digests for a set of marks: the
+         * configured one, or the number recorded by the previous GC if larger.
+         *
+         * @param key the statistics key
+         * @since 5.9.1
+         */
+        protected long getExpected(String key) {
+            long expected = getLongProperty(EXPECTED_PROP, DEFAULT_EXPECTED);
+            String value = readProperties(getStatsFile()).getProperty(key);
+            if (value != null) {
+                try {
+                    expected = Math.max(expected, Long.parseLong(value));
+                } catch (NumberFormatException e) {
+                    log.error("Invalid GC statistic " + key + ": " + value);
+                }
+            }
+            return expected;
+        }
+
+        /**
+         * Records a number of digests in the statistics file, for the sizing
+         * of the next GC.
+         *
+         * @since 5.9.1
+         */
+        protected void writeStat(String key, long value) {
+            File file = getStatsFile();
+            Properties stats = readProperties(file);
+            stats.setProperty(key, String.valueOf(value));
+            writeProperties(stats, file);
+        }
+
+        /** @since 5.9.1 */
+        protected File getStatsFile() {
+            return new File(binaryManager.getStorageDir().getParentFile(),
+                    STATS_FILE);
+        }
+
+        /**
+         * Checks that a set of marks holds no more digests than it was sized
+         * for. Beyond that the false positive rate grows quickly, which keeps
+         * many unused binaries: nothing is wrongly deleted, but the sweep is
+         * mostly useless. The actual number is recorded for the next GC.
+         *
+         * @since 5.9.1
+         */
+        protected void checkCapacity(DigestBloomFilter filter, String what) {
+            long distinct = filter.getApproximateDistinctCount();
+            if (distinct > filter.getCapacity()) {
+                log.warn("GC of " + getId() + ": about " + distinct + " "
+                        + what + " marked for a capacity of "
+                        + filter.getCapacity()
+                        + ", many unused binaries will be kept. The next GC "
+                        + "will be sized for the actual number, or set "
+                        + EXPECTED_PROP);
+            }
+        }
+
+        /**
+         * Sweeps the top-level directories of the storage in parallel,
+         * skipping those recorded in the checkpoint of a previous interrupted
+         * GC.
+         */
+        protected void sweep(long minTime, boolean delete) {
+            File storageDir = binaryManager.getStorageDir();
+            sweep(storageDir, new File(storageDir.getParentFile(),
+                    CHECKPOINT_FILE), minTime, delete, status);
+        }
+
+        /**
+         * Sweeps the top-level directories of a directory in parallel,
+         * deleting the files not marked and not modified since
+         * {@code minTime}, and accumulating counts in the given status.
+         *
+         * @since 5.9.1
+         */
+        protected void sweep(File storageDir, final File checkpointFile,
+                final long minTime, final boolean delete,
+                final BinaryManagerStatus status) {
+            File[] files = storageDir.listFiles();
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files);
+            checkpoint = readCheckpoint(checkpointFile, delete);
+            List<File> shards = new ArrayList<File>(files.length);
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    shards.add(file);
+                } else {
+                    deleteOld(file, minTime, 1, delete, status);
+                }
+            }
+            status.numShards = shards.size();
+            ExecutorService executor = newExecutor(storageDir);
+            final AtomicInteger failed = new AtomicInteger();
+            for (final File shard : shards) {
+                final String previous = checkpoint.getProperty(CHECKPOINT_SHARD_PREFIX
+                        + shard.getName());
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            BinaryManagerStatus shardStatus;
+                            if (previous != null) {
+                                // already swept by an interrupted GC
+                                shardStatus = parseShardStatus(previous);
+                            } else {
+                                shardStatus = new BinaryManagerStatus();
+                                deleteOld(shard, minTime, 1, delete,
+                                        shardStatus);
+                            }
+                            shardSwept(shard, shardStatus, checkpointFile,
+                                    status);
+                        } catch (RuntimeException e) {
+                            failed.incrementAndGet();
+                            log.error("Cannot gc directory: " + shard, e);
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("GC of " + storageDir + ": "
+                                + status.numShardsSwept + "/"
+                                + status.numShards + " directories swept");
+                    }
+                }
+            } catch (InterruptedException e) {
+                // the checkpoint is kept to resume later
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted", e);
+            }
+            if (failed.get() == 0) {
+                // complete, next GC will start from scratch
+                checkpointFile.delete();
+            }
+            checkpoint = null;
+        }
+
+        /**
+         * Creates the executor running the GC of the top-level directories of
+         * a directory in parallel, with {@link #THREADS_PROP} threads.
+         *
+         * @since 5.9.1
+         */
+        protected ExecutorService newExecutor(File dir) {
+            int nthreads = (int) Math.max(1,
+                    getLongProperty(THREADS_PROP, DEFAULT_THREADS));
+            final String threadName = "Nuxeo-VCS-BinaryGC-" + dir.getName();
+            return Executors.newFixedThreadPool(nthreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        /**
+         * Adds the status of a swept shard to the global status and records
+         * it in the checkpoint.
+         */
+        protected void shardSwept(File shard, BinaryManagerStatus shardStatus,
+                File checkpointFile, BinaryManagerStatus status) {
+            synchronized (status) {
+                status.numBinaries += shardStatus.numBinaries;
+                status.sizeBinaries += shardStatus.sizeBinaries;
+                status.numBinariesGC += shardStatus.numBinariesGC;
+                status.sizeBinariesGC += shardStatus.sizeBinariesGC;
+                status.numShardsSwept++;
+                checkpoint.setProperty(
+                        CHECKPOINT_SHARD_PREFIX + shard.getName(),
+                        shardStatus.numBinaries + ","
+                                + shardStatus.sizeBinaries + ","
+                                + shardStatus.numBinariesGC + ","
+                                + shardStatus.sizeBinariesGC);
+                writeCheckpoint(checkpointFile);
+            }
+        }
+
+        protected static BinaryManagerStatus parseShardStatus(String value) {
+            String[] parts = value.split(",");
+            BinaryManagerStatus shardStatus = new BinaryManagerStatus();
+            shardStatus.numBinaries = Long.parseLong(parts[0]);
+            shardStatus.sizeBinaries = Long.parseLong(parts[1]);
+            shardStatus.numBinariesGC = Long.parseLong(parts[2]);
+            shardStatus.sizeBinariesGC = Long.parseLong(parts[3]);
+            return shardStatus;
+        }
+
+        /**
+         * Reads the checkpoint of a previous interrupted GC. It's only used if
+         * it was done in the same delete mode.
+         */
+        protected Properties readCheckpoint(File file, boolean delete) {
+            Properties props = readProperties(file);
+            if (!props.isEmpty()) {
+                if (String.valueOf(delete).equals(
+                        props.getProperty(CHECKPOINT_DELETE))) {
+                    log.info("Resuming interrupted GC from " + file + ", "
+                            + (props.size() - 1)
+                            + " directories already swept");
+                } else {
+                    props.clear();
+                }
+            }
+            props.setProperty(CHECKPOINT_DELETE, String.valueOf(delete));
+            return props;
+        }
+
+        /**
+         * Writes the checkpoint, atomically replacing the previous one.
+         */
+        protected void writeCheckpoint(File file) {
+            writeProperties(checkpoint, file);
+        }
+
+        /**
+         * Reads a GC properties file, empty if missing or unreadable.
+         *
+         * @since 5.9.1
+         */
+        protected Properties readProperties(File file) {
+            Properties props = new Properties();
+            if (file.exists()) {
+                try {
+                    InputStream in = new FileInputStream(file);
+                    try {
+                        props.load(in);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    log.error("Cannot read GC file: " + file, e);
+                    props.clear();
+                }
+            }
+            return props;
+        }
+
+        /**
+         * Writes a GC properties file, atomically replacing the previous one.
+         *
+         * @since 5.9.1
+         */
+        protected void writeProperties(Properties props, File file) {
+            try {
+                File tmp = new File(file.getPath() + ".tmp");
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    props.store(out, null);
+                } finally {
+                    out.close();
+                }
+                if (!tmp.renameTo(file)) {
+                    // Windows cannot rename onto an existing file
+                    file.delete();
+                    tmp.renameTo(file);
+                }
+            } catch (IOException e) {
+                log.error("Cannot write GC file: " + file, e);
+            }
         }
 
         protected void deleteOld(File file, long minTime, int depth,
-                boolean delete) {
+                boolean delete, BinaryManagerStatus status) {
             if (file.isDirectory()) {
-                for (File f : file.listFiles()) {
-                    deleteOld(f, minTime, depth + 1, delete);
+                File[] files = file.listFiles();
+                if (files == null) {
+                    log.error("Cannot list directory: " + file);
+                    return;
+                }
+                for (File f : files) {
+                    deleteOld(f, minTime, depth + 1, delete, status);
                 }
                 if (depth > 0 && file.list().length == 0) {
                     // empty directory
@@ -326,7 +738,9 @@ public class LocalBinaryManager extends AbstractBinaryManager {
                 long length = file.length();
                 if (lastModified == 0) {
                     log.error("Cannot read last modified for file: " + file);
-                } else if (lastModified < minTime) {
+                } else if (lastModified < minTime
+                        && !marks.mightContain(file.getName())) {
+                    // not marked, and not (re)created since the GC started
                     status.sizeBinariesGC += length;
                     status.numBinariesGC++;
                     if (delete && !file.delete()) {
@@ -338,6 +752,19 @@ public class LocalBinaryManager extends AbstractBinaryManager {
                 }
             }
         }
+
+        protected static long getLongProperty(String name, long def) {
+            String value = Framework.getProperty(name);
+            if (value == null) {
+                return def;
+            }
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                log.error("Invalid property " + name, e);
+                return def;
+            }
+        }
     }
 
     /**
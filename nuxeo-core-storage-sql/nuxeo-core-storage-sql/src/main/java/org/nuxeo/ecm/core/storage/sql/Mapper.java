@@ -15,6 +15,7 @@ package org.nuxeo.ecm.core.storage.sql;
 import java.io.Serializable;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 import javax.transaction.xa.XAResource;
@@ -144,6 +145,19 @@ public interface Mapper extends RowMapper, XAResource {
             QueryFilter queryFilter, long countUpTo)
             throws StorageException;
 
+    /**
+     * Makes a NXQL query to the database and returns the matching ids as a
+     * forward-only stream, for callers iterating over very large results.
+     *
+     * @param query the query
+     * @param queryType the query type
+     * @param queryFilter the query filter
+     * @return a stream of ids, which <b>must</b> be closed when done
+     * @since 5.9.1
+     */
+    IdStream queryIds(String query, String queryType, QueryFilter queryFilter)
+            throws StorageException;
+
     /**
      * Makes a query to the database and returns an iterable (which must be
      * closed when done).
@@ -167,14 +181,55 @@ public interface Mapper extends RowMapper, XAResource {
     Set<Serializable> getAncestorsIds(Collection<Serializable> ids)
             throws StorageException;
 
+    /**
+     * Resolves a path of non-complex children names from a given node using
+     * the hierarchy index, without walking the path one level at a time.
+     *
+     * @param parentId the id of the node from which the names are resolved
+     * @param names the successive children names
+     * @return the ids of the nodes for each name, or {@code null} if the path
+     *         does not exist
+     * @since 5.9.1
+     */
+    List<Serializable> getIdsForPath(Serializable parentId, String[] names)
+            throws StorageException;
+
     /*
      * ----- ACLs -----
      */
 
-    void updateReadAcls() throws StorageException;
+    /**
+     * Updates the read acls of the modified documents.
+     * <p>
+     * With an asynchronous read acls update, only the read acls of new
+     * documents are computed, and the other documents are queued for
+     * {@link #updateReadAclsBatch}.
+     *
+     * @return the number of documents queued for an asynchronous update, 0 if
+     *         none or if the update is synchronous
+     */
+    int updateReadAcls() throws StorageException;
 
     void rebuildReadAcls() throws StorageException;
 
+    /**
+     * Computes the read acls of a batch of the documents queued by an
+     * asynchronous read acls update. Their children are queued in turn.
+     *
+     * @param max the maximum number of documents to process
+     * @return the number of documents processed, 0 if none is left
+     * @since 5.9.1
+     */
+    int updateReadAclsBatch(int max) throws StorageException;
+
+    /**
+     * Swaps in the read acls computed by {@link #updateReadAclsBatch}.
+     *
+     * @return the number of documents updated
+     * @since 5.9.1
+     */
+    int swapReadAcls() throws StorageException;
+
     /*
      * ----- Clustering -----
      */
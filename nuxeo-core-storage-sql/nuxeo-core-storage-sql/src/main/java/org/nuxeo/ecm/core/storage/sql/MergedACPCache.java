@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+/**
+ * A repository-wide cache of the merged ACP of committed documents, computed
+ * from the ACLs of the document and of its ancestors.
+ * <p>
+ * Each merged ACP is stored with the ids of the nodes it was computed from
+ * (the document and the ancestors up to the root or to the first one blocking
+ * inheritance). An invalidation of the ACL or hierarchy row of one of these
+ * nodes, due to an ACL change, a move or a deletion, removes the merged ACP.
+ * <p>
+ * Sessions use the stamp obtained by {@link #getStamp} before processing
+ * their received invalidations. A merged ACP is only put if none of the nodes
+ * it was computed from was invalidated since the stamp, otherwise the session
+ * may have computed it from stale data.
+ * <p>
+ * The cache is split in segments by node id, each with its own LRU order and
+ * lock, holding the merged ACPs of its documents and the dependents of its
+ * nodes. At most one segment lock is held at a time.
+ *
+ * @since 5.9.1
+ */
+public class MergedACPCache {
+
+    protected static final int SEGMENTS = 16; // power of two
+
+    /** Number of stripes keeping the version of the last invalidation. */
+    protected static final int STRIPES = 1024; // power of two
+
+    protected final String repositoryName;
+
+    protected final Segment[] segments;
+
+    /**
+     * Version of the last invalidation, by stripe of node ids. Guarded by the
+     * lock of the segment of the ids.
+     */
+    protected final long[] invalidated = new long[STRIPES];
+
+    /** Incremented by each invalidation. */
+    protected final AtomicLong version = new AtomicLong();
+
+    protected final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    protected final Counter hits;
+
+    protected final Counter misses;
+
+    public MergedACPCache(String repositoryName, int maxSize) {
+        this.repositoryName = repositoryName;
+        int maxSegmentSize = Math.max(maxSize / SEGMENTS, 1);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxSegmentSize);
+        }
+        hits = registry.counter(metricName("hits"));
+        misses = registry.counter(metricName("misses"));
+    }
+
+    protected String metricName(String name) {
+        return MetricRegistry.name("nuxeo", "repositories", repositoryName,
+                "caches", "acp", name);
+    }
+
+    protected static final class Entry {
+
+        protected final Serializable id;
+
+        protected final ACP acp;
+
+        protected final Serializable[] dependencies;
+
+        /**
+         * Set when removed, to prevent a later publication. Guarded by the
+         * lock of the segment of the id.
+         */
+        protected boolean removed;
+
+        protected Entry(Serializable id, ACP acp, Serializable[] dependencies) {
+            this.id = id;
+            this.acp = acp;
+            this.dependencies = dependencies;
+        }
+    }
+
+    /**
+     * Part of the cache, with its own LRU order and lock.
+     */
+    protected static class Segment {
+
+        protected final int maxSize;
+
+        protected final LinkedHashMap<Serializable, Entry> entries;
+
+        /** Cached entries depending on a given node. */
+        protected final Map<Serializable, Set<Entry>> dependents;
+
+        protected Segment(int maxSize) {
+            this.maxSize = maxSize;
+            entries = new LinkedHashMap<Serializable, Entry>(16, 0.75f, true);
+            dependents = new HashMap<Serializable, Set<Entry>>();
+        }
+
+        protected synchronized Entry get(Serializable id) {
+            return entries.get(id);
+        }
+
+        /**
+         * Puts an entry, returns the replaced and evicted entries, or
+         * {@code null} if the entry was already removed.
+         */
+        protected synchronized List<Entry> put(Entry entry) {
+            if (entry.removed) {
+                return null;
+            }
+            List<Entry> removed = new LinkedList<Entry>();
+            Entry old = entries.put(entry.id, entry);
+            if (old != null) {
+                removed.add(old);
+            }
+            if (entries.size() > maxSize) {
+                Iterator<Entry> it = entries.values().iterator();
+                removed.add(it.next());
+                it.remove();
+            }
+            return removed;
+        }
+
+        protected synchronized void remove(Entry entry) {
+            entry.removed = true;
+            if (entries.get(entry.id) == entry) {
+                entries.remove(entry.id);
+            }
+        }
+
+        protected synchronized void addDependent(Serializable id, Entry entry) {
+            Set<Entry> set = dependents.get(id);
+            if (set == null) {
+                dependents.put(id, set = new HashSet<Entry>());
+            }
+            set.add(entry);
+        }
+
+        protected synchronized void removeDependent(Serializable id,
+                Entry entry) {
+            Set<Entry> set = dependents.get(id);
+            if (set != null) {
+                set.remove(entry);
+                if (set.isEmpty()) {
+                    dependents.remove(id);
+                }
+            }
+        }
+
+        protected synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    protected static int getStripe(Serializable id) {
+        int h = id.hashCode();
+        h ^= (h >>> 16);
+        return h & (STRIPES - 1);
+    }
+
+    /** The stripes of a segment are the ones with the same low bits. */
+    protected Segment getSegment(Serializable id) {
+        return segments[getStripe(id) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Gets the stamp to use by a session before processing its received
+     * invalidations.
+     */
+    public long getStamp() {
+        return version.get();
+    }
+
+    /**
+     * Gets the merged ACP of a document.
+     * <p>
+     * The returned ACP is shared and must not be modified.
+     *
+     * @param id the document id
+     * @return the merged ACP, or {@code null} if not cached
+     */
+    public ACP get(Serializable id) {
+        Entry entry = getSegment(id).get(id);
+        if (entry == null) {
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        return entry.acp;
+    }
+
+    /**
+     * Puts the merged ACP of a document, computed by a session.
+     *
+     * @param id the document id
+     * @param acp the merged ACP, which must not be modified afterwards
+     * @param dependencies the ids of the nodes the ACP was computed from
+     * @param stamp the session stamp
+     */
+    public void put(Serializable id, ACP acp, Serializable[] dependencies,
+            long stamp) {
+        Entry entry = new Entry(id, acp, dependencies);
+        // the check and the registration of each dependency are atomic with
+        // respect to its invalidation, and are done before publication so
+        // that a stale entry is never visible
+        boolean stale = false;
+        for (Serializable dep : dependencies) {
+            Segment segment = getSegment(dep);
+            synchronized (segment) {
+                if (invalidated[getStripe(dep)] > stamp) {
+                    // invalidated since the stamp, may be stale
+                    stale = true;
+                    break;
+                }
+                segment.addDependent(dep, entry);
+            }
+        }
+        if (stale) {
+            removeDependents(entry);
+            return;
+        }
+        // a dependency invalidated from now on marks the entry removed, in
+        // which case it is not published
+        List<Entry> removed = getSegment(id).put(entry);
+        if (removed == null) {
+            removeDependents(entry);
+            return;
+        }
+        for (Entry old : removed) {
+            removeDependents(old);
+        }
+    }
+
+    protected void removeDependents(Entry entry) {
+        for (Serializable dep : entry.dependencies) {
+            getSegment(dep).removeDependent(dep, entry);
+        }
+    }
+
+    /**
+     * Invalidates the ACL and hierarchy rows modified or deleted by a
+     * committed transaction, from this cluster node or another one.
+     * <p>
+     * Must be called after the invalidations have been propagated to the
+     * sessions' queues.
+     */
+    public void invalidate(Invalidations invalidations) {
+        if (invalidations == null) {
+            return;
+        }
+        if (invalidations.all) {
+            clear();
+            return;
+        }
+        if (invalidations.modified != null) {
+            for (RowId rowId : invalidations.modified) {
+                invalidate(rowId);
+            }
+        }
+        if (invalidations.deleted != null) {
+            for (RowId rowId : invalidations.deleted) {
+                invalidate(rowId);
+            }
+        }
+    }
+
+    protected void invalidate(RowId rowId) {
+        if (Model.ACL_TABLE_NAME.equals(rowId.tableName)
+                || Model.HIER_TABLE_NAME.equals(rowId.tableName)) {
+            invalidateId(rowId.id);
+        }
+    }
+
+    protected void invalidateId(Serializable id) {
+        long v = version.incrementAndGet();
+        int stripe = getStripe(id);
+        Segment segment = getSegment(id);
+        Set<Entry> set;
+        synchronized (segment) {
+            invalidated[stripe] = Math.max(invalidated[stripe], v);
+            set = segment.dependents.remove(id);
+        }
+        if (set != null) {
+            for (Entry dependent : set) {
+                getSegment(dependent.id).remove(dependent);
+                removeDependents(dependent);
+            }
+        }
+    }
+
+    public void clear() {
+        long v = version.incrementAndGet();
+        // entries being put are registered as dependents but not yet
+        // published, they must be marked removed
+        Set<Entry> pending = new HashSet<Entry>();
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment segment = segments[i];
+            synchronized (segment) {
+                for (int stripe = i; stripe < STRIPES; stripe += SEGMENTS) {
+                    invalidated[stripe] = v;
+                }
+                segment.entries.clear();
+                for (Set<Entry> set : segment.dependents.values()) {
+                    pending.addAll(set);
+                }
+                segment.dependents.clear();
+            }
+        }
+        for (Entry entry : pending) {
+            getSegment(entry.id).remove(entry);
+        }
+    }
+
+    /**
+     * Gets the number of cached merged ACPs.
+     */
+    public long getSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Gets the number of cached merged ACPs depending on a node.
+     */
+    protected int getDependentsCount(Serializable id) {
+        Segment segment = getSegment(id);
+        synchronized (segment) {
+            Set<Entry> set = segment.dependents.get(id);
+            return set == null ? 0 : set.size();
+        }
+    }
+
+    public void close() {
+        clear();
+        registry.remove(metricName("hits"));
+        registry.remove(metricName("misses"));
+    }
+
+}
@@ -25,6 +25,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -341,6 +343,9 @@ public class Model {
     /** Map of fragment to key to column type. */
     private final Map<String, Map<String, ColumnType>> fragmentKeyTypes;
 
+    /** Per-fragment row layouts, computed on first use. */
+    private final ConcurrentMap<String, RowLayout> rowLayouts = new ConcurrentHashMap<String, RowLayout>();
+
     /** Map of fragment to keys for binary columns. */
     private final Map<String, List<String>> binaryFragmentKeys;
 
@@ -1082,6 +1087,32 @@ public class Model {
         return fragmentKeyTypes.get(fragmentName);
     }
 
+    /**
+     * Gets the row layout for a simple fragment: its keys in column order, the
+     * main key excluded.
+     *
+     * @return the layout, or {@code null} for an unknown or collection
+     *         fragment
+     * @since 5.9.1
+     */
+    public RowLayout getRowLayout(String fragmentName) {
+        RowLayout layout = rowLayouts.get(fragmentName);
+        if (layout == null) {
+            Map<String, ColumnType> keysType = fragmentKeyTypes.get(fragmentName);
+            if (keysType == null || isCollectionFragment(fragmentName)) {
+                return null;
+            }
+            List<String> keys = new ArrayList<String>(keysType.keySet());
+            keys.remove(MAIN_KEY);
+            layout = new RowLayout(keys);
+            RowLayout old = rowLayouts.putIfAbsent(fragmentName, layout);
+            if (old != null) {
+                layout = old;
+            }
+        }
+        return layout;
+    }
+
     public Map<String, List<String>> getBinaryPropertyInfos() {
         return binaryFragmentKeys;
     }
@@ -32,6 +32,7 @@ import org.apache.commons.collections.map.ReferenceMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.common.utils.StringUtils;
+import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.schema.FacetNames;
 import org.nuxeo.ecm.core.storage.StorageException;
 import org.nuxeo.ecm.core.storage.sql.Fragment.State;
@@ -135,6 +136,53 @@ public class PersistenceContext {
      */
     private final Set<Serializable> createdIds;
 
+    /**
+     * Ids allocated in advance by {@link #reserveNewIds}, used before asking
+     * the mapper for new ones.
+     */
+    private final LinkedList<Serializable> reservedIds;
+
+    /**
+     * Whether non-complex nodes were created or moved since the last save.
+     * These changes are not yet visible to the database, so paths cannot be
+     * resolved by the mapper in a single query until the next save.
+     */
+    private boolean hierarchyChanged;
+
+    /**
+     * The repository-wide cache of hierarchy names, or {@code null}.
+     */
+    protected final HierarchyCache hierarchyCache;
+
+    /**
+     * The stamp of the hierarchy cache, taken before the last processing of
+     * received invalidations.
+     */
+    private long hierarchyCacheStamp;
+
+    /**
+     * Whether nodes were moved or renamed in the current transaction, in
+     * which case the hierarchy cache doesn't reflect what the session sees.
+     */
+    private boolean hierarchyMovedInTransaction;
+
+    /**
+     * The repository-wide cache of merged ACPs, or {@code null}.
+     */
+    protected final MergedACPCache mergedACPCache;
+
+    /**
+     * The stamp of the merged ACP cache, taken before the last processing of
+     * received invalidations.
+     */
+    private long mergedACPCacheStamp;
+
+    /**
+     * Whether ACLs were changed in the current transaction, in which case the
+     * merged ACP cache doesn't reflect what the session sees.
+     */
+    private boolean aclsChangedInTransaction;
+
     /**
      * Cache statistics
      *
@@ -180,6 +228,17 @@ public class PersistenceContext {
         // this has to be linked to keep creation order, as foreign keys
         // are used and need this
         createdIds = new LinkedHashSet<Serializable>();
+        reservedIds = new LinkedList<Serializable>();
+        hierarchyCache = session.repository == null ? null
+                : session.repository.getHierarchyCache();
+        if (hierarchyCache != null) {
+            hierarchyCacheStamp = hierarchyCache.getStamp();
+        }
+        mergedACPCache = session.repository == null ? null
+                : session.repository.getMergedACPCache();
+        if (mergedACPCache != null) {
+            mergedACPCacheStamp = mergedACPCache.getStamp();
+        }
         cacheHitCount = registry.counter(MetricRegistry.name(
                 "nuxeo", "repositories", session.getRepositoryName(), "caches", "hit"));
         cacheGetTimer = registry.timer(MetricRegistry.name(
@@ -194,6 +253,9 @@ public class PersistenceContext {
         int n = clearLocalCaches();
         modified.clear(); // not empty when rolling back before save
         createdIds.clear();
+        hierarchyChanged = false;
+        hierarchyMovedInTransaction = false;
+        aclsChangedInTransaction = false;
         return n;
     }
 
@@ -232,12 +294,28 @@ public class PersistenceContext {
     protected Serializable generateNewId(Serializable id)
             throws StorageException {
         if (id == null) {
-            id = mapper.generateNewId();
+            id = reservedIds.poll();
+            if (id == null) {
+                id = mapper.generateNewId();
+            }
         }
         createdIds.add(id);
         return id;
     }
 
+    /**
+     * Allocates in advance the ids of the given number of fragments about to
+     * be created, in one mapper call.
+     *
+     * @since 5.9.1
+     */
+    public void reserveNewIds(int count) throws StorageException {
+        int missing = count - reservedIds.size();
+        if (missing > 1) {
+            reservedIds.addAll(mapper.generateNewIds(missing));
+        }
+    }
+
     protected boolean isIdNew(Serializable id) {
         return createdIds.contains(id);
     }
@@ -320,6 +398,7 @@ public class PersistenceContext {
         for (SelectionContext sel : selections) {
             sel.postSave();
         }
+        hierarchyChanged = false;
 
         return batch;
     }
@@ -441,6 +520,9 @@ public class PersistenceContext {
         RowId rowId = fragment.row;
         pristine.remove(rowId);
         modified.put(rowId, fragment);
+        if (Model.ACL_TABLE_NAME.equals(rowId.tableName)) {
+            aclsChangedInTransaction = true;
+        }
     }
 
     // also called from Fragment
@@ -463,6 +545,8 @@ public class PersistenceContext {
         }
         mapper.sendInvalidations(invalidations);
         // events sent in mapper
+        hierarchyMovedInTransaction = false;
+        aclsChangedInTransaction = false;
     }
 
     /**
@@ -471,6 +555,13 @@ public class PersistenceContext {
      * Called pre-transaction by start or transactionless save;
      */
     public void processReceivedInvalidations() throws StorageException {
+        if (hierarchyCache != null) {
+            // before receiving, so that later invalidations disable the cache
+            hierarchyCacheStamp = hierarchyCache.getStamp();
+        }
+        if (mergedACPCache != null) {
+            mergedACPCacheStamp = mergedACPCache.getStamp();
+        }
         InvalidationsPair invals = mapper.receiveInvalidations();
         if (invals == null) {
             return;
@@ -775,7 +866,8 @@ public class PersistenceContext {
                     Row row = new Row(rowId.tableName, rowId.id, empty);
                     return new CollectionFragment(row, State.ABSENT, this);
                 } else {
-                    Row row = new Row(rowId.tableName, rowId.id);
+                    Row row = new Row(rowId.tableName, rowId.id,
+                            model.getRowLayout(rowId.tableName));
                     return new SimpleFragment(row, State.ABSENT, this);
                 }
             } else {
@@ -784,11 +876,34 @@ public class PersistenceContext {
         }
     }
 
+    /**
+     * Creates the row of a new fragment, with the layout of its table. All the
+     * keys of the layout are present with a {@code null} value, which is what
+     * is inserted for a missing key anyway, so that the values put later land
+     * at their layout position.
+     *
+     * @since 5.9.1
+     */
+    public Row newRow(String tableName, Serializable id) {
+        RowLayout layout = model.getRowLayout(tableName);
+        Row row = new Row(tableName, id, layout);
+        if (layout != null) {
+            for (int i = 0; i < layout.size(); i++) {
+                row.putNew(layout.getKey(i), null);
+            }
+        }
+        return row;
+    }
+
     public SimpleFragment createHierarchyFragment(Row row)
             throws StorageException {
         SimpleFragment fragment = createSimpleFragment(row);
-        SelectionContext hierSel = getHierSelectionContext(complexProp(fragment));
+        boolean complexProp = complexProp(fragment);
+        SelectionContext hierSel = getHierSelectionContext(complexProp);
         hierSel.recordCreated(fragment);
+        if (!complexProp) {
+            hierarchyChanged = true;
+        }
         // no children for this new node
         Serializable id = fragment.getId();
         hierComplex.newSelection(id);
@@ -1137,8 +1252,28 @@ public class PersistenceContext {
      */
     public PathAndId getPathOrMissingParentId(SimpleFragment hierFragment,
             boolean fetch) throws StorageException {
+        boolean useHierarchyCache = hierarchyCache != null
+                && !hierarchyMovedInTransaction
+                && hierarchyCache.isUsable(hierarchyCacheStamp);
+        if (useHierarchyCache) {
+            Serializable parentId = hierFragment.get(Model.HIER_PARENT_KEY);
+            if (parentId != null) {
+                String parentPath = hierarchyCache.getPath(parentId,
+                        hierarchyCacheStamp);
+                if (parentPath != null) {
+                    String name = hierFragment.getString(Model.HIER_CHILD_NAME_KEY);
+                    if (name == null) {
+                        name = "";
+                    }
+                    String path = parentPath.equals("/") ? "/" + name
+                            : parentPath + "/" + name;
+                    return new PathAndId(path, null);
+                }
+            }
+        }
         LinkedList<String> list = new LinkedList<String>();
         Serializable parentId = null;
+        boolean first = true;
         while (true) {
             String name = hierFragment.getString(Model.HIER_CHILD_NAME_KEY);
             if (name == null) {
@@ -1147,6 +1282,12 @@ public class PersistenceContext {
             }
             list.addFirst(name);
             parentId = hierFragment.get(Model.HIER_PARENT_KEY);
+            if (useHierarchyCache && !first
+                    && hierFragment.getState() == State.PRISTINE) {
+                hierarchyCache.put(hierFragment.getId(), parentId, name,
+                        hierarchyCacheStamp);
+            }
+            first = false;
             if (parentId == null) {
                 // root
                 break;
@@ -1183,6 +1324,38 @@ public class PersistenceContext {
         return new PathAndId(path, null);
     }
 
+    /**
+     * Checks if the repository-wide merged ACP cache reflects what this
+     * session sees.
+     */
+    protected boolean isMergedACPCacheUsable() {
+        return mergedACPCache != null && !aclsChangedInTransaction
+                && !hierarchyMovedInTransaction;
+    }
+
+    /**
+     * Gets the merged ACP of a document from the repository-wide cache.
+     *
+     * @return the shared ACP, or {@code null} if not available
+     */
+    public ACP getCachedMergedACP(Serializable id) {
+        if (!isMergedACPCacheUsable()) {
+            return null;
+        }
+        return mergedACPCache.get(id);
+    }
+
+    /**
+     * Puts the merged ACP of a document in the repository-wide cache.
+     */
+    public void putCachedMergedACP(Serializable id, ACP acp,
+            Serializable[] dependencies) {
+        if (!isMergedACPCacheUsable()) {
+            return;
+        }
+        mergedACPCache.put(id, acp, dependencies, mergedACPCacheStamp);
+    }
+
     /**
      * Finds the id of the enclosing non-complex-property node.
      *
@@ -1246,6 +1419,64 @@ public class PersistenceContext {
         return false;
     }
 
+    /**
+     * Prepares the creation of several regular children in a folder.
+     * <p>
+     * Only the children having the given names are read, so that the name
+     * checks don't need the full list of children. For an orderable folder the
+     * highest child position is read as well, so that the positions of the new
+     * children can be allocated without the full list either.
+     *
+     * @param parentId the folder id
+     * @param names the names of the children about to be created
+     * @since 5.9.1
+     */
+    public void prepareChildren(Serializable parentId, Collection<String> names)
+            throws StorageException {
+        if (hierNonComplex.isComplete(parentId)) {
+            return;
+        }
+        Set<String> unknown = new HashSet<String>();
+        for (String name : names) {
+            if (name != null
+                    && getKnownChildHierByName(parentId, name) == SimpleFragment.UNKNOWN) {
+                unknown.add(name);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            for (Row row : mapper.readChildRowsByNames(parentId, unknown)) {
+                // records the fragment in the children selection
+                getFragmentFromFetchedRow(row, false);
+                unknown.remove(row.get(Model.HIER_CHILD_NAME_KEY));
+            }
+            hierNonComplex.recordAbsent(parentId, unknown);
+        }
+        if (!isOrderable(parentId, false)
+                || hierNonComplex.getNextPos(parentId) != null) {
+            return;
+        }
+        Long dbMax = mapper.readMaxChildPos(parentId);
+        long max = dbMax == null ? -1 : dbMax.longValue();
+        // children created in this context are not in the database yet
+        for (Serializable id : createdIds) {
+            Fragment fragment = getIfPresent(new RowId(Model.HIER_TABLE_NAME,
+                    id));
+            if (fragment == null) {
+                continue;
+            }
+            SimpleFragment hier = (SimpleFragment) fragment;
+            if (!parentId.equals(hier.get(Model.HIER_PARENT_KEY))
+                    || complexProp(hier)) {
+                continue;
+            }
+            Long pos = (Long) hier.get(Model.HIER_CHILD_POS_KEY);
+            if (pos != null && pos.longValue() > max) {
+                max = pos.longValue();
+            }
+        }
+        hierNonComplex.setNextPos(parentId, Long.valueOf(max + 1));
+    }
+
     /**
      * Gets the next pos value for a new child in a folder.
      *
@@ -1259,6 +1490,15 @@ public class PersistenceContext {
         if (!isOrderable(nodeId, complexProp)) {
             return null;
         }
+        if (!complexProp && !hierNonComplex.isComplete(nodeId)) {
+            // position recorded by prepareChildren
+            Long nextPos = hierNonComplex.getNextPos(nodeId);
+            if (nextPos != null) {
+                hierNonComplex.setNextPos(nodeId,
+                        Long.valueOf(nextPos.longValue() + 1));
+                return nextPos;
+            }
+        }
         long max = -1;
         for (SimpleFragment fragment : getChildren(nodeId, null, complexProp)) {
             Long pos = (Long) fragment.get(Model.HIER_CHILD_POS_KEY);
@@ -1334,6 +1574,29 @@ public class PersistenceContext {
                 parentId, name);
     }
 
+    /**
+     * Gets the hier fragment for a non-complex child if the children of the
+     * parent are known in this context, without reading from the mapper.
+     *
+     * @return the fragment, or {@code null} if there is no such child, or
+     *         {@link SimpleFragment#UNKNOWN} if the context doesn't know
+     * @since 5.9.1
+     */
+    public SimpleFragment getKnownChildHierByName(Serializable parentId,
+            String name) {
+        return hierNonComplex.getKnownSelectionFragment(parentId, name);
+    }
+
+    /**
+     * Checks if the database sees the same non-complex hierarchy as this
+     * context, in which case paths can be resolved by the mapper.
+     *
+     * @since 5.9.1
+     */
+    public boolean isHierarchySaved() {
+        return !hierarchyChanged;
+    }
+
     /**
      * Gets hier fragments for children.
      */
@@ -1411,6 +1674,10 @@ public class PersistenceContext {
         getHierSelectionContext(complexProp).recordRemoved(hierFragment);
         hierFragment.put(Model.HIER_PARENT_KEY, parentId);
         getHierSelectionContext(complexProp).recordExisting(hierFragment, true);
+        if (!complexProp) {
+            hierarchyChanged = true;
+        }
+        hierarchyMovedInTransaction = true;
         // path invalidated
         source.path = null;
     }
@@ -1505,13 +1772,13 @@ public class PersistenceContext {
                 verHier.get(Model.MAIN_MINOR_VERSION_KEY));
 
         // create a "version" row for our new version
-        Row row = new Row(Model.VERSION_TABLE_NAME, newId);
-        row.putNew(Model.VERSION_VERSIONABLE_KEY, id);
-        row.putNew(Model.VERSION_CREATED_KEY, new GregorianCalendar()); // now
-        row.putNew(Model.VERSION_LABEL_KEY, label);
-        row.putNew(Model.VERSION_DESCRIPTION_KEY, checkinComment);
-        row.putNew(Model.VERSION_IS_LATEST_KEY, Boolean.TRUE);
-        row.putNew(Model.VERSION_IS_LATEST_MAJOR_KEY, Boolean.valueOf(isMajor));
+        Row row = newRow(Model.VERSION_TABLE_NAME, newId);
+        row.put(Model.VERSION_VERSIONABLE_KEY, id);
+        row.put(Model.VERSION_CREATED_KEY, new GregorianCalendar()); // now
+        row.put(Model.VERSION_LABEL_KEY, label);
+        row.put(Model.VERSION_DESCRIPTION_KEY, checkinComment);
+        row.put(Model.VERSION_IS_LATEST_KEY, Boolean.TRUE);
+        row.put(Model.VERSION_IS_LATEST_MAJOR_KEY, Boolean.valueOf(isMajor));
         createVersionFragment(row);
 
         // update the original node to reflect that it's checked in
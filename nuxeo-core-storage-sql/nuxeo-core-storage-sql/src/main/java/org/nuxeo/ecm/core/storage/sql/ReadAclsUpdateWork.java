@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.work.AbstractWork;
+
+/**
+ * Work task that updates the read acls of the subtrees of the documents whose
+ * ACL changed or that moved, when the asynchronous read acls update is
+ * enabled.
+ * <p>
+ * At save time the session only computes the read acls of new documents and
+ * queues the modified ones. This work then computes the read acls of the
+ * queued documents and of their descendants by batches, each one in its own
+ * database transaction, and finally swaps them in. Only this last step takes
+ * the repository-wide read acls update lock.
+ * <p>
+ * The queue is kept in the database, so a suspended or interrupted work is
+ * resumed by the next one.
+ *
+ * @since 5.9.1
+ */
+public class ReadAclsUpdateWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(ReadAclsUpdateWork.class);
+
+    protected static final String CATEGORY = "updateReadAcls";
+
+    protected static final String TITLE = "Read ACLs Update";
+
+    public ReadAclsUpdateWork(String repositoryName) {
+        // only one scheduled per repository
+        super(repositoryName + ":updateReadAcls");
+        this.repositoryName = repositoryName;
+    }
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public String getTitle() {
+        return TITLE;
+    }
+
+    @Override
+    public void work() throws Exception {
+        RepositoryImpl repository = RepositoryResolver.getRepositoryImpl(RepositoryResolver.getRepository(repositoryName));
+        int batchSize = repository.getRepositoryDescriptor().aclOptimizationsAsyncUpdateBatchSize;
+        // the batches are committed one by one outside of any transaction
+        commitOrRollbackTransaction();
+        try {
+            SessionImpl conn = repository.getConnection();
+            try {
+                setStatus("Updating");
+                long done = 0;
+                for (;;) {
+                    if (isSuspending()) {
+                        // the remaining documents stay queued
+                        suspended();
+                        return;
+                    }
+                    int n = conn.updateReadAclsBatch(batchSize);
+                    if (n == 0) {
+                        break;
+                    }
+                    done += n;
+                    setProgress(new Progress(done, 0));
+                }
+                if (done == 0) {
+                    // queue emptied by a concurrent work, which swaps, and
+                    // what an interrupted work left is swapped at startup
+                    setStatus("Done");
+                    return;
+                }
+                // also swaps what an interrupted work left
+                setStatus("Swapping");
+                int count = conn.swapReadAcls();
+                if (log.isDebugEnabled()) {
+                    log.debug("Read acls computed for " + done
+                            + " documents, " + count + " updated");
+                }
+                setStatus("Done");
+            } finally {
+                conn.close();
+            }
+        } finally {
+            startTransaction();
+        }
+    }
+
+}
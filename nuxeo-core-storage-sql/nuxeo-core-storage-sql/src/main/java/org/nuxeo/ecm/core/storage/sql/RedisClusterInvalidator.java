@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.redis.RedisService;
+import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.runtime.api.Framework;
+
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * Cluster invalidator using Redis publish/subscribe, through the Jedis pool
+ * configured in the {@link RedisService}.
+ * <p>
+ * All the cluster nodes of a repository publish to and subscribe to the same
+ * channel. A message holds the sending node id followed by the invalidations
+ * encoded by {@link InvalidationsCodec}.
+ *
+ * @since 5.9.1
+ */
+public class RedisClusterInvalidator implements ClusterInvalidator {
+
+    private static final Log log = LogFactory.getLog(RedisClusterInvalidator.class);
+
+    protected static final String UTF_8 = "UTF-8";
+
+    protected static final String CHANNEL_PREFIX = "invalidations:";
+
+    /** Delay before trying to subscribe again after a connection failure. */
+    protected static final long RECONNECT_DELAY = 1000; // ms
+
+    protected String nodeId;
+
+    protected InvalidationsPropagator propagator;
+
+    protected JedisPool jedisPool;
+
+    protected byte[] channel;
+
+    protected Thread subscriberThread;
+
+    protected Subscriber subscriber;
+
+    protected volatile boolean closed;
+
+    protected volatile boolean connected;
+
+    protected volatile boolean recoveryNeeded = true;
+
+    @Override
+    public void initialize(String nodeId,
+            RepositoryDescriptor repositoryDescriptor,
+            InvalidationsPropagator propagator) throws StorageException {
+        this.nodeId = nodeId;
+        this.propagator = propagator;
+        RedisService redisService = Framework.getLocalService(RedisService.class);
+        if (redisService == null || redisService.getJedisPool() == null) {
+            throw new StorageException(
+                    "Redis cluster invalidator configured but Redis is not: "
+                            + repositoryDescriptor.name);
+        }
+        jedisPool = redisService.getJedisPool();
+        channel = bytes(redisService.getPrefix() + CHANNEL_PREFIX
+                + repositoryDescriptor.name);
+        subscriber = new Subscriber();
+        subscriberThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                subscribe();
+            }
+        }, "Nuxeo-VCS-Invalidations-" + repositoryDescriptor.name);
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (connected) {
+            try {
+                subscriber.unsubscribe();
+            } catch (JedisConnectionException e) {
+                // ignore, connection lost anyway
+            }
+        }
+        subscriberThread.interrupt();
+        try {
+            subscriberThread.join(RECONNECT_DELAY);
+        } catch (InterruptedException e) {
+            // restore interrupted status
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Subscribes to the invalidations channel until closed, reconnecting when
+     * the connection is lost.
+     */
+    protected void subscribe() {
+        while (!closed) {
+            Jedis jedis = null;
+            boolean broken = false;
+            try {
+                jedis = jedisPool.getResource();
+                // blocks until unsubscribed or disconnected
+                jedis.subscribe(subscriber, channel);
+            } catch (JedisConnectionException e) {
+                broken = true;
+                if (!closed) {
+                    log.error("Lost connection to Redis, invalidations will be"
+                            + " recovered from the database: " + e);
+                }
+            } catch (RuntimeException e) {
+                // don't let the subscriber thread die
+                broken = true;
+                if (!closed) {
+                    log.error("Error while receiving invalidations, they will"
+                            + " be recovered from the database", e);
+                }
+            } finally {
+                connected = false;
+                recoveryNeeded = true;
+                if (jedis != null) {
+                    if (broken) {
+                        jedisPool.returnBrokenResource(jedis);
+                    } else {
+                        jedisPool.returnResource(jedis);
+                    }
+                }
+            }
+            if (broken && !closed) {
+                try {
+                    Thread.sleep(RECONNECT_DELAY);
+                } catch (InterruptedException e) {
+                    // closed
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void sendInvalidations(Invalidations invalidations)
+            throws StorageException {
+        byte[] message;
+        try {
+            message = serialize(invalidations);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        Jedis jedis = jedisPool.getResource();
+        boolean broken = false;
+        try {
+            jedis.publish(channel, message);
+        } catch (JedisConnectionException e) {
+            broken = true;
+            throw new StorageException("Cannot publish invalidations", e);
+        } finally {
+            if (broken) {
+                jedisPool.returnBrokenResource(jedis);
+            } else {
+                jedisPool.returnResource(jedis);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRecoveryNeeded() {
+        return recoveryNeeded || !connected;
+    }
+
+    @Override
+    public void startRecovery() {
+        if (connected) {
+            recoveryNeeded = false;
+        }
+    }
+
+    protected void receiveMessage(byte[] message) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    message));
+            String senderId = in.readUTF();
+            if (nodeId.equals(senderId)) {
+                // our own invalidations
+                return;
+            }
+            byte[] bytes = new byte[in.available()];
+            in.readFully(bytes);
+            Invalidations invalidations = InvalidationsCodec.decode(bytes);
+            propagator.propagateInvalidations(invalidations, null);
+        } catch (IOException e) {
+            log.error("Cannot read invalidations, recovering from the database",
+                    e);
+            recoveryNeeded = true;
+        } catch (RuntimeException e) {
+            log.error("Cannot apply invalidations, recovering from the database",
+                    e);
+            recoveryNeeded = true;
+        }
+    }
+
+    protected byte[] serialize(Invalidations invalidations) throws IOException {
+        ByteArrayOutputStream baout = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baout);
+        out.writeUTF(nodeId);
+        out.write(InvalidationsCodec.encode(invalidations, true));
+        out.flush();
+        out.close();
+        return baout.toByteArray();
+    }
+
+    protected static byte[] bytes(String string) {
+        try {
+            return string.getBytes(UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            // cannot happen for UTF-8
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected class Subscriber extends BinaryJedisPubSub {
+
+        @Override
+        public void onSubscribe(byte[] channel, int subscribedChannels) {
+            connected = true;
+        }
+
+        @Override
+        public void onUnsubscribe(byte[] channel, int subscribedChannels) {
+            connected = false;
+        }
+
+        @Override
+        public void onMessage(byte[] channel, byte[] message) {
+            receiveMessage(message);
+        }
+
+        @Override
+        public void onPMessage(byte[] pattern, byte[] channel, byte[] message) {
+        }
+
+        @Override
+        public void onPSubscribe(byte[] pattern, int subscribedChannels) {
+        }
+
+        @Override
+        public void onPUnsubscribe(byte[] pattern, int subscribedChannels) {
+        }
+    }
+
+}
@@ -168,6 +168,29 @@ public class RepositoryDescriptor {
     @XNode("clustering@delay")
     public long clusteringDelay;
 
+    /**
+     * Delay during which invalidations of successive transactions are
+     * coalesced before being written to the database for the other cluster
+     * nodes. Zero to write them at each transaction commit.
+     *
+     * @since 5.9.1
+     */
+    @XNode("clustering@flushDelay")
+    public long clusteringFlushDelay; // ms
+
+    /** @since 5.9.1 */
+    @XNode("clustering/invalidator@class")
+    public Class<? extends ClusterInvalidator> clusterInvalidatorClass;
+
+    /**
+     * Delay between two reads of the database invalidations recovery log,
+     * when a cluster invalidator is used.
+     *
+     * @since 5.9.1
+     */
+    @XNode("clustering/invalidator@recoveryDelay")
+    public long clusteringRecoveryDelay = 60000; // ms
+
     @XNodeList(value = "schema/field", type = ArrayList.class, componentType = FieldDescriptor.class)
     public List<FieldDescriptor> schemaFields = Collections.emptyList();
 
@@ -218,6 +241,90 @@ public class RepositoryDescriptor {
     @XNode("aclOptimizations@readAclMaxSize")
     public int readAclMaxSize = 4096;
 
+    /**
+     * Whether the read acls of the subtrees of documents whose ACL changed or
+     * that moved are updated asynchronously by batches.
+     * <p>
+     * Until the update completes, searches still use the previous read acls
+     * of these documents: documents whose access was restricted remain
+     * visible in search results to the users who could read them before
+     * (permission checks on the documents themselves are not affected).
+     *
+     * @since 5.9.1
+     */
+    @XNode("aclOptimizations@asyncUpdate")
+    public boolean aclOptimizationsAsyncUpdate = false;
+
+    /* @since 5.9.1 */
+    @XNode("aclOptimizations@asyncUpdateBatchSize")
+    public int aclOptimizationsAsyncUpdateBatchSize = 1000;
+
+    /**
+     * Whether the reads of several tables are sent to the database in a single
+     * round-trip, for databases that support multiple result sets.
+     *
+     * @since 5.9.1
+     */
+    @XNode("combinedReads@enabled")
+    public boolean combinedReadsEnabled;
+
+    /**
+     * Whether the rows created in a table are inserted several at a time by
+     * multi-row INSERT statements, for databases that support them.
+     *
+     * @since 5.9.1
+     */
+    @XNode("bulkInserts@multiRow")
+    public boolean bulkInsertsMultiRow = true;
+
+    /**
+     * Whether large numbers of rows created in a table are inserted using the
+     * bulk copy protocol of the database driver (COPY for PostgreSQL).
+     *
+     * @since 5.9.1
+     */
+    @XNode("bulkInserts@copy")
+    public boolean bulkInsertsCopy;
+
+    /**
+     * The maximum number of NXQL query plans kept in cache, 0 to disable the
+     * cache.
+     *
+     * @since 5.9.1
+     */
+    @XNode("queryPlanCache@size")
+    public int queryPlanCacheSize = 500;
+
+    /**
+     * Whether paths are resolved by a single indexed query on the hierarchy
+     * table when the children along the path aren't cached, instead of one
+     * query per path segment.
+     *
+     * @since 5.9.1
+     */
+    @XNode("pathIndex@enabled")
+    public boolean pathIndexEnabled;
+
+    /**
+     * The maximum number of hierarchy nodes whose parent and name are kept in
+     * the repository-wide cache used to compute paths, 0 to disable the cache.
+     * The cache is only available with the default caching mapper.
+     *
+     * @since 5.9.1
+     */
+    @XNode("hierarchyCache@size")
+    public int hierarchyCacheSize = 10000;
+
+    /**
+     * The maximum number of documents whose merged ACP is kept in the
+     * repository-wide cache used for permission checks, 0 to disable the
+     * cache. The cache is only available with the default caching mapper.
+     *
+     * @since 5.9.1
+     */
+    @XNode("acpCache@size")
+    public int acpCacheSize = 10000;
+
     @XNode("binaryManager@class")
     public Class<? extends BinaryManager> binaryManagerClass;
 
@@ -245,6 +352,9 @@ public class RepositoryDescriptor {
         cachingMapperEnabled = other.cachingMapperEnabled;
         clusteringEnabled = other.clusteringEnabled;
         clusteringDelay = other.clusteringDelay;
+        clusteringFlushDelay = other.clusteringFlushDelay;
+        clusterInvalidatorClass = other.clusterInvalidatorClass;
+        clusteringRecoveryDelay = other.clusteringRecoveryDelay;
         noDDL = other.noDDL;
         sqlInitFiles = other.sqlInitFiles;
         softDeleteEnabled = other.softDeleteEnabled;
@@ -259,6 +369,15 @@ public class RepositoryDescriptor {
         aclOptimizationsEnabled = other.aclOptimizationsEnabled;
         aclOptimizationsConcurrentUpdate = other.aclOptimizationsConcurrentUpdate;
         readAclMaxSize = other.readAclMaxSize;
+        aclOptimizationsAsyncUpdate = other.aclOptimizationsAsyncUpdate;
+        aclOptimizationsAsyncUpdateBatchSize = other.aclOptimizationsAsyncUpdateBatchSize;
+        combinedReadsEnabled = other.combinedReadsEnabled;
+        bulkInsertsMultiRow = other.bulkInsertsMultiRow;
+        bulkInsertsCopy = other.bulkInsertsCopy;
+        queryPlanCacheSize = other.queryPlanCacheSize;
+        pathIndexEnabled = other.pathIndexEnabled;
+        hierarchyCacheSize = other.hierarchyCacheSize;
+        acpCacheSize = other.acpCacheSize;
         binaryStorePath = other.binaryStorePath;
         binaryManagerClass = other.binaryManagerClass;
         binaryManagerKey = other.binaryManagerKey;
@@ -111,6 +111,15 @@ public class RepositoryImpl implements Repository {
     /** Single event queue global to the repository. */
     private final InvalidationsQueue repositoryEventQueue;
 
+    /** Second-level row cache shared by all sessions, or {@code null}. */
+    private SharedRowCache sharedRowCache;
+
+    /** Cache of hierarchy names shared by all sessions, or {@code null}. */
+    private HierarchyCache hierarchyCache;
+
+    /** Cache of merged ACPs shared by all sessions, or {@code null}. */
+    private MergedACPCache mergedACPCache;
+
     /** Lock for calling updateReadAcls. */
     public final Lock updateReadAclsLock = new ReentrantLock(true);
 
@@ -288,6 +297,23 @@ public class RepositoryImpl implements Repository {
             cachingMapper.initialize(model, mapper, cachePropagator,
                     eventPropagator, repositoryEventQueue,
                     repositoryDescriptor.cachingMapperProperties);
+            if (sharedRowCache != null
+                    && cachingMapper instanceof SoftRefCachingRowMapper) {
+                ((SoftRefCachingRowMapper) cachingMapper).setSharedRowCache(sharedRowCache);
+            }
+            if (hierarchyCache != null
+                    && cachingMapper instanceof SoftRefCachingRowMapper) {
+                ((SoftRefCachingRowMapper) cachingMapper).setHierarchyCache(hierarchyCache);
+            }
+            if (mergedACPCache != null
+                    && cachingMapper instanceof SoftRefCachingRowMapper) {
+                ((SoftRefCachingRowMapper) cachingMapper).setMergedACPCache(mergedACPCache);
+            }
+            if (repositoryDescriptor.clusteringEnabled
+                    && cachingMapper instanceof SoftRefCachingRowMapper) {
+                // the cluster node handler invalidates the shared caches
+                ((SoftRefCachingRowMapper) cachingMapper).setSharedCachesInvalidatedByCluster(true);
+            }
             return cachingMapper;
         } catch (Exception e) {
             throw new StorageException(e);
@@ -410,6 +436,36 @@ public class RepositoryImpl implements Repository {
         return binaryManager;
     }
 
+    /**
+     * Gets the cache of rows shared by all sessions.
+     *
+     * @return the cache, or {@code null} if disabled
+     * @since 5.9.1
+     */
+    public SharedRowCache getSharedRowCache() {
+        return sharedRowCache;
+    }
+
+    /**
+     * Gets the cache of hierarchy names shared by all sessions.
+     *
+     * @return the cache, or {@code null} if disabled
+     * @since 5.9.1
+     */
+    public HierarchyCache getHierarchyCache() {
+        return hierarchyCache;
+    }
+
+    /**
+     * Gets the cache of merged ACPs shared by all sessions.
+     *
+     * @return the cache, or {@code null} if disabled
+     * @since 5.9.1
+     */
+    public MergedACPCache getMergedACPCache() {
+        return mergedACPCache;
+    }
+
     public LockManager getLockManager() {
         return lockManager;
     }
@@ -480,20 +536,37 @@ public class RepositoryImpl implements Repository {
         lockManager = new LockManager(lockManagerMapper,
                 repositoryDescriptor.clusteringEnabled);
 
-        // create the mapper for the cluster node handler
-        if (repositoryDescriptor.clusteringEnabled) {
-            backend.newMapper(model, null, MapperKind.CLUSTER_NODE_HANDLER);
-            log.info("Clustering enabled with "
-                    + repositoryDescriptor.clusteringDelay
-                    + " ms delay for repository: " + getName());
-        }
-
         // log once which mapper cache is being used
         Class<? extends CachingMapper> cachingMapperClass = getCachingMapperClass();
         if (cachingMapperClass == null) {
             log.warn("VCS Mapper cache is disabled.");
         } else {
             log.info("VCS Mapper cache using: " + cachingMapperClass.getName());
+            if (SoftRefCachingRowMapper.class.isAssignableFrom(cachingMapperClass)) {
+                sharedRowCache = SharedRowCache.create(getName(),
+                        repositoryDescriptor.cachingMapperProperties);
+                if (sharedRowCache != null) {
+                    log.info("VCS Mapper shared cache enabled for repository: "
+                            + getName());
+                }
+                if (repositoryDescriptor.hierarchyCacheSize > 0) {
+                    hierarchyCache = new HierarchyCache(getName(),
+                            repositoryDescriptor.hierarchyCacheSize);
+                }
+                if (repositoryDescriptor.acpCacheSize > 0) {
+                    mergedACPCache = new MergedACPCache(getName(),
+                            repositoryDescriptor.acpCacheSize);
+                }
+            }
+        }
+
+        // create the mapper for the cluster node handler
+        // after the shared caches, which it invalidates
+        if (repositoryDescriptor.clusteringEnabled) {
+            backend.newMapper(model, null, MapperKind.CLUSTER_NODE_HANDLER);
+            log.info("Clustering enabled with "
+                    + repositoryDescriptor.clusteringDelay
+                    + " ms delay for repository: " + getName());
         }
     }
 
@@ -557,6 +630,18 @@ public class RepositoryImpl implements Repository {
         closeAllSessions();
 
         model = null;
+        if (sharedRowCache != null) {
+            sharedRowCache.close();
+            sharedRowCache = null;
+        }
+        if (hierarchyCache != null) {
+            hierarchyCache.close();
+            hierarchyCache = null;
+        }
+        if (mergedACPCache != null) {
+            mergedACPCache.close();
+            mergedACPCache = null;
+        }
 
         deactivateServletMapper();
         deactivateBinaryManagerServlet();
@@ -608,6 +693,15 @@ public class RepositoryImpl implements Repository {
         if (lockManager != null) {
             lockManager.clearCaches();
         }
+        if (sharedRowCache != null) {
+            sharedRowCache.clear();
+        }
+        if (hierarchyCache != null) {
+            hierarchyCache.clear();
+        }
+        if (mergedACPCache != null) {
+            mergedACPCache.clear();
+        }
         return n;
     }
 
@@ -57,12 +57,29 @@ public final class Row extends RowId implements Serializable, Cloneable {
      */
     protected int size;
 
+    /**
+     * The column layout of the table, or {@code null}. When present, keys put
+     * in layout order are stored at their layout position and found by a hash
+     * lookup instead of scanning {@link #keys}.
+     *
+     * @since 5.9.1
+     */
+    protected transient RowLayout layout;
+
+    /**
+     * Whether some keys are not at their {@link #layout} position, in which
+     * case lookups fall back to scanning {@link #keys}.
+     */
+    protected transient boolean unordered;
+
     /** Copy constructor. */
     private Row(Row row) {
         super(row);
         keys = row.keys == null ? null : row.keys.clone();
         values = row.values == null ? null : row.values.clone();
         size = row.size;
+        layout = row.layout;
+        unordered = row.unordered;
     }
 
     @Override
@@ -81,6 +98,22 @@ public final class Row extends RowId implements Serializable, Cloneable {
         // size = 0;
     }
 
+    /**
+     * Constructs an empty {@link Row} for the given table with the given id
+     * (may be {@code null}), whose values will be stored according to the
+     * given layout.
+     *
+     * @since 5.9.1
+     */
+    public Row(String tableName, Serializable id, RowLayout layout) {
+        super(tableName, id);
+        int n = layout == null ? DEFAULT : Math.max(layout.size(), 1);
+        keys = new String[n];
+        values = new Serializable[n];
+        this.layout = layout;
+        // size = 0;
+    }
+
     /**
      * Constructs a new {@link Row} from a map.
      *
@@ -138,6 +171,22 @@ public final class Row extends RowId implements Serializable, Cloneable {
             id = value;
             return;
         }
+        if (layout != null) {
+            int pos = layout.getPosition(key);
+            if (pos >= 0 && pos < size && keys[pos] == layout.keys[pos]) {
+                values[pos] = value;
+                return;
+            }
+            if (!unordered) {
+                // all keys are at their layout position, so key is absent
+                if (pos == size) {
+                    putNewAtLayoutPosition(value);
+                } else {
+                    putNewUnordered(key, value);
+                }
+                return;
+            }
+        }
         // linear search but the array is small
         for (int i = 0; i < size; i++) {
             if (key.equals(keys[i])) {
@@ -145,9 +194,7 @@ public final class Row extends RowId implements Serializable, Cloneable {
                 return;
             }
         }
-        ensureCapacity(size + 1);
-        keys[size] = key;
-        values[size++] = value;
+        putNewUnordered(key, value);
     }
 
     /**
@@ -161,6 +208,30 @@ public final class Row extends RowId implements Serializable, Cloneable {
             id = value;
             return;
         }
+        if (layout != null && !unordered && size < layout.size()
+                && layout.keys[size].equals(key)) {
+            putNewAtLayoutPosition(value);
+            return;
+        }
+        putNewUnordered(key, value);
+    }
+
+    /**
+     * Appends the next key of the layout with the given value.
+     */
+    private void putNewAtLayoutPosition(Serializable value) {
+        ensureCapacity(size + 1);
+        keys[size] = layout.keys[size];
+        values[size++] = value;
+    }
+
+    /**
+     * Appends a key that is not at its layout position.
+     */
+    private void putNewUnordered(String key, Serializable value) {
+        if (layout != null) {
+            unordered = true;
+        }
         ensureCapacity(size + 1);
         keys[size] = key;
         values[size++] = value;
@@ -176,6 +247,16 @@ public final class Row extends RowId implements Serializable, Cloneable {
         if (key.equals(Model.MAIN_KEY)) {
             return id;
         }
+        if (layout != null) {
+            int pos = layout.getPosition(key);
+            if (pos >= 0 && pos < size && keys[pos] == layout.keys[pos]) {
+                return values[pos];
+            }
+            if (!unordered) {
+                // all keys are at their layout position, so key is absent
+                return null;
+            }
+        }
         // linear search but the array is small
         for (int i = 0; i < size; i++) {
             if (key.equals(keys[i])) {
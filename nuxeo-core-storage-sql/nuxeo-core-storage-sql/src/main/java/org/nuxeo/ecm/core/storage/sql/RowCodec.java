@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.WeakHashMap;
+
+/**
+ * Compact binary codec for {@link Row}s.
+ * <p>
+ * Table names and keys are not written as strings but as indexes into
+ * dictionaries built from the {@link Model}: the table names, and the
+ * {@link RowLayout} of each table. Decoded rows share the interned table name
+ * and key instances of the model, and are built with the table's layout.
+ * Common value types are written with a one-byte tag, other values fall back
+ * to Java serialization. Unknown tables or keys are written inline, so any
+ * row can be encoded.
+ * <p>
+ * This is used to store rows in caches as {@code byte[]}, which are much
+ * smaller than the object graph of a {@link Row}.
+ *
+ * @since 5.9.1
+ */
+public class RowCodec {
+
+    private static final byte VERSION = 1;
+
+    private static final byte KIND_SIMPLE = 1;
+
+    private static final byte KIND_COLLECTION = 2;
+
+    private static final byte T_NULL = 0;
+
+    private static final byte T_STRING = 1;
+
+    private static final byte T_LONG = 2;
+
+    private static final byte T_INTEGER = 3;
+
+    private static final byte T_TRUE = 4;
+
+    private static final byte T_FALSE = 5;
+
+    private static final byte T_DOUBLE = 6;
+
+    private static final byte T_CALENDAR = 7;
+
+    private static final byte T_STRING_ARRAY = 8;
+
+    private static final byte T_LONG_ARRAY = 9;
+
+    private static final byte T_ACLROW = 10;
+
+    private static final byte T_BOOLEAN = 11; // array component only
+
+    private static final byte T_SERIALIZED = 12;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Map<Model, RowCodec> codecs = new WeakHashMap<Model, RowCodec>();
+
+    /**
+     * Gets the codec for a model, creating it if needed.
+     */
+    public static RowCodec getInstance(Model model) {
+        synchronized (codecs) {
+            RowCodec codec = codecs.get(model);
+            if (codec == null) {
+                codec = new RowCodec(model);
+                codecs.put(model, codec);
+            }
+            return codec;
+        }
+    }
+
+    protected final String[] tables;
+
+    protected final Map<String, Integer> tableIndexes;
+
+    /** The layout of each table, {@code null} for a collection table. */
+    protected final RowLayout[] layouts;
+
+    public RowCodec(Model model) {
+        this(getLayoutsByTable(model));
+    }
+
+    /**
+     * Constructor for a fixed set of tables and their layouts.
+     */
+    public RowCodec(Map<String, RowLayout> layoutsByTable) {
+        List<String> names = new ArrayList<String>(layoutsByTable.keySet());
+        Collections.sort(names);
+        int n = names.size();
+        tables = new String[n];
+        tableIndexes = new HashMap<String, Integer>();
+        layouts = new RowLayout[n];
+        for (int i = 0; i < n; i++) {
+            String tableName = names.get(i);
+            tables[i] = tableName;
+            tableIndexes.put(tableName, Integer.valueOf(i));
+            layouts[i] = layoutsByTable.get(tableName);
+        }
+    }
+
+    protected static Map<String, RowLayout> getLayoutsByTable(Model model) {
+        Map<String, RowLayout> layoutsByTable = new HashMap<String, RowLayout>();
+        for (String tableName : model.getFragmentNames()) {
+            // null for collection tables, only their name is in the dictionary
+            layoutsByTable.put(tableName, model.getRowLayout(tableName));
+        }
+        return layoutsByTable;
+    }
+
+    /**
+     * Encodes a row.
+     */
+    public byte[] encode(Row row) {
+        try {
+            ByteArrayOutputStream baout = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(baout);
+            out.writeByte(VERSION);
+            Integer t = tableIndexes.get(row.tableName);
+            if (t == null) {
+                writeVarInt(out, 0);
+                writeString(out, row.tableName);
+            } else {
+                writeVarInt(out, t.intValue() + 1);
+            }
+            writeValue(out, row.id);
+            if (row.isCollection()) {
+                out.writeByte(KIND_COLLECTION);
+                writeArray(out, row.values);
+            } else {
+                out.writeByte(KIND_SIMPLE);
+                RowLayout layout = t == null ? null : layouts[t.intValue()];
+                writeVarInt(out, row.size);
+                for (int i = 0; i < row.size; i++) {
+                    String key = row.keys[i];
+                    int k = layout == null ? -1 : layout.getPosition(key);
+                    if (k == -1) {
+                        writeVarInt(out, 0);
+                        writeString(out, key);
+                    } else {
+                        writeVarInt(out, k + 1);
+                    }
+                    writeValue(out, row.values[i]);
+                }
+            }
+            out.flush();
+            return baout.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e); // cannot happen
+        }
+    }
+
+    /**
+     * Decodes a row. A simple row is built with the layout of its table, so
+     * that its keys are at their layout position if they were when encoded.
+     */
+    public Row decode(byte[] bytes) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    bytes));
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unknown row encoding version: "
+                        + version);
+            }
+            int t = readVarInt(in);
+            String tableName = t == 0 ? readString(in) : tables[t - 1];
+            Serializable id = readValue(in);
+            byte kind = in.readByte();
+            if (kind == KIND_COLLECTION) {
+                Row row = new Row(tableName, id);
+                row.keys = null;
+                row.values = readArray(in);
+                row.size = -1;
+                return row;
+            }
+            RowLayout layout = t == 0 ? null : layouts[t - 1];
+            int size = readVarInt(in);
+            Row row = new Row(tableName, id, layout);
+            for (int i = 0; i < size; i++) {
+                int k = readVarInt(in);
+                String key = k == 0 ? readString(in) : layout.getKey(k - 1);
+                row.putNew(key, readValue(in));
+            }
+            return row;
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot decode row", e);
+        }
+    }
+
+    protected static void writeVarInt(DataOutputStream out, int v)
+            throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    protected static int readVarInt(DataInputStream in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    // writeUTF is limited to 64k, not enough for fulltext
+    protected static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    protected static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    protected static byte getTag(Object value) {
+        if (value == null) {
+            return T_NULL;
+        }
+        Class<?> klass = value.getClass();
+        if (klass == String.class) {
+            return T_STRING;
+        } else if (klass == Long.class) {
+            return T_LONG;
+        } else if (klass == Integer.class) {
+            return T_INTEGER;
+        } else if (klass == Boolean.class) {
+            return ((Boolean) value).booleanValue() ? T_TRUE : T_FALSE;
+        } else if (klass == Double.class) {
+            return T_DOUBLE;
+        } else if (klass == GregorianCalendar.class) {
+            return T_CALENDAR;
+        } else if (klass == String[].class) {
+            return T_STRING_ARRAY;
+        } else if (klass == Long[].class) {
+            return T_LONG_ARRAY;
+        } else if (klass == ACLRow.class) {
+            return T_ACLROW;
+        }
+        return T_SERIALIZED;
+    }
+
+    protected static void writeValue(DataOutputStream out, Serializable value)
+            throws IOException {
+        byte tag = getTag(value);
+        out.writeByte(tag);
+        switch (tag) {
+        case T_NULL:
+        case T_TRUE:
+        case T_FALSE:
+            break;
+        case T_STRING:
+            writeString(out, (String) value);
+            break;
+        case T_LONG:
+            out.writeLong(((Long) value).longValue());
+            break;
+        case T_INTEGER:
+            out.writeInt(((Integer) value).intValue());
+            break;
+        case T_DOUBLE:
+            out.writeDouble(((Double) value).doubleValue());
+            break;
+        case T_CALENDAR:
+            GregorianCalendar cal = (GregorianCalendar) value;
+            out.writeLong(cal.getTimeInMillis());
+            writeString(out, cal.getTimeZone().getID());
+            break;
+        case T_STRING_ARRAY:
+        case T_LONG_ARRAY:
+            writeArray(out, (Serializable[]) value);
+            break;
+        case T_ACLROW:
+            ACLRow acl = (ACLRow) value;
+            writeVarInt(out, acl.pos);
+            writeValue(out, acl.name);
+            out.writeBoolean(acl.grant);
+            writeValue(out, acl.permission);
+            writeValue(out, acl.user);
+            writeValue(out, acl.group);
+            break;
+        default:
+            writeSerialized(out, value);
+        }
+    }
+
+    protected static Serializable readValue(DataInputStream in)
+            throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case T_NULL:
+            return null;
+        case T_TRUE:
+            return Boolean.TRUE;
+        case T_FALSE:
+            return Boolean.FALSE;
+        case T_STRING:
+            return readString(in);
+        case T_LONG:
+            return Long.valueOf(in.readLong());
+        case T_INTEGER:
+            return Integer.valueOf(in.readInt());
+        case T_DOUBLE:
+            return Double.valueOf(in.readDouble());
+        case T_CALENDAR:
+            long millis = in.readLong();
+            GregorianCalendar cal = new GregorianCalendar(
+                    TimeZone.getTimeZone(readString(in)));
+            cal.setTimeInMillis(millis);
+            return cal;
+        case T_STRING_ARRAY:
+        case T_LONG_ARRAY:
+            return readArray(in);
+        case T_ACLROW:
+            int pos = readVarInt(in);
+            String name = (String) readValue(in);
+            boolean grant = in.readBoolean();
+            String permission = (String) readValue(in);
+            String user = (String) readValue(in);
+            String group = (String) readValue(in);
+            return new ACLRow(pos, name, grant, permission, user, group);
+        case T_SERIALIZED:
+            return readSerialized(in);
+        default:
+            throw new IOException("Unknown value tag: " + tag);
+        }
+    }
+
+    /**
+     * Writes an array, keeping its component type.
+     */
+    protected static void writeArray(DataOutputStream out, Serializable[] array)
+            throws IOException {
+        Class<?> componentType = array.getClass().getComponentType();
+        byte tag;
+        if (componentType == String.class) {
+            tag = T_STRING;
+        } else if (componentType == Long.class) {
+            tag = T_LONG;
+        } else if (componentType == Integer.class) {
+            tag = T_INTEGER;
+        } else if (componentType == Boolean.class) {
+            tag = T_BOOLEAN;
+        } else if (componentType == Double.class) {
+            tag = T_DOUBLE;
+        } else if (componentType == ACLRow.class) {
+            tag = T_ACLROW;
+        } else {
+            tag = T_SERIALIZED;
+        }
+        out.writeByte(tag);
+        if (tag == T_SERIALIZED) {
+            writeSerialized(out, array);
+            return;
+        }
+        writeVarInt(out, array.length);
+        for (Serializable value : array) {
+            writeValue(out, value);
+        }
+    }
+
+    protected static Serializable[] readArray(DataInputStream in)
+            throws IOException {
+        byte tag = in.readByte();
+        if (tag == T_SERIALIZED) {
+            return (Serializable[]) readSerialized(in);
+        }
+        int length = readVarInt(in);
+        Serializable[] array;
+        switch (tag) {
+        case T_STRING:
+            array = new String[length];
+            break;
+        case T_LONG:
+            array = new Long[length];
+            break;
+        case T_INTEGER:
+            array = new Integer[length];
+            break;
+        case T_BOOLEAN:
+            array = new Boolean[length];
+            break;
+        case T_DOUBLE:
+            array = new Double[length];
+            break;
+        case T_ACLROW:
+            array = new ACLRow[length];
+            break;
+        default:
+            throw new IOException("Unknown array tag: " + tag);
+        }
+        for (int i = 0; i < length; i++) {
+            array[i] = readValue(in);
+        }
+        return array;
+    }
+
+    protected static void writeSerialized(DataOutputStream out, Object value)
+            throws IOException {
+        ByteArrayOutputStream baout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(baout);
+        oout.writeObject(value);
+        oout.close();
+        writeVarInt(out, baout.size());
+        baout.writeTo(out);
+    }
+
+    protected static Serializable readSerialized(DataInputStream in)
+            throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(
+                bytes));
+        try {
+            return (Serializable) oin.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } finally {
+            oin.close();
+        }
+    }
+
+}
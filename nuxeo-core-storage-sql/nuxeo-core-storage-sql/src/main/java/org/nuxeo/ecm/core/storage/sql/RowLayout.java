@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The fixed column layout of the {@link Row}s of a table: an ordered list of
+ * keys, and a precomputed hash giving the position of a key.
+ * <p>
+ * The hash table size is chosen so that the known keys don't collide (perfect
+ * hash), so a lookup is one hash computation and one comparison. If no such
+ * size is found within reasonable bounds, linear probing is used instead.
+ *
+ * @since 5.9.1
+ */
+public final class RowLayout {
+
+    /** Maximum hash table size, as a multiple of the number of keys. */
+    private static final int MAX_LOAD_FACTOR = 64;
+
+    /** The keys, in row order. */
+    protected final String[] keys;
+
+    /** Hash slot to key position, -1 if empty. */
+    private final int[] slots;
+
+    private final int mask;
+
+    private final boolean perfect;
+
+    public RowLayout(Collection<String> keys) {
+        this.keys = keys.toArray(new String[keys.size()]);
+        int n = this.keys.length;
+        int size = 2;
+        while (size < 2 * n) {
+            size <<= 1;
+        }
+        int[] slots = null;
+        for (; size <= Math.max(2, MAX_LOAD_FACTOR * n); size <<= 1) {
+            slots = fill(size, false);
+            if (slots != null) {
+                break;
+            }
+        }
+        perfect = slots != null;
+        if (!perfect) {
+            size = 2;
+            while (size < 2 * n) {
+                size <<= 1;
+            }
+            slots = fill(size, true);
+        }
+        this.slots = slots;
+        mask = size - 1;
+    }
+
+    private int[] fill(int size, boolean probe) {
+        int[] slots = new int[size];
+        Arrays.fill(slots, -1);
+        int mask = size - 1;
+        for (int i = 0; i < keys.length; i++) {
+            int h = hash(keys[i]) & mask;
+            while (slots[h] != -1) {
+                if (!probe) {
+                    return null;
+                }
+                h = (h + 1) & mask;
+            }
+            slots[h] = i;
+        }
+        return slots;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Gets the number of keys in the layout.
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Gets the key at the given position.
+     */
+    public String getKey(int pos) {
+        return keys[pos];
+    }
+
+    /**
+     * Gets the position of a key, or -1 if the key is not in the layout.
+     */
+    public int getPosition(String key) {
+        int h = hash(key) & mask;
+        for (;;) {
+            int pos = slots[h];
+            if (pos == -1) {
+                return -1;
+            }
+            String k = keys[pos];
+            if (k == key || k.equals(key)) {
+                return pos;
+            }
+            if (perfect) {
+                return -1;
+            }
+            h = (h + 1) & mask;
+        }
+    }
+
+    /**
+     * Checks if lookups are done without collisions.
+     */
+    public boolean isPerfect() {
+        return perfect;
+    }
+
+}
@@ -42,6 +42,15 @@ public interface RowMapper {
      */
     Serializable generateNewId() throws StorageException;
 
+    /**
+     * Computes several new unique ids at once.
+     *
+     * @param count the number of ids
+     * @return the new unique ids
+     * @since 5.9.1
+     */
+    List<Serializable> generateNewIds(int count) throws StorageException;
+
     /*
      * ----- Batch -----
      */
@@ -194,6 +203,27 @@ public interface RowMapper {
             Serializable filter, Serializable criterion, boolean limitToOne)
             throws StorageException;
 
+    /**
+     * Reads the regular children of a parent having one of the given names.
+     *
+     * @param parentId the parent id
+     * @param names the child names
+     * @return the list of rows
+     * @since 5.9.1
+     */
+    List<Row> readChildRowsByNames(Serializable parentId,
+            Collection<String> names) throws StorageException;
+
+    /**
+     * Reads the highest position of the regular children of a parent.
+     *
+     * @param parentId the parent id
+     * @return the highest position, or {@code null} if there are no
+     *         positioned children
+     * @since 5.9.1
+     */
+    Long readMaxChildPos(Serializable parentId) throws StorageException;
+
     /*
      * ----- Copy -----
      */
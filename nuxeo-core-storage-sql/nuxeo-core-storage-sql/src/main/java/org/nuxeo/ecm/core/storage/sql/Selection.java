@@ -13,6 +13,7 @@
 package org.nuxeo.ecm.core.storage.sql;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -109,6 +110,21 @@ public class Selection {
      */
     protected Set<Serializable> deleted;
 
+    /**
+     * Filter values known to match no row in the database, when the selection
+     * is not complete.
+     *
+     * @since 5.9.1
+     */
+    protected Set<Serializable> absent;
+
+    /**
+     * The next child position, when known without the complete selection.
+     *
+     * @since 5.9.1
+     */
+    protected Long nextPos;
+
     /**
      * Constructs a {@link Selection} for the given selection id.
      * <p>
@@ -206,6 +222,20 @@ public class Selection {
      */
     public void setIncomplete() {
         complete = false;
+        absent = null;
+        nextPos = null;
+    }
+
+    /**
+     * Adds filter values known to match no row in the database.
+     *
+     * @since 5.9.1
+     */
+    public void addAbsent(Collection<? extends Serializable> values) {
+        if (absent == null) {
+            absent = new HashSet<Serializable>();
+        }
+        absent.addAll(values);
     }
 
     /**
@@ -316,7 +346,10 @@ public class Selection {
                 }
             }
         }
-        return complete ? null : SimpleFragment.UNKNOWN;
+        if (complete || (absent != null && absent.contains(filter))) {
+            return null;
+        }
+        return SimpleFragment.UNKNOWN;
     }
 
     /**
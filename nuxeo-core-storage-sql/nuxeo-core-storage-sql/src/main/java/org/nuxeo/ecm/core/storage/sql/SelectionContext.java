@@ -13,6 +13,7 @@ package org.nuxeo.ecm.core.storage.sql;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -158,6 +159,45 @@ public class SelectionContext {
                 context, softMap, hardMap);
     }
 
+    /**
+     * Checks if all the rows of a selection are known.
+     *
+     * @since 5.9.1
+     */
+    public boolean isComplete(Serializable selId) {
+        return getSelection(selId).complete;
+    }
+
+    /**
+     * Records filter values known to match no row of a selection in the
+     * database.
+     *
+     * @since 5.9.1
+     */
+    public void recordAbsent(Serializable selId,
+            Collection<? extends Serializable> values) {
+        getSelection(selId).addAbsent(values);
+    }
+
+    /**
+     * Gets the next child position of a selection, if it was recorded.
+     *
+     * @return the position, or {@code null} if unknown
+     * @since 5.9.1
+     */
+    public Long getNextPos(Serializable selId) {
+        return getSelection(selId).nextPos;
+    }
+
+    /**
+     * Records the next child position of a selection.
+     *
+     * @since 5.9.1
+     */
+    public void setNextPos(Serializable selId, Long nextPos) {
+        getSelection(selId).nextPos = nextPos;
+    }
+
     /**
      * @param invalidate {@code true} if this is for a fragment newly created by
      *            internal database process (copy, etc.) and must notified to
@@ -222,6 +262,21 @@ public class SelectionContext {
         return fragment;
     }
 
+    /**
+     * Find a fragment given its selection id and value, if the selection
+     * already knows about it.
+     *
+     * @param selId the selection id
+     * @param filter the value to filter on
+     * @return the fragment, or {@code null} if not found, or
+     *         {@link SimpleFragment#UNKNOWN} if the selection doesn't know
+     * @since 5.9.1
+     */
+    public SimpleFragment getKnownSelectionFragment(Serializable selId,
+            String filter) {
+        return getSelection(selId).getFragmentByValue(filter);
+    }
+
     /**
      * Finds all the selection fragments for a given id.
      * <p>
@@ -20,6 +20,7 @@ import javax.resource.cci.Connection;
 
 import org.nuxeo.ecm.core.api.IterableQueryResult;
 import org.nuxeo.ecm.core.api.Lock;
+import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.query.QueryFilter;
 import org.nuxeo.ecm.core.storage.PartialList;
 import org.nuxeo.ecm.core.storage.StorageException;
@@ -103,6 +104,23 @@ public interface Session extends Connection {
      */
     List<Node> getNodesByIds(List<Serializable> ids) throws StorageException;
 
+    /**
+     * Gets several nodes given their ids, also fetching in bulk the nodes
+     * needed to build their documents: their parents, the targets of proxies
+     * and the live documents of versions.
+     * <p>
+     * The related nodes are then found without database access by the
+     * following single node lookups of this session.
+     *
+     * @param ids the ids
+     * @return the nodes, in the same order as the ids, with elements being
+     *         {@code null} if not found
+     * @throws StorageException
+     * @since 5.9.1
+     */
+    List<Node> getNodesWithRelatedByIds(List<Serializable> ids)
+            throws StorageException;
+
     /**
      * Gets a node given its absolute path, or given an existing node and a
      * relative path.
@@ -231,6 +249,22 @@ public interface Session extends Connection {
     List<Node> getChildren(Node parent, String name, boolean complexProp)
             throws StorageException;
 
+    /**
+     * Prepares the creation of many child nodes: allocates their ids at once
+     * and reads the existing children of the parent having the given names,
+     * and the highest child position, so that the name and position lookups
+     * of the following creations don't query the database for each node.
+     *
+     * @param parent the parent to which the children will be added, or
+     *            {@code null} for placeless nodes
+     * @param names the names of the children that will be added (a name may
+     *            be {@code null} if not known yet)
+     * @throws StorageException
+     * @since 5.9.1
+     */
+    void prepareAddChildNodes(Node parent, List<String> names)
+            throws StorageException;
+
     /**
      * Creates a new child node.
      *
@@ -502,6 +536,19 @@ public interface Session extends Connection {
             QueryFilter queryFilter, long countUpTo)
             throws StorageException;
 
+    /**
+     * Makes a query to the database and returns the matching ids as a
+     * forward-only stream (which must be closed when done).
+     *
+     * @param query the query
+     * @param queryType the query type
+     * @param queryFilter the query filter
+     * @return a stream of ids, which <b>must</b> be closed when done
+     * @since 5.9.1
+     */
+    IdStream queryIds(String query, String queryType, QueryFilter queryFilter)
+            throws StorageException;
+
     /**
      * Makes a query to the database and returns an iterable (which must be
      * closed when done).
@@ -584,4 +631,28 @@ public interface Session extends Connection {
      */
     void rebuildReadAcls() throws StorageException;
 
+    /**
+     * Gets the merged ACP of a document from the repository-wide cache, if
+     * the cache reflects what this session sees.
+     *
+     * @param id the document id
+     * @return the shared ACP, which must not be modified, or {@code null} if
+     *         not available
+     * @since 5.9.1
+     */
+    ACP getCachedMergedACP(Serializable id);
+
+    /**
+     * Puts the merged ACP of a document in the repository-wide cache, if the
+     * cache reflects what this session sees.
+     *
+     * @param id the document id
+     * @param acp the merged ACP, which must not be modified afterwards
+     * @param dependencies the ids of the document and of the ancestors whose
+     *            ACLs were merged
+     * @since 5.9.1
+     */
+    void putCachedMergedACP(Serializable id, ACP acp,
+            Serializable[] dependencies);
+
 }
@@ -46,6 +46,7 @@ import org.nuxeo.ecm.core.api.IterableQueryResult;
 import org.nuxeo.ecm.core.api.Lock;
 import org.nuxeo.ecm.core.api.repository.RepositoryManager;
 import org.nuxeo.ecm.core.api.security.ACL;
+import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.event.Event;
 import org.nuxeo.ecm.core.event.EventContext;
@@ -119,6 +120,11 @@ public class SessionImpl implements Session, XAResource {
 
     private boolean readAclsChanged;
 
+    /**
+     * Whether some documents were queued for an asynchronous read acls update,
+     * so that a work must be scheduled to update their subtrees.
+     */
+    private boolean readAclsUpdateQueued;
 
     // @since 5.7
     protected final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
@@ -141,6 +147,7 @@ public class SessionImpl implements Session, XAResource {
         context = new PersistenceContext(model, mapper, this);
         live = true;
         readAclsChanged = false;
+        readAclsUpdateQueued = false;
 
         try {
             fulltextParser = repository.fulltextParserClass.newInstance();
@@ -362,6 +369,12 @@ public class SessionImpl implements Session, XAResource {
             works = Collections.emptyList();
         }
         flush();
+        if (readAclsUpdateQueued) {
+            readAclsUpdateQueued = false;
+            // subtrees queued by flush, updated post-commit
+            works = new ArrayList<Work>(works);
+            works.add(new ReadAclsUpdateWork(repository.getName()));
+        }
         scheduleWork(works);
         checkInvalidationsConflict();
     }
@@ -805,6 +818,75 @@ public class SessionImpl implements Session, XAResource {
         return getNodesByIds(ids, true);
     }
 
+    @Override
+    public List<Node> getNodesWithRelatedByIds(List<Serializable> ids)
+            throws StorageException {
+        checkThread();
+        checkLive();
+        List<Node> nodes = getNodesByIds(ids, true);
+        prefetchRelatedNodes(nodes);
+        return nodes;
+    }
+
+    /**
+     * Fetches in bulk the nodes needed to build the documents of the given
+     * nodes, so that they are in the context when looked up one by one.
+     * <p>
+     * The parents of the nodes and the live documents of the versions (or of
+     * the versions targeted by proxies) are fetched together, then the
+     * parents of these live documents, which are the parents of the versions.
+     * The proxy targets themselves are already fetched by the nodes prefetch.
+     */
+    protected void prefetchRelatedNodes(List<Node> nodes)
+            throws StorageException {
+        Set<Serializable> ids = new HashSet<Serializable>();
+        Set<Serializable> liveIds = new HashSet<Serializable>();
+        for (Node node : nodes) {
+            if (node == null) {
+                continue;
+            }
+            Serializable parentId = node.getParentId();
+            if (parentId != null) {
+                ids.add(parentId);
+            }
+            Node version = node;
+            if (node.isProxy()) {
+                Serializable targetId = node.getSimpleProperty(
+                        Model.PROXY_TARGET_PROP).getValue();
+                version = targetId == null ? null : getNodeById(targetId,
+                        false);
+            }
+            if (version != null && version.isVersion()) {
+                Serializable liveId = version.getSimpleProperty(
+                        Model.VERSION_VERSIONABLE_PROP).getValue();
+                if (liveId != null) {
+                    liveIds.add(liveId);
+                }
+            }
+        }
+        if (ids.isEmpty() && liveIds.isEmpty()) {
+            return;
+        }
+        ids.addAll(liveIds);
+        List<Node> related = getNodesByIds(new ArrayList<Serializable>(ids),
+                true);
+        if (liveIds.isEmpty()) {
+            return;
+        }
+        ids = new HashSet<Serializable>();
+        for (Node node : related) {
+            if (node != null && liveIds.contains(node.getId())) {
+                Serializable parentId = node.getParentId();
+                if (parentId != null) {
+                    ids.add(parentId);
+                }
+            }
+        }
+        if (!ids.isEmpty()) {
+            getNodesByIds(new ArrayList<Serializable>(ids), true);
+        }
+    }
+
     @Override
     public Node getParentNode(Node node) throws StorageException {
         checkLive();
@@ -828,7 +910,6 @@ public class SessionImpl implements Session, XAResource {
     /* Does not apply to properties for now (no use case). */
     @Override
     public Node getNodeByPath(String path, Node node) throws StorageException {
-        // TODO optimize this to use a dedicated path-based table
         checkLive();
         if (path == null) {
             throw new IllegalArgumentException("Illegal null path");
@@ -849,13 +930,29 @@ public class SessionImpl implements Session, XAResource {
             i = 0;
         }
         String[] names = path.split("/", -1);
-        for (; i < names.length; i++) {
-            String name = names[i];
-            if (name.length() == 0) {
+        for (int j = i; j < names.length; j++) {
+            if (names[j].length() == 0) {
                 throw new IllegalArgumentException(
                         "Illegal path with empty component: " + path);
             }
-            node = getChildNode(node, name, false);
+        }
+        boolean pathIndex = repository.getRepositoryDescriptor().pathIndexEnabled
+                && context.isHierarchySaved();
+        for (; i < names.length; i++) {
+            String name = names[i];
+            if (pathIndex) {
+                SimpleFragment fragment = context.getKnownChildHierByName(
+                        node.getId(), name);
+                if (fragment == SimpleFragment.UNKNOWN) {
+                    // resolve the rest of the path in one query
+                    return getNodeByPathIndex(node,
+                            Arrays.copyOfRange(names, i, names.length));
+                }
+                node = fragment == null ? null
+                        : getNodeById(fragment.getId());
+            } else {
+                node = getChildNode(node, name, false);
+            }
             if (node == null) {
                 return null;
             }
@@ -863,6 +960,25 @@ public class SessionImpl implements Session, XAResource {
         return node;
     }
 
+    /**
+     * Resolves the names under a node through the mapper in a single query,
+     * then fetches the hierarchy of all the intermediate nodes at once so that
+     * the path of the resulting node is known.
+     */
+    protected Node getNodeByPathIndex(Node node, String[] names)
+            throws StorageException {
+        List<Serializable> ids = mapper.getIdsForPath(node.getId(), names);
+        if (ids == null) {
+            return null;
+        }
+        List<RowId> rowIds = new ArrayList<RowId>(ids.size());
+        for (Serializable id : ids) {
+            rowIds.add(new RowId(Model.HIER_TABLE_NAME, id));
+        }
+        context.getMulti(rowIds, false);
+        return getNodeById(ids.get(ids.size() - 1));
+    }
+
     @Override
     public boolean addMixinType(Node node, String mixin)
             throws StorageException {
@@ -913,6 +1029,24 @@ public class SessionImpl implements Session, XAResource {
         return true;
     }
 
+    @Override
+    public void prepareAddChildNodes(Node parent, List<String> names)
+            throws StorageException {
+        checkLive();
+        context.reserveNewIds(names.size());
+        if (parent != null) {
+            // only the children with these names are needed for name checks
+            Set<String> normalized = new HashSet<String>();
+            for (String name : names) {
+                if (name != null) {
+                    normalized.add(Normalizer.normalize(name,
+                            Normalizer.Form.NFKC));
+                }
+            }
+            context.prepareChildren(parent.getId(), normalized);
+        }
+    }
+
     @Override
     public Node addChildNode(Node parent, String name, Long pos,
             String typeName, boolean complexProp) throws StorageException {
@@ -955,14 +1089,15 @@ public class SessionImpl implements Session, XAResource {
     protected Node addNode(Serializable id, Serializable parentId, String name,
             Long pos, String typeName, boolean complexProp)
             throws StorageException {
-        requireReadAclsUpdate();
+        // the read acl of a new document is computed at save time
+        readAclsChanged = true;
         // main info
-        Row hierRow = new Row(Model.HIER_TABLE_NAME, id);
-        hierRow.putNew(Model.HIER_PARENT_KEY, parentId);
-        hierRow.putNew(Model.HIER_CHILD_NAME_KEY, name);
-        hierRow.putNew(Model.HIER_CHILD_POS_KEY, pos);
-        hierRow.putNew(Model.MAIN_PRIMARY_TYPE_KEY, typeName);
-        hierRow.putNew(Model.HIER_CHILD_ISPROPERTY_KEY,
+        Row hierRow = context.newRow(Model.HIER_TABLE_NAME, id);
+        hierRow.put(Model.HIER_PARENT_KEY, parentId);
+        hierRow.put(Model.HIER_CHILD_NAME_KEY, name);
+        hierRow.put(Model.HIER_CHILD_POS_KEY, pos);
+        hierRow.put(Model.MAIN_PRIMARY_TYPE_KEY, typeName);
+        hierRow.put(Model.HIER_CHILD_ISPROPERTY_KEY,
                 Boolean.valueOf(complexProp));
         SimpleFragment hierFragment = context.createHierarchyFragment(hierRow);
         FragmentGroup fragmentGroup = new FragmentGroup(hierFragment,
@@ -1039,12 +1174,21 @@ public class SessionImpl implements Session, XAResource {
         checkLive();
         List<SimpleFragment> fragments = context.getChildren(parent.getId(),
                 name, complexProp);
-        List<Node> nodes = new ArrayList<Node>(fragments.size());
+        List<Serializable> ids = new ArrayList<Serializable>(fragments.size());
         for (SimpleFragment fragment : fragments) {
-            Node node = getNodeById(fragment.getId());
+            ids.add(fragment.getId());
+        }
+        // fetch the children in bulk
+        List<Node> nodes = new ArrayList<Node>(fragments.size());
+        List<Node> children = getNodesByIds(ids, true);
+        if (!complexProp) {
+            prefetchRelatedNodes(children);
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            Node node = children.get(i);
             if (node == null) {
                 // cannot happen
-                log.error("Child node cannot be created: " + fragment.getId());
+                log.error("Child node cannot be created: " + ids.get(i));
                 continue;
             }
             nodes.add(node);
@@ -1257,6 +1401,17 @@ public class SessionImpl implements Session, XAResource {
         }
     }
 
+    @Override
+    public IdStream queryIds(String query, String queryType,
+            QueryFilter queryFilter) throws StorageException {
+        final Timer.Context timerContext = queryTimer.time();
+        try {
+            return mapper.queryIds(query, queryType, queryFilter);
+        } finally  {
+            timerContext.stop();
+        }
+    }
+
     @Override
     public IterableQueryResult queryAndFetch(String query, String queryType,
             QueryFilter queryFilter, Object... params) throws StorageException {
@@ -1296,7 +1451,10 @@ public class SessionImpl implements Session, XAResource {
     public void updateReadAcls() throws StorageException {
         final Timer.Context timerContext = aclrUpdateTimer.time();
         try {
-            mapper.updateReadAcls();
+            if (mapper.updateReadAcls() > 0) {
+                // only when the dialect does the update asynchronously
+                readAclsUpdateQueued = true;
+            }
             readAclsChanged = false;
         } finally {
             timerContext.stop();
@@ -1309,6 +1467,41 @@ public class SessionImpl implements Session, XAResource {
         readAclsChanged = false;
     }
 
+    /**
+     * Computes the read acls of a batch of the documents queued by an
+     * asynchronous read acls update.
+     *
+     * @param max the maximum number of documents to process
+     * @return the number of documents processed, 0 if none is left
+     * @since 5.9.1
+     */
+    public int updateReadAclsBatch(int max) throws StorageException {
+        checkLive();
+        return mapper.updateReadAclsBatch(max);
+    }
+
+    /**
+     * Swaps in the read acls computed by {@link #updateReadAclsBatch}.
+     *
+     * @return the number of documents updated
+     * @since 5.9.1
+     */
+    public int swapReadAcls() throws StorageException {
+        checkLive();
+        return mapper.swapReadAcls();
+    }
+
+    @Override
+    public ACP getCachedMergedACP(Serializable id) {
+        return context.getCachedMergedACP(id);
+    }
+
+    @Override
+    public void putCachedMergedACP(Serializable id, ACP acp,
+            Serializable[] dependencies) {
+        context.putCachedMergedACP(id, acp, dependencies);
+    }
+
     private void computeRootNode() throws StorageException {
         String repositoryId = repository.getName();
         Serializable rootId = mapper.getRootId(repositoryId);
@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.Serializable;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+/**
+ * A repository-wide cache of committed {@link Row}s, shared by all the
+ * sessions' {@link SoftRefCachingRowMapper}s as a second-level cache.
+ * <p>
+ * The cache is bounded by the estimated memory size of its rows, and evicts
+ * the least recently used ones. Each table can have its own time-to-live, or
+ * not be cached at all.
+ * <p>
+ * Rows read from the database are put with the stamp obtained by
+ * {@link #getStamp} before the read, so that a row read before an
+ * invalidation but put after it is discarded instead of being cached stale.
+ * <p>
+ * Configured through the caching mapper properties:
+ * <ul>
+ * <li>{@code sharedCache.maxBytes}: the maximum memory size, the cache is
+ * disabled if absent or 0,</li>
+ * <li>{@code sharedCache.ttl}: the default time-to-live in milliseconds, 0
+ * for none,</li>
+ * <li>{@code sharedCache.table.<table>.ttl}: the time-to-live for a table,</li>
+ * <li>{@code sharedCache.table.<table>.enabled}: {@code false} to never cache
+ * the rows of a table.</li>
+ * </ul>
+ *
+ * @since 5.9.1
+ */
+public class SharedRowCache {
+
+    public static final String PROP_PREFIX = "sharedCache.";
+
+    public static final String MAX_BYTES_PROP = PROP_PREFIX + "maxBytes";
+
+    public static final String TTL_PROP = PROP_PREFIX + "ttl";
+
+    public static final String TABLE_PROP_PREFIX = PROP_PREFIX + "table.";
+
+    protected static final int SEGMENTS = 16; // power of two
+
+    /** Marker for rows known to be absent from the database. */
+    protected static final Row ABSENT = new Row("__ABSENT__\0\0\0",
+            (Serializable) null);
+
+    protected final String repositoryName;
+
+    protected final long maxSegmentBytes;
+
+    protected final long defaultTtl;
+
+    protected final Map<String, String> properties;
+
+    protected final ConcurrentMap<String, TablePolicy> policies = new ConcurrentHashMap<String, TablePolicy>();
+
+    protected final Segment[] segments;
+
+    /** Incremented by each invalidation. */
+    protected final AtomicLong version = new AtomicLong();
+
+    protected final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    protected final String bytesGaugeName;
+
+    /**
+     * Creates the shared cache configured by the given caching mapper
+     * properties, or returns {@code null} if not enabled.
+     */
+    public static SharedRowCache create(String repositoryName,
+            Map<String, String> properties) {
+        long maxBytes = getLong(properties, MAX_BYTES_PROP, 0);
+        if (maxBytes <= 0) {
+            return null;
+        }
+        return new SharedRowCache(repositoryName, maxBytes, properties);
+    }
+
+    public SharedRowCache(String repositoryName, long maxBytes,
+            Map<String, String> properties) {
+        this.repositoryName = repositoryName;
+        this.properties = properties;
+        maxSegmentBytes = Math.max(maxBytes / SEGMENTS, 1);
+        defaultTtl = getLong(properties, TTL_PROP, 0);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        bytesGaugeName = metricName("bytes");
+        registry.remove(bytesGaugeName);
+        registry.register(bytesGaugeName, new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return Long.valueOf(getBytes());
+            }
+        });
+    }
+
+    protected static long getLong(Map<String, String> properties, String key,
+            long def) {
+        String value = properties.get(key);
+        if (value == null || value.trim().length() == 0) {
+            return def;
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    protected String metricName(String name) {
+        return MetricRegistry.name("nuxeo", "repositories", repositoryName,
+                "caches", "shared", name);
+    }
+
+    protected String metricName(String tableName, String name) {
+        return MetricRegistry.name("nuxeo", "repositories", repositoryName,
+                "caches", "shared", tableName, name);
+    }
+
+    /**
+     * Caching policy and statistics of a table.
+     */
+    protected class TablePolicy {
+
+        protected final boolean enabled;
+
+        protected final long ttl;
+
+        protected final Counter hits;
+
+        protected final Counter misses;
+
+        protected final Counter evictions;
+
+        protected TablePolicy(String tableName) {
+            String prefix = TABLE_PROP_PREFIX + tableName + '.';
+            enabled = !"false".equals(properties.get(prefix + "enabled"));
+            ttl = getLong(properties, prefix + "ttl", defaultTtl);
+            hits = registry.counter(metricName(tableName, "hits"));
+            misses = registry.counter(metricName(tableName, "misses"));
+            evictions = registry.counter(metricName(tableName, "evictions"));
+        }
+    }
+
+    protected TablePolicy getPolicy(String tableName) {
+        TablePolicy policy = policies.get(tableName);
+        if (policy == null) {
+            policy = new TablePolicy(tableName);
+            TablePolicy old = policies.putIfAbsent(tableName, policy);
+            if (old != null) {
+                policy = old;
+            }
+        }
+        return policy;
+    }
+
+    protected static class CacheEntry {
+
+        protected final Row row;
+
+        protected final long bytes;
+
+        /** Expiration time, or 0 for none. */
+        protected final long expires;
+
+        protected final TablePolicy policy;
+
+        protected CacheEntry(Row row, long bytes, long expires,
+                TablePolicy policy) {
+            this.row = row;
+            this.bytes = bytes;
+            this.expires = expires;
+            this.policy = policy;
+        }
+    }
+
+    /**
+     * Part of the cache, with its own LRU order and lock.
+     */
+    protected class Segment {
+
+        protected final LinkedHashMap<RowId, CacheEntry> map = new LinkedHashMap<RowId, CacheEntry>(
+                16, 0.75f, true);
+
+        protected long bytes;
+
+        /** Version of the last invalidation of this segment. */
+        protected long invalidated;
+
+        protected synchronized CacheEntry get(RowId rowId, long now) {
+            CacheEntry entry = map.get(rowId);
+            if (entry != null && entry.expires != 0 && entry.expires <= now) {
+                remove(rowId);
+                entry.policy.evictions.inc();
+                return null;
+            }
+            return entry;
+        }
+
+        protected synchronized void put(RowId key, CacheEntry entry,
+                long stamp) {
+            if (invalidated > stamp) {
+                // invalidated since the read, may be stale
+                return;
+            }
+            remove(key);
+            map.put(key, entry);
+            bytes += entry.bytes;
+            if (bytes > maxSegmentBytes) {
+                Iterator<CacheEntry> it = map.values().iterator();
+                while (bytes > maxSegmentBytes && it.hasNext()) {
+                    CacheEntry eldest = it.next();
+                    it.remove();
+                    bytes -= eldest.bytes;
+                    eldest.policy.evictions.inc();
+                }
+            }
+        }
+
+        protected synchronized void invalidate(RowId rowId, long v) {
+            invalidated = Math.max(invalidated, v);
+            remove(rowId);
+        }
+
+        protected synchronized void clear(long v) {
+            invalidated = Math.max(invalidated, v);
+            map.clear();
+            bytes = 0;
+        }
+
+        protected void remove(RowId rowId) {
+            CacheEntry old = map.remove(rowId);
+            if (old != null) {
+                bytes -= old.bytes;
+            }
+        }
+
+        protected synchronized long getBytes() {
+            return bytes;
+        }
+
+        protected synchronized int size() {
+            return map.size();
+        }
+    }
+
+    protected Segment getSegment(RowId rowId) {
+        int h = rowId.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Gets the stamp to use to put rows that are about to be read from the
+     * database.
+     */
+    public long getStamp() {
+        return version.get();
+    }
+
+    /**
+     * Checks if a table is cached.
+     */
+    public boolean isCached(String tableName) {
+        return getPolicy(tableName).enabled;
+    }
+
+    /**
+     * Gets a copy of a cached row.
+     *
+     * @return the row, {@link #ABSENT} if known to be absent, or {@code null}
+     *         if not in the cache
+     */
+    public Row get(RowId rowId) {
+        TablePolicy policy = getPolicy(rowId.tableName);
+        if (!policy.enabled) {
+            return null;
+        }
+        CacheEntry entry = getSegment(rowId).get(rowId,
+                System.currentTimeMillis());
+        if (entry == null) {
+            policy.misses.inc();
+            return null;
+        }
+        policy.hits.inc();
+        return entry.row == ABSENT ? ABSENT : entry.row.clone();
+    }
+
+    /**
+     * Puts a row read from the database.
+     *
+     * @param row the row, which is copied
+     * @param stamp the stamp obtained before reading the row
+     */
+    public void put(Row row, long stamp) {
+        doPut(new RowId(row), row.clone(), stamp);
+    }
+
+    /**
+     * Records that a row is absent from the database.
+     *
+     * @param stamp the stamp obtained before reading the row
+     */
+    public void putAbsent(RowId rowId, long stamp) {
+        doPut(new RowId(rowId), ABSENT, stamp);
+    }
+
+    protected void doPut(RowId key, Row row, long stamp) {
+        TablePolicy policy = getPolicy(key.tableName);
+        if (!policy.enabled) {
+            return;
+        }
+        long expires = policy.ttl > 0 ? System.currentTimeMillis()
+                + policy.ttl : 0;
+        CacheEntry entry = new CacheEntry(row, estimateSize(row), expires,
+                policy);
+        getSegment(key).put(key, entry, stamp);
+    }
+
+    /**
+     * Invalidates the rows modified or deleted by a committed transaction,
+     * from this cluster node or another one.
+     */
+    public void invalidate(Invalidations invalidations) {
+        if (invalidations == null) {
+            return;
+        }
+        if (invalidations.all) {
+            clear();
+            return;
+        }
+        if (invalidations.modified != null) {
+            for (RowId rowId : invalidations.modified) {
+                invalidate(rowId);
+            }
+        }
+        if (invalidations.deleted != null) {
+            for (RowId rowId : invalidations.deleted) {
+                invalidate(rowId);
+            }
+        }
+    }
+
+    public void invalidate(RowId rowId) {
+        getSegment(rowId).invalidate(rowId, version.incrementAndGet());
+    }
+
+    public void clear() {
+        long v = version.incrementAndGet();
+        for (Segment segment : segments) {
+            segment.clear(v);
+        }
+    }
+
+    /**
+     * Gets the number of cached rows.
+     */
+    public long getSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Gets the estimated memory size of the cached rows.
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.getBytes();
+        }
+        return bytes;
+    }
+
+    public void close() {
+        clear();
+        registry.remove(bytesGaugeName);
+        for (String tableName : policies.keySet()) {
+            registry.remove(metricName(tableName, "hits"));
+            registry.remove(metricName(tableName, "misses"));
+            registry.remove(metricName(tableName, "evictions"));
+        }
+        policies.clear();
+    }
+
+    /**
+     * Estimates the memory size of a row and of its cache entry.
+     */
+    protected static long estimateSize(Row row) {
+        long size = 128; // entry, key, row and arrays headers
+        if (row == ABSENT) {
+            return size;
+        }
+        size += estimateSize(row.id);
+        if (row.values == null) {
+            return size;
+        }
+        // keys are shared with the model, only count the references
+        int n = row.isCollection() ? row.values.length : row.size;
+        size += 8L * n * (row.isCollection() ? 1 : 2);
+        for (int i = 0; i < n; i++) {
+            size += estimateSize(row.values[i]);
+        }
+        return size;
+    }
+
+    protected static long estimateSize(Serializable value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return 24;
+        }
+        if (value instanceof Calendar) {
+            return 200;
+        }
+        if (value instanceof ACLRow) {
+            ACLRow acl = (ACLRow) value;
+            return 48 + estimateSize(acl.name) + estimateSize(acl.permission)
+                    + estimateSize(acl.user) + estimateSize(acl.group);
+        }
+        if (value instanceof Object[]) {
+            long size = 16;
+            for (Object v : (Object[]) value) {
+                size += 8 + (v instanceof Serializable ? estimateSize((Serializable) v)
+                        : 0);
+            }
+            return size;
+        }
+        return 64;
+    }
+
+}
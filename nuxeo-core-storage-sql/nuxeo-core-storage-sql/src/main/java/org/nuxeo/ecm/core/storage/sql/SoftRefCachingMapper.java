@@ -14,6 +14,7 @@ package org.nuxeo.ecm.core.storage.sql;
 import java.io.Serializable;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -101,6 +102,12 @@ public class SoftRefCachingMapper extends SoftRefCachingRowMapper implements Cac
         return mapper.query(query, queryType, queryFilter, countUpTo);
     }
 
+    @Override
+    public IdStream queryIds(String query, String queryType,
+            QueryFilter queryFilter) throws StorageException {
+        return mapper.queryIds(query, queryType, queryFilter);
+    }
+
     @Override
     public IterableQueryResult queryAndFetch(String query, String queryType,
             QueryFilter queryFilter, Object... params) throws StorageException {
@@ -114,8 +121,14 @@ public class SoftRefCachingMapper extends SoftRefCachingRowMapper implements Cac
     }
 
     @Override
-    public void updateReadAcls() throws StorageException {
-        mapper.updateReadAcls();
+    public List<Serializable> getIdsForPath(Serializable parentId,
+            String[] names) throws StorageException {
+        return mapper.getIdsForPath(parentId, names);
+    }
+
+    @Override
+    public int updateReadAcls() throws StorageException {
+        return mapper.updateReadAcls();
     }
 
     @Override
@@ -123,6 +136,16 @@ public class SoftRefCachingMapper extends SoftRefCachingRowMapper implements Cac
         mapper.rebuildReadAcls();
     }
 
+    @Override
+    public int updateReadAclsBatch(int max) throws StorageException {
+        return mapper.updateReadAclsBatch(max);
+    }
+
+    @Override
+    public int swapReadAcls() throws StorageException {
+        return mapper.swapReadAcls();
+    }
+
     @Override
     public String createClusterNode() throws StorageException {
         return mapper.createClusterNode();
@@ -107,6 +107,21 @@ public class SoftRefCachingRowMapper implements RowMapper {
 
     protected boolean forRemoteClient;
 
+    /**
+     * The repository-wide second-level cache, or {@code null}.
+     */
+    protected SharedRowCache sharedCache;
+
+    protected HierarchyCache hierarchyCache;
+
+    protected MergedACPCache mergedACPCache;
+
+    /**
+     * Whether the invalidations received from other cluster nodes are applied
+     * to the shared caches by the cluster node, once for all the sessions.
+     */
+    protected boolean sharedCachesInvalidatedByCluster;
+
     /**
      * Cache statistics
      *
@@ -157,6 +172,12 @@ public class SoftRefCachingRowMapper implements RowMapper {
         return rowMapper.generateNewId();
     }
 
+    @Override
+    public List<Serializable> generateNewIds(int count)
+            throws StorageException {
+        return rowMapper.generateNewIds(count);
+    }
+
     /*
      * ----- Cache -----
      */
@@ -224,6 +245,97 @@ public class SoftRefCachingRowMapper implements RowMapper {
         cache.remove(rowId);
     }
 
+    /*
+     * ----- Shared Cache -----
+     */
+
+    /**
+     * Sets the repository-wide second-level cache.
+     *
+     * @since 5.9.1
+     */
+    public void setSharedRowCache(SharedRowCache sharedCache) {
+        this.sharedCache = sharedCache;
+    }
+
+    /**
+     * Sets the repository-wide cache of hierarchy names, invalidated by this
+     * mapper.
+     *
+     * @since 5.9.1
+     */
+    public void setHierarchyCache(HierarchyCache hierarchyCache) {
+        this.hierarchyCache = hierarchyCache;
+    }
+
+    /**
+     * Sets the repository-wide cache of merged ACPs, invalidated by this
+     * mapper.
+     *
+     * @since 5.9.1
+     */
+    public void setMergedACPCache(MergedACPCache mergedACPCache) {
+        this.mergedACPCache = mergedACPCache;
+    }
+
+    /**
+     * Sets whether the shared caches are invalidated by the cluster node when
+     * it receives invalidations, instead of by each session.
+     *
+     * @since 5.9.1
+     */
+    public void setSharedCachesInvalidatedByCluster(boolean invalidated) {
+        sharedCachesInvalidatedByCluster = invalidated;
+    }
+
+    /**
+     * Rows written by this mapper and not yet committed must not be read from
+     * or put into the shared cache.
+     */
+    protected boolean isLocallyModified(RowId rowId) {
+        return (localInvalidations.modified != null && localInvalidations.modified.contains(rowId))
+                || (localInvalidations.deleted != null && localInvalidations.deleted.contains(rowId));
+    }
+
+    protected long sharedCacheStamp() {
+        return sharedCache == null ? 0 : sharedCache.getStamp();
+    }
+
+    /**
+     * Gets a row from the shared cache, and puts it in our cache.
+     */
+    protected Row sharedCacheGet(RowId rowId) {
+        if (sharedCache == null || isLocallyModified(rowId)) {
+            return null;
+        }
+        Row row = sharedCache.get(rowId);
+        if (row == null) {
+            return null;
+        }
+        if (row == SharedRowCache.ABSENT) {
+            cachePutAbsent(rowId);
+            return new Row(ABSENT, (Serializable) null);
+        }
+        cachePut(row);
+        return row;
+    }
+
+    protected void sharedCachePutAbsentIfNull(RowId rowId, Row row, long stamp) {
+        if (sharedCache == null || isLocallyModified(rowId)) {
+            return;
+        }
+        if (row == null) {
+            sharedCache.putAbsent(rowId, stamp);
+        } else {
+            sharedCache.put(row, stamp);
+        }
+    }
+
+    protected void sharedCachePutAbsentIfRowId(RowId rowId, long stamp) {
+        sharedCachePutAbsentIfNull(rowId, rowId instanceof Row ? (Row) rowId
+                : null, stamp);
+    }
+
     /*
      * ----- Invalidations / Cache Management -----
      */
@@ -237,6 +349,9 @@ public class SoftRefCachingRowMapper implements RowMapper {
         Invalidations invalidations = cacheQueue.getInvalidations();
         if (invals != null) {
             invalidations.add(invals.cacheInvalidations);
+            if (!sharedCachesInvalidatedByCluster) {
+                invalidateSharedCaches(invals.cacheInvalidations);
+            }
         }
 
         // add local accumulated events to remote ones
@@ -267,6 +382,23 @@ public class SoftRefCachingRowMapper implements RowMapper {
                 : invalidations, events.isEmpty() ? null : events);
     }
 
+    /**
+     * Applies invalidations received from a remote server to the shared
+     * caches. Called after their propagation to the sessions' queues, see
+     * {@link HierarchyCache}.
+     */
+    protected void invalidateSharedCaches(Invalidations invalidations) {
+        if (sharedCache != null) {
+            sharedCache.invalidate(invalidations);
+        }
+        if (hierarchyCache != null) {
+            hierarchyCache.invalidate(invalidations);
+        }
+        if (mergedACPCache != null) {
+            mergedACPCache.invalidate(invalidations);
+        }
+    }
+
     // propagate invalidations
     @Override
     public void sendInvalidations(Invalidations invalidations)
@@ -284,9 +416,22 @@ public class SoftRefCachingRowMapper implements RowMapper {
             // send to underlying mapper
             rowMapper.sendInvalidations(invalidations);
 
+            // now committed, remove stale rows from the shared cache
+            if (sharedCache != null) {
+                sharedCache.invalidate(invalidations);
+            }
+
             // queue to other local mappers' caches
             cachePropagator.propagateInvalidations(invalidations, cacheQueue);
 
+            // after propagation, see HierarchyCache
+            if (hierarchyCache != null) {
+                hierarchyCache.invalidate(invalidations);
+            }
+            if (mergedACPCache != null) {
+                mergedACPCache.invalidate(invalidations);
+            }
+
             // queue as events for other repositories
             eventPropagator.propagateInvalidations(invalidations, eventQueue);
 
@@ -361,6 +506,9 @@ public class SoftRefCachingRowMapper implements RowMapper {
         List<RowId> todo = new LinkedList<RowId>();
         for (RowId rowId : rowIds) {
             Row row = cacheGet(rowId);
+            if (row == null) {
+                row = sharedCacheGet(rowId);
+            }
             if (row == null) {
                 if (cacheOnly) {
                     res.add(new RowId(rowId));
@@ -376,11 +524,13 @@ public class SoftRefCachingRowMapper implements RowMapper {
         if (!todo.isEmpty()) {
             final Timer.Context context = sorGetTimer.time();
             try {
+                long stamp = sharedCacheStamp();
                 // ask missing ones to underlying row mapper
                 List<? extends RowId> fetched = rowMapper.read(todo, cacheOnly);
                 // add them to the cache
                 for (RowId rowId : fetched) {
                     cachePutAbsentIfRowId(rowId);
+                    sharedCachePutAbsentIfRowId(rowId, stamp);
                 }
                 // merge results
                 res.addAll(fetched);
@@ -435,8 +585,13 @@ public class SoftRefCachingRowMapper implements RowMapper {
     public Row readSimpleRow(RowId rowId) throws StorageException {
         Row row = cacheGet(rowId);
         if (row == null) {
+            row = sharedCacheGet(rowId);
+        }
+        if (row == null) {
+            long stamp = sharedCacheStamp();
             row = rowMapper.readSimpleRow(rowId);
             cachePutAbsentIfNull(rowId, row);
+            sharedCachePutAbsentIfNull(rowId, row, stamp);
             return row;
         } else if (isAbsent(row)) {
             return null;
@@ -450,10 +605,15 @@ public class SoftRefCachingRowMapper implements RowMapper {
             throws StorageException {
         Row row = cacheGet(rowId);
         if (row == null) {
+            row = sharedCacheGet(rowId);
+        }
+        if (row == null) {
+            long stamp = sharedCacheStamp();
             Serializable[] array = rowMapper.readCollectionRowArray(rowId);
             assert array != null;
             row = new Row(rowId.tableName, rowId.id, array);
             cachePut(row);
+            sharedCachePutAbsentIfNull(rowId, row, stamp);
             return row.values;
         } else if (isAbsent(row)) {
             return null;
@@ -466,14 +626,33 @@ public class SoftRefCachingRowMapper implements RowMapper {
     public List<Row> readSelectionRows(SelectionType selType,
             Serializable selId, Serializable filter, Serializable criterion,
             boolean limitToOne) throws StorageException {
+        long stamp = sharedCacheStamp();
         List<Row> rows = rowMapper.readSelectionRows(selType, selId, filter,
                 criterion, limitToOne);
         for (Row row : rows) {
             cachePut(row);
+            sharedCachePutAbsentIfNull(row, row, stamp);
         }
         return rows;
     }
 
+    @Override
+    public List<Row> readChildRowsByNames(Serializable parentId,
+            Collection<String> names) throws StorageException {
+        long stamp = sharedCacheStamp();
+        List<Row> rows = rowMapper.readChildRowsByNames(parentId, names);
+        for (Row row : rows) {
+            cachePut(row);
+            sharedCachePutAbsentIfNull(row, row, stamp);
+        }
+        return rows;
+    }
+
+    @Override
+    public Long readMaxChildPos(Serializable parentId) throws StorageException {
+        return rowMapper.readMaxChildPos(parentId);
+    }
+
     /*
      * ----- Copy -----
      */
@@ -15,6 +15,7 @@ package org.nuxeo.ecm.core.storage.sql;
 import java.io.Serializable;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -102,6 +103,12 @@ public class UnifiedCachingMapper extends UnifiedCachingRowMapper implements Cac
         return mapper.query(query, queryType, queryFilter, countUpTo);
     }
 
+    @Override
+    public IdStream queryIds(String query, String queryType,
+            QueryFilter queryFilter) throws StorageException {
+        return mapper.queryIds(query, queryType, queryFilter);
+    }
+
     @Override
     public IterableQueryResult queryAndFetch(String query, String queryType,
             QueryFilter queryFilter, Object... params) throws StorageException {
@@ -115,8 +122,14 @@ public class UnifiedCachingMapper extends UnifiedCachingRowMapper implements Cac
     }
 
     @Override
-    public void updateReadAcls() throws StorageException {
-        mapper.updateReadAcls();
+    public List<Serializable> getIdsForPath(Serializable parentId,
+            String[] names) throws StorageException {
+        return mapper.getIdsForPath(parentId, names);
+    }
+
+    @Override
+    public int updateReadAcls() throws StorageException {
+        return mapper.updateReadAcls();
     }
 
     @Override
@@ -124,6 +137,16 @@ public class UnifiedCachingMapper extends UnifiedCachingRowMapper implements Cac
         mapper.rebuildReadAcls();
     }
 
+    @Override
+    public int updateReadAclsBatch(int max) throws StorageException {
+        return mapper.updateReadAclsBatch(max);
+    }
+
+    @Override
+    public int swapReadAcls() throws StorageException {
+        return mapper.swapReadAcls();
+    }
+
     @Override
     public String createClusterNode() throws StorageException {
         return mapper.createClusterNode();
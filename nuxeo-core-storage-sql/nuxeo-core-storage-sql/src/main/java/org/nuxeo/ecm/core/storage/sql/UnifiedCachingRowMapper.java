@@ -111,10 +111,26 @@ public class UnifiedCachingRowMapper implements RowMapper {
 
     protected boolean forRemoteClient;
 
+    /** Codec used when rows are stored encoded, or {@code null}. */
+    protected RowCodec rowCodec;
+
     private static final String CACHE_NAME = "unifiedVCSCache";
 
     private static final String EHCACHE_FILE_PROP = "ehcacheFilePath";
 
+    /**
+     * Property to choose how rows are stored in the cache: {@code heap} (the
+     * default) stores {@link Row} objects, {@code encoded} stores rows encoded
+     * by {@link RowCodec} as compact byte arrays.
+     *
+     * @since 5.9.1
+     */
+    public static final String EHCACHE_STORE_MODE_PROP = "ehcacheStoreMode";
+
+    public static final String STORE_MODE_ENCODED = "encoded";
+
+    private static final byte[] ABSENT_BYTES = new byte[0];
+
     private static AtomicInteger rowMapperCount = new AtomicInteger();
 
     /**
@@ -186,6 +202,9 @@ public class UnifiedCachingRowMapper implements RowMapper {
         }
         rowMapperCount.incrementAndGet();
         cache = cacheManager.getCache(CACHE_NAME);
+        if (STORE_MODE_ENCODED.equals(properties.get(EHCACHE_STORE_MODE_PROP))) {
+            rowCodec = RowCodec.getInstance(model);
+        }
     }
 
     public void close() throws StorageException {
@@ -199,6 +218,12 @@ public class UnifiedCachingRowMapper implements RowMapper {
         return rowMapper.generateNewId();
     }
 
+    @Override
+    public List<Serializable> generateNewIds(int count)
+            throws StorageException {
+        return rowMapper.generateNewIds(count);
+    }
+
     /*
      * ----- ehcache -----
      */
@@ -275,7 +300,12 @@ public class UnifiedCachingRowMapper implements RowMapper {
                 && row.values[0] instanceof ACLRow) {
             row.values = sortACLRows((ACLRow[]) row.values);
         }
-        Element element = new Element(new RowId(row), row);
+        Element element;
+        if (rowCodec == null) {
+            element = new Element(new RowId(row), row);
+        } else {
+            element = new Element(new RowId(row), rowCodec.encode(row));
+        }
         ehCachePut(element);
     }
 
@@ -287,8 +317,13 @@ public class UnifiedCachingRowMapper implements RowMapper {
     }
 
     protected void cachePutAbsent(RowId rowId) {
-        Element element = new Element(new RowId(rowId), new Row(ABSENT,
-                (Serializable) null));
+        Element element;
+        if (rowCodec == null) {
+            element = new Element(new RowId(rowId), new Row(ABSENT,
+                    (Serializable) null));
+        } else {
+            element = new Element(new RowId(rowId), ABSENT_BYTES);
+        }
         ehCachePut(element);
     }
 
@@ -313,11 +348,20 @@ public class UnifiedCachingRowMapper implements RowMapper {
         try {
             Element element = ehCacheGet(rowId);
             Row row = null;
-            if (element != null) {
-                row = (Row) element.getObjectValue();
-            }
-            if (row != null && !isAbsent(row)) {
-                row = row.clone();
+            Object value = element == null ? null : element.getObjectValue();
+            if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                if (bytes.length == 0) {
+                    row = new Row(ABSENT, (Serializable) null);
+                } else if (rowCodec != null) {
+                    // decoded row is already a private copy
+                    row = rowCodec.decode(bytes);
+                }
+            } else if (value != null) {
+                row = (Row) value;
+                if (!isAbsent(row)) {
+                    row = row.clone();
+                }
             }
             if (row != null) {
                 cacheHitCount.inc();
@@ -570,6 +614,21 @@ public class UnifiedCachingRowMapper implements RowMapper {
         return rows;
     }
 
+    @Override
+    public List<Row> readChildRowsByNames(Serializable parentId,
+            Collection<String> names) throws StorageException {
+        List<Row> rows = rowMapper.readChildRowsByNames(parentId, names);
+        for (Row row : rows) {
+            cachePut(row);
+        }
+        return rows;
+    }
+
+    @Override
+    public Long readMaxChildPos(Serializable parentId) throws StorageException {
+        return rowMapper.readMaxChildPos(parentId);
+    }
+
     /*
      * ----- Copy -----
      */
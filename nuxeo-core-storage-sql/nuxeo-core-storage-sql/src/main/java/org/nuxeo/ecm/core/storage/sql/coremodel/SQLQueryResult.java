@@ -16,8 +16,10 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,6 +34,7 @@ import org.nuxeo.ecm.core.model.EmptyDocumentIterator;
 import org.nuxeo.ecm.core.query.QueryException;
 import org.nuxeo.ecm.core.query.QueryResult;
 import org.nuxeo.ecm.core.storage.PartialList;
+import org.nuxeo.ecm.core.storage.sql.IdStream;
 
 /**
  * @author Florent Guillaume
@@ -48,6 +51,8 @@ public class SQLQueryResult implements QueryResult {
 
     protected final long totalSize;
 
+    protected final String cursor;
+
     /** When not null, order documents models by path asc (true) or desc (false) */
     protected final Boolean orderByPath;
 
@@ -55,17 +60,43 @@ public class SQLQueryResult implements QueryResult {
 
     protected final int offset;
 
+    /** The stream of ids, if the ids are read as they are iterated. */
+    protected final IdStream stream;
+
     protected Serializable currentId;
 
+    /** The documents ordered by path, when returned by batches. */
+    protected Iterator<Document> sortedDocs;
+
     public SQLQueryResult(SQLSession session, PartialList<Serializable> pl,
             Boolean orderByPath, long limit, long offset) {
         this.session = session;
         it = pl.list.iterator();
         size = pl.list.size();
         this.totalSize = pl.totalSize;
+        cursor = pl.cursor;
         this.orderByPath = orderByPath;
         this.limit = (int) limit;
         this.offset = (int) offset;
+        stream = null;
+    }
+
+    /**
+     * Constructs a result whose ids are read from a stream as it is
+     * iterated. Its size and total size are unknown (-1).
+     *
+     * @since 5.9.1
+     */
+    public SQLQueryResult(SQLSession session, IdStream stream) {
+        this.session = session;
+        it = stream;
+        size = -1;
+        totalSize = -1;
+        cursor = null;
+        orderByPath = null;
+        limit = 0;
+        offset = 0;
+        this.stream = stream;
     }
 
     @Override
@@ -83,6 +114,13 @@ public class SQLQueryResult implements QueryResult {
         return size == 0;
     }
 
+    @Override
+    public void close() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
     @Override
     public DocumentModelList getDocumentModels() throws QueryException {
         // get ids
@@ -125,7 +163,83 @@ public class SQLQueryResult implements QueryResult {
                 list.subList(limit, size).clear();
             }
         }
-        return new DocumentModelListImpl(list, totalSize);
+        DocumentModelListImpl dml = new DocumentModelListImpl(list, totalSize);
+        dml.setCursor(cursor);
+        return dml;
+    }
+
+    @Override
+    public List<Document> nextDocuments(int max) throws QueryException {
+        if (orderByPath != null) {
+            return nextDocumentsOrderedByPath(max);
+        }
+        List<Serializable> ids = new ArrayList<Serializable>(max);
+        while (ids.size() < max && it.hasNext()) {
+            ids.add(it.next());
+        }
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            return session.getDocumentsById(ids);
+        } catch (DocumentException e) {
+            throw new QueryException("Could not fetch documents for ids: "
+                    + ids, e);
+        }
+    }
+
+    /**
+     * The order by path is done by hand on all the documents, which are then
+     * returned by batches.
+     */
+    protected List<Document> nextDocumentsOrderedByPath(int max)
+            throws QueryException {
+        if (sortedDocs == null) {
+            List<Serializable> ids = new ArrayList<Serializable>((int) size);
+            while (it.hasNext()) {
+                ids.add(it.next());
+            }
+            List<Document> docs;
+            final Map<Document, String> paths = new HashMap<Document, String>();
+            try {
+                docs = session.getDocumentsById(ids);
+                for (Document doc : docs) {
+                    paths.put(doc, doc.getPath());
+                }
+            } catch (DocumentException e) {
+                throw new QueryException("Could not fetch documents for ids: "
+                        + ids, e);
+            }
+            final int sign = orderByPath.booleanValue() ? 1 : -1;
+            Collections.sort(docs, new Comparator<Document>() {
+                @Override
+                public int compare(Document doc1, Document doc2) {
+                    String p1 = paths.get(doc1);
+                    String p2 = paths.get(doc2);
+                    if (p1 == null && p2 == null) {
+                        return sign * doc1.getUUID().compareTo(doc2.getUUID());
+                    } else if (p1 == null) {
+                        return sign;
+                    } else if (p2 == null) {
+                        return -1 * sign;
+                    }
+                    return sign * p1.compareTo(p2);
+                }
+            });
+            if (limit != 0) {
+                int size = docs.size();
+                docs = docs.subList(offset > size ? size : offset, size);
+                if (limit < docs.size()) {
+                    docs = docs.subList(0, limit);
+                }
+            }
+            sortedDocs = docs.iterator();
+        }
+        List<Document> docs = new ArrayList<Document>(max);
+        while (docs.size() < max && sortedDocs.hasNext()) {
+            docs.add(sortedDocs.next());
+        }
+        return docs;
     }
 
     public static class PathComparator implements Comparator<DocumentModel> {
@@ -12,6 +12,8 @@
 
 package org.nuxeo.ecm.core.storage.sql.coremodel;
 
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -26,6 +28,7 @@ import org.nuxeo.ecm.core.api.security.ACE;
 import org.nuxeo.ecm.core.api.security.ACL;
 import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.api.security.NameSet;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.api.security.impl.ACLImpl;
 import org.nuxeo.ecm.core.api.security.impl.ACPImpl;
@@ -34,12 +37,16 @@ import org.nuxeo.ecm.core.model.Property;
 import org.nuxeo.ecm.core.security.SecurityException;
 import org.nuxeo.ecm.core.security.SecurityManager;
 import org.nuxeo.ecm.core.storage.sql.ACLRow;
+import org.nuxeo.ecm.core.storage.sql.Node;
 
 /**
  * @author Florent Guillaume
  */
 public class SQLSecurityManager implements SecurityManager {
 
+    /** Marker for a cached merged ACP that is {@code null}. */
+    protected static final ACP NULL_ACP = new ACPImpl();
+
     /*
      * ----- org.nuxeo.ecm.core.security.SecurityManager -----
      */
@@ -76,11 +83,45 @@ public class SQLSecurityManager implements SecurityManager {
 
     @Override
     public ACP getMergedACP(Document doc) throws SecurityException {
+        ACP acp = getSharedMergedACP(doc);
+        return acp == null ? null : (ACP) acp.clone();
+    }
+
+    /**
+     * Gets the merged ACP from the repository-wide cache, or computes it and
+     * puts it in the cache.
+     * <p>
+     * The returned ACP is shared and must not be modified.
+     */
+    protected ACP getSharedMergedACP(Document doc) throws SecurityException {
+        SQLSession session = (SQLSession) doc.getSession();
+        Node node = ((SQLDocument) doc).getNode();
+        ACP acp = session.getCachedMergedACP(node);
+        if (acp != null) {
+            return acp == NULL_ACP ? null : acp;
+        }
+        List<Serializable> dependencies = new ArrayList<Serializable>();
+        acp = computeMergedACP(doc, dependencies);
+        session.putCachedMergedACP(node, acp == null ? NULL_ACP : acp,
+                dependencies.toArray(new Serializable[dependencies.size()]));
+        return acp;
+    }
+
+    /**
+     * Computes the merged ACP, collecting the ids of the nodes whose ACLs or
+     * location it depends on.
+     */
+    protected ACP computeMergedACP(Document doc, List<Serializable> dependencies)
+            throws SecurityException {
         try {
+            dependencies.add(((SQLDocument) doc).getNode().getId());
             Document base = doc.isVersion() ? doc.getSourceDocument() : doc;
             if (base == null) {
                 return null;
             }
+            if (base != doc) {
+                dependencies.add(((SQLDocument) base).getNode().getId());
+            }
             ACP acp = getACP(base);
             if (doc.getParent() == null) {
                 return acp;
@@ -89,7 +130,7 @@ public class SQLSecurityManager implements SecurityManager {
             ACL acl = null;
             if (acp == null || acp.getAccess(SecurityConstants.EVERYONE,
                     SecurityConstants.EVERYTHING) != Access.DENY) {
-                acl = getInheritedACLs(doc);
+                acl = getInheritedACLs(doc, dependencies);
             }
             if (acp == null) {
                 if (acl == null) {
@@ -115,9 +156,18 @@ public class SQLSecurityManager implements SecurityManager {
     @Override
     public Access getAccess(Document doc, String username, String permission)
             throws SecurityException {
-        ACP acp = getMergedACP(doc);
-        return acp == null ? Access.UNKNOWN : acp.getAccess(username,
-                permission);
+        ACP acp = getSharedMergedACP(doc);
+        // not getAccess(String, String) which fills a per-instance cache
+        return acp == null ? Access.UNKNOWN : acp.getAccess(
+                new String[] { username }, new String[] { permission });
+    }
+
+    @Override
+    public Access getAccess(Document doc, NameSet principals,
+            NameSet permissions) throws SecurityException {
+        ACP acp = getSharedMergedACP(doc);
+        return acp == null ? Access.UNKNOWN : acp.getAccess(principals,
+                permissions);
     }
 
     /*
@@ -248,9 +298,15 @@ public class SQLSecurityManager implements SecurityManager {
     }
 
     protected ACL getInheritedACLs(Document doc) throws DocumentException {
+        return getInheritedACLs(doc, new ArrayList<Serializable>());
+    }
+
+    protected ACL getInheritedACLs(Document doc, List<Serializable> dependencies)
+            throws DocumentException {
         doc = doc.getParent();
         ACL merged = null;
         while (doc != null) {
+            dependencies.add(((SQLDocument) doc).getNode().getId());
             ACP acp = getACP(doc);
             if (acp != null) {
                 ACL acl = acp.getMergedACLs(ACL.INHERITED_ACL);
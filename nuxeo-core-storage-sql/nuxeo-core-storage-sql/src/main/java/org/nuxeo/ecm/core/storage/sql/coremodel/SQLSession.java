@@ -41,6 +41,7 @@ import org.nuxeo.ecm.core.api.IterableQueryResult;
 import org.nuxeo.ecm.core.api.Lock;
 import org.nuxeo.ecm.core.api.VersionModel;
 import org.nuxeo.ecm.core.api.impl.blob.StreamingBlob;
+import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.model.Document;
 import org.nuxeo.ecm.core.model.NoSuchDocumentException;
 import org.nuxeo.ecm.core.model.NoSuchPropertyException;
@@ -248,6 +249,37 @@ public class SQLSession implements Session {
         return doc;
     }
 
+    @Override
+    public List<Document> getDocumentsByUUIDs(List<String> uuids)
+            throws DocumentException {
+        List<Serializable> ids = new ArrayList<Serializable>(uuids.size());
+        for (String uuid : uuids) {
+            ids.add(idFromString(uuid));
+        }
+        List<Node> nodes;
+        try {
+            nodes = session.getNodesWithRelatedByIds(ids);
+        } catch (StorageException e) {
+            throw new DocumentException(e);
+        }
+        List<Document> docs = new ArrayList<Document>(nodes.size());
+        for (Node node : nodes) {
+            docs.add(newDocument(node));
+        }
+        return docs;
+    }
+
+    @Override
+    public void prepareAddChildren(Document parent, List<String> names)
+            throws DocumentException {
+        try {
+            session.prepareAddChildNodes(((SQLDocument) parent).getNode(),
+                    names);
+        } catch (StorageException e) {
+            throw new DocumentException(e);
+        }
+    }
+
     @Override
     public Document resolvePath(String path) throws DocumentException {
         if (path.endsWith("/") && path.length() > 1) {
@@ -599,6 +631,10 @@ public class SQLSession implements Session {
                 long limit = 0;
                 long offset = 0;
                 if (orderByPath != null) {
+                    if (queryFilter.getCursor() != null) {
+                        throw new QueryException(
+                                "Cannot use a cursor with ORDER BY ecm:path");
+                    }
                     query = matcher.group(1);
                     limit = queryFilter.getLimit();
                     offset = queryFilter.getOffset();
@@ -613,6 +649,22 @@ public class SQLSession implements Session {
             }
         }
 
+        @Override
+        public QueryResult executeStreamed(QueryFilter queryFilter)
+                throws QueryException {
+            if (ORDER_BY_PATH_ASC.matcher(query).matches()
+                    || ORDER_BY_PATH_DESC.matcher(query).matches()) {
+                // sorted by hand on all the documents anyway
+                return execute(queryFilter, 0);
+            }
+            try {
+                return new SQLQueryResult(SQLSession.this, session.queryIds(
+                        query, queryType, queryFilter));
+            } catch (StorageException e) {
+                throw new QueryException(e.getMessage(), e);
+            }
+        }
+
         public IterableQueryResult executeAndFetch(QueryFilter queryFilter,
                 Object... params) throws QueryException {
             try {
@@ -706,7 +758,7 @@ public class SQLSession implements Session {
             throws DocumentException {
         List<Document> docs = new ArrayList<Document>(ids.size());
         try {
-            List<Node> nodes = session.getNodesByIds(ids);
+            List<Node> nodes = session.getNodesWithRelatedByIds(ids);
             for (Node node : nodes) {
                 if (node == null) {
                     continue;
@@ -985,6 +1037,17 @@ public class SQLSession implements Session {
         return new SQLCollectionProperty(this, property, null, false);
     }
 
+    /** Gets a shared merged ACP from the repository-wide cache. */
+    protected ACP getCachedMergedACP(Node node) {
+        return session.getCachedMergedACP(node.getId());
+    }
+
+    /** Puts a shared merged ACP in the repository-wide cache. */
+    protected void putCachedMergedACP(Node node, ACP acp,
+            Serializable[] dependencies) {
+        session.putCachedMergedACP(node.getId(), acp, dependencies);
+    }
+
     /** Make a property. */
     protected Property makeProperty(Node node, String name,
             ComplexType parentType, List<CompositeType> mixinTypes,
@@ -12,20 +12,48 @@
 
 package org.nuxeo.ecm.core.storage.sql.jdbc;
 
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.ecm.core.storage.ConnectionResetException;
 import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.ClusterInvalidator;
+import org.nuxeo.ecm.core.storage.sql.HierarchyCache;
 import org.nuxeo.ecm.core.storage.sql.Invalidations;
 import org.nuxeo.ecm.core.storage.sql.InvalidationsPropagator;
 import org.nuxeo.ecm.core.storage.sql.InvalidationsQueue;
 import org.nuxeo.ecm.core.storage.sql.Mapper;
+import org.nuxeo.ecm.core.storage.sql.MergedACPCache;
 import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor;
+import org.nuxeo.ecm.core.storage.sql.SharedRowCache;
 
 /**
  * Encapsulates cluster node operations.
  * <p>
  * There is one cluster node handler per cluster node (repository).
+ * <p>
+ * If a {@link ClusterInvalidator} is configured, invalidations are pushed to
+ * and received from the other cluster nodes through it, and the database is
+ * only read as a recovery log every {@code clusteringRecoveryDelay}, or at
+ * each transaction start while the invalidator reports a possible loss. The
+ * rows read are always applied, even if they were already received through
+ * the invalidator (invalidations are idempotent), so that a message lost
+ * without the invalidator noticing is applied at most
+ * {@code clusteringRecoveryDelay} later.
+ * <p>
+ * If a {@code clusteringFlushDelay} is configured, the invalidations written
+ * to the database are coalesced across transactions and flushed at most once
+ * per delay, which reduces the number of rows written during mass updates at
+ * the cost of a higher latency for the other cluster nodes.
+ * <p>
+ * Invalidations received from the other cluster nodes are applied to the
+ * repository's shared caches once, when they are propagated to the cluster
+ * node's mappers, and not by each session.
  */
 public class ClusterNodeHandler {
 
@@ -36,6 +64,10 @@ public class ClusterNodeHandler {
 
     private final long clusteringDelay;
 
+    private final long clusteringRecoveryDelay;
+
+    private final long clusteringFlushDelay;
+
     // modified only under clusterMapper synchronization
     private long clusterNodeLastInvalidationTimeMillis;
 
@@ -45,13 +77,111 @@ public class ClusterNodeHandler {
     /** Cluster node id, needed at the Java level for some databases. */
     private String nodeId;
 
+    /** Invalidations transport, or {@code null} to only use the database. */
+    private final ClusterInvalidator clusterInvalidator;
+
+    /** Invalidations not yet written to the database. Used synchronized. */
+    private final Invalidations pendingInvalidations = new Invalidations();
+
+    /** Flushes pending invalidations, or {@code null} if no delay. */
+    private final ScheduledExecutorService flushScheduler;
+
+    // modified only under pendingInvalidations synchronization
+    private boolean flushScheduled;
+
+    /** Caches shared by the repository's sessions, or {@code null}. */
+    private volatile SharedRowCache sharedRowCache;
+
+    private volatile HierarchyCache hierarchyCache;
+
+    private volatile MergedACPCache mergedACPCache;
+
     public ClusterNodeHandler(Mapper clusterNodeMapper,
             RepositoryDescriptor repositoryDescriptor) throws StorageException {
         this.clusterNodeMapper = clusterNodeMapper;
         nodeId = clusterNodeMapper.createClusterNode();
         clusteringDelay = repositoryDescriptor.clusteringDelay;
+        clusteringRecoveryDelay = repositoryDescriptor.clusteringRecoveryDelay;
+        clusteringFlushDelay = repositoryDescriptor.clusteringFlushDelay;
         processClusterInvalidationsNext();
-        propagator = new InvalidationsPropagator("cluster-" + this);
+        propagator = new InvalidationsPropagator("cluster-" + this) {
+            @Override
+            public void propagateInvalidations(Invalidations invalidations,
+                    InvalidationsQueue skipQueue) {
+                super.propagateInvalidations(invalidations, skipQueue);
+                invalidateSharedCaches(invalidations);
+            }
+        };
+        clusterInvalidator = createClusterInvalidator(repositoryDescriptor);
+        if (clusteringFlushDelay > 0) {
+            final String threadName = "Nuxeo-VCS-Cluster-Flush-"
+                    + repositoryDescriptor.name;
+            flushScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            flushScheduler = null;
+        }
+    }
+
+    protected ClusterInvalidator createClusterInvalidator(
+            RepositoryDescriptor repositoryDescriptor) throws StorageException {
+        Class<? extends ClusterInvalidator> klass = repositoryDescriptor.clusterInvalidatorClass;
+        if (klass == null) {
+            return null;
+        }
+        ClusterInvalidator ci;
+        try {
+            ci = klass.newInstance();
+        } catch (Exception e) {
+            throw new StorageException("Cannot instantiate class: "
+                    + klass.getName(), e);
+        }
+        // the database node id may be null or reused, use our own
+        ci.initialize(UUID.randomUUID().toString(), repositoryDescriptor,
+                propagator);
+        log.info("Cluster invalidations sent using " + klass.getName()
+                + " for repository: " + repositoryDescriptor.name);
+        return ci;
+    }
+
+    /**
+     * Sets the repository's shared caches, which are then invalidated by the
+     * invalidations received from other cluster nodes.
+     */
+    public void setSharedCaches(SharedRowCache sharedRowCache,
+            HierarchyCache hierarchyCache, MergedACPCache mergedACPCache) {
+        this.sharedRowCache = sharedRowCache;
+        this.hierarchyCache = hierarchyCache;
+        this.mergedACPCache = mergedACPCache;
+    }
+
+    /**
+     * Invalidates the shared caches, once per cluster node. Called after the
+     * invalidations are propagated to the mappers' queues, see
+     * {@link HierarchyCache}.
+     */
+    protected void invalidateSharedCaches(Invalidations invalidations) {
+        if (invalidations == null || invalidations.isEmpty()) {
+            return;
+        }
+        SharedRowCache sharedRowCache = this.sharedRowCache;
+        if (sharedRowCache != null) {
+            sharedRowCache.invalidate(invalidations);
+        }
+        HierarchyCache hierarchyCache = this.hierarchyCache;
+        if (hierarchyCache != null) {
+            hierarchyCache.invalidate(invalidations);
+        }
+        MergedACPCache mergedACPCache = this.mergedACPCache;
+        if (mergedACPCache != null) {
+            mergedACPCache.invalidate(invalidations);
+        }
     }
 
     public JDBCConnection getConnection() {
@@ -59,6 +189,24 @@ public class ClusterNodeHandler {
     }
 
     public void close() throws StorageException {
+        if (clusterInvalidator != null) {
+            clusterInvalidator.close();
+        }
+        StorageException flushException = null;
+        if (flushScheduler != null) {
+            flushScheduler.shutdownNow();
+            try {
+                // let a running flush requeue its batch if it fails
+                flushScheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                flushPendingInvalidations(true);
+            } catch (StorageException e) {
+                flushException = e;
+            }
+        }
         synchronized (clusterNodeMapper) {
             try {
                 clusterNodeMapper.removeClusterNode();
@@ -67,6 +215,9 @@ public class ClusterNodeHandler {
             }
             clusterNodeMapper.close();
         }
+        if (flushException != null) {
+            throw flushException;
+        }
     }
 
     public void connectionWasReset() throws StorageException {
@@ -114,10 +265,16 @@ public class ClusterNodeHandler {
     public Invalidations receiveClusterInvalidations()
             throws StorageException {
         synchronized (clusterNodeMapper) {
-            if (clusterNodeLastInvalidationTimeMillis + clusteringDelay > System.currentTimeMillis()) {
+            boolean recovery = clusterInvalidator == null
+                    || clusterInvalidator.isRecoveryNeeded();
+            long delay = recovery ? clusteringDelay : clusteringRecoveryDelay;
+            if (clusterNodeLastInvalidationTimeMillis + delay > System.currentTimeMillis()) {
                 // delay hasn't expired
                 return null;
             }
+            if (clusterInvalidator != null && recovery) {
+                clusterInvalidator.startRecovery();
+            }
             Invalidations invalidations;
             try {
                 invalidations = clusterNodeMapper.getClusterInvalidations(nodeId);
@@ -126,6 +283,8 @@ public class ClusterNodeHandler {
                 invalidations = clusterNodeMapper.getClusterInvalidations(nodeId);
             }
             clusterNodeLastInvalidationTimeMillis = System.currentTimeMillis();
+            // even if not in recovery, the log may hold invalidations whose
+            // message was lost, applying them again is harmless
             return invalidations;
         }
     }
@@ -138,9 +297,108 @@ public class ClusterNodeHandler {
         if (invalidations == null || invalidations.isEmpty()) {
             return;
         }
-        synchronized (clusterNodeMapper) {
-            clusterNodeMapper.insertClusterInvalidations(invalidations, nodeId);
+        // also used as a recovery log by the cluster invalidator
+        if (flushScheduler == null) {
+            synchronized (clusterNodeMapper) {
+                clusterNodeMapper.insertClusterInvalidations(invalidations,
+                        nodeId);
+            }
+        } else {
+            synchronized (pendingInvalidations) {
+                pendingInvalidations.add(invalidations);
+                scheduleFlush();
+            }
+        }
+        if (clusterInvalidator != null) {
+            try {
+                clusterInvalidator.sendInvalidations(invalidations);
+            } catch (StorageException e) {
+                log.error("Could not push invalidations to other cluster nodes",
+                        e);
+            }
+        }
+    }
+
+    /**
+     * Schedules a flush of the pending invalidations, unless one is already
+     * scheduled or the handler is closing.
+     * <p>
+     * Must be called under pendingInvalidations synchronization.
+     */
+    protected void scheduleFlush() {
+        if (flushScheduled || flushScheduler.isShutdown()) {
+            return;
+        }
+        flushScheduled = true;
+        flushScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushPendingInvalidations(false);
+                } catch (StorageException e) {
+                    // cannot happen, failures are requeued when not closing
+                    log.error("Could not send invalidations to other cluster nodes",
+                            e);
+                }
+            }
+        }, clusteringFlushDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes to the database, in one go, the invalidations coalesced since the
+     * last flush.
+     * <p>
+     * If the write fails, the invalidations are put back in the pending ones
+     * and a new flush is scheduled, so that they are retried. When closing no
+     * retry is possible anymore and the failure is rethrown.
+     *
+     * @param closing {@code true} if this is the final flush done on close
+     */
+    protected void flushPendingInvalidations(boolean closing)
+            throws StorageException {
+        Invalidations invalidations = new Invalidations();
+        synchronized (pendingInvalidations) {
+            flushScheduled = false;
+            invalidations.add(pendingInvalidations);
+            pendingInvalidations.clear();
+        }
+        if (invalidations.isEmpty()) {
+            return;
+        }
+        try {
+            synchronized (clusterNodeMapper) {
+                clusterNodeMapper.insertClusterInvalidations(invalidations,
+                        nodeId);
+            }
+        } catch (StorageException e) {
+            if (closing) {
+                log.error("Could not send invalidations to other cluster "
+                        + "nodes on close, lost " + getRowCount(invalidations)
+                        + " invalidated rows", e);
+                throw e;
+            }
+            log.error("Could not send invalidations to other cluster nodes, "
+                    + "will retry " + getRowCount(invalidations)
+                    + " invalidated rows", e);
+            synchronized (pendingInvalidations) {
+                pendingInvalidations.add(invalidations);
+                scheduleFlush();
+            }
+        }
+    }
+
+    protected static String getRowCount(Invalidations invalidations) {
+        if (invalidations.all) {
+            return "all";
+        }
+        int count = 0;
+        if (invalidations.modified != null) {
+            count += invalidations.modified.size();
+        }
+        if (invalidations.deleted != null) {
+            count += invalidations.deleted.size();
         }
+        return String.valueOf(count);
     }
 
 }
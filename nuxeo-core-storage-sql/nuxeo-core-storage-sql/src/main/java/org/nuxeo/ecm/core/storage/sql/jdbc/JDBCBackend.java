@@ -203,6 +203,9 @@ public class JDBCBackend implements RepositoryBackend {
             clusterNodeHandler = new ClusterNodeHandler(mapper,
                     repositoryDescriptor);
             connectionPropagator.setClusterNodeHandler(clusterNodeHandler);
+            clusterNodeHandler.setSharedCaches(repository.getSharedRowCache(),
+                    repository.getHierarchyCache(),
+                    repository.getMergedACPCache());
         }
         return mapper;
     }
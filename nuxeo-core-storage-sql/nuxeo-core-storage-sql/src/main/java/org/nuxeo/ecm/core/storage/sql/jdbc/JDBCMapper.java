@@ -12,6 +12,7 @@
  */
 package org.nuxeo.ecm.core.storage.sql.jdbc;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.security.MessageDigest;
 import java.sql.Array;
@@ -31,6 +32,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -55,7 +57,9 @@ import org.nuxeo.ecm.core.storage.PartialList;
 import org.nuxeo.ecm.core.storage.StorageException;
 import org.nuxeo.ecm.core.storage.sql.BinaryGarbageCollector;
 import org.nuxeo.ecm.core.storage.sql.ColumnType.WrappedId;
+import org.nuxeo.ecm.core.storage.sql.IdStream;
 import org.nuxeo.ecm.core.storage.sql.Invalidations;
+import org.nuxeo.ecm.core.storage.sql.InvalidationsCodec;
 import org.nuxeo.ecm.core.storage.sql.LockManager;
 import org.nuxeo.ecm.core.storage.sql.Mapper;
 import org.nuxeo.ecm.core.storage.sql.Model;
@@ -105,6 +109,22 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
 
     protected boolean clusteringEnabled;
 
+    /**
+     * Kind of the cluster invalidations rows holding invalidations encoded by
+     * {@link InvalidationsCodec}.
+     *
+     * @since 5.9.1
+     */
+    public static final int CLUSTER_INVALS_PACKED_KIND = 3;
+
+    /**
+     * Maximum number of path segments resolved by a single query, to stay
+     * below the number of tables allowed in a join by all databases.
+     *
+     * @since 5.9.1
+     */
+    public static final int PATH_MAX_DEPTH_PER_QUERY = 50;
+
     /**
      * Creates a new Mapper.
      *
@@ -457,48 +477,37 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
         List<Column> columns = sqlInfo.getClusterInvalidationsColumns();
         PreparedStatement ps = null;
         try {
+            // one row per packed chunk, usually only one per transaction
+            List<Invalidations> chunks = new LinkedList<Invalidations>();
+            List<String> packed = new LinkedList<String>();
+            packClusterInvalidations(invalidations,
+                    dialect.getClusterFragmentsMaxLength(), chunks, packed);
             ps = connection.prepareStatement(sql);
-            int kind = Invalidations.MODIFIED;
-            while (true) {
-                Set<RowId> rowIds = invalidations.getKindSet(kind);
-
-                // reorganize by id
-                Map<Serializable, Set<String>> res = new HashMap<Serializable, Set<String>>();
-                for (RowId rowId : rowIds) {
-                    Set<String> tableNames = res.get(rowId.id);
-                    if (tableNames == null) {
-                        res.put(rowId.id, tableNames = new HashSet<String>());
-                    }
-                    tableNames.add(rowId.tableName);
+            Iterator<String> packedIt = packed.iterator();
+            for (Invalidations chunk : chunks) {
+                String fragments = packedIt.next();
+                // the id column just holds one of the ids of the chunk
+                Serializable id = InvalidationsCodec.getFirstId(chunk);
+                if (id == null) {
+                    continue;
                 }
-
-                // do inserts
-                for (Entry<Serializable, Set<String>> en : res.entrySet()) {
-                    Serializable id = en.getKey();
-                    String fragments = join(en.getValue(), ' ');
-                    if (logger.isLogEnabled()) {
-                        logger.logSQL(sql, Arrays.<Serializable> asList(id,
-                                fragments, Long.valueOf(kind)));
-                    }
-                    Serializable frags;
-                    if (dialect.supportsArrays()
-                            && columns.get(1).getJdbcType() == Types.ARRAY) {
-                        frags = fragments.split(" ");
-                    } else {
-                        frags = fragments;
-                    }
-                    columns.get(0).setToPreparedStatement(ps, 1, id);
-                    columns.get(1).setToPreparedStatement(ps, 2, frags);
-                    columns.get(2).setToPreparedStatement(ps, 3,
-                            Long.valueOf(kind));
-                    ps.execute();
-                    countExecute();
+                Long kind = Long.valueOf(CLUSTER_INVALS_PACKED_KIND);
+                if (logger.isLogEnabled()) {
+                    logger.logSQL(sql, Arrays.<Serializable> asList(id,
+                            chunk.toString(), kind));
                 }
-                if (kind == Invalidations.MODIFIED) {
-                    kind = Invalidations.DELETED;
+                Serializable frags;
+                if (dialect.supportsArrays()
+                        && columns.get(1).getJdbcType() == Types.ARRAY) {
+                    frags = new String[] { fragments };
                 } else {
-                    break;
+                    frags = fragments;
                 }
+                columns.get(0).setToPreparedStatement(ps, 1, id);
+                columns.get(1).setToPreparedStatement(ps, 2, frags);
+                columns.get(2).setToPreparedStatement(ps, 3, kind);
+                ps.execute();
+                countExecute();
             }
         } catch (Exception e) {
             checkConnectionReset(e);
@@ -514,25 +523,24 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
         }
     }
 
-    // join that works on a set
-    protected static final String join(Collection<String> strings, char sep) {
-        if (strings.isEmpty()) {
-            throw new RuntimeException();
-        }
-        if (strings.size() == 1) {
-            return strings.iterator().next();
-        }
-        int size = 0;
-        for (String word : strings) {
-            size += word.length() + 1;
+    /**
+     * Encodes invalidations into strings no longer than the given length,
+     * splitting them if needed.
+     */
+    protected static void packClusterInvalidations(
+            Invalidations invalidations, int maxLength,
+            List<Invalidations> chunks, List<String> packed)
+            throws IOException {
+        String string = InvalidationsCodec.encodeString(invalidations);
+        if (string.length() <= maxLength
+                || InvalidationsCodec.size(invalidations) <= 1) {
+            chunks.add(invalidations);
+            packed.add(string);
+            return;
         }
-        StringBuilder buf = new StringBuilder(size);
-        for (String word : strings) {
-            buf.append(word);
-            buf.append(sep);
+        for (Invalidations half : InvalidationsCodec.split(invalidations)) {
+            packClusterInvalidations(half, maxLength, chunks, packed);
         }
-        buf.setLength(size - 1);
-        return buf.toString();
     }
 
     @Override
@@ -560,6 +568,13 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
                 Serializable id = columns.get(0).getFromResultSet(rs, 1);
                 Serializable frags = columns.get(1).getFromResultSet(rs, 2);
                 int kind = ((Long) columns.get(2).getFromResultSet(rs, 3)).intValue();
+                if (kind == CLUSTER_INVALS_PACKED_KIND) {
+                    String packed = frags instanceof String[] ? ((String[]) frags)[0]
+                            : (String) frags;
+                    invalidations.add(InvalidationsCodec.decodeString(packed));
+                    continue;
+                }
+                // old format, one row per id
                 String[] fragments;
                 if (dialect.supportsArrays()
                         && frags instanceof String[]) {
@@ -697,6 +712,22 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
         return null;
     }
 
+    /**
+     * Builds the query using the query maker, or gets its plan from the cache.
+     */
+    protected QueryMaker.Query buildQuery(QueryMaker queryMaker,
+            PathResolver pathResolver, String query, QueryFilter queryFilter,
+            Object... params) throws StorageException {
+        // other query makers may keep state in their queries
+        if (sqlInfo.queryPlanCache != null
+                && queryMaker.getClass() == NXQLQueryMaker.class) {
+            return sqlInfo.queryPlanCache.buildQuery(queryMaker, sqlInfo,
+                    model, pathResolver, query, queryFilter, params);
+        }
+        return queryMaker.buildQuery(sqlInfo, model, pathResolver, query,
+                queryFilter, params);
+    }
+
     protected void prepareUserReadAcls(QueryFilter queryFilter)
             throws StorageException {
         String sql = dialect.getPrepareUserReadAclsSql();
@@ -747,8 +778,8 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
             throw new StorageException("No QueryMaker accepts query: "
                     + queryType + ": " + query);
         }
-        QueryMaker.Query q = queryMaker.buildQuery(sqlInfo, model,
-                pathResolver, query, queryFilter);
+        QueryMaker.Query q = buildQuery(queryMaker, pathResolver, query,
+                queryFilter);
 
         if (q == null) {
             logger.log("Query cannot return anything due to conflicting clauses");
@@ -769,19 +800,13 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
             logger.logSQL(sql, q.selectParams);
         }
 
-        String sql = q.selectInfo.sql;
-
-        if (countUpTo == 0 && limit > 0 && dialect.supportsPaging()) {
-            // full result set not needed for counting
-            sql = dialect.addPagingClause(sql, limit, offset);
-            limit = 0;
-            offset = 0;
-        } else if (countUpTo > 0 && dialect.supportsPaging()) {
-            // ask one more row
-            sql = dialect.addPagingClause(sql,
-                    Math.max(countUpTo + 1, limit + offset), 0);
+        if (dialect.supportsPaging()) {
+            return queryForwardOnly(q, query, limit, offset, countUpTo);
         }
 
+        // no paging in the database, use a scrollable result set
+        String sql = q.selectInfo.sql;
+
         PreparedStatement ps = null;
         try {
             ps = connection.prepareStatement(sql,
@@ -811,10 +836,15 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
 
             Column column = q.selectInfo.whatColumns.get(0);
             List<Serializable> ids = new LinkedList<Serializable>();
+            long pageSize = limit;
+            List<Serializable> cursorValues = null;
             int rowNum = 0;
             while (available && (limit != 0)) {
                 Serializable id = column.getFromResultSet(rs, 1);
                 ids.add(id);
+                if (q.cursorIndexes != null) {
+                    cursorValues = getCursorValues(q, rs);
+                }
                 rowNum = rs.getRow();
                 available = rs.next();
                 limit--;
@@ -841,7 +871,203 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
                 logger.logIds(ids, countUpTo != 0, totalSize);
             }
 
-            return new PartialList<Serializable>(ids, totalSize);
+            String nextCursor = null;
+            if (cursorValues != null && pageSize > 0
+                    && ids.size() == pageSize) {
+                nextCursor = KeysetCursor.encode(cursorValues);
+            }
+            return new PartialList<Serializable>(ids, totalSize, nextCursor);
+        } catch (Exception e) {
+            checkConnectionReset(e);
+            throw new StorageException("Invalid query: " + query, e);
+        } finally {
+            if (ps != null) {
+                try {
+                    closeStatement(ps);
+                } catch (SQLException e) {
+                    log.error("Cannot close connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Executes a query using a forward-only result set, which lets the driver
+     * stream the rows instead of buffering all of them. The total size, if
+     * needed, is deduced from the returned page when it is the last one, or
+     * computed by a separate count query.
+     */
+    protected PartialList<Serializable> queryForwardOnly(QueryMaker.Query q,
+            String query, long limit, long offset, long countUpTo)
+            throws StorageException {
+        String sql = q.selectInfo.sql;
+        if (limit > 0) {
+            sql = dialect.addPagingClause(sql, limit, offset);
+        } else if (countUpTo > 0) {
+            // ask one more row
+            sql = dialect.addPagingClause(sql, countUpTo + 1, 0);
+        }
+        PreparedStatement ps = null;
+        try {
+            ps = prepareForwardOnly(sql, q.selectParams);
+            ResultSet rs = ps.executeQuery();
+            countExecute();
+            Column column = q.selectInfo.whatColumns.get(0);
+            List<Serializable> ids = new ArrayList<Serializable>();
+            // offset without limit is done on our side
+            long skip = limit > 0 ? 0 : offset;
+            List<Serializable> cursorValues = null;
+            long rowNum = 0;
+            while (rs.next()) {
+                rowNum++;
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                ids.add(column.getFromResultSet(rs, 1));
+                if (q.cursorIndexes != null) {
+                    cursorValues = getCursorValues(q, rs);
+                }
+            }
+            closeStatement(ps);
+            ps = null;
+
+            // total size
+            long totalSize = -1;
+            if (countUpTo != 0) {
+                if (limit <= 0) {
+                    // all rows (up to countUpTo + 1) were read
+                    totalSize = rowNum;
+                } else if (ids.size() < limit && (!ids.isEmpty() || offset == 0)) {
+                    // the page contains the last row
+                    totalSize = offset + ids.size();
+                } else {
+                    totalSize = queryCount(q, countUpTo);
+                }
+                if (countUpTo > 0 && totalSize > countUpTo) {
+                    // the result where truncated we don't know the total size
+                    totalSize = -2;
+                }
+            }
+
+            if (logger.isLogEnabled()) {
+                logger.logIds(ids, countUpTo != 0, totalSize);
+            }
+
+            String nextCursor = null;
+            if (cursorValues != null && limit > 0 && ids.size() == limit) {
+                nextCursor = KeysetCursor.encode(cursorValues);
+            }
+            return new PartialList<Serializable>(ids, totalSize, nextCursor);
+        } catch (Exception e) {
+            checkConnectionReset(e);
+            throw new StorageException("Invalid query: " + query, e);
+        } finally {
+            if (ps != null) {
+                try {
+                    closeStatement(ps);
+                } catch (SQLException e) {
+                    log.error("Cannot close connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the keyset cursor values of the current row.
+     */
+    protected List<Serializable> getCursorValues(QueryMaker.Query q,
+            ResultSet rs) throws SQLException {
+        List<Serializable> values = new ArrayList<Serializable>(
+                q.cursorIndexes.length);
+        for (int index : q.cursorIndexes) {
+            Column column = q.selectInfo.whatColumns.get(index - 1);
+            values.add(column.getFromResultSet(rs, index));
+        }
+        return values;
+    }
+
+    protected PreparedStatement prepareForwardOnly(String sql,
+            List<Serializable> params) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(sql,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        int fetchSize = dialect.getQueryFetchSize();
+        if (fetchSize > 0) {
+            ps.setFetchSize(fetchSize);
+        }
+        int i = 1;
+        for (Serializable object : params) {
+            setToPreparedStatement(ps, i++, object);
+        }
+        return ps;
+    }
+
+    /**
+     * Counts the rows of a query, up to {@code countUpTo + 1} if positive.
+     */
+    protected long queryCount(QueryMaker.Query q, long countUpTo)
+            throws SQLException {
+        String sql = dialect.getCountSql(q.selectInfo.sql, countUpTo);
+        if (logger.isLogEnabled()) {
+            logger.logSQL(sql, q.selectParams);
+        }
+        PreparedStatement ps = connection.prepareStatement(sql);
+        try {
+            int i = 1;
+            for (Serializable object : q.selectParams) {
+                setToPreparedStatement(ps, i++, object);
+            }
+            ResultSet rs = ps.executeQuery();
+            countExecute();
+            rs.next();
+            long count = rs.getLong(1);
+            if (logger.isLogEnabled()) {
+                logger.log("  -> " + count);
+            }
+            return count;
+        } finally {
+            closeStatement(ps);
+        }
+    }
+
+    @Override
+    public IdStream queryIds(String query, String queryType,
+            QueryFilter queryFilter) throws StorageException {
+        if (dialect.needsPrepareUserReadAcls()) {
+            prepareUserReadAcls(queryFilter);
+        }
+        QueryMaker queryMaker = findQueryMaker(queryType);
+        if (queryMaker == null) {
+            throw new StorageException("No QueryMaker accepts query: "
+                    + queryType + ": " + query);
+        }
+        QueryMaker.Query q = buildQuery(queryMaker, pathResolver, query,
+                queryFilter);
+        if (q == null) {
+            logger.log("Query cannot return anything due to conflicting clauses");
+            return new ResultSetIdStream(logger);
+        }
+        String sql = q.selectInfo.sql;
+        long limit = queryFilter.getLimit();
+        long offset = queryFilter.getOffset();
+        if (limit > 0 && dialect.supportsPaging()) {
+            sql = dialect.addPagingClause(sql, limit, offset);
+        } else if (limit != 0 || offset != 0) {
+            throw new StorageException(
+                    "Limit/offset not supported for id streams: " + query);
+        }
+        if (logger.isLogEnabled()) {
+            logger.logSQL(sql, q.selectParams);
+        }
+        PreparedStatement ps = null;
+        try {
+            ps = prepareForwardOnly(sql, q.selectParams);
+            ResultSet rs = ps.executeQuery();
+            countExecute();
+            IdStream stream = new ResultSetIdStream(logger, ps, rs,
+                    q.selectInfo.whatColumns.get(0));
+            ps = null; // now owned by the stream
+            return stream;
         } catch (Exception e) {
             checkConnectionReset(e);
             throw new StorageException("Invalid query: " + query, e);
@@ -1027,14 +1253,86 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
     }
 
     @Override
-    public void updateReadAcls() throws StorageException {
+    public List<Serializable> getIdsForPath(Serializable parentId,
+            String[] names) throws StorageException {
+        List<Serializable> ids = new ArrayList<Serializable>(names.length);
+        Serializable id = parentId;
+        for (int start = 0; start < names.length; start += PATH_MAX_DEPTH_PER_QUERY) {
+            int depth = Math.min(names.length - start,
+                    PATH_MAX_DEPTH_PER_QUERY);
+            String[] segment = Arrays.copyOfRange(names, start, start + depth);
+            List<Serializable> segmentIds = getIdsForPathSegment(id, segment);
+            if (segmentIds == null) {
+                return null;
+            }
+            ids.addAll(segmentIds);
+            id = segmentIds.get(depth - 1);
+        }
+        return ids;
+    }
+
+    protected List<Serializable> getIdsForPathSegment(Serializable parentId,
+            String[] names) throws StorageException {
+        SQLInfoSelect select = sqlInfo.getSelectIdsForPath(names.length);
+        List<Serializable> values = new ArrayList<Serializable>(
+                1 + 2 * names.length);
+        values.add(parentId);
+        for (String name : names) {
+            values.add(name);
+            values.add(Boolean.FALSE);
+        }
+        PreparedStatement ps = null;
+        try {
+            if (logger.isLogEnabled()) {
+                logger.logSQL(select.sql, values);
+            }
+            ps = connection.prepareStatement(select.sql);
+            int i = 1;
+            for (Column column : select.whereColumns) {
+                column.setToPreparedStatement(ps, i, values.get(i - 1));
+                i++;
+            }
+            ResultSet rs = ps.executeQuery();
+            countExecute();
+            if (!rs.next()) {
+                if (logger.isLogEnabled()) {
+                    logger.log("  -> (none)");
+                }
+                return null;
+            }
+            List<Serializable> ids = new ArrayList<Serializable>(names.length);
+            i = 1;
+            for (Column column : select.whatColumns) {
+                ids.add(column.getFromResultSet(rs, i++));
+            }
+            if (logger.isLogEnabled()) {
+                logger.logIds(ids, false, 0);
+            }
+            return ids;
+        } catch (Exception e) {
+            checkConnectionReset(e);
+            throw new StorageException("Failed to resolve path", e);
+        } finally {
+            if (ps != null) {
+                try {
+                    closeStatement(ps);
+                } catch (SQLException e) {
+                    log.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int updateReadAcls() throws StorageException {
         if (!dialect.supportsReadAcl()) {
-            return;
+            return 0;
         }
         if (log.isDebugEnabled()) {
             log.debug(String.format("updateReadAcls: updating (concurrent=%b) ...",
                     dialect.supportsConcurrentUpdateReadAcls()));
         }
+        int queued = 0;
         Statement st = null;
         try {
             st = connection.createStatement();
@@ -1043,13 +1341,13 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
                 logger.log(sql);
             }
             if (dialect.supportsConcurrentUpdateReadAcls()) {
-                st.execute(sql);
+                queued = executeUpdateReadAcls(st, sql);
             } else {
                 // This is not enough to prevent concurrent execution in
                 // cluster mode.
                 if (repository.updateReadAclsLock.tryLock(2, TimeUnit.SECONDS)) {
                     try {
-                        st.execute(sql);
+                        queued = executeUpdateReadAcls(st, sql);
                     } finally {
                         repository.updateReadAclsLock.unlock();
                     }
@@ -1073,6 +1371,25 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
         if (log.isDebugEnabled()) {
             log.debug("updateReadAcls: done.");
         }
+        return queued;
+    }
+
+    /**
+     * Executes the read acls update, returns the number of documents queued
+     * when the update is asynchronous.
+     */
+    protected int executeUpdateReadAcls(Statement st, String sql)
+            throws SQLException {
+        if (!dialect.supportsAsyncUpdateReadAcls()) {
+            st.execute(sql);
+            return 0;
+        }
+        ResultSet rs = st.executeQuery(sql);
+        try {
+            return rs.next() ? rs.getInt(1) : 0;
+        } finally {
+            rs.close();
+        }
     }
 
     @Override
@@ -1103,6 +1420,80 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
         log.debug("rebuildReadAcls: done.");
     }
 
+    @Override
+    public int updateReadAclsBatch(int max) throws StorageException {
+        if (!dialect.supportsAsyncUpdateReadAcls()) {
+            return 0;
+        }
+        String sql = dialect.getUpdateReadAclsBatchSql();
+        if (logger.isLogEnabled()) {
+            logger.logSQL(sql,
+                    Collections.<Serializable> singletonList(Integer.valueOf(max)));
+        }
+        PreparedStatement ps = null;
+        try {
+            ps = connection.prepareStatement(sql);
+            ps.setInt(1, max);
+            return executeCount(ps);
+        } catch (Exception e) {
+            checkConnectionReset(e);
+            throw new StorageException("Failed to update read acls batch", e);
+        } finally {
+            if (ps != null) {
+                try {
+                    closeStatement(ps);
+                } catch (SQLException e) {
+                    log.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int swapReadAcls() throws StorageException {
+        if (!dialect.supportsAsyncUpdateReadAcls()) {
+            return 0;
+        }
+        String sql = dialect.getSwapReadAclsSql();
+        if (logger.isLogEnabled()) {
+            logger.log(sql);
+        }
+        PreparedStatement ps = null;
+        // short, but must not interleave with a synchronous update
+        repository.updateReadAclsLock.lock();
+        try {
+            ps = connection.prepareStatement(sql);
+            return executeCount(ps);
+        } catch (Exception e) {
+            checkConnectionReset(e);
+            throw new StorageException("Failed to swap read acls", e);
+        } finally {
+            repository.updateReadAclsLock.unlock();
+            if (ps != null) {
+                try {
+                    closeStatement(ps);
+                } catch (SQLException e) {
+                    log.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Executes a statement returning a count in a single row.
+     */
+    protected int executeCount(PreparedStatement ps) throws SQLException,
+            StorageException {
+        ResultSet rs = ps.executeQuery();
+        countExecute();
+        if (!rs.next()) {
+            throw new StorageException("Cannot get result");
+        }
+        int count = rs.getInt(1);
+        logger.logCount(count);
+        return count;
+    }
+
     /*
      * ----- Locking -----
      */
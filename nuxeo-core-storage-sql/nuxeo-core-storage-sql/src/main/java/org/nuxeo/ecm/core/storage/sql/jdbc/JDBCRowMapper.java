@@ -18,6 +18,7 @@ import java.sql.CallableStatement;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,6 +27,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -47,6 +49,7 @@ import org.nuxeo.ecm.core.storage.sql.Model;
 import org.nuxeo.ecm.core.storage.sql.PropertyType;
 import org.nuxeo.ecm.core.storage.sql.Row;
 import org.nuxeo.ecm.core.storage.sql.RowId;
+import org.nuxeo.ecm.core.storage.sql.RowLayout;
 import org.nuxeo.ecm.core.storage.sql.RowMapper;
 import org.nuxeo.ecm.core.storage.sql.SelectionType;
 import org.nuxeo.ecm.core.storage.sql.SimpleFragment;
@@ -63,6 +66,23 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
 
     public static final int UPDATE_BATCH_SIZE = 100; // also insert/delete
 
+    /**
+     * Minimum number of rows for which a COPY is attempted, if enabled.
+     *
+     * @since 5.9.1
+     */
+    public static final int COPY_INSERT_MIN_ROWS = 1000;
+
+    /**
+     * Minimum number of descendants for which a subtree is copied by a fixed
+     * number of statements in the database, if the dialect supports it.
+     * Smaller subtrees are copied node by node, which is cheaper than the
+     * temporary table needed by the recursive copy.
+     *
+     * @since 5.9.1
+     */
+    public static final int RECURSIVE_COPY_MIN_DESCENDANTS = 100;
+
     public static final int DEBUG_MAX_TREE = 50;
 
     /**
@@ -164,6 +184,16 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         return dialect.getGeneratedId(connection);
     }
 
+    @Override
+    public List<Serializable> generateNewIds(int count)
+            throws StorageException {
+        try {
+            return dialect.getGeneratedIds(connection, count);
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
     /*
      * ----- RowIO -----
      */
@@ -188,6 +218,9 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
             }
             ids.add(rowId.id);
         }
+        if (tableIds.size() > 1 && dialect.isCombinedReadsEnabled()) {
+            readCombined(tableIds, res);
+        }
         // read on each table
         for (Entry<String, Set<Serializable>> en : tableIds.entrySet()) {
             String tableName = en.getKey();
@@ -221,18 +254,129 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
                     rows = readSimpleRows(tableName, ids);
                 }
             }
-            // check we have all the ids (readSimpleRows may have some
-            // missing)
-            for (Row row : rows) {
-                res.add(row);
-                ids.remove(row.id);
+            addRows(tableName, ids, rows, res);
+        }
+        return res;
+    }
+
+    /**
+     * Adds the rows read for the given ids to the result, and an empty
+     * {@link RowId} for each missing id.
+     */
+    protected static void addRows(String tableName, Set<Serializable> ids,
+            List<Row> rows, List<RowId> res) {
+        // check we have all the ids (readSimpleRows may have some
+        // missing)
+        for (Row row : rows) {
+            res.add(row);
+            ids.remove(row.id);
+        }
+        // for the missing ids record an empty RowId
+        for (Serializable id : ids) {
+            res.add(new RowId(tableName, id));
+        }
+    }
+
+    /**
+     * Reads the rows of several tables in a single round-trip, using one
+     * statement returning a result set per table. Only the tables whose ids
+     * fit in the maximum number of statement parameters are read, and they are
+     * removed from the map.
+     */
+    protected void readCombined(Map<String, Set<Serializable>> tableIds,
+            List<RowId> res) throws StorageException {
+        int chunkSize = sqlInfo.getMaximumArgsForIn();
+        List<String> tableNames = new ArrayList<String>(tableIds.size());
+        List<SQLInfoSelect> selects = new ArrayList<SQLInfoSelect>(
+                tableIds.size());
+        StringBuilder buf = new StringBuilder();
+        int nparams = 0;
+        for (Entry<String, Set<Serializable>> en : tableIds.entrySet()) {
+            String tableName = en.getKey();
+            int size = en.getValue().size();
+            if (nparams + size > chunkSize) {
+                // read separately
+                continue;
             }
-            // for the missing ids record an empty RowId
-            for (Serializable id : ids) {
-                res.add(new RowId(tableName, id));
+            nparams += size;
+            SQLInfoSelect select;
+            if (model.isCollectionFragment(tableName)) {
+                select = getSelectCollectionArrays(tableName, size);
+            } else {
+                select = sqlInfo.getSelectFragmentsByIds(tableName, size);
+            }
+            if (buf.length() > 0) {
+                buf.append(dialect.getStatementSeparator());
             }
+            buf.append(select.sql);
+            tableNames.add(tableName);
+            selects.add(select);
+        }
+        if (tableNames.size() < 2) {
+            return;
+        }
+        String sql = buf.toString();
+        try {
+            List<Serializable> debugValues = null;
+            if (logger.isLogEnabled()) {
+                debugValues = new LinkedList<Serializable>();
+            }
+            PreparedStatement ps = connection.prepareStatement(sql);
+            try {
+                int i = 1;
+                for (int t = 0; t < tableNames.size(); t++) {
+                    String tableName = tableNames.get(t);
+                    Column whereColumn = selects.get(t).whereColumns.get(0);
+                    boolean isCollection = model.isCollectionFragment(tableName);
+                    for (Serializable id : tableIds.get(tableName)) {
+                        if (isCollection) {
+                            dialect.setId(ps, i++, id);
+                        } else {
+                            whereColumn.setToPreparedStatement(ps, i++, id);
+                        }
+                        if (debugValues != null) {
+                            debugValues.add(id);
+                        }
+                    }
+                }
+                if (debugValues != null) {
+                    logger.logSQL(sql, debugValues);
+                }
+                boolean isResultSet = ps.execute();
+                countExecute();
+                for (int t = 0; t < tableNames.size(); t++) {
+                    String tableName = tableNames.get(t);
+                    SQLInfoSelect select = selects.get(t);
+                    while (!isResultSet) {
+                        if (ps.getUpdateCount() == -1) {
+                            throw new SQLException("Missing result for: "
+                                    + tableName);
+                        }
+                        isResultSet = ps.getMoreResults();
+                    }
+                    Set<Serializable> ids = new HashSet<Serializable>(
+                            tableIds.get(tableName));
+                    ResultSet rs = ps.getResultSet();
+                    List<Row> rows;
+                    if (model.isCollectionFragment(tableName)) {
+                        rows = readCollectionArrays(tableName, ids, select, rs);
+                    } else {
+                        rows = readRows(tableName, select,
+                                Collections.<String, Serializable> emptyMap(),
+                                rs, false);
+                    }
+                    rs.close();
+                    addRows(tableName, ids, rows, res);
+                    tableIds.remove(tableName);
+                    isResultSet = ps.getMoreResults();
+                }
+            } finally {
+                closeStatement(ps);
+            }
+        } catch (Exception e) {
+            checkConnectionReset(e);
+            throw new StorageException("Could not select: " + sql, e);
         }
-        return res;
     }
 
     /**
@@ -266,13 +410,7 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         if (ids.isEmpty()) {
             return Collections.emptyList();
         }
-        String[] orderBys = { model.MAIN_KEY, model.COLL_TABLE_POS_KEY }; // clusters
-                                                                          // results
-        Set<String> skipColumns = new HashSet<String>(
-                Arrays.asList(model.COLL_TABLE_POS_KEY));
-        SQLInfoSelect select = sqlInfo.getSelectFragmentsByIds(tableName,
-                ids.size(), orderBys, skipColumns);
-
+        SQLInfoSelect select = getSelectCollectionArrays(tableName, ids.size());
         String sql = select.sql;
         try {
             if (logger.isLogEnabled()) {
@@ -286,61 +424,79 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
                 }
                 ResultSet rs = ps.executeQuery();
                 countExecute();
+                return readCollectionArrays(tableName, ids, select, rs);
+            } finally {
+                closeStatement(ps);
+            }
+        } catch (Exception e) {
+            checkConnectionReset(e);
+            throw new StorageException("Could not select: " + sql, e);
+        }
+    }
 
-                // get all values from result set, separate by ids
-                // the result set is ordered by id, pos
-                CollectionIO io = getCollectionIO(tableName);
-                PropertyType ftype = model.getCollectionFragmentType(tableName);
-                PropertyType type = ftype.getArrayBaseType();
-                Serializable curId = null;
-                List<Serializable> list = null;
-                Serializable[] returnId = new Serializable[1];
-                int[] returnPos = { -1 };
-                List<Row> res = new LinkedList<Row>();
-                Set<Serializable> remainingIds = new HashSet<Serializable>(ids);
-                while (rs.next()) {
-                    Serializable value = io.getCurrentFromResultSet(rs,
-                            select.whatColumns, model, returnId, returnPos);
-                    Serializable newId = returnId[0];
-                    if (newId != null && !newId.equals(curId)) {
-                        // flush old list
-                        if (list != null) {
-                            res.add(new Row(tableName, curId,
-                                    type.collectionToArray(list)));
-                            remainingIds.remove(curId);
-                        }
-                        curId = newId;
-                        list = new ArrayList<Serializable>();
-                    }
-                    list.add(value);
-                }
-                if (curId != null && list != null) {
-                    // flush last list
+    protected SQLInfoSelect getSelectCollectionArrays(String tableName,
+            int nids) {
+        String[] orderBys = { model.MAIN_KEY, model.COLL_TABLE_POS_KEY }; // clusters
+                                                                          // results
+        Set<String> skipColumns = new HashSet<String>(
+                Arrays.asList(model.COLL_TABLE_POS_KEY));
+        return sqlInfo.getSelectFragmentsByIds(tableName, nids, orderBys,
+                skipColumns);
+    }
+
+    /**
+     * Reads collection rows from a result set ordered by id and pos.
+     */
+    protected List<Row> readCollectionArrays(String tableName,
+            Collection<Serializable> ids, SQLInfoSelect select, ResultSet rs)
+            throws SQLException {
+        // get all values from result set, separate by ids
+        // the result set is ordered by id, pos
+        CollectionIO io = getCollectionIO(tableName);
+        PropertyType ftype = model.getCollectionFragmentType(tableName);
+        PropertyType type = ftype.getArrayBaseType();
+        Serializable curId = null;
+        List<Serializable> list = null;
+        Serializable[] returnId = new Serializable[1];
+        int[] returnPos = { -1 };
+        List<Row> res = new LinkedList<Row>();
+        Set<Serializable> remainingIds = new HashSet<Serializable>(ids);
+        while (rs.next()) {
+            Serializable value = io.getCurrentFromResultSet(rs,
+                    select.whatColumns, model, returnId, returnPos);
+            Serializable newId = returnId[0];
+            if (newId != null && !newId.equals(curId)) {
+                // flush old list
+                if (list != null) {
                     res.add(new Row(tableName, curId,
                             type.collectionToArray(list)));
                     remainingIds.remove(curId);
                 }
+                curId = newId;
+                list = new ArrayList<Serializable>();
+            }
+            list.add(value);
+        }
+        if (curId != null && list != null) {
+            // flush last list
+            res.add(new Row(tableName, curId,
+                    type.collectionToArray(list)));
+            remainingIds.remove(curId);
+        }
 
-                // fill empty ones
-                if (!remainingIds.isEmpty()) {
-                    Serializable[] emptyArray = ftype.getEmptyArray();
-                    for (Serializable id : remainingIds) {
-                        res.add(new Row(tableName, id, emptyArray));
-                    }
-                }
-                if (logger.isLogEnabled()) {
-                    for (Row row : res) {
-                        logger.log("  -> " + row);
-                    }
-                }
-                return res;
-            } finally {
-                closeStatement(ps);
+        // fill empty ones
+        if (!remainingIds.isEmpty()) {
+            Serializable[] emptyArray = ftype.getEmptyArray();
+            for (Serializable id : remainingIds) {
+                res.add(new Row(tableName, id, emptyArray));
             }
-        } catch (Exception e) {
-            checkConnectionReset(e);
-            throw new StorageException("Could not select: " + sql, e);
         }
+        if (logger.isLogEnabled()) {
+            for (Row row : res) {
+                logger.log("  -> " + row);
+            }
+        }
+        return res;
     }
 
     /**
@@ -359,7 +515,8 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
             if (select.whereColumns.size() == 1
                     && select.whereColumns.get(0).getKey() == model.MAIN_KEY
                     && joinMap == null) {
-                Row row = new Row(tableName, criteriaMap);
+                Row row = new Row(tableName, criteriaMap.get(model.MAIN_KEY),
+                        model.getRowLayout(tableName));
                 if (select.opaqueColumns != null) {
                     for (Column column : select.opaqueColumns) {
                         row.putNew(column.getKey(), Row.OPAQUE);
@@ -425,32 +582,7 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
             ResultSet rs = ps.executeQuery();
             countExecute();
 
-            /*
-             * Construct the maps from the result set.
-             */
-            while (rs.next()) {
-                Row row = new Row(tableName, criteriaMap);
-                i = 1;
-                for (Column column : select.whatColumns) {
-                    row.put(column.getKey(), column.getFromResultSet(rs, i++));
-                }
-                if (select.opaqueColumns != null) {
-                    for (Column column : select.opaqueColumns) {
-                        row.putNew(column.getKey(), Row.OPAQUE);
-                    }
-                }
-                if (logger.isLogEnabled()) {
-                    logger.logResultSet(rs, select.whatColumns);
-                }
-                list.add(row);
-                if (limitToOne) {
-                    return list;
-                }
-            }
-            if (limitToOne) {
-                return Collections.emptyList();
-            }
-            return list;
+            return readRows(tableName, select, criteriaMap, rs, limitToOne);
         } catch (Exception e) {
             checkConnectionReset(e, true);
             checkConcurrentUpdate(e);
@@ -466,6 +598,60 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         }
     }
 
+    /**
+     * Builds the rows from the result set of a select with fixed criteria.
+     */
+    protected List<Row> readRows(String tableName, SQLInfoSelect select,
+            Map<String, Serializable> criteriaMap, ResultSet rs,
+            boolean limitToOne) throws SQLException {
+        /*
+         * Values are put in column order so that they land at their layout
+         * position, criteria not overridden by a selected column come last.
+         */
+        List<Row> list = new LinkedList<Row>();
+        RowLayout layout = model.getRowLayout(tableName);
+        List<Entry<String, Serializable>> criteria = new ArrayList<Entry<String, Serializable>>(
+                criteriaMap.size());
+        for (Entry<String, Serializable> en : criteriaMap.entrySet()) {
+            boolean selected = false;
+            for (Column column : select.whatColumns) {
+                if (column.getKey().equals(en.getKey())) {
+                    selected = true;
+                    break;
+                }
+            }
+            if (!selected) {
+                criteria.add(en);
+            }
+        }
+        while (rs.next()) {
+            Row row = new Row(tableName, null, layout);
+            int i = 1;
+            for (Column column : select.whatColumns) {
+                row.put(column.getKey(), column.getFromResultSet(rs, i++));
+            }
+            if (select.opaqueColumns != null) {
+                for (Column column : select.opaqueColumns) {
+                    row.putNew(column.getKey(), Row.OPAQUE);
+                }
+            }
+            for (Entry<String, Serializable> en : criteria) {
+                row.put(en.getKey(), en.getValue());
+            }
+            if (logger.isLogEnabled()) {
+                logger.logResultSet(rs, select.whatColumns);
+            }
+            list.add(row);
+            if (limitToOne) {
+                return list;
+            }
+        }
+        if (limitToOne) {
+            return Collections.emptyList();
+        }
+        return list;
+    }
+
     @Override
     public void write(RowBatch batch) throws StorageException {
         if (!batch.creates.isEmpty()) {
@@ -548,6 +734,9 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
 
     /**
      * Inserts multiple rows, all for the same table.
+     * <p>
+     * Depending on the dialect and the number of rows, uses a COPY, multi-row
+     * INSERT statements, or a batch of single-row INSERT statements.
      */
     protected void insertSimpleRows(String tableName, List<Row> rows)
             throws StorageException {
@@ -558,40 +747,20 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         if (sql == null) {
             throw new StorageException("Unknown table: " + tableName);
         }
-        String loggedSql = supportsBatchUpdates && rows.size() > 1 ? sql
-                + " -- BATCHED" : sql;
         List<Column> columns = sqlInfo.getInsertColumns(tableName);
         try {
-            PreparedStatement ps = connection.prepareStatement(sql);
-            try {
-                int batch = 0;
-                for (Row row : rows) {
-                    batch++;
-                    if (logger.isLogEnabled()) {
-                        logger.logSQL(loggedSql, columns, row);
-                    }
-                    int i = 1;
-                    for (Column column : columns) {
-                        column.setToPreparedStatement(ps, i++,
-                                row.get(column.getKey()));
-                    }
-                    if (supportsBatchUpdates) {
-                        ps.addBatch();
-                        if (batch % UPDATE_BATCH_SIZE == 0) {
-                            ps.executeBatch();
-                            countExecute();
-                        }
-                    } else {
-                        ps.execute();
-                        countExecute();
-                    }
-                }
-                if (supportsBatchUpdates) {
-                    ps.executeBatch();
-                    countExecute();
-                }
-            } finally {
-                closeStatement(ps);
+            if (rows.size() >= COPY_INSERT_MIN_ROWS
+                    && dialect.isCopyInsertEnabled()
+                    && copyInsertSimpleRows(tableName, rows, columns)) {
+                return;
+            }
+            int rowsPerStatement = getMultiRowInsertSize(tableName,
+                    rows.size(), columns.size());
+            if (rowsPerStatement > 1) {
+                multiRowInsertSimpleRows(tableName, rows, columns,
+                        rowsPerStatement);
+            } else {
+                batchInsertSimpleRows(sql, rows, columns);
             }
         } catch (Exception e) {
             checkConnectionReset(e);
@@ -607,6 +776,151 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         }
     }
 
+    /**
+     * Computes the number of rows to insert with each multi-row INSERT
+     * statement, or 1 if multi-row INSERTs are not to be used.
+     *
+     * @since 5.9.1
+     */
+    protected int getMultiRowInsertSize(String tableName, int nrows,
+            int ncolumns) {
+        if (nrows < 2 || ncolumns == 0
+                || !dialect.isMultiRowInsertEnabled(tableName)) {
+            return 1;
+        }
+        int max = dialect.getMaximumMultiRowInsertParameters() / ncolumns;
+        return Math.max(1, Math.min(nrows, max));
+    }
+
+    /**
+     * Inserts rows using a batch of single-row INSERT statements.
+     */
+    protected void batchInsertSimpleRows(String sql, List<Row> rows,
+            List<Column> columns) throws SQLException {
+        String loggedSql = supportsBatchUpdates && rows.size() > 1 ? sql
+                + " -- BATCHED" : sql;
+        PreparedStatement ps = connection.prepareStatement(sql);
+        try {
+            int batch = 0;
+            for (Row row : rows) {
+                batch++;
+                if (logger.isLogEnabled()) {
+                    logger.logSQL(loggedSql, columns, row);
+                }
+                int i = 1;
+                for (Column column : columns) {
+                    column.setToPreparedStatement(ps, i++,
+                            row.get(column.getKey()));
+                }
+                if (supportsBatchUpdates) {
+                    ps.addBatch();
+                    if (batch % UPDATE_BATCH_SIZE == 0) {
+                        ps.executeBatch();
+                        countExecute();
+                    }
+                } else {
+                    ps.execute();
+                    countExecute();
+                }
+            }
+            if (supportsBatchUpdates) {
+                ps.executeBatch();
+                countExecute();
+            }
+        } finally {
+            closeStatement(ps);
+        }
+    }
+
+    /**
+     * Inserts rows using INSERT statements each holding up to
+     * {@code rowsPerStatement} rows. Full chunks reuse the same prepared
+     * statement, only the last smaller chunk needs another one.
+     *
+     * @since 5.9.1
+     */
+    protected void multiRowInsertSimpleRows(String tableName, List<Row> rows,
+            List<Column> columns, int rowsPerStatement) throws SQLException {
+        String loggedSql = sqlInfo.getInsertSql(tableName) + " -- MULTIROW";
+        int nrows = rows.size();
+        int full = nrows - nrows % rowsPerStatement;
+        if (full > 0) {
+            executeMultiRowInsert(tableName, rows.subList(0, full), columns,
+                    rowsPerStatement, loggedSql);
+        }
+        int remaining = nrows - full;
+        if (remaining == 1) {
+            batchInsertSimpleRows(sqlInfo.getInsertSql(tableName),
+                    rows.subList(full, nrows), columns);
+        } else if (remaining > 1) {
+            executeMultiRowInsert(tableName, rows.subList(full, nrows),
+                    columns, remaining, loggedSql);
+        }
+    }
+
+    /**
+     * Executes one multi-row INSERT statement for each chunk of exactly
+     * {@code n} rows.
+     */
+    protected void executeMultiRowInsert(String tableName, List<Row> rows,
+            List<Column> columns, int n, String loggedSql)
+            throws SQLException {
+        String sql = sqlInfo.getInsertMultiRowSql(tableName, n);
+        PreparedStatement ps = connection.prepareStatement(sql);
+        try {
+            int i = 1;
+            for (Row row : rows) {
+                if (logger.isLogEnabled()) {
+                    logger.logSQL(loggedSql, columns, row);
+                }
+                for (Column column : columns) {
+                    column.setToPreparedStatement(ps, i++,
+                            row.get(column.getKey()));
+                }
+                if (i > n * columns.size()) {
+                    ps.execute();
+                    countExecute();
+                    i = 1;
+                }
+            }
+        } finally {
+            closeStatement(ps);
+        }
+    }
+
+    /**
+     * Inserts rows using the dialect's COPY mechanism.
+     *
+     * @return {@code false} if the COPY could not be done, in which case
+     *         nothing was inserted
+     * @since 5.9.1
+     */
+    protected boolean copyInsertSimpleRows(String tableName, List<Row> rows,
+            List<Column> columns) throws SQLException {
+        List<Serializable[]> values = new ArrayList<Serializable[]>(
+                rows.size());
+        for (Row row : rows) {
+            Serializable[] v = new Serializable[columns.size()];
+            int i = 0;
+            for (Column column : columns) {
+                v[i++] = row.get(column.getKey());
+            }
+            values.add(v);
+        }
+        String table = sqlInfo.database.getTable(tableName).getQuotedName();
+        if (!dialect.copyInsert(connection, table, columns, values)) {
+            return false;
+        }
+        countExecute();
+        if (logger.isLogEnabled()) {
+            String loggedSql = sqlInfo.getInsertSql(tableName) + " -- COPY";
+            for (Row row : rows) {
+                logger.logSQL(loggedSql, columns, row);
+            }
+        }
+        return true;
+    }
+
     /**
      * Updates multiple collection rows, all for the same table.
      */
@@ -985,10 +1299,72 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
                 limitToOne);
     }
 
+    @Override
+    public List<Row> readChildRowsByNames(Serializable parentId,
+            Collection<String> names) throws StorageException {
+        SQLInfoSelect select = sqlInfo.getSelectChildrenByNames(names.size());
+        Map<String, Serializable> criteriaMap = new HashMap<String, Serializable>();
+        criteriaMap.put(model.HIER_PARENT_KEY, parentId);
+        criteriaMap.put(model.HIER_CHILD_NAME_KEY, new ArrayList<String>(names));
+        criteriaMap.put(model.HIER_CHILD_ISPROPERTY_KEY, Boolean.FALSE);
+        return getSelectRows(model.HIER_TABLE_NAME, select, criteriaMap, null,
+                false);
+    }
+
+    @Override
+    public Long readMaxChildPos(Serializable parentId) throws StorageException {
+        SQLInfoSelect select = sqlInfo.getSelectMaxChildPos();
+        try {
+            if (logger.isLogEnabled()) {
+                logger.logSQL(select.sql,
+                        Arrays.<Serializable> asList(parentId, Boolean.FALSE));
+            }
+            PreparedStatement ps = connection.prepareStatement(select.sql);
+            try {
+                select.whereColumns.get(0).setToPreparedStatement(ps, 1,
+                        parentId);
+                select.whereColumns.get(1).setToPreparedStatement(ps, 2,
+                        Boolean.FALSE);
+                ResultSet rs = ps.executeQuery();
+                countExecute();
+                Long max = null;
+                if (rs.next()) {
+                    max = (Long) select.whatColumns.get(0).getFromResultSet(
+                            rs, 1);
+                }
+                if (logger.isLogEnabled()) {
+                    logger.log("  -> " + max);
+                }
+                return max;
+            } finally {
+                closeStatement(ps);
+            }
+        } catch (Exception e) {
+            checkConnectionReset(e);
+            throw new StorageException("Could not select: " + select.sql, e);
+        }
+    }
+
     @Override
     public CopyResult copy(IdWithTypes source, Serializable destParentId,
             String destName, Row overwriteRow) throws StorageException {
         // assert !model.separateMainTable; // other case not implemented
+        if (overwriteRow == null && destParentId != null
+                && dialect.supportsRecursiveCopy()) {
+            try {
+                List<IdWithTypes> descendants = getIdsWithTypes(
+                        sqlInfo.getSelectDescendantsIdsAndTypesSql(),
+                        source.id);
+                if (descendants.size() >= RECURSIVE_COPY_MIN_DESCENDANTS) {
+                    return copyRecursiveInDatabase(source, descendants,
+                            destParentId, destName);
+                }
+            } catch (Exception e) {
+                checkConnectionReset(e);
+                throw new StorageException("Could not copy: "
+                        + source.id.toString(), e);
+            }
+        }
         Invalidations invalidations = new Invalidations();
         try {
             Map<Serializable, Serializable> idMap = new LinkedHashMap<Serializable, Serializable>();
@@ -1058,6 +1434,161 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         }
     }
 
+    /**
+     * Copies a subtree to a new parent in a fixed number of statements,
+     * whatever its size. The descendants are found with a recursive query, the
+     * correspondence between original and new ids is stored in a temporary
+     * table, then the hierarchy and each fragment table are copied with a
+     * single {@code INSERT ... SELECT} joined on this table.
+     * <p>
+     * Only used for regular copies (not for versions or restores) of subtrees
+     * having at least {@link #RECURSIVE_COPY_MIN_DESCENDANTS} descendants.
+     *
+     * @param descendants the descendants of the source, as returned by the
+     *            recursive query
+     * @since 5.9.1
+     */
+    protected CopyResult copyRecursiveInDatabase(IdWithTypes source,
+            List<IdWithTypes> descendants, Serializable destParentId,
+            String destName) throws SQLException {
+        Map<Serializable, IdWithTypes> idToTypes = new LinkedHashMap<Serializable, IdWithTypes>();
+        idToTypes.put(source.id, source);
+        for (IdWithTypes descendant : descendants) {
+            idToTypes.put(descendant.id, descendant);
+        }
+        Map<Serializable, Serializable> idMap = new LinkedHashMap<Serializable, Serializable>();
+        // the new root has an explicit parent and name
+        Serializable newRootId = copyHier(source.id, destParentId, destName,
+                true, idMap);
+        if (idToTypes.size() > 1) {
+            Iterator<Serializable> newIds = dialect.getGeneratedIds(
+                    connection, idToTypes.size() - 1).iterator();
+            for (Serializable id : idToTypes.keySet()) {
+                if (!idMap.containsKey(id)) {
+                    idMap.put(id, newIds.next());
+                }
+            }
+        }
+        Map<String, Set<Serializable>> perFragmentIds = model.getPerFragmentIds(idToTypes);
+        String idType = sqlInfo.database.getTable(model.HIER_TABLE_NAME).getColumn(
+                model.MAIN_KEY).getSqlTypeString();
+        // may be left over by a failed copy in a non-transactional connection
+        executeCopySql(dialect.getDropCopyIdMapTableSql());
+        executeCopySql(dialect.getCreateCopyIdMapTableSql(idType));
+        boolean ok = false;
+        try {
+            insertCopyIdMap(idMap);
+            String analyzeSql = dialect.getAnalyzeCopyIdMapTableSql();
+            if (analyzeSql != null) {
+                executeCopySql(analyzeSql);
+            }
+            if (idMap.size() > 1) {
+                // descendants, the root is already done
+                executeCopySql(sqlInfo.getCopyHierFromIdMapSql());
+            }
+            for (String tableName : perFragmentIds.keySet()) {
+                if (tableName.equals(model.HIER_TABLE_NAME)
+                        || tableName.equals(model.VERSION_TABLE_NAME)) {
+                    // already done, or versions not fileable
+                    continue;
+                }
+                executeCopySql(sqlInfo.getCopyFromIdMapSql(tableName));
+            }
+            ok = true;
+        } finally {
+            try {
+                executeCopySql(dialect.getDropCopyIdMapTableSql());
+            } catch (SQLException e) {
+                if (ok) {
+                    throw e;
+                } // else don't hide the original exception
+            }
+        }
+        Set<Serializable> proxyIds = new HashSet<Serializable>();
+        Set<Serializable> ids = perFragmentIds.get(model.PROXY_TABLE_NAME);
+        if (ids != null) {
+            for (Serializable id : ids) {
+                proxyIds.add(idMap.get(id)); // copied ids
+            }
+        }
+        // invalidate children
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(new RowId(Invalidations.PARENT, destParentId));
+        return new CopyResult(newRootId, invalidations, proxyIds);
+    }
+
+    /**
+     * Fills the copy id map table, using multi-row INSERT statements.
+     */
+    protected void insertCopyIdMap(Map<Serializable, Serializable> idMap)
+            throws SQLException {
+        List<Entry<Serializable, Serializable>> entries = new ArrayList<Entry<Serializable, Serializable>>(
+                idMap.entrySet());
+        int rowsPerStatement = Math.max(1,
+                dialect.getMaximumMultiRowInsertParameters() / 2);
+        String table = dialect.getCopyIdMapTableName();
+        String sql = null;
+        PreparedStatement ps = null;
+        int psRows = 0;
+        try {
+            for (int start = 0; start < entries.size(); start += rowsPerStatement) {
+                List<Entry<Serializable, Serializable>> chunk = entries.subList(
+                        start,
+                        Math.min(start + rowsPerStatement, entries.size()));
+                if (chunk.size() != psRows) {
+                    if (ps != null) {
+                        closeStatement(ps);
+                        ps = null;
+                    }
+                    psRows = chunk.size();
+                    sql = dialect.getMultiRowInsertSql(table, "oldid, newid",
+                            "?, ?", psRows);
+                    ps = connection.prepareStatement(sql);
+                }
+                List<Serializable> debugValues = null;
+                if (logger.isLogEnabled()) {
+                    debugValues = new ArrayList<Serializable>(2 * psRows);
+                }
+                int i = 1;
+                for (Entry<Serializable, Serializable> en : chunk) {
+                    dialect.setId(ps, i++, en.getKey());
+                    dialect.setId(ps, i++, en.getValue());
+                    if (debugValues != null) {
+                        debugValues.add(en.getKey());
+                        debugValues.add(en.getValue());
+                    }
+                }
+                if (debugValues != null) {
+                    logger.logSQL(sql, debugValues);
+                }
+                int count = ps.executeUpdate();
+                countExecute();
+                logger.logCount(count);
+            }
+        } finally {
+            if (ps != null) {
+                closeStatement(ps);
+            }
+        }
+    }
+
+    /**
+     * Executes a parameterless statement used by a copy.
+     */
+    protected void executeCopySql(String sql) throws SQLException {
+        if (logger.isLogEnabled()) {
+            logger.log(sql);
+        }
+        Statement st = connection.createStatement();
+        try {
+            int count = st.executeUpdate(sql);
+            countExecute();
+            logger.logCount(count);
+        } finally {
+            closeStatement(st);
+        }
+    }
+
     /**
      * Updates a row in the database with given explicit values.
      */
@@ -1210,8 +1741,19 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
      */
     protected List<IdWithTypes> getChildrenIdsWithTypes(Serializable id,
             boolean onlyComplex) throws SQLException {
+        return getIdsWithTypes(
+                sqlInfo.getSelectChildrenIdsAndTypesSql(onlyComplex), id);
+    }
+
+    /**
+     * Gets the ids and types returned by a query on the hierarchy table whose
+     * only parameter is a node id.
+     *
+     * @since 5.9.1
+     */
+    protected List<IdWithTypes> getIdsWithTypes(String sql, Serializable id)
+            throws SQLException {
         List<IdWithTypes> children = new LinkedList<IdWithTypes>();
-        String sql = sqlInfo.getSelectChildrenIdsAndTypesSql(onlyComplex);
         if (logger.isLogEnabled()) {
             logger.logSQL(sql, Collections.singletonList(id));
         }
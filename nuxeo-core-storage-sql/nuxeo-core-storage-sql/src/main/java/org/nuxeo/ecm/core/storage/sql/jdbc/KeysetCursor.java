@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql.jdbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.commons.codec.binary.Base64;
+import org.nuxeo.ecm.core.storage.StorageException;
+
+/**
+ * Encoding of the ORDER BY values of the last row of a page into an opaque
+ * keyset cursor, used to seek to the next page.
+ * <p>
+ * The cursor is a URL-safe Base64 string of the values, each written with a
+ * type tag. Only the simple types returned for ORDER BY columns are allowed.
+ *
+ * @since 5.9.1
+ */
+public class KeysetCursor {
+
+    protected static final int VERSION = 1;
+
+    protected static final int NULL = 0;
+
+    protected static final int STRING = 1;
+
+    protected static final int LONG = 2;
+
+    protected static final int DOUBLE = 3;
+
+    protected static final int BOOLEAN = 4;
+
+    protected static final int CALENDAR = 5;
+
+    private KeysetCursor() {
+        // utility class
+    }
+
+    /**
+     * Encodes cursor values into a cursor string.
+     */
+    public static String encode(List<Serializable> values)
+            throws StorageException {
+        ByteArrayOutputStream baout = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baout);
+        try {
+            out.writeByte(VERSION);
+            out.writeShort(values.size());
+            for (Serializable value : values) {
+                if (value == null) {
+                    out.writeByte(NULL);
+                } else if (value instanceof String) {
+                    byte[] bytes = ((String) value).getBytes("UTF-8");
+                    out.writeByte(STRING);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                } else if (value instanceof Long || value instanceof Integer) {
+                    out.writeByte(LONG);
+                    out.writeLong(((Number) value).longValue());
+                } else if (value instanceof Double) {
+                    out.writeByte(DOUBLE);
+                    out.writeDouble(((Double) value).doubleValue());
+                } else if (value instanceof Boolean) {
+                    out.writeByte(BOOLEAN);
+                    out.writeBoolean(((Boolean) value).booleanValue());
+                } else if (value instanceof Calendar) {
+                    Calendar cal = (Calendar) value;
+                    out.writeByte(CALENDAR);
+                    out.writeLong(cal.getTimeInMillis());
+                    out.writeUTF(cal.getTimeZone().getID());
+                } else {
+                    throw new StorageException(
+                            "Cannot use a cursor with ORDER BY value of type: "
+                                    + value.getClass().getName());
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        return Base64.encodeBase64URLSafeString(baout.toByteArray());
+    }
+
+    /**
+     * Decodes a cursor string into cursor values.
+     */
+    public static List<Serializable> decode(String cursor)
+            throws StorageException {
+        byte[] bytes = Base64.decodeBase64(cursor);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                bytes));
+        try {
+            if (in.readByte() != VERSION) {
+                throw new StorageException("Invalid cursor: " + cursor);
+            }
+            int n = in.readUnsignedShort();
+            List<Serializable> values = new ArrayList<Serializable>(n);
+            for (int i = 0; i < n; i++) {
+                int type = in.readByte();
+                switch (type) {
+                case NULL:
+                    values.add(null);
+                    break;
+                case STRING:
+                    int len = in.readInt();
+                    if (len < 0 || len > in.available()) {
+                        throw new StorageException("Invalid cursor: " + cursor);
+                    }
+                    byte[] buf = new byte[len];
+                    in.readFully(buf);
+                    values.add(new String(buf, "UTF-8"));
+                    break;
+                case LONG:
+                    values.add(Long.valueOf(in.readLong()));
+                    break;
+                case DOUBLE:
+                    values.add(Double.valueOf(in.readDouble()));
+                    break;
+                case BOOLEAN:
+                    values.add(Boolean.valueOf(in.readBoolean()));
+                    break;
+                case CALENDAR:
+                    long millis = in.readLong();
+                    Calendar cal = new GregorianCalendar(
+                            TimeZone.getTimeZone(in.readUTF()));
+                    cal.setTimeInMillis(millis);
+                    values.add(cal);
+                    break;
+                default:
+                    throw new StorageException("Invalid cursor: " + cursor);
+                }
+            }
+            if (in.available() != 0) {
+                throw new StorageException("Invalid cursor: " + cursor);
+            }
+            return values;
+        } catch (IOException e) {
+            throw new StorageException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+}
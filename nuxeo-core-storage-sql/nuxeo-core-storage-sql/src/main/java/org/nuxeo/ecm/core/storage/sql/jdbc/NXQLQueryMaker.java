@@ -276,6 +276,12 @@ public class NXQLQueryMaker implements QueryMaker {
             sqlQuery.select.add(new Reference(NXQL.ECM_UUID));
         }
 
+        // keyset pagination needs a total order
+        String cursor = queryFilter.getCursor();
+        if (cursor != null) {
+            sqlQuery = addOrderById(sqlQuery);
+        }
+
         /*
          * Find all relevant types and keys for the criteria.
          */
@@ -331,9 +337,14 @@ public class NXQLQueryMaker implements QueryMaker {
             distinct = true;
         }
 
-        if (doUnion || distinct) {
+        if (cursor != null && orderByHasWildcardIndex) {
+            throw new StorageException(
+                    "For a cursor the ORDER BY columns cannot use wildcard indexes");
+        }
+        if (doUnion || distinct || cursor != null) {
             // if UNION, we need all the ORDER BY columns in the SELECT list
             // for aliasing
+            // if cursor, we need them to read the values of the last row
             if (distinct && !onlyOrderByColumnNames.isEmpty()) {
                 // if DISTINCT, check that the ORDER BY columns are all in the
                 // SELECT list
@@ -465,13 +476,15 @@ public class NXQLQueryMaker implements QueryMaker {
              */
 
             boolean orderByScoreDesc = sqlQuery.orderBy == null
-                    && whereBuilder.ftJoinNumber == 1 && !distinct;
+                    && whereBuilder.ftJoinNumber == 1 && !distinct
+                    && cursor == null;
             FulltextMatchInfo ftMatchInfo = whereBuilder.ftMatchInfo;
 
             // ORDER BY computed just once; may use just aliases
             if (orderBy == null) {
                 if (sqlQuery.orderBy != null) {
-                    whereBuilder.aliasOrderByColumns = doUnion;
+                    whereBuilder.aliasOrderByColumns = doUnion
+                            || cursor != null;
                     whereBuilder.buf.setLength(0);
                     sqlQuery.orderBy.accept(whereBuilder);
                     // ends up in WhereBuilder#visitOrderByExpr
@@ -686,6 +699,57 @@ public class NXQLQueryMaker implements QueryMaker {
             }
         }
 
+        /*
+         * Keyset cursor, using the aliases of the ORDER BY columns.
+         */
+
+        int[] cursorIndexes = null;
+        boolean[] cursorNullsLast = null;
+        if (cursor != null) {
+            OrderByList orderByList = sqlQuery.orderBy.elements;
+            cursorIndexes = new int[orderByList.size()];
+            cursorNullsLast = new boolean[orderByList.size()];
+            List<String> cursorAliases = new ArrayList<String>(
+                    orderByList.size());
+            for (int i = 0; i < orderByList.size(); i++) {
+                String name = orderByList.get(i).reference.name;
+                cursorAliases.add(aliasesByName.get(name));
+                cursorIndexes[i] = whatKeys.indexOf(name) + 1;
+                boolean desc = orderByList.get(i).isDescending;
+                cursorNullsLast[i] = dialect.isNullsLast(desc);
+            }
+            if (!QueryFilter.CURSOR_FIRST.equals(cursor)) {
+                List<Serializable> cursorValues = KeysetCursor.decode(cursor);
+                if (cursorValues.size() != orderByList.size()) {
+                    throw new StorageException(
+                            "Cursor does not match the ORDER BY: "
+                                    + orderByList);
+                }
+                String cursorClause = getCursorClause(orderByList,
+                        cursorAliases, cursorValues, cursorNullsLast);
+                if (doUnion) {
+                    select.setWhere(cursorClause);
+                } else if (!withSelects.isEmpty()) {
+                    select.setWhere(select.getWhere() + " AND ("
+                            + cursorClause + ")");
+                } else {
+                    // wrap to be able to use the aliases
+                    String selectFrom = '(' + select.getStatement() + ')';
+                    if (dialect.needsAliasForDerivedTable()) {
+                        selectFrom += " AS " + dialect.openQuote()
+                                + UNION_ALIAS + dialect.closeQuote();
+                    }
+                    select = new Select(null);
+                    select.setWhat("*");
+                    select.setFrom(selectFrom);
+                    select.setWhere(cursorClause);
+                }
+                // last parameters, see QueryPlanCache
+                selectParams.addAll(getCursorParams(cursorValues,
+                        cursorNullsLast));
+            }
+        }
+
         select.setOrderBy(orderBy);
         fixSelect(select);
 
@@ -694,9 +758,111 @@ public class NXQLQueryMaker implements QueryMaker {
         q.selectInfo = new SQLInfoSelect(select.getStatement(), whatColumns,
                 mapMaker, null, null);
         q.selectParams = selectParams;
+        q.cursorIndexes = cursorIndexes;
+        q.cursorNullsLast = cursorNullsLast;
         return q;
     }
 
+    /**
+     * Adds ecm:uuid at the end of the ORDER BY clause if it's not already
+     * there, so that the order is total and a keyset cursor can designate a
+     * unique row.
+     */
+    protected SQLQuery addOrderById(SQLQuery sqlQuery) {
+        OrderByExpr idExpr = new OrderByExpr(new Reference(NXQL.ECM_UUID),
+                false);
+        OrderByList orderByList;
+        if (sqlQuery.orderBy == null) {
+            orderByList = new OrderByList(idExpr);
+        } else {
+            orderByList = null;
+            for (OrderByExpr expr : sqlQuery.orderBy.elements) {
+                if (NXQL.ECM_UUID.equals(expr.reference.name)) {
+                    return sqlQuery;
+                }
+                if (orderByList == null) {
+                    orderByList = new OrderByList(expr);
+                } else {
+                    orderByList.add(expr);
+                }
+            }
+            orderByList.add(idExpr);
+        }
+        return new SQLQuery(sqlQuery.select, sqlQuery.from, sqlQuery.where,
+                sqlQuery.groupBy, sqlQuery.having, new OrderByClause(
+                        orderByList), sqlQuery.getLimit(),
+                sqlQuery.getOffset());
+    }
+
+    /**
+     * Gets the clause matching the rows strictly after the cursor values in
+     * the ORDER BY order, expanded as (a > ?) OR (a = ? AND b > ?) OR ...
+     * because not all databases support row value comparisons.
+     * <p>
+     * NULL cursor values are compared using IS NULL / IS NOT NULL, following
+     * the position of NULLs in the dialect's sort order.
+     */
+    protected String getCursorClause(OrderByList orderByList,
+            List<String> aliases, List<Serializable> values,
+            boolean[] nullsLast) {
+        List<String> clauses = new ArrayList<String>(aliases.size());
+        for (int i = 0; i < aliases.size(); i++) {
+            String alias = aliases.get(i);
+            Serializable value = values.get(i);
+            String after;
+            if (value == null) {
+                if (nullsLast[i]) {
+                    // nothing sorts after NULL
+                    continue;
+                }
+                after = alias + " IS NOT NULL";
+            } else {
+                after = alias
+                        + (orderByList.get(i).isDescending ? " < ?" : " > ?");
+                if (nullsLast[i]) {
+                    after = '(' + after + " OR " + alias + " IS NULL)";
+                }
+            }
+            StringBuilder buf = new StringBuilder();
+            for (int j = 0; j < i; j++) {
+                buf.append(aliases.get(j));
+                buf.append(values.get(j) == null ? " IS NULL AND "
+                        : " = ? AND ");
+            }
+            buf.append(after);
+            clauses.add('(' + buf.toString() + ')');
+        }
+        if (clauses.isEmpty()) {
+            // cursor on the last possible row
+            return "1 = 0";
+        }
+        return StringUtils.join(clauses, " OR ");
+    }
+
+    /**
+     * Gets the parameters of the clause returned by
+     * {@link #getCursorClause}.
+     */
+    protected static List<Serializable> getCursorParams(
+            List<Serializable> values, boolean[] nullsLast) {
+        List<Serializable> params = new ArrayList<Serializable>();
+        for (int i = 0; i < values.size(); i++) {
+            Serializable value = values.get(i);
+            if (value == null && nullsLast[i]) {
+                continue;
+            }
+            for (int j = 0; j < i; j++) {
+                if (values.get(j) != null) {
+                    params.add(values.get(j));
+                }
+            }
+            if (value != null) {
+                params.add(value);
+            }
+        }
+        return params;
+    }
+
     // overridden by specialized query makers that need to tweak some joins
     protected void addJoin(int kind, String alias, Table table, String column,
             Table contextTable, String contextColumn, String name, int index,
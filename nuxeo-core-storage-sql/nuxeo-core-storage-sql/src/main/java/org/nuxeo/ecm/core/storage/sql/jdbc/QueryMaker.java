@@ -69,6 +69,22 @@ public interface QueryMaker {
 
         public List<Serializable> selectParams = new LinkedList<Serializable>();
 
+        /**
+         * The result set indexes of the keyset cursor values, or
+         * {@code null} if no cursor is needed.
+         *
+         * @since 5.9.1
+         */
+        public int[] cursorIndexes;
+
+        /**
+         * Whether NULLs sort last for each keyset cursor value, or
+         * {@code null} if no cursor is needed.
+         *
+         * @since 5.9.1
+         */
+        public boolean[] cursorNullsLast;
+
     }
 
     public static class QueryMakerException extends RuntimeException {
@@ -0,0 +1,575 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql.jdbc;
+
+import java.io.Serializable;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.nuxeo.common.utils.StringUtils;
+import org.nuxeo.ecm.core.api.impl.FacetFilter;
+import org.nuxeo.ecm.core.query.QueryFilter;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.ColumnType.WrappedId;
+import org.nuxeo.ecm.core.storage.sql.Model;
+import org.nuxeo.ecm.core.storage.sql.Session.PathResolver;
+import org.nuxeo.ecm.core.storage.sql.jdbc.QueryMaker.Query;
+import org.nuxeo.ecm.core.storage.sql.jdbc.dialect.Dialect;
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+/**
+ * A bounded LRU cache of the {@link Query} plans built by the
+ * {@link NXQLQueryMaker}, shared by all the mappers of a repository.
+ * <p>
+ * Plans are keyed by the NXQL query in which the literals compared to
+ * regular properties are replaced by placeholders, and by the parts of the
+ * {@link QueryFilter} that change the generated SQL: facet filter, query
+ * transformers, and whether a security check and a keyset cursor apply
+ * (with which of its values are NULL, as they change the cursor clause). On a
+ * hit the literals, principals, permissions and cursor values are rebound as
+ * parameters of a copy of the plan.
+ * <p>
+ * A literal is only rebound if the plan built for it holds it as exactly one
+ * parameter, otherwise the query is cached with its literals. Queries
+ * resolving paths are not cached as they depend on the data.
+ * <p>
+ * The cache is held by the {@link SQLInfo}, so it's discarded with the
+ * {@link Model} when the schemas change.
+ *
+ * @since 5.9.1
+ */
+public class QueryPlanCache {
+
+    /** Principals used to build a plan, to find their parameter positions. */
+    protected static final String[] PRINCIPALS_MARKER = { "\u0000principals" };
+
+    /** Permissions used to build a plan, to find their parameter positions. */
+    protected static final String[] PERMISSIONS_MARKER = { "\u0000permissions" };
+
+    /** Entry for a normalized key whose literals cannot be rebound. */
+    protected static final Object NOT_NORMALIZABLE = new Object();
+
+    /** Entry for a key whose plan depends on the data. */
+    protected static final Object NOT_CACHEABLE = new Object();
+
+    protected static final Set<String> KEYWORDS = new HashSet<String>(
+            Arrays.asList("SELECT", "FROM", "WHERE", "AS", "NOT", "AND", "OR",
+                    "IS", "NULL", "LIKE", "ILIKE", "DISTINCT", "ALL",
+                    "BETWEEN", "IN", "ORDER", "BY", "ASC", "DESC", "DATE",
+                    "TIMESTAMP", "GROUP", "HAVING", "LIMIT", "OFFSET", "TYPE",
+                    "LOCATION", "STARTSWITH"));
+
+    /** Keywords after which a literal is never a parameter. */
+    protected static final Set<String> NON_PARAM_KEYWORDS = new HashSet<String>(
+            Arrays.asList("DATE", "TIMESTAMP", "LIMIT", "OFFSET"));
+
+    /**
+     * The system properties whose literals are simple parameters. The others
+     * (types, path, fulltext, flags...) change the generated SQL.
+     */
+    protected static final Set<String> PARAM_ECM_PROPERTIES = new HashSet<String>(
+            Arrays.asList(NXQL.ECM_UUID, NXQL.ECM_NAME, NXQL.ECM_POS,
+                    NXQL.ECM_PARENTID, NXQL.ECM_LIFECYCLESTATE,
+                    NXQL.ECM_VERSIONLABEL, NXQL.ECM_VERSIONDESCRIPTION,
+                    NXQL.ECM_VERSION_VERSIONABLEID, NXQL.ECM_LOCK_OWNER,
+                    NXQL.ECM_PROXY_TARGETID, NXQL.ECM_PROXY_VERSIONABLEID));
+
+    protected final Map<String, Object> cache;
+
+    protected final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    protected final Counter hits;
+
+    protected final Counter misses;
+
+    public QueryPlanCache(String repositoryName, final int maxSize) {
+        cache = new LinkedHashMap<String, Object>(maxSize, 1.0f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<String, Object> eldest) {
+                return size() > maxSize;
+            }
+        };
+        hits = registry.counter(MetricRegistry.name("nuxeo", "repositories",
+                repositoryName, "query-plans", "hits"));
+        misses = registry.counter(MetricRegistry.name("nuxeo", "repositories",
+                repositoryName, "query-plans", "misses"));
+    }
+
+    /**
+     * A cached plan, and the positions of the parameters to rebind.
+     */
+    protected static class Plan {
+
+        protected final Query query;
+
+        /** Parameter position of each literal. */
+        protected final int[] literalPositions;
+
+        protected final int[] principalsPositions;
+
+        protected final int[] permissionsPositions;
+
+        /** Number of trailing parameters holding the cursor values. */
+        protected final int cursorParamsCount;
+
+        protected Plan(Query query, int[] literalPositions,
+                int[] principalsPositions, int[] permissionsPositions,
+                int cursorParamsCount) {
+            this.query = query;
+            this.literalPositions = literalPositions;
+            this.principalsPositions = principalsPositions;
+            this.permissionsPositions = permissionsPositions;
+            this.cursorParamsCount = cursorParamsCount;
+        }
+    }
+
+    /**
+     * A query whose rebindable literals are replaced by placeholders.
+     */
+    protected static class NormalizedQuery {
+
+        protected final String query;
+
+        protected final List<Serializable> literals;
+
+        protected NormalizedQuery(String query, List<Serializable> literals) {
+            this.query = query;
+            this.literals = literals;
+        }
+    }
+
+    /**
+     * Gets the query plan from the cache, or builds it using the query maker.
+     *
+     * @return the query, or {@code null} if it cannot match anything
+     */
+    public Query buildQuery(QueryMaker queryMaker, SQLInfo sqlInfo,
+            Model model, PathResolver pathResolver, String query,
+            QueryFilter queryFilter, Object... params)
+            throws StorageException {
+        NormalizedQuery normalized = normalize(query);
+        String key = getKey(queryMaker, normalized.query, queryFilter);
+        Object entry = get(key);
+        if (entry == NOT_NORMALIZABLE) {
+            normalized = new NormalizedQuery(query,
+                    Collections.<Serializable> emptyList());
+            key = getKey(queryMaker, query, queryFilter);
+            entry = get(key);
+        }
+        if (entry instanceof Plan) {
+            hits.inc();
+            return bind((Plan) entry, normalized.literals, sqlInfo,
+                    queryFilter);
+        }
+        misses.inc();
+
+        // build with markers to find the positions of the parameters
+        RecordingPathResolver recordingPathResolver = new RecordingPathResolver(
+                pathResolver);
+        QueryFilter markedQueryFilter = new QueryFilter(
+                queryFilter.getPrincipal(),
+                queryFilter.getPrincipals() == null ? null : PRINCIPALS_MARKER,
+                queryFilter.getPermissions() == null ? null
+                        : PERMISSIONS_MARKER, queryFilter.getFacetFilter(),
+                queryFilter.getQueryTransformers(), queryFilter.getLimit(),
+                queryFilter.getOffset(), queryFilter.getCursor());
+        Query q = queryMaker.buildQuery(sqlInfo, model, recordingPathResolver,
+                query, markedQueryFilter, params);
+        if (q == null) {
+            return null;
+        }
+        List<Serializable> literals = normalized.literals;
+        if (entry == NOT_CACHEABLE || recordingPathResolver.used) {
+            literals = Collections.emptyList();
+        }
+        Plan plan = newPlan(q, literals, queryFilter);
+        if (plan == null) {
+            // literals not found as parameters, cache them with the query
+            put(key, NOT_NORMALIZABLE);
+            key = getKey(queryMaker, query, queryFilter);
+            literals = Collections.emptyList();
+            plan = newPlan(q, literals, queryFilter);
+        }
+        if (entry == NOT_CACHEABLE || recordingPathResolver.used) {
+            put(key, NOT_CACHEABLE);
+        } else {
+            put(key, plan);
+        }
+        return bind(plan, literals, sqlInfo, queryFilter);
+    }
+
+    protected Object get(String key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    protected void put(String key, Object entry) {
+        synchronized (cache) {
+            cache.put(key, entry);
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    protected String getKey(QueryMaker queryMaker, String query,
+            QueryFilter queryFilter) throws StorageException {
+        StringBuilder buf = new StringBuilder(query.length() + 32);
+        buf.append(queryMaker.getClass().getName());
+        buf.append('\u0000');
+        buf.append(query);
+        buf.append('\u0000');
+        buf.append(queryFilter.getPrincipals() == null ? '-' : '+');
+        buf.append(queryFilter.getPermissions() == null ? '-' : '+');
+        String cursor = queryFilter.getCursor();
+        if (cursor == null) {
+            buf.append('-');
+        } else if (QueryFilter.CURSOR_FIRST.equals(cursor)) {
+            buf.append('0');
+        } else {
+            buf.append('+');
+            // NULL cursor values use different clauses
+            for (Serializable value : KeysetCursor.decode(cursor)) {
+                buf.append(value == null ? 'n' : 'v');
+            }
+        }
+        FacetFilter facetFilter = queryFilter.getFacetFilter();
+        if (facetFilter != null) {
+            buf.append(sorted(facetFilter.required));
+            buf.append(sorted(facetFilter.excluded));
+            buf.append(facetFilter.shortcut);
+        }
+        Collection<SQLQuery.Transformer> transformers = queryFilter.getQueryTransformers();
+        if (transformers != null && !transformers.isEmpty()) {
+            for (SQLQuery.Transformer transformer : transformers) {
+                buf.append(transformer.getClass().getName());
+                buf.append(',');
+            }
+            // transformers may depend on the user
+            Principal principal = queryFilter.getPrincipal();
+            buf.append(principal == null ? null : principal.getName());
+            buf.append(Arrays.toString(queryFilter.getPrincipals()));
+        }
+        return buf.toString();
+    }
+
+    protected static Set<String> sorted(Set<String> set) {
+        return set == null ? null : new TreeSet<String>(set);
+    }
+
+    /**
+     * Finds the positions of the parameters to rebind in the built query.
+     *
+     * @return the plan, or {@code null} if a literal cannot be found as a
+     *         single parameter
+     */
+    protected Plan newPlan(Query q, List<Serializable> literals,
+            QueryFilter queryFilter) throws StorageException {
+        List<Serializable> params = new ArrayList<Serializable>(
+                q.selectParams);
+        int cursorParamsCount = 0;
+        String cursor = queryFilter.getCursor();
+        if (cursor != null && !QueryFilter.CURSOR_FIRST.equals(cursor)) {
+            cursorParamsCount = NXQLQueryMaker.getCursorParams(
+                    KeysetCursor.decode(cursor), q.cursorNullsLast).size();
+        }
+        int size = params.size() - cursorParamsCount;
+        List<Integer> principalsPositions = new ArrayList<Integer>(1);
+        List<Integer> permissionsPositions = new ArrayList<Integer>(1);
+        boolean[] used = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            Serializable param = params.get(i);
+            if (isMarker(param, PRINCIPALS_MARKER)) {
+                principalsPositions.add(Integer.valueOf(i));
+                used[i] = true;
+            } else if (isMarker(param, PERMISSIONS_MARKER)) {
+                permissionsPositions.add(Integer.valueOf(i));
+                used[i] = true;
+            }
+        }
+        int[] literalPositions = new int[literals.size()];
+        for (int l = 0; l < literals.size(); l++) {
+            Serializable literal = literals.get(l);
+            int pos = -1;
+            for (int i = 0; i < size; i++) {
+                if (used[i]) {
+                    continue;
+                }
+                Serializable param = params.get(i);
+                if (param instanceof WrappedId) {
+                    param = ((WrappedId) param).string;
+                }
+                if (literal.equals(param)) {
+                    if (pos != -1) {
+                        // ambiguous
+                        return null;
+                    }
+                    pos = i;
+                } else if (literal instanceof String
+                        && param instanceof String
+                        && ((String) param).contains((String) literal)) {
+                    // derived from the literal, cannot be rebound
+                    return null;
+                }
+            }
+            if (pos == -1) {
+                return null;
+            }
+            used[pos] = true;
+            literalPositions[l] = pos;
+        }
+        return new Plan(q, literalPositions, toArray(principalsPositions),
+                toArray(permissionsPositions), cursorParamsCount);
+    }
+
+    protected static boolean isMarker(Serializable param, String[] marker) {
+        return param == marker || marker[0].equals(param);
+    }
+
+    protected static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i).intValue();
+        }
+        return array;
+    }
+
+    /**
+     * Makes a copy of the plan query with the actual parameters.
+     */
+    protected Query bind(Plan plan, List<Serializable> literals,
+            SQLInfo sqlInfo, QueryFilter queryFilter) throws StorageException {
+        List<Serializable> params = new ArrayList<Serializable>(
+                plan.query.selectParams);
+        for (int l = 0; l < plan.literalPositions.length; l++) {
+            int pos = plan.literalPositions[l];
+            Serializable literal = literals.get(l);
+            if (params.get(pos) instanceof WrappedId) {
+                literal = new WrappedId((String) literal);
+            }
+            params.set(pos, literal);
+        }
+        boolean arrays = sqlInfo.dialect.supportsArrays();
+        bindArray(params, plan.principalsPositions,
+                queryFilter.getPrincipals(), arrays);
+        bindArray(params, plan.permissionsPositions,
+                queryFilter.getPermissions(), arrays);
+        if (plan.cursorParamsCount > 0) {
+            List<Serializable> cursorValues = KeysetCursor.decode(queryFilter.getCursor());
+            List<Serializable> cursorParams = NXQLQueryMaker.getCursorParams(
+                    cursorValues, plan.query.cursorNullsLast);
+            if (cursorParams.size() != plan.cursorParamsCount) {
+                throw new StorageException(
+                        "Cursor does not match the ORDER BY: "
+                                + queryFilter.getCursor());
+            }
+            int start = params.size() - plan.cursorParamsCount;
+            for (int i = 0; i < cursorParams.size(); i++) {
+                params.set(start + i, cursorParams.get(i));
+            }
+        }
+        Query q = new Query();
+        q.selectInfo = plan.query.selectInfo;
+        q.selectParams = params;
+        q.cursorIndexes = plan.query.cursorIndexes;
+        q.cursorNullsLast = plan.query.cursorNullsLast;
+        return q;
+    }
+
+    protected static void bindArray(List<Serializable> params,
+            int[] positions, String[] values, boolean arrays) {
+        for (int pos : positions) {
+            params.set(pos, arrays ? values : StringUtils.join(values,
+                    Dialect.ARRAY_SEP));
+        }
+    }
+
+    /**
+     * Replaces the literals that are simple parameters with placeholders.
+     * <p>
+     * The literal values are those returned by the NXQL lexer for strings and
+     * integers. Literals compared to system properties that change the
+     * generated SQL, or following DATE, TIMESTAMP, LIMIT or OFFSET, are kept.
+     */
+    protected static NormalizedQuery normalize(String query) {
+        StringBuilder buf = new StringBuilder(query.length());
+        List<Serializable> literals = new ArrayList<Serializable>();
+        String property = null; // last property seen
+        String keyword = null; // keyword just before
+        int len = query.length();
+        int i = 0;
+        while (i < len) {
+            char c = query.charAt(i);
+            if (c == '\'' || c == '"') {
+                StringBuilder value = new StringBuilder();
+                int j = i + 1;
+                for (;;) {
+                    if (j >= len) {
+                        // unterminated, the parser will complain
+                        return new NormalizedQuery(query,
+                                Collections.<Serializable> emptyList());
+                    }
+                    char d = query.charAt(j++);
+                    if (d == c) {
+                        break;
+                    }
+                    if (d == '\n' || d == '\r') {
+                        return new NormalizedQuery(query,
+                                Collections.<Serializable> emptyList());
+                    }
+                    if (d == '\\' && j < len) {
+                        char e = query.charAt(j);
+                        if (e == 't') {
+                            value.append('\t');
+                        } else if (e == 'n') {
+                            value.append('\n');
+                        } else if (e == 'r') {
+                            value.append('\r');
+                        } else if (e == '\\' || e == c) {
+                            value.append(e);
+                        } else {
+                            value.append('\\');
+                            continue;
+                        }
+                        j++;
+                    } else {
+                        value.append(d);
+                    }
+                }
+                if (isParam(property, keyword)) {
+                    buf.append("?S");
+                    literals.add(value.toString());
+                } else {
+                    buf.append(query, i, j);
+                }
+                keyword = null;
+                i = j;
+            } else if (Character.isDigit(c) || c == '.') {
+                int j = i + 1;
+                while (j < len && isNumberPart(query.charAt(j))) {
+                    j++;
+                }
+                String number = query.substring(i, j);
+                if (isParam(property, keyword) && isLong(number)) {
+                    buf.append("?L");
+                    literals.add(Long.valueOf(number));
+                } else {
+                    buf.append(number);
+                }
+                keyword = null;
+                i = j;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int j = i + 1;
+                while (j < len && isIdentifierPart(query.charAt(j))) {
+                    j++;
+                }
+                String word = query.substring(i, j);
+                buf.append(word);
+                String upper = word.toUpperCase();
+                if (KEYWORDS.contains(upper)) {
+                    keyword = upper;
+                } else {
+                    property = word;
+                    keyword = null;
+                }
+                i = j;
+            } else {
+                buf.append(c);
+                if (!Character.isWhitespace(c)) {
+                    keyword = null;
+                }
+                i++;
+            }
+        }
+        return new NormalizedQuery(buf.toString(), literals);
+    }
+
+    protected static boolean isParam(String property, String keyword) {
+        if (property == null || NON_PARAM_KEYWORDS.contains(keyword)) {
+            return false;
+        }
+        return !property.startsWith(NXQL.ECM_PREFIX)
+                || PARAM_ECM_PROPERTIES.contains(property);
+    }
+
+    protected static boolean isNumberPart(char c) {
+        return Character.isDigit(c) || c == '.' || c == 'e' || c == 'E'
+                || c == '+' || c == '-';
+    }
+
+    protected static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == ':'
+                || c == '.' || c == '-' || c == '/' || c == '*' || c == '['
+                || c == ']';
+    }
+
+    protected static boolean isLong(String number) {
+        if (number.length() > 18) {
+            return false;
+        }
+        if (number.equals("0")) {
+            return true;
+        }
+        if (number.charAt(0) == '0') {
+            return false;
+        }
+        for (int i = 0; i < number.length(); i++) {
+            if (!Character.isDigit(number.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Path resolver remembering if it was used.
+     */
+    protected static class RecordingPathResolver implements PathResolver {
+
+        protected final PathResolver pathResolver;
+
+        protected boolean used;
+
+        protected RecordingPathResolver(PathResolver pathResolver) {
+            this.pathResolver = pathResolver;
+        }
+
+        @Override
+        public Serializable getIdForPath(String path) throws StorageException {
+            used = true;
+            return pathResolver.getIdForPath(path);
+        }
+    }
+
+}
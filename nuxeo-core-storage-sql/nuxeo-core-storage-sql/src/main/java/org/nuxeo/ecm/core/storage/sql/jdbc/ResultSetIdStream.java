@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql.jdbc;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+
+import org.nuxeo.ecm.core.storage.sql.IdStream;
+import org.nuxeo.ecm.core.storage.sql.jdbc.db.Column;
+
+/**
+ * Id stream implemented as a forward-only cursor on a SQL {@link ResultSet}.
+ *
+ * @since 5.9.1
+ */
+public class ResultSetIdStream implements IdStream {
+
+    private final JDBCLogger logger;
+
+    private final Column column;
+
+    private PreparedStatement ps;
+
+    private ResultSet rs;
+
+    private Serializable next;
+
+    private long count;
+
+    /**
+     * Constructs an empty stream.
+     */
+    public ResultSetIdStream(JDBCLogger logger) {
+        this.logger = logger;
+        column = null;
+    }
+
+    public ResultSetIdStream(JDBCLogger logger, PreparedStatement ps,
+            ResultSet rs, Column column) {
+        this.logger = logger;
+        this.ps = ps;
+        this.rs = rs;
+        this.column = column;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (rs == null) {
+            return false;
+        }
+        try {
+            if (rs.next()) {
+                next = column.getFromResultSet(rs, 1);
+                count++;
+                return true;
+            }
+        } catch (SQLException e) {
+            close();
+            throw new RuntimeException(e);
+        }
+        if (logger.isLogEnabled()) {
+            logger.log("  -> END (" + count + " ids)");
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public Serializable next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Serializable id = next;
+        next = null;
+        return id;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        if (rs == null) {
+            return;
+        }
+        try {
+            rs.close();
+            ResultSetQueryResult.closePreparedStatement(ps);
+        } catch (SQLException e) {
+            logger.error("Error closing statement: " + e.getMessage(), e);
+        } finally {
+            rs = null;
+            ps = null;
+        }
+    }
+
+}
@@ -51,8 +51,8 @@ public class ResultSetQueryResult implements IterableQueryResult,
             JDBCMapper mapper, Object... params) throws StorageException,
             SQLException {
         logger = mapper.logger;
-        q = queryMaker.buildQuery(mapper.sqlInfo, mapper.model, pathResolver,
-                query, queryFilter, params);
+        q = mapper.buildQuery(queryMaker, pathResolver, query, queryFilter,
+                params);
         if (q == null) {
             logger.log("Query cannot return anything due to conflicting clauses");
             ps = null;
@@ -42,6 +42,7 @@ import org.nuxeo.ecm.core.storage.sql.jdbc.db.Insert;
 import org.nuxeo.ecm.core.storage.sql.jdbc.db.Join;
 import org.nuxeo.ecm.core.storage.sql.jdbc.db.Select;
 import org.nuxeo.ecm.core.storage.sql.jdbc.db.Table;
+import org.nuxeo.ecm.core.storage.sql.jdbc.db.TableAlias;
 import org.nuxeo.ecm.core.storage.sql.jdbc.db.Update;
 import org.nuxeo.ecm.core.storage.sql.jdbc.db.Table.IndexType;
 import org.nuxeo.ecm.core.storage.sql.jdbc.dialect.Dialect;
@@ -67,6 +68,13 @@ public class SQLInfo {
 
     public final boolean proxiesEnabled;
 
+    /**
+     * The cache of NXQL query plans, or {@code null} if disabled.
+     *
+     * @since 5.9.1
+     */
+    public final QueryPlanCache queryPlanCache;
+
     private final Model model;
 
     private String selectRootIdSql;
@@ -75,6 +83,8 @@ public class SQLInfo {
 
     private final Map<String, String> insertSqlMap; // statement
 
+    private final Map<String, Insert> insertMap;
+
     private final Map<String, List<Column>> insertColumnsMap;
 
     private final Map<String, String> deleteSqlMap; // statement
@@ -120,6 +130,12 @@ public class SQLInfo {
         RepositoryDescriptor repositoryDescriptor = model.getRepositoryDescriptor();
         softDeleteEnabled = repositoryDescriptor.softDeleteEnabled;
         proxiesEnabled = repositoryDescriptor.proxiesEnabled;
+        if (repositoryDescriptor.queryPlanCacheSize > 0) {
+            queryPlanCache = new QueryPlanCache(repositoryDescriptor.name,
+                    repositoryDescriptor.queryPlanCacheSize);
+        } else {
+            queryPlanCache = null;
+        }
 
         database = new Database(dialect);
 
@@ -135,6 +151,7 @@ public class SQLInfo {
         selectComplexChildrenIdsAndTypesSql = null;
 
         insertSqlMap = new HashMap<String, String>();
+        insertMap = new HashMap<String, Insert>();
         insertColumnsMap = new HashMap<String, List<Column>>();
 
         deleteSqlMap = new HashMap<String, String>();
@@ -219,6 +236,21 @@ public class SQLInfo {
         return insertSqlMap.get(tableName);
     }
 
+    /**
+     * Returns the SQL {@code INSERT} statement inserting several rows at once
+     * in the given table, or {@code null} if the table has no insertable
+     * columns.
+     *
+     * @param tableName the table name
+     * @param rows the number of rows
+     * @return the SQL {@code INSERT} statement
+     * @since 5.9.1
+     */
+    public String getInsertMultiRowSql(String tableName, int rows) {
+        Insert insert = insertMap.get(tableName);
+        return insert == null ? null : insert.getMultiRowStatement(rows);
+    }
+
     /**
      * Returns the list of columns to use for an {@INSERT} statement
      * {@link #getInsertSql}.
@@ -358,6 +390,72 @@ public class SQLInfo {
                 opaqueColumns.isEmpty() ? null : opaqueColumns);
     }
 
+    /**
+     * Select the regular children of a parent having one of several names.
+     *
+     * @since 5.9.1
+     */
+    public SQLInfoSelect getSelectChildrenByNames(int nnames) {
+        Table table = database.getTable(model.HIER_TABLE_NAME);
+        List<Column> whatColumns = new LinkedList<Column>();
+        List<String> whats = new LinkedList<String>();
+        List<Column> opaqueColumns = new LinkedList<Column>();
+        for (Column column : table.getColumns()) {
+            if (column.isOpaque()) {
+                opaqueColumns.add(column);
+            } else {
+                whatColumns.add(column);
+                whats.add(column.getQuotedName());
+            }
+        }
+        Column parentColumn = table.getColumn(model.HIER_PARENT_KEY);
+        Column nameColumn = table.getColumn(model.HIER_CHILD_NAME_KEY);
+        Column isPropertyColumn = table.getColumn(model.HIER_CHILD_ISPROPERTY_KEY);
+        StringBuilder wherebuf = new StringBuilder();
+        wherebuf.append(parentColumn.getQuotedName());
+        wherebuf.append(" = ? AND ");
+        wherebuf.append(nameColumn.getQuotedName());
+        wherebuf.append(" IN (");
+        for (int i = 0; i < nnames; i++) {
+            if (i != 0) {
+                wherebuf.append(", ");
+            }
+            wherebuf.append('?');
+        }
+        wherebuf.append(") AND ");
+        wherebuf.append(isPropertyColumn.getQuotedName());
+        wherebuf.append(" = ?");
+        wherebuf.append(getSoftDeleteClause(model.HIER_TABLE_NAME));
+        Select select = new Select(table);
+        select.setWhat(StringUtils.join(whats, ", "));
+        select.setFrom(table.getQuotedName());
+        select.setWhere(wherebuf.toString());
+        return new SQLInfoSelect(select.getStatement(), whatColumns,
+                Arrays.asList(parentColumn, nameColumn, isPropertyColumn),
+                opaqueColumns.isEmpty() ? null : opaqueColumns);
+    }
+
+    /**
+     * Select the highest position of the regular children of a parent.
+     *
+     * @since 5.9.1
+     */
+    public SQLInfoSelect getSelectMaxChildPos() {
+        Table table = database.getTable(model.HIER_TABLE_NAME);
+        Column posColumn = table.getColumn(model.HIER_CHILD_POS_KEY);
+        Column parentColumn = table.getColumn(model.HIER_PARENT_KEY);
+        Column isPropertyColumn = table.getColumn(model.HIER_CHILD_ISPROPERTY_KEY);
+        Select select = new Select(table);
+        select.setWhat("MAX(" + posColumn.getQuotedName() + ")");
+        select.setFrom(table.getQuotedName());
+        select.setWhere(parentColumn.getQuotedName() + " = ? AND "
+                + isPropertyColumn.getQuotedName() + " = ?"
+                + getSoftDeleteClause(model.HIER_TABLE_NAME));
+        return new SQLInfoSelect(select.getStatement(),
+                Collections.singletonList(posColumn),
+                Arrays.asList(parentColumn, isPropertyColumn), null);
+    }
+
     /**
      * Select all ancestors ids for several fragments.
      * <p>
@@ -405,6 +503,63 @@ public class SQLInfo {
                 Collections.singletonList(whereColumn), null);
     }
 
+    /**
+     * Select the ids of the non-complex nodes along a path of the given depth,
+     * using one hierarchy alias per path segment joined on parent id and name.
+     * <p>
+     * The where columns are the parent id of the first segment, then the name
+     * and is-property columns of each segment.
+     *
+     * @since 5.9.1
+     */
+    public SQLInfoSelect getSelectIdsForPath(int depth) {
+        Table hierTable = database.getTable(model.HIER_TABLE_NAME);
+        List<Column> whatColumns = new ArrayList<Column>(depth);
+        List<Column> whereColumns = new ArrayList<Column>(1 + 2 * depth);
+        List<String> whats = new ArrayList<String>(depth);
+        List<String> wheres = new ArrayList<String>(1 + 2 * depth);
+        StringBuilder from = new StringBuilder();
+        Table previous = null;
+        for (int i = 1; i <= depth; i++) {
+            Table table = new TableAlias(hierTable, "_P" + i);
+            Column idColumn = table.getColumn(model.MAIN_KEY);
+            Column parentColumn = table.getColumn(model.HIER_PARENT_KEY);
+            Column nameColumn = table.getColumn(model.HIER_CHILD_NAME_KEY);
+            Column isPropertyColumn = table.getColumn(model.HIER_CHILD_ISPROPERTY_KEY);
+            String tableSql = hierTable.getQuotedName() + " "
+                    + table.getQuotedName();
+            if (previous == null) {
+                from.append(tableSql);
+                wheres.add(parentColumn.getFullQuotedName() + " = ?");
+                whereColumns.add(parentColumn);
+            } else {
+                from.append(" JOIN ");
+                from.append(tableSql);
+                from.append(" ON ");
+                from.append(parentColumn.getFullQuotedName());
+                from.append(" = ");
+                from.append(previous.getColumn(model.MAIN_KEY).getFullQuotedName());
+            }
+            wheres.add(nameColumn.getFullQuotedName() + " = ?");
+            whereColumns.add(nameColumn);
+            wheres.add(isPropertyColumn.getFullQuotedName() + " = ?");
+            whereColumns.add(isPropertyColumn);
+            if (softDeleteEnabled) {
+                wheres.add(table.getColumn(model.MAIN_IS_DELETED_KEY).getFullQuotedName()
+                        + " IS NULL");
+            }
+            whats.add(idColumn.getFullQuotedName());
+            whatColumns.add(idColumn);
+            previous = table;
+        }
+        Select select = new Select(null);
+        select.setWhat(StringUtils.join(whats, ", "));
+        select.setFrom(from.toString());
+        select.setWhere(StringUtils.join(wheres, " AND "));
+        return new SQLInfoSelect(select.getStatement(), whatColumns,
+                whereColumns, null);
+    }
+
     // ----- delete -----
 
     /**
@@ -524,6 +679,118 @@ public class SQLInfo {
         return copyIdColumnMap.get(tableName);
     }
 
+    /**
+     * Returns the SQL selecting the ids and types of all the descendants of a
+     * node (whose id is the only parameter), using a recursive common table
+     * expression.
+     * <p>
+     * The columns returned are those of
+     * {@link #getSelectChildrenIdsAndTypesWhatColumns}.
+     *
+     * @since 5.9.1
+     */
+    public String getSelectDescendantsIdsAndTypesSql() {
+        Table table = database.getTable(model.HIER_TABLE_NAME);
+        String tree = "nxdescendants";
+        List<String> cteWhats = new ArrayList<String>(3);
+        List<String> whats = new ArrayList<String>(3);
+        List<String> treeWhats = new ArrayList<String>(3);
+        for (Column column : selectChildrenIdsAndTypesWhatColumns) {
+            cteWhats.add(column.getKey());
+            whats.add(column.getFullQuotedName());
+            treeWhats.add(tree + '.' + column.getKey());
+        }
+        String what = StringUtils.join(whats, ", ");
+        String parentId = table.getColumn(model.HIER_PARENT_KEY).getFullQuotedName();
+        String softDelete = getSoftDeleteClause(model.HIER_TABLE_NAME);
+        String with = String.format(
+                "RECURSIVE %s (%s) AS (SELECT %s FROM %s WHERE %s = ?%s"
+                        + " UNION ALL SELECT %s FROM %s JOIN %s ON %s = %s.%s%s)",
+                tree, StringUtils.join(cteWhats, ", "), what,
+                table.getQuotedName(), parentId, softDelete, what, tree,
+                table.getQuotedName(), parentId, tree, model.MAIN_KEY,
+                softDelete);
+        Select select = new Select(null);
+        select.setWith(with);
+        select.setWhat(StringUtils.join(treeWhats, ", "));
+        select.setFrom(tree);
+        return select.getStatement();
+    }
+
+    /**
+     * Returns the SQL copying the hierarchy rows of the nodes listed in the
+     * dialect's copy id map table, whose parent is also listed there. New ids
+     * and parent ids are taken from the map, versioning information is reset.
+     *
+     * @since 5.9.1
+     */
+    public String getCopyHierFromIdMapSql() {
+        Table table = database.getTable(model.HIER_TABLE_NAME);
+        String map = dialect.getCopyIdMapTableName();
+        Insert insert = new Insert(table);
+        List<String> selectWhats = new ArrayList<String>();
+        for (Column column : table.getColumns()) {
+            if (column.isIdentity()) {
+                // identity column is never copied
+                continue;
+            }
+            insert.addColumn(column);
+            String key = column.getKey();
+            if (key.equals(model.MAIN_KEY)) {
+                selectWhats.add("m.newid");
+            } else if (key.equals(model.HIER_PARENT_KEY)) {
+                selectWhats.add("pm.newid");
+            } else if (key.equals(model.MAIN_BASE_VERSION_KEY)
+                    || key.equals(model.MAIN_CHECKED_IN_KEY)
+                    || key.equals(model.MAIN_MINOR_VERSION_KEY)
+                    || key.equals(model.MAIN_MAJOR_VERSION_KEY)) {
+                selectWhats.add("CAST(NULL AS " + column.getSqlTypeString()
+                        + ")");
+            } else {
+                selectWhats.add(column.getFullQuotedName());
+            }
+        }
+        Select select = new Select(null);
+        select.setWhat(StringUtils.join(selectWhats, ", "));
+        select.setFrom(table.getQuotedName() + " JOIN " + map + " m ON "
+                + table.getColumn(model.MAIN_KEY).getFullQuotedName()
+                + " = m.oldid JOIN " + map + " pm ON "
+                + table.getColumn(model.HIER_PARENT_KEY).getFullQuotedName()
+                + " = pm.oldid");
+        insert.setValues(select.getStatement());
+        return insert.getStatement();
+    }
+
+    /**
+     * Returns the SQL copying the rows of a fragment table for all the ids
+     * listed in the dialect's copy id map table, using the new ids from the
+     * map.
+     *
+     * @since 5.9.1
+     */
+    public String getCopyFromIdMapSql(String tableName) {
+        Table table = database.getTable(tableName);
+        Column idColumn = getCopyIdColumn(tableName);
+        Insert insert = new Insert(table);
+        List<String> selectWhats = new ArrayList<String>();
+        for (Column column : table.getColumns()) {
+            if (column.isIdentity()) {
+                // identity column is never copied
+                continue;
+            }
+            insert.addColumn(column);
+            selectWhats.add(column == idColumn ? "m.newid"
+                    : column.getFullQuotedName());
+        }
+        Select select = new Select(null);
+        select.setWhat(StringUtils.join(selectWhats, ", "));
+        select.setFrom(table.getQuotedName() + " JOIN "
+                + dialect.getCopyIdMapTableName() + " m ON "
+                + idColumn.getFullQuotedName() + " = m.oldid");
+        insert.setValues(select.getStatement());
+        return insert.getStatement();
+    }
+
     // ----- prepare everything -----
 
     /**
@@ -908,6 +1175,7 @@ public class SQLInfo {
                 insert.addColumn(column);
             }
             insertSqlMap.put(tableName, insert.getStatement());
+            insertMap.put(tableName, insert);
             insertColumnsMap.put(tableName, insertColumns);
         }
 
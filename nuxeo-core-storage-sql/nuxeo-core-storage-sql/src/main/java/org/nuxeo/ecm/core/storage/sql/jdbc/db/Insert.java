@@ -88,4 +88,28 @@ public class Insert implements Serializable {
         }
         return buf.toString();
     }
+
+    /**
+     * Gets the statement to insert several rows at once, in the syntax of the
+     * dialect.
+     *
+     * @param rows the number of rows
+     * @return the SQL insert statement, or {@code null} if there are no
+     *         columns
+     * @since 5.9.1
+     */
+    public String getMultiRowStatement(int rows) {
+        if (columns.isEmpty()) {
+            return null;
+        }
+        List<String> columnNames = new LinkedList<String>();
+        List<String> values = new LinkedList<String>();
+        for (Column column : columns) {
+            columnNames.add(column.getQuotedName());
+            values.add(column.getFreeVariableSetter());
+        }
+        return dialect.getMultiRowInsertSql(table.getQuotedName(),
+                StringUtils.join(columnNames, ", "),
+                StringUtils.join(values, ", "), rows);
+    }
 }
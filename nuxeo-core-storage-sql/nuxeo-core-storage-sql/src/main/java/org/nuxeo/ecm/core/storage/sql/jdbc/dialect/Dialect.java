@@ -134,6 +134,8 @@ public abstract class Dialect {
 
     protected final boolean aclOptimizationsConcurrentUpdate;
 
+    protected final boolean aclOptimizationsAsyncUpdate;
+
     /**
      * @since 5.7
      */
@@ -146,6 +148,12 @@ public abstract class Dialect {
 
     protected boolean proxiesEnabled;
 
+    protected final boolean combinedReadsEnabled;
+
+    protected final boolean bulkInsertsMultiRow;
+
+    protected final boolean bulkInsertsCopy;
+
     protected final int readAclMaxSize;
 
     /**
@@ -232,18 +240,26 @@ public abstract class Dialect {
             fulltextDisabled = true;
             aclOptimizationsEnabled = false;
             aclOptimizationsConcurrentUpdate = false;
+            aclOptimizationsAsyncUpdate = false;
             readAclMaxSize = 0;
             clusteringEnabled = false;
             softDeleteEnabled = false;
             proxiesEnabled = true;
+            combinedReadsEnabled = false;
+            bulkInsertsMultiRow = false;
+            bulkInsertsCopy = false;
         } else {
             fulltextDisabled = repositoryDescriptor.fulltextDisabled;
             aclOptimizationsEnabled = repositoryDescriptor.aclOptimizationsEnabled;
             aclOptimizationsConcurrentUpdate = repositoryDescriptor.aclOptimizationsConcurrentUpdate;
+            aclOptimizationsAsyncUpdate = repositoryDescriptor.aclOptimizationsAsyncUpdate;
             readAclMaxSize = repositoryDescriptor.readAclMaxSize;
             clusteringEnabled = repositoryDescriptor.clusteringEnabled;
             softDeleteEnabled = repositoryDescriptor.softDeleteEnabled;
             proxiesEnabled = repositoryDescriptor.proxiesEnabled;
+            combinedReadsEnabled = repositoryDescriptor.combinedReadsEnabled;
+            bulkInsertsMultiRow = repositoryDescriptor.bulkInsertsMultiRow;
+            bulkInsertsCopy = repositoryDescriptor.bulkInsertsCopy;
         }
     }
 
@@ -273,6 +289,23 @@ public abstract class Dialect {
         return false;
     }
 
+    /**
+     * Gets several generated ids at once.
+     * <p>
+     * Dialects using a database sequence should override this to allocate
+     * them in one round trip.
+     *
+     * @since 5.9.1
+     */
+    public List<Serializable> getGeneratedIds(Connection connection, int count)
+            throws SQLException {
+        List<Serializable> ids = new ArrayList<Serializable>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(getGeneratedId(connection));
+        }
+        return ids;
+    }
+
     /**
      * Gets a generated id if so configured, otherwise returns null.
      */
@@ -1254,6 +1287,16 @@ public abstract class Dialect {
         return null;
     }
 
+    /**
+     * Gets the maximum length of the packed invalidations that can be stored
+     * in one row of the cluster invalidations table.
+     *
+     * @since 5.9.1
+     */
+    public int getClusterFragmentsMaxLength() {
+        return 4000;
+    }
+
     /**
      * Gets the SQL to query invalidations for this cluster node.
      *
@@ -1297,6 +1340,161 @@ public abstract class Dialect {
     }
 
 
+    /**
+     * Does the dialect support several SELECT statements, separated by
+     * {@link #getStatementSeparator}, in a single prepared statement returning
+     * multiple result sets.
+     *
+     * @since 5.9.1
+     */
+    public boolean supportsMultipleResultSets() {
+        return false;
+    }
+
+    /**
+     * Gets the separator between statements sent in a single round-trip.
+     *
+     * @since 5.9.1
+     */
+    public String getStatementSeparator() {
+        return ";\n";
+    }
+
+    /**
+     * Are the reads of several tables combined in a single round-trip.
+     *
+     * @since 5.9.1
+     */
+    public boolean isCombinedReadsEnabled() {
+        return combinedReadsEnabled && supportsMultipleResultSets();
+    }
+
+    /**
+     * Gets the fetch size to use for forward-only query result sets, or 0 to
+     * use the driver default.
+     *
+     * @since 5.9.1
+     */
+    public int getQueryFetchSize() {
+        return 0;
+    }
+
+    /**
+     * Gets the SQL counting the rows returned by a query.
+     *
+     * @param sql the query
+     * @param countUpTo the maximum count needed, the query then counts at most
+     *            {@code countUpTo + 1} rows; or {@code -1} for no limit
+     * @since 5.9.1
+     */
+    public String getCountSql(String sql, long countUpTo) {
+        if (countUpTo > 0) {
+            sql = addPagingClause(sql, countUpTo + 1, 0);
+        }
+        return "SELECT COUNT(*) FROM (" + sql + ") NXCOUNT";
+    }
+
+    /**
+     * Does the dialect support inserting several rows with a single
+     * statement, see {@link #getMultiRowInsertSql}.
+     *
+     * @since 5.9.1
+     */
+    public boolean supportsMultiRowInsert() {
+        return false;
+    }
+
+    /**
+     * Are the rows created in a table inserted by multi-row statements.
+     *
+     * @param tableName the table name
+     * @since 5.9.1
+     */
+    public boolean isMultiRowInsertEnabled(String tableName) {
+        return bulkInsertsMultiRow && supportsMultiRowInsert();
+    }
+
+    /**
+     * Gets the maximum number of parameters of a multi-row insert statement.
+     * The number of rows inserted by each statement is derived from it and
+     * from the number of columns of the table.
+     *
+     * @since 5.9.1
+     */
+    public int getMaximumMultiRowInsertParameters() {
+        return 1000;
+    }
+
+    /**
+     * Gets the statement inserting several rows at once.
+     * <p>
+     * Example: {@code INSERT INTO foo (a, b) VALUES (?, ?), (?, ?)}
+     *
+     * @param table the quoted table name
+     * @param columns the quoted column names, separated by commas
+     * @param values the free variable setters, separated by commas
+     * @param rows the number of rows
+     * @since 5.9.1
+     */
+    public String getMultiRowInsertSql(String table, String columns,
+            String values, int rows) {
+        StringBuilder buf = new StringBuilder(128 + rows * (values.length() + 4));
+        buf.append("INSERT INTO ");
+        buf.append(table);
+        buf.append(" (");
+        buf.append(columns);
+        buf.append(") VALUES ");
+        for (int i = 0; i < rows; i++) {
+            if (i != 0) {
+                buf.append(", ");
+            }
+            buf.append('(');
+            buf.append(values);
+            buf.append(')');
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Does the dialect support inserting rows through the bulk copy protocol
+     * of the database driver, see {@link #copyInsert}.
+     *
+     * @since 5.9.1
+     */
+    public boolean supportsCopyInsert() {
+        return false;
+    }
+
+    /**
+     * Are large numbers of rows created in a table inserted through the bulk
+     * copy protocol.
+     *
+     * @since 5.9.1
+     */
+    public boolean isCopyInsertEnabled() {
+        return bulkInsertsCopy && supportsCopyInsert();
+    }
+
+    /**
+     * Inserts rows through the bulk copy protocol of the database driver.
+     * <p>
+     * Nothing is sent to the database if {@code false} is returned, the rows
+     * must then be inserted by regular statements.
+     *
+     * @param connection the connection
+     * @param table the quoted table name
+     * @param columns the columns
+     * @param rows the values of each row, in the order of the columns
+     * @return {@code false} if the copy is not possible for these columns or
+     *         this connection
+     * @since 5.9.1
+     */
+    public boolean copyInsert(Connection connection, String table,
+            List<Column> columns, List<Serializable[]> rows)
+            throws SQLException {
+        return false;
+    }
+
     /**
      * Does the dialect support SQL-99 WITH common table expressions.
      */
@@ -1304,6 +1502,59 @@ public abstract class Dialect {
         return false;
     }
 
+    /**
+     * Does the dialect support copying a whole subtree in a fixed number of
+     * statements, using a recursive WITH to find the descendants and a
+     * temporary table mapping the original ids to the new ones.
+     *
+     * @since 5.9.1
+     */
+    public boolean supportsRecursiveCopy() {
+        return false;
+    }
+
+    /**
+     * Gets the name of the temporary table used to map original ids to new
+     * ids during a recursive copy. Its columns are {@code oldid} and
+     * {@code newid}.
+     *
+     * @since 5.9.1
+     */
+    public String getCopyIdMapTableName() {
+        return "nxcopyidmap";
+    }
+
+    /**
+     * Gets the SQL creating the copy id map table.
+     *
+     * @param idType the SQL type of the ids
+     * @since 5.9.1
+     */
+    public String getCreateCopyIdMapTableSql(String idType) {
+        return String.format(
+                "CREATE TEMPORARY TABLE %s (oldid %s PRIMARY KEY, newid %s)",
+                getCopyIdMapTableName(), idType, idType);
+    }
+
+    /**
+     * Gets the SQL updating the statistics of the filled copy id map table,
+     * or {@code null} if not needed.
+     *
+     * @since 5.9.1
+     */
+    public String getAnalyzeCopyIdMapTableSql() {
+        return null;
+    }
+
+    /**
+     * Gets the SQL dropping the copy id map table if it exists.
+     *
+     * @since 5.9.1
+     */
+    public String getDropCopyIdMapTableSql() {
+        return "DROP TABLE IF EXISTS " + getCopyIdMapTableName();
+    }
+
     /**
      * Does the dialect have an empty string identical to NULL (Oracle).
      */
@@ -1332,6 +1583,37 @@ public abstract class Dialect {
         return null;
     }
 
+    /**
+     * Does the dialect support updating the read acls of the subtrees of
+     * modified documents asynchronously, by batches. In that case
+     * {@link #getUpdateReadAclsSql} only queues these documents.
+     *
+     * @since 5.9.1
+     */
+    public boolean supportsAsyncUpdateReadAcls() {
+        return false;
+    }
+
+    /**
+     * Gets the statement to compute the read acls of a batch of queued
+     * documents, which returns the number of documents processed.
+     *
+     * @since 5.9.1
+     */
+    public String getUpdateReadAclsBatchSql() {
+        return null;
+    }
+
+    /**
+     * Gets the statement to swap in the read acls computed by batches, which
+     * returns the number of documents updated.
+     *
+     * @since 5.9.1
+     */
+    public String getSwapReadAclsSql() {
+        return null;
+    }
+
     /**
      * Gets the statement to rebuild the wall read acls
      *
@@ -1511,6 +1793,18 @@ public abstract class Dialect {
         return " DESC";
     }
 
+    /**
+     * Checks whether NULL values sort after all other values for the given
+     * sort direction, as ordered using {@link #getDescending}.
+     * <p>
+     * By default NULL is considered smaller than any value.
+     *
+     * @since 5.9.1
+     */
+    public boolean isNullsLast(boolean descending) {
+        return descending;
+    }
+
     /**
      * Columns ignored if we see them in existing tables.
      */
@@ -302,4 +302,9 @@ public class DialectDB2 extends Dialect {
         return String.format("NX_IN_TREE(%s, ?) = 1", idColumnName);
     }
 
+    @Override
+    public boolean isNullsLast(boolean descending) {
+        return !descending;
+    }
+
 }
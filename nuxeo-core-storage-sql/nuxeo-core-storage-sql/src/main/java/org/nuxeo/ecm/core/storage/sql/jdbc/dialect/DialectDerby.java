@@ -275,4 +275,9 @@ public class DialectDerby extends Dialect {
                 limit); // available from 10.5
     }
 
+    @Override
+    public boolean isNullsLast(boolean descending) {
+        return !descending;
+    }
+
 }
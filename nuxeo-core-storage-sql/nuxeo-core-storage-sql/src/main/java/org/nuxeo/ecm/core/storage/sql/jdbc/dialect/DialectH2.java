@@ -351,6 +351,11 @@ public class DialectH2 extends Dialect {
         return true;
     }
 
+    @Override
+    public int getClusterFragmentsMaxLength() {
+        return 1000000; // no real limit
+    }
+
     @Override
     public String getClusterInsertInvalidations() {
         return "CALL NX_CLUSTER_INVAL(?, ?, ?)";
@@ -383,6 +388,16 @@ public class DialectH2 extends Dialect {
         return "LENGTH";
     }
 
+    @Override
+    public boolean supportsMultiRowInsert() {
+        return true;
+    }
+
+    @Override
+    public int getMaximumMultiRowInsertParameters() {
+        return 10000;
+    }
+
     @Override
     public String getAncestorsIdsSql() {
         return "CALL NX_ANCESTORS(?)";
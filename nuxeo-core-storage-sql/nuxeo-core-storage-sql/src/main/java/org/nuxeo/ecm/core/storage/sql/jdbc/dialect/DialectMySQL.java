@@ -436,6 +436,11 @@ public class DialectMySQL extends Dialect {
         return true;
     }
 
+    @Override
+    public int getClusterFragmentsMaxLength() {
+        return 65000; // TEXT is limited to 64KB
+    }
+
     @Override
     public String getClusterInsertInvalidations() {
         return "CALL NX_CLUSTER_INVAL(?, ?, ?)";
@@ -461,6 +466,16 @@ public class DialectMySQL extends Dialect {
         return sql + String.format(" LIMIT %d OFFSET %d", limit, offset);
     }
 
+    @Override
+    public boolean supportsMultiRowInsert() {
+        return true;
+    }
+
+    @Override
+    public int getMaximumMultiRowInsertParameters() {
+        return 10000;
+    }
+
     @Override
     public boolean isIdentityAlreadyPrimary() {
         return true;
@@ -520,6 +520,38 @@ public class DialectOracle extends Dialect {
         }
     }
 
+    @Override
+    public boolean supportsMultiRowInsert() {
+        return true;
+    }
+
+    @Override
+    public boolean isMultiRowInsertEnabled(String tableName) {
+        // INSERT ALL doesn't insert its rows in order, and the parent foreign
+        // key of the hierarchy table is checked for each row
+        return !Model.HIER_TABLE_NAME.equals(tableName)
+                && super.isMultiRowInsertEnabled(tableName);
+    }
+
+    @Override
+    public String getMultiRowInsertSql(String table, String columns,
+            String values, int rows) {
+        StringBuilder buf = new StringBuilder(128 + rows
+                * (table.length() + columns.length() + values.length() + 20));
+        buf.append("INSERT ALL");
+        for (int i = 0; i < rows; i++) {
+            buf.append(" INTO ");
+            buf.append(table);
+            buf.append(" (");
+            buf.append(columns);
+            buf.append(") VALUES (");
+            buf.append(values);
+            buf.append(')');
+        }
+        buf.append(" SELECT * FROM DUAL");
+        return buf.toString();
+    }
+
     // use reflection to avoid linking dependencies
     @Override
     public Array createArrayOf(int type, Object[] elements,
@@ -696,6 +728,11 @@ public class DialectOracle extends Dialect {
         return " DESC NULLS LAST";
     }
 
+    @Override
+    public boolean isNullsLast(boolean descending) {
+        return true;
+    }
+
     @Override
     public String getDateCast() {
         // CAST(%s AS DATE) doesn't work, it doesn't compare exactly to DATE
@@ -13,7 +13,11 @@
 
 package org.nuxeo.ecm.core.storage.sql.jdbc.dialect;
 
+import java.io.Reader;
 import java.io.Serializable;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.SocketException;
 import java.sql.Array;
 import java.sql.Connection;
@@ -24,7 +28,9 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collections;
+import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -40,6 +46,7 @@ import org.nuxeo.ecm.core.NXCore;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.security.SecurityService;
 import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.Binary;
 import org.nuxeo.ecm.core.storage.sql.BinaryManager;
 import org.nuxeo.ecm.core.storage.sql.ColumnType;
 import org.nuxeo.ecm.core.storage.sql.Model;
@@ -51,6 +58,7 @@ import org.nuxeo.ecm.core.storage.sql.jdbc.db.Database;
 import org.nuxeo.ecm.core.storage.sql.jdbc.db.Join;
 import org.nuxeo.ecm.core.storage.sql.jdbc.db.Table;
 import org.nuxeo.ecm.core.storage.sql.jdbc.dialect.Dialect.FulltextQuery.Op;
+import org.nuxeo.runtime.api.ConnectionHelper;
 
 /**
  * PostgreSQL-specific dialect.
@@ -292,6 +300,28 @@ public class DialectPostgreSQL extends Dialect {
         }
     }
 
+    @Override
+    public List<Serializable> getGeneratedIds(Connection connection, int count)
+            throws SQLException {
+        if (idType != DialectIdType.SEQUENCE) {
+            return super.getGeneratedIds(connection, count);
+        }
+        String sql = String.format(
+                "SELECT NEXTVAL('%s') FROM generate_series(1, %d)",
+                idSequenceName, Integer.valueOf(count));
+        List<Serializable> ids = new ArrayList<Serializable>(count);
+        Statement s = connection.createStatement();
+        try {
+            ResultSet rs = s.executeQuery(sql);
+            while (rs.next()) {
+                ids.add(Long.valueOf(rs.getLong(1)));
+            }
+        } finally {
+            s.close();
+        }
+        return ids;
+    }
+
     @Override
     public void setId(PreparedStatement ps, int index, Serializable value)
             throws SQLException {
@@ -716,11 +746,29 @@ public class DialectPostgreSQL extends Dialect {
                 idColumnName);
     }
 
+    @Override
+    public boolean supportsAsyncUpdateReadAcls() {
+        return aclOptimizationsEnabled && aclOptimizationsAsyncUpdate;
+    }
+
     @Override
     public String getUpdateReadAclsSql() {
+        if (supportsAsyncUpdateReadAcls()) {
+            return "SELECT nx_prepare_read_acls_update();";
+        }
         return "SELECT nx_update_read_acls();";
     }
 
+    @Override
+    public String getUpdateReadAclsBatchSql() {
+        return "SELECT nx_update_read_acls_batch(?)";
+    }
+
+    @Override
+    public String getSwapReadAclsSql() {
+        return "SELECT nx_swap_read_acls()";
+    }
+
     @Override
     public String getRebuildReadAclsSql() {
         return "SELECT nx_rebuild_read_acls();";
@@ -1085,6 +1133,11 @@ public class DialectPostgreSQL extends Dialect {
         return true;
     }
 
+    @Override
+    public int getClusterFragmentsMaxLength() {
+        return 1000000; // no real limit
+    }
+
     @Override
     public String getClusterInsertInvalidations() {
         return "SELECT NX_CLUSTER_INVAL(?, ?, ?)";
@@ -1152,12 +1205,209 @@ public class DialectPostgreSQL extends Dialect {
         return sql + String.format(" LIMIT %d OFFSET %d", limit, offset);
     }
 
+    @Override
+    public int getQueryFetchSize() {
+        // the driver only uses cursors inside a transaction
+        return 1000;
+    }
+
+    @Override
+    public boolean supportsMultipleResultSets() {
+        // the driver splits the statements and sends them in one batch
+        return true;
+    }
+
+    @Override
+    public boolean supportsMultiRowInsert() {
+        return true;
+    }
+
+    @Override
+    public int getMaximumMultiRowInsertParameters() {
+        // the protocol is limited to 32767 parameters
+        return 10000;
+    }
+
+    @Override
+    public boolean supportsCopyInsert() {
+        return initCopy();
+    }
+
+    private static Boolean copyAvailable;
+
+    private static Class<?> pgConnectionClass;
+
+    private static Method getCopyAPIMethod;
+
+    private static Method copyInMethod;
+
+    // use reflection to avoid linking dependencies
+    private static synchronized boolean initCopy() {
+        if (copyAvailable == null) {
+            try {
+                pgConnectionClass = Class.forName("org.postgresql.PGConnection");
+                getCopyAPIMethod = pgConnectionClass.getMethod("getCopyAPI");
+                Class<?> copyManagerClass = Class.forName("org.postgresql.copy.CopyManager");
+                copyInMethod = copyManagerClass.getMethod("copyIn",
+                        String.class, Reader.class);
+                copyAvailable = Boolean.TRUE;
+            } catch (Exception e) {
+                log.warn("PostgreSQL driver without COPY support, "
+                        + "rows will be inserted by statements: " + e);
+                copyAvailable = Boolean.FALSE;
+            }
+        }
+        return copyAvailable.booleanValue();
+    }
+
+    @Override
+    public boolean copyInsert(Connection connection, String table,
+            List<Column> columns, List<Serializable[]> rows)
+            throws SQLException {
+        if (!initCopy()) {
+            return false;
+        }
+        for (Column column : columns) {
+            if (!"?".equals(column.getFreeVariableSetter())) {
+                // value converted by a function, not expressible in COPY
+                return false;
+            }
+            if (column.getJdbcType() == Types.OTHER && !column.getType().isId()
+                    && column.getType() != ColumnType.FTSTORED) {
+                return false;
+            }
+        }
+        Object pgConnection = ConnectionHelper.unwrap(connection);
+        if (!pgConnectionClass.isInstance(pgConnection)) {
+            if (!connection.isWrapperFor(pgConnectionClass)) {
+                return false;
+            }
+            pgConnection = connection.unwrap(pgConnectionClass);
+        }
+        List<String> names = new ArrayList<String>(columns.size());
+        for (Column column : columns) {
+            names.add(column.getQuotedName());
+        }
+        String sql = "COPY " + table + " (" + StringUtils.join(names, ", ")
+                + ") FROM STDIN";
+        StringBuilder buf = new StringBuilder(rows.size() * 64);
+        for (Serializable[] values : rows) {
+            for (int i = 0; i < values.length; i++) {
+                if (i != 0) {
+                    buf.append('\t');
+                }
+                appendCopyValue(buf, values[i], columns.get(i));
+            }
+            buf.append('\n');
+        }
+        try {
+            Object copyManager = getCopyAPIMethod.invoke(pgConnection);
+            copyInMethod.invoke(copyManager, sql,
+                    new StringReader(buf.toString()));
+        } catch (InvocationTargetException e) {
+            Throwable t = e.getCause();
+            if (t instanceof SQLException) {
+                throw (SQLException) t;
+            }
+            throw new SQLException(t.toString(), t);
+        } catch (IllegalAccessException e) {
+            throw new SQLException(e.toString(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Appends a value in the text format of COPY.
+     */
+    protected void appendCopyValue(StringBuilder buf, Serializable value,
+            Column column) {
+        if (value == null) {
+            buf.append("\\N");
+            return;
+        }
+        String v;
+        switch (column.getJdbcType()) {
+        case Types.BIT:
+            v = ((Boolean) value).booleanValue() ? "t" : "f";
+            break;
+        case Types.TIMESTAMP:
+            // same local time as setTimestamp with the calendar
+            Calendar cal = (Calendar) value;
+            v = String.format("%04d-%02d-%02d %02d:%02d:%02d.%03d%s",
+                    Integer.valueOf(cal.get(Calendar.YEAR)),
+                    Integer.valueOf(cal.get(Calendar.MONTH) + 1),
+                    Integer.valueOf(cal.get(Calendar.DAY_OF_MONTH)),
+                    Integer.valueOf(cal.get(Calendar.HOUR_OF_DAY)),
+                    Integer.valueOf(cal.get(Calendar.MINUTE)),
+                    Integer.valueOf(cal.get(Calendar.SECOND)),
+                    Integer.valueOf(cal.get(Calendar.MILLISECOND)),
+                    cal.get(Calendar.ERA) == GregorianCalendar.BC ? " BC"
+                            : "");
+            break;
+        case Types.ARRAY:
+            StringBuilder array = new StringBuilder("{");
+            Object[] elements = (Object[]) value;
+            for (int i = 0; i < elements.length; i++) {
+                if (i != 0) {
+                    array.append(',');
+                }
+                if (elements[i] == null) {
+                    array.append("NULL");
+                } else {
+                    array.append('"');
+                    array.append(elements[i].toString().replace("\\",
+                            "\\\\").replace("\"", "\\\""));
+                    array.append('"');
+                }
+            }
+            array.append('}');
+            v = array.toString();
+            break;
+        default:
+            if (column.getType() == ColumnType.BLOBID) {
+                v = ((Binary) value).getDigest();
+            } else {
+                v = value.toString();
+            }
+        }
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+            switch (c) {
+            case '\\':
+                buf.append("\\\\");
+                break;
+            case '\t':
+                buf.append("\\t");
+                break;
+            case '\n':
+                buf.append("\\n");
+                break;
+            case '\r':
+                buf.append("\\r");
+                break;
+            default:
+                buf.append(c);
+            }
+        }
+    }
+
     @Override
     public boolean supportsWith() {
         return false; // don't activate until proven useful
         // return supportsWith;
     }
 
+    @Override
+    public boolean supportsRecursiveCopy() {
+        return supportsWith;
+    }
+
+    @Override
+    public String getAnalyzeCopyIdMapTableSql() {
+        // temporary tables are not analyzed automatically
+        return "ANALYZE " + getCopyIdMapTableName();
+    }
+
     @Override
     public void performAdditionalStatements(Connection connection)
             throws SQLException {
@@ -1204,6 +1454,11 @@ public class DialectPostgreSQL extends Dialect {
         return " DESC NULLS LAST";
     }
 
+    @Override
+    public boolean isNullsLast(boolean descending) {
+        return true;
+    }
+
     @Override
     public String getDateCast() {
         // this is more amenable to being indexed than a CAST
@@ -147,6 +147,15 @@ public class DialectSQLServer extends Dialect {
         return sql + String.format(" OFFSET %d ROWS FETCH NEXT %d ROWS ONLY", offset, limit);
     }
 
+    @Override
+    public String getCountSql(String sql, long countUpTo) {
+        if (countUpTo <= 0 && sql.contains("ORDER")) {
+            // ORDER BY in a derived table needs OFFSET
+            sql += " OFFSET 0 ROWS";
+        }
+        return super.getCountSql(sql, countUpTo);
+    }
+
     protected int getEngineEdition(Connection connection)
             throws SQLException {
         Statement st = connection.createStatement();
@@ -465,6 +474,11 @@ public class DialectSQLServer extends Dialect {
         return fulltextAnalyzer;
     }
 
+    @Override
+    public boolean supportsMultipleResultSets() {
+        return true;
+    }
+
     @Override
     public boolean supportsCircularCascadeDeleteConstraints() {
         // See http://support.microsoft.com/kb/321843
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBinaryFileCache {
+
+    protected static final byte[] CONTENT = "0123456789".getBytes();
+
+    protected File dir;
+
+    /** A cache whose fetches wait for a latch, and are counted. */
+    protected static class SlowBinaryFileCache extends BinaryFileCache {
+
+        protected final AtomicInteger fetchCount = new AtomicInteger();
+
+        protected final CountDownLatch latch;
+
+        public SlowBinaryFileCache(File dir, CountDownLatch latch) {
+            super(dir, 1024 * 1024);
+            this.latch = latch;
+        }
+
+        @Override
+        public boolean fetchFile(String key, File tmp) {
+            fetchCount.incrementAndGet();
+            if (key.startsWith("missing")) {
+                return false;
+            }
+            try {
+                latch.await(10, TimeUnit.SECONDS);
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    out.write(CONTENT);
+                } finally {
+                    out.close();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return true;
+        }
+
+        @Override
+        public Long fetchLength(String key) {
+            return Long.valueOf(CONTENT.length);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("binaryfilecache", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testSingleFetch() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        final SlowBinaryFileCache cache = new SlowBinaryFileCache(dir, latch);
+        int nthreads = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(nthreads);
+        List<Future<File>> futures = new ArrayList<Future<File>>();
+        try {
+            for (int i = 0; i < nthreads; i++) {
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() {
+                        return cache.getFile("abc");
+                    }
+                }));
+            }
+            // let the requests pile up on the fetch in progress
+            Thread.sleep(500);
+            latch.countDown();
+            File file = futures.get(0).get(10, TimeUnit.SECONDS);
+            assertNotNull(file);
+            for (Future<File> future : futures) {
+                assertEquals(file, future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, cache.fetchCount.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(CONTENT.length, cache.getBytesFetched());
+        assertEquals(nthreads - 1, cache.getSharedFetches() + cache.getHits());
+
+        // now in cache
+        assertNotNull(cache.getCachedFile("abc"));
+        assertEquals(1, cache.fetchCount.get());
+    }
+
+    @Test
+    public void testMissing() throws Exception {
+        SlowBinaryFileCache cache = new SlowBinaryFileCache(dir,
+                new CountDownLatch(0));
+        assertNull(cache.getFile("missing1"));
+        assertNull(cache.getFile("missing1"));
+        // not cached, fetched each time
+        assertEquals(2, cache.fetchCount.get());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getBytesFetched());
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        SlowBinaryFileCache cache = new SlowBinaryFileCache(dir,
+                new CountDownLatch(0));
+        assertNull(cache.getCachedFile("abc"));
+        cache.prefetch("abc");
+        for (int i = 0; i < 100 && cache.getCachedFile("abc") == null; i++) {
+            Thread.sleep(100);
+        }
+        File file = cache.getCachedFile("abc");
+        assertNotNull(file);
+        assertEquals(1, cache.getPrefetches());
+        assertEquals(1, cache.fetchCount.get());
+        // no fetch when already cached
+        cache.prefetch("abc");
+        assertEquals(file.getPath(), cache.getFile("abc").getPath());
+        assertEquals(1, cache.fetchCount.get());
+        assertTrue(cache.getHits() > 0);
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+public class TestDigestBloomFilter {
+
+    protected static String digest(int i) {
+        return DigestUtils.md5Hex("content" + i);
+    }
+
+    @Test
+    public void testNoFalseNegatives() throws Exception {
+        int n = 10000;
+        DigestBloomFilter filter = new DigestBloomFilter(n, 0.01, 123);
+        assertFalse(filter.mightContain(digest(0)));
+        for (int i = 0; i < n; i++) {
+            filter.add(digest(i));
+        }
+        assertEquals(n, filter.getCount());
+        for (int i = 0; i < n; i++) {
+            assertTrue(filter.mightContain(digest(i)));
+        }
+    }
+
+    @Test
+    public void testApproximateDistinctCount() throws Exception {
+        int n = 10000;
+        DigestBloomFilter filter = new DigestBloomFilter(n, 0.01, 789);
+        assertEquals(n, filter.getCapacity());
+        assertEquals(0, filter.getApproximateDistinctCount());
+        for (int i = 0; i < 3 * n; i++) {
+            // each digest added twice, beyond capacity
+            filter.add(digest(i / 2));
+        }
+        assertEquals(3 * n, filter.getCount());
+        long distinct = filter.getApproximateDistinctCount();
+        assertTrue("" + distinct, Math.abs(distinct - 3 * n / 2) < n / 20);
+    }
+
+    @Test
+    public void testFalsePositiveRate() throws Exception {
+        int n = 10000;
+        DigestBloomFilter filter = new DigestBloomFilter(n, 0.01, 456);
+        for (int i = 0; i < n; i++) {
+            filter.add(digest(i));
+        }
+        int falsePositives = 0;
+        for (int i = n; i < 2 * n; i++) {
+            if (filter.mightContain(digest(i))) {
+                falsePositives++;
+            }
+        }
+        // expected around 1%, leave some margin
+        assertTrue("" + falsePositives, falsePositives < n * 0.02);
+        // about 10 bits per digest
+        assertTrue(filter.getSizeInBytes() < n * 10 / 8 + 1024);
+    }
+
+    @Test
+    public void testSeedChangesFalsePositives() throws Exception {
+        int n = 1000;
+        DigestBloomFilter filter1 = new DigestBloomFilter(n, 0.1, 1);
+        DigestBloomFilter filter2 = new DigestBloomFilter(n, 0.1, 2);
+        for (int i = 0; i < n; i++) {
+            filter1.add(digest(i));
+            filter2.add(digest(i));
+        }
+        int both = 0;
+        int any = 0;
+        for (int i = n; i < 2 * n; i++) {
+            boolean fp1 = filter1.mightContain(digest(i));
+            boolean fp2 = filter2.mightContain(digest(i));
+            if (fp1 || fp2) {
+                any++;
+            }
+            if (fp1 && fp2) {
+                both++;
+            }
+        }
+        assertTrue(any > 0);
+        // false positives are mostly not shared between seeds
+        assertTrue(both + "/" + any, both < any / 2);
+    }
+
+}
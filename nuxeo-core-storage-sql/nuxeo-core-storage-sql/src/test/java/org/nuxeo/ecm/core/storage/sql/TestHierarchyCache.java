@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TestHierarchyCache {
+
+    protected HierarchyCache cache;
+
+    @After
+    public void tearDown() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    protected static Invalidations modified(String id) {
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(new RowId(Model.HIER_TABLE_NAME, id));
+        return invalidations;
+    }
+
+    protected void putTree(long stamp) {
+        cache.put("root", null, "", stamp);
+        cache.put("a", "root", "a", stamp);
+        cache.put("b", "a", "b", stamp);
+        cache.put("c", "b", "c", stamp);
+    }
+
+    @Test
+    public void testGetPath() throws Exception {
+        cache = new HierarchyCache("test", 1000);
+        long stamp = cache.getStamp();
+        assertNull(cache.getPath("root", stamp));
+        putTree(stamp);
+        assertEquals("/", cache.getPath("root", stamp));
+        assertEquals("/a", cache.getPath("a", stamp));
+        assertEquals("/a/b/c", cache.getPath("c", stamp));
+        // memoized
+        assertEquals("/a/b/c", cache.getPath("c", stamp));
+        assertEquals(4, cache.getSize());
+
+        // placeless document
+        cache.put("p", null, "placeless", stamp);
+        cache.put("q", "p", "q", stamp);
+        assertEquals("placeless/q", cache.getPath("q", stamp));
+
+        // missing ancestor
+        cache.put("x", "unknown", "x", stamp);
+        assertNull(cache.getPath("x", stamp));
+    }
+
+    @Test
+    public void testInvalidateAncestor() throws Exception {
+        cache = new HierarchyCache("test", 1000);
+        long stamp = cache.getStamp();
+        putTree(stamp);
+        assertEquals("/a/b/c", cache.getPath("c", stamp));
+
+        cache.put("d", "root", "d", stamp);
+        assertEquals("/d", cache.getPath("d", stamp));
+
+        // rename of "a" committed by another session
+        cache.invalidate(modified("a"));
+        // sessions that didn't process the invalidation can't put it
+        assertNull(cache.getPath("c", stamp));
+        cache.put("a", "root", "old", stamp);
+        assertNull(cache.getPath("c", stamp));
+        // but still use the rest of the cache
+        assertTrue(cache.isUsable(stamp));
+        assertEquals("/d", cache.getPath("d", stamp));
+        long oldStamp = stamp;
+
+        stamp = cache.getStamp();
+        assertTrue(cache.isUsable(stamp));
+        // memoized path of descendants not reused
+        assertNull(cache.getPath("c", stamp));
+        cache.put("a", "root", "new", stamp);
+        assertEquals("/new/b/c", cache.getPath("c", stamp));
+        assertEquals("/new/b", cache.getPath("b", stamp));
+        // the new path is not visible to the older session
+        assertNull(cache.getPath("c", oldStamp));
+        assertEquals("/d", cache.getPath("d", oldStamp));
+
+        // invalidation of a node not in the cache keeps the memoized paths
+        long structure = cache.structure.get();
+        cache.invalidate(modified("complex1"));
+        assertEquals(structure, cache.structure.get());
+        assertEquals("/new/b/c", cache.getPath("c", stamp));
+
+        // other tables are ignored
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(new RowId("dublincore", "b"));
+        cache.invalidate(invalidations);
+        assertTrue(cache.isUsable(stamp));
+        assertEquals("/new/b/c", cache.getPath("c", stamp));
+
+        // deletion
+        invalidations = new Invalidations();
+        invalidations.addDeleted(new RowId(Model.HIER_TABLE_NAME, "b"));
+        cache.invalidate(invalidations);
+        stamp = cache.getStamp();
+        assertNull(cache.getPath("c", stamp));
+        assertEquals("/new", cache.getPath("a", stamp));
+    }
+
+    @Test
+    public void testInvalidateAll() throws Exception {
+        cache = new HierarchyCache("test", 1000);
+        long stamp = cache.getStamp();
+        putTree(stamp);
+        cache.invalidate(new Invalidations(true));
+        assertFalse(cache.isUsable(stamp));
+        assertEquals(0, cache.getSize());
+        stamp = cache.getStamp();
+        putTree(stamp);
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertNull(cache.getPath("c", cache.getStamp()));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        cache = new HierarchyCache("test", 160);
+        long stamp = cache.getStamp();
+        for (int i = 0; i < 10000; i++) {
+            cache.put("id" + i, "root", "name" + i, stamp);
+        }
+        assertTrue(cache.getSize() <= 160);
+    }
+
+}
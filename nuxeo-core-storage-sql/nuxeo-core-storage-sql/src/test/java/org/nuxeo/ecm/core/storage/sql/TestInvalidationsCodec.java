@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestInvalidationsCodec {
+
+    protected static void check(Invalidations invalidations) throws Exception {
+        Invalidations decoded = InvalidationsCodec.decode(InvalidationsCodec.encode(
+                invalidations, false));
+        assertEquals(invalidations.modified, decoded.modified);
+        assertEquals(invalidations.deleted, decoded.deleted);
+        decoded = InvalidationsCodec.decodeString(InvalidationsCodec.encodeString(invalidations));
+        assertEquals(invalidations.modified, decoded.modified);
+        assertEquals(invalidations.deleted, decoded.deleted);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        check(new Invalidations());
+    }
+
+    @Test
+    public void testIds() throws Exception {
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(new RowId("hierarchy",
+                "12345678-9abc-def0-1234-56789abcdef0"));
+        invalidations.addModified(new RowId("dublincore",
+                "12345678-9abc-def0-1234-56789abcdef0"));
+        // not a canonical UUID
+        invalidations.addModified(new RowId("hierarchy",
+                "12345678-9ABC-DEF0-1234-56789ABCDEF0"));
+        invalidations.addModified(new RowId("hierarchy", "some-id"));
+        invalidations.addDeleted(new RowId("hierarchy", Long.valueOf(123)));
+        invalidations.addDeleted(new RowId("hierarchy", Long.valueOf(-1)));
+        check(invalidations);
+    }
+
+    @Test
+    public void testManyTables() throws Exception {
+        Invalidations invalidations = new Invalidations();
+        for (int i = 0; i < 20; i++) {
+            invalidations.addModified(new RowId("table" + i,
+                    "00000000-0000-0000-0000-00000000000" + (i % 10)));
+        }
+        check(invalidations);
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        Invalidations invalidations = new Invalidations();
+        String[] tables = { "hierarchy", "dublincore", "misc", "versions" };
+        for (int i = 0; i < 1000; i++) {
+            String id = String.format("%08x-0000-0000-0000-000000000000",
+                    Integer.valueOf(i));
+            for (String table : tables) {
+                invalidations.addModified(new RowId(table, id));
+            }
+        }
+        check(invalidations);
+        byte[] bytes = InvalidationsCodec.encode(invalidations, true);
+        ByteArrayOutputStream baout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(baout);
+        out.writeObject(invalidations);
+        out.close();
+        assertTrue(bytes.length * 10 < baout.size());
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(new RowId("hierarchy", "a"));
+        List<Invalidations> halves = InvalidationsCodec.split(invalidations);
+        assertEquals(1, halves.size());
+        assertEquals(invalidations.modified, halves.get(0).modified);
+
+        invalidations.addModified(new RowId("hierarchy", "b"));
+        invalidations.addModified(new RowId("misc", "b"));
+        invalidations.addDeleted(new RowId("hierarchy", "c"));
+        invalidations.addDeleted(new RowId("misc", "c"));
+        halves = InvalidationsCodec.split(invalidations);
+        assertEquals(2, halves.size());
+        assertEquals(3, InvalidationsCodec.size(halves.get(0)));
+        assertEquals(2, InvalidationsCodec.size(halves.get(1)));
+        Set<RowId> all = new HashSet<RowId>();
+        for (Invalidations half : halves) {
+            if (half.modified != null) {
+                all.addAll(half.modified);
+            }
+            if (half.deleted != null) {
+                all.addAll(half.deleted);
+            }
+        }
+        assertEquals(5, all.size());
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestInvalidationsPropagator {
+
+    protected static Invalidations inval(String id) {
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(new RowId("hierarchy", id));
+        return invalidations;
+    }
+
+    @Test
+    public void testPropagate() throws Exception {
+        InvalidationsPropagator propagator = new InvalidationsPropagator("p");
+        InvalidationsQueue q1 = new InvalidationsQueue("q1");
+        InvalidationsQueue q2 = new InvalidationsQueue("q2");
+        propagator.propagateInvalidations(inval("before"), null);
+        propagator.addQueue(q1);
+        propagator.addQueue(q2);
+        propagator.addQueue(q2);
+        assertEquals(2, propagator.queues.size());
+        assertTrue(q1.getInvalidations().isEmpty());
+
+        propagator.propagateInvalidations(inval("a"), q1);
+        propagator.propagateInvalidations(inval("b"), null);
+        Invalidations invalidations = q1.getInvalidations();
+        assertEquals(inval("b").modified, invalidations.modified);
+        assertTrue(q1.getInvalidations().isEmpty());
+        invalidations = q2.getInvalidations();
+        assertEquals(2, invalidations.modified.size());
+        assertTrue(q2.getInvalidations().isEmpty());
+
+        // removed queue keeps what it hasn't returned yet
+        propagator.propagateInvalidations(inval("c"), null);
+        propagator.removeQueue(q1);
+        propagator.propagateInvalidations(inval("d"), null);
+        assertEquals(1, propagator.queues.size());
+        assertEquals(inval("c").modified, q1.getInvalidations().modified);
+        assertTrue(q1.getInvalidations().isEmpty());
+        assertEquals(2, q2.getInvalidations().modified.size());
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        InvalidationsPropagator propagator = new InvalidationsPropagator("p",
+                4);
+        InvalidationsQueue q = new InvalidationsQueue("q");
+        propagator.addQueue(q);
+        for (int i = 0; i < 4; i++) {
+            propagator.propagateInvalidations(inval("id" + i), null);
+        }
+        Invalidations invalidations = q.getInvalidations();
+        assertFalse(invalidations.all);
+        assertEquals(4, invalidations.modified.size());
+        for (int i = 0; i < 5; i++) {
+            propagator.propagateInvalidations(inval("id" + i), null);
+        }
+        invalidations = q.getInvalidations();
+        assertTrue(invalidations.all);
+        assertNull(invalidations.modified);
+        // caught up
+        assertTrue(q.getInvalidations().isEmpty());
+        propagator.propagateInvalidations(inval("x"), null);
+        assertEquals(inval("x").modified, q.getInvalidations().modified);
+    }
+
+    @Test
+    public void testRelease() throws Exception {
+        InvalidationsPropagator propagator = new InvalidationsPropagator("p",
+                8);
+        InvalidationsQueue q1 = new InvalidationsQueue("q1");
+        InvalidationsQueue q2 = new InvalidationsQueue("q2");
+        propagator.addQueue(q1);
+        propagator.addQueue(q2);
+        propagator.propagateInvalidations(inval("a"), null);
+        propagator.propagateInvalidations(inval("b"), null);
+        assertEquals(2, q1.getInvalidations().modified.size());
+        propagator.propagateInvalidations(inval("c"), null);
+        // not read by q2 yet, kept
+        assertEquals(3, countEntries(propagator));
+        assertEquals(3, q2.getInvalidations().modified.size());
+        propagator.propagateInvalidations(inval("d"), null);
+        // "a" and "b" read by all queues
+        assertEquals(2, countEntries(propagator));
+        // a removed queue doesn't hold entries
+        propagator.removeQueue(q2);
+        assertEquals(2, q1.getInvalidations().modified.size());
+        propagator.propagateInvalidations(inval("e"), null);
+        assertEquals(1, countEntries(propagator));
+        assertEquals(inval("d").modified, q2.getInvalidations().modified);
+    }
+
+    protected static int countEntries(InvalidationsPropagator propagator) {
+        int n = 0;
+        for (int i = 0; i < propagator.ring.length(); i++) {
+            if (propagator.ring.get(i) != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void testConcurrentSharedQueue() throws Exception {
+        final int NTHREADS = 4;
+        final int N = 5000;
+        final InvalidationsPropagator propagator = new InvalidationsPropagator(
+                "p", 2 * NTHREADS * N);
+        final InvalidationsQueue shared = new InvalidationsQueue("shared");
+        propagator.addQueue(shared);
+        Thread[] threads = new Thread[2 * NTHREADS];
+        for (int t = 0; t < NTHREADS; t++) {
+            final int tt = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < N; i++) {
+                        propagator.propagateInvalidations(
+                                inval(tt + "-" + i), null);
+                    }
+                }
+            };
+            threads[NTHREADS + t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < N; i++) {
+                        collect(shared.getInvalidations());
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        collect(shared.getInvalidations());
+        assertEquals(NTHREADS * N, collected.size());
+        assertEquals(0, collectedDuplicates);
+    }
+
+    protected final Set<RowId> collected = new HashSet<RowId>();
+
+    protected int collectedDuplicates;
+
+    protected synchronized void collect(Invalidations invalidations) {
+        assertFalse(invalidations.all);
+        if (invalidations.modified != null) {
+            for (RowId rowId : invalidations.modified) {
+                if (!collected.add(rowId)) {
+                    collectedDuplicates++;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+
+import org.junit.After;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.impl.ACPImpl;
+
+public class TestMergedACPCache {
+
+    protected MergedACPCache cache;
+
+    @After
+    public void tearDown() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    protected static Serializable[] deps(Serializable... ids) {
+        return ids;
+    }
+
+    protected static Invalidations modified(String tableName, String id) {
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(new RowId(tableName, id));
+        return invalidations;
+    }
+
+    @Test
+    public void testGetPut() throws Exception {
+        cache = new MergedACPCache("test", 1000);
+        assertNull(cache.get("doc"));
+        ACP acp = new ACPImpl();
+        cache.put("doc", acp, deps("doc", "folder", "root"), cache.getStamp());
+        assertSame(acp, cache.get("doc"));
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.hits.getCount());
+        assertEquals(1, cache.misses.getCount());
+    }
+
+    @Test
+    public void testInvalidateAncestor() throws Exception {
+        cache = new MergedACPCache("test", 1000);
+        long stamp = cache.getStamp();
+        cache.put("doc1", new ACPImpl(), deps("doc1", "folder", "root"), stamp);
+        cache.put("doc2", new ACPImpl(), deps("doc2", "other", "root"), stamp);
+        cache.put("folder", new ACPImpl(), deps("folder", "root"), stamp);
+
+        // other tables are ignored
+        cache.invalidate(modified("dublincore", "folder"));
+        assertEquals(3, cache.getSize());
+
+        // ACL change on the folder
+        cache.invalidate(modified(Model.ACL_TABLE_NAME, "folder"));
+        assertNull(cache.get("doc1"));
+        assertNull(cache.get("folder"));
+        assertEquals(1, cache.getSize());
+
+        // move of the other folder
+        cache.invalidate(modified(Model.HIER_TABLE_NAME, "other"));
+        assertNull(cache.get("doc2"));
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getDependentsCount("root"));
+    }
+
+    @Test
+    public void testStalePut() throws Exception {
+        cache = new MergedACPCache("test", 1000);
+        long stamp = cache.getStamp();
+        cache.invalidate(modified(Model.ACL_TABLE_NAME, "folder"));
+        // computed by a session before it processed the invalidation
+        cache.put("doc", new ACPImpl(), deps("doc", "folder", "root"), stamp);
+        assertNull(cache.get("doc"));
+        // unrelated to the invalidation
+        cache.put("doc2", new ACPImpl(), deps("doc2", "root"), stamp);
+        assertEquals(1, cache.getSize());
+        // after the session processed the invalidation
+        cache.put("doc", new ACPImpl(), deps("doc", "folder", "root"),
+                cache.getStamp());
+        assertEquals(2, cache.getSize());
+
+        cache.invalidate(new Invalidations(true));
+        assertEquals(0, cache.getSize());
+        cache.put("doc2", new ACPImpl(), deps("doc2", "root"), stamp);
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testStalePutKeepsValidEntry() throws Exception {
+        cache = new MergedACPCache("test", 1000);
+        long oldStamp = cache.getStamp();
+        cache.invalidate(modified(Model.ACL_TABLE_NAME, "folder"));
+        ACP acp = new ACPImpl();
+        cache.put("doc", acp, deps("doc", "folder", "root"), cache.getStamp());
+        // late put from a session computed before the invalidation
+        cache.put("doc", new ACPImpl(), deps("doc", "folder", "root"),
+                oldStamp);
+        assertSame(acp, cache.get("doc"));
+        assertEquals(1, cache.getDependentsCount("folder"));
+        assertEquals(1, cache.getDependentsCount("root"));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        cache = new MergedACPCache("test", 100);
+        long stamp = cache.getStamp();
+        for (int i = 0; i < 1000; i++) {
+            cache.put("doc" + i, new ACPImpl(), deps("doc" + i, "root"), stamp);
+        }
+        assertTrue(cache.getSize() <= 100);
+        assertEquals(cache.getSize(), cache.getDependentsCount("root"));
+    }
+
+}
@@ -47,6 +47,16 @@ public class TestRepositoryDescriptor {
         assertEquals("foo", desc.name);
         assertTrue(desc.clusteringEnabled);
         assertEquals(1234, desc.clusteringDelay);
+        assertEquals(100, desc.clusteringFlushDelay);
+        assertEquals(RedisClusterInvalidator.class,
+                desc.clusterInvalidatorClass);
+        assertEquals(5678, desc.clusteringRecoveryDelay);
+        assertTrue(desc.combinedReadsEnabled);
+        assertTrue(desc.pathIndexEnabled);
+        assertEquals(5000, desc.hierarchyCacheSize);
+        assertEquals(2000, desc.acpCacheSize);
+        assertTrue(desc.aclOptimizationsAsyncUpdate);
+        assertEquals(500, desc.aclOptimizationsAsyncUpdateBatchSize);
     }
 
     @SuppressWarnings("unchecked")
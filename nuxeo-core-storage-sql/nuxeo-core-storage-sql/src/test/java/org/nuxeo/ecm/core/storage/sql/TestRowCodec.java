@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class TestRowCodec {
+
+    protected static RowCodec newCodec() {
+        Map<String, RowLayout> layoutsByTable = new HashMap<String, RowLayout>();
+        layoutsByTable.put("hierarchy", new RowLayout(Arrays.asList(
+                "parentid", "pos", "name", "isproperty", "primarytype")));
+        layoutsByTable.put("dublincore", new RowLayout(Arrays.asList("title",
+                "modified", "subjects")));
+        // collection table
+        layoutsByTable.put("acls", null);
+        return new RowCodec(layoutsByTable);
+    }
+
+    @Test
+    public void testSimpleRow() throws Exception {
+        RowCodec codec = newCodec();
+        Row row = new Row("hierarchy", "12345678-9abc-def0-1234-56789abcdef0");
+        row.put("parentid", "00000000-0000-0000-0000-000000000000");
+        row.put("pos", null);
+        row.put("name", "doc");
+        row.put("isproperty", Boolean.FALSE);
+        row.put("primarytype", "File");
+        row.put("majorversion", Long.valueOf(1)); // not in the model
+        Row decoded = codec.decode(codec.encode(row));
+        assertEquals(row.toString(), decoded.toString());
+        assertEquals(row.getKeys(), decoded.getKeys());
+        assertEquals(row.getValues(), decoded.getValues());
+        // keys and table name are interned
+        assertSame(codec.tables[2], decoded.tableName);
+        assertSame(codec.layouts[2].getKey(0), decoded.keys[0]);
+        // built with the table layout
+        assertSame(codec.layouts[2], decoded.layout);
+        assertEquals("doc", decoded.get("name"));
+        assertEquals(Long.valueOf(1), decoded.get("majorversion"));
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        RowCodec codec = newCodec();
+        GregorianCalendar cal = new GregorianCalendar(
+                TimeZone.getTimeZone("Europe/Paris"));
+        cal.setTimeInMillis(1234567890123L);
+        char[] big = new char[100000];
+        Arrays.fill(big, '\u00e9');
+        Row row = new Row("unknowntable", Long.valueOf(123));
+        row.put("title", new String(big));
+        row.put("modified", cal);
+        row.put("subjects", new String[] { "a", null, "c" });
+        row.put("int", Integer.valueOf(-5));
+        row.put("double", Double.valueOf(1.5));
+        row.put("other", new BigDecimal("1.23"));
+        Row decoded = codec.decode(codec.encode(row));
+        assertEquals(Long.valueOf(123), decoded.id);
+        assertEquals(row.get("title"), decoded.get("title"));
+        assertEquals(cal, decoded.get("modified"));
+        assertArrayEquals((String[]) row.get("subjects"),
+                (String[]) decoded.get("subjects"));
+        assertEquals(Integer.valueOf(-5), decoded.get("int"));
+        assertEquals(Double.valueOf(1.5), decoded.get("double"));
+        assertEquals(new BigDecimal("1.23"), decoded.get("other"));
+    }
+
+    @Test
+    public void testCollectionRows() throws Exception {
+        RowCodec codec = newCodec();
+        ACLRow[] acls = new ACLRow[] {
+                new ACLRow(0, "local", true, "Read", "bob", null),
+                new ACLRow(1, "local", false, "Write", null, "members") };
+        Row row = new Row("acls", "id1", acls);
+        Row decoded = codec.decode(codec.encode(row));
+        assertTrue(decoded.isCollection());
+        assertEquals(ACLRow[].class, decoded.values.getClass());
+        assertEquals(row.toString(), decoded.toString());
+
+        row = new Row("dc:subjects", "id1", new String[] { "a", "b" });
+        decoded = codec.decode(codec.encode(row));
+        assertEquals(String[].class, decoded.values.getClass());
+        assertArrayEquals(row.values, decoded.values);
+
+        row = new Row("dc:subjects", "id1", new String[0]);
+        decoded = codec.decode(codec.encode(row));
+        assertEquals(0, decoded.values.length);
+
+        row = new Row("other", "id1", new Serializable[] { "a" });
+        decoded = codec.decode(codec.encode(row));
+        assertArrayEquals(row.values, decoded.values);
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        RowCodec codec = newCodec();
+        Row row = new Row("hierarchy", "12345678-9abc-def0-1234-56789abcdef0");
+        row.put("parentid", "00000000-0000-0000-0000-000000000000");
+        row.put("name", "doc");
+        row.put("isproperty", Boolean.FALSE);
+        row.put("primarytype", "File");
+        ByteArrayOutputStream baout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(baout);
+        out.writeObject(row);
+        out.close();
+        assertTrue(codec.encode(row).length * 4 < baout.size());
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestRowLayout {
+
+    protected static RowLayout newLayout(int n) {
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < n; i++) {
+            keys.add("dc:field" + i);
+        }
+        return new RowLayout(keys);
+    }
+
+    @Test
+    public void testPositions() throws Exception {
+        for (int n : new int[] { 0, 1, 5, 80, 500 }) {
+            RowLayout layout = newLayout(n);
+            assertEquals(n, layout.size());
+            for (int i = 0; i < n; i++) {
+                // not the same instance
+                assertEquals(i,
+                        layout.getPosition(new String("dc:field" + i)));
+            }
+            assertEquals(-1, layout.getPosition("dc:other"));
+        }
+        assertTrue(newLayout(80).isPerfect());
+    }
+
+    @Test
+    public void testCollisions() throws Exception {
+        // "Aa" and "BB" have the same hashCode
+        RowLayout layout = new RowLayout(Arrays.asList("Aa", "BB", "c"));
+        assertFalse(layout.isPerfect());
+        assertEquals(0, layout.getPosition("Aa"));
+        assertEquals(1, layout.getPosition("BB"));
+        assertEquals(2, layout.getPosition("c"));
+        assertEquals(-1, layout.getPosition("d"));
+    }
+
+    @Test
+    public void testRowInLayoutOrder() throws Exception {
+        RowLayout layout = newLayout(80);
+        Row row = new Row("dublincore", "id1", layout);
+        for (int i = 0; i < 80; i++) {
+            row.put("dc:field" + i, Long.valueOf(i));
+        }
+        assertFalse(row.unordered);
+        assertEquals(80, row.getKeys().size());
+        for (int i = 0; i < 80; i++) {
+            assertEquals(Long.valueOf(i), row.get("dc:field" + i));
+        }
+        assertNull(row.get("dc:other"));
+        row.put("dc:field3", "foo");
+        assertEquals("foo", row.get("dc:field3"));
+        assertEquals(80, row.getKeys().size());
+        Row copy = row.clone();
+        assertEquals("foo", copy.get("dc:field3"));
+        copy.put("dc:field3", "bar");
+        assertEquals("foo", row.get("dc:field3"));
+    }
+
+    @Test
+    public void testRowOutOfLayoutOrder() throws Exception {
+        RowLayout layout = newLayout(5);
+        Row row = new Row("dublincore", "id1", layout);
+        row.put("dc:field0", "a");
+        row.put("dc:field3", "d");
+        row.putNew("dc:other", "x");
+        row.put("dc:field1", "b");
+        assertTrue(row.unordered);
+        assertEquals("a", row.get("dc:field0"));
+        assertEquals("b", row.get("dc:field1"));
+        assertNull(row.get("dc:field2"));
+        assertEquals("d", row.get("dc:field3"));
+        assertEquals("x", row.get("dc:other"));
+        row.put("dc:field3", "dd");
+        assertEquals("dd", row.get("dc:field3"));
+        assertEquals(
+                Arrays.asList("dc:field0", "dc:field3", "dc:other", "dc:field1"),
+                row.getKeys());
+        row.put(Model.MAIN_KEY, "id2");
+        assertEquals("id2", row.id);
+    }
+
+}
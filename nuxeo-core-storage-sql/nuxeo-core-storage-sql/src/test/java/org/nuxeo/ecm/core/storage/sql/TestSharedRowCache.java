@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TestSharedRowCache {
+
+    protected SharedRowCache cache;
+
+    @After
+    public void tearDown() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    protected static Row row(String tableName, String id, String value) {
+        Row row = new Row(tableName, id);
+        row.put("title", value);
+        return row;
+    }
+
+    protected SharedRowCache newCache(long maxBytes, String... props) {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(SharedRowCache.MAX_BYTES_PROP, String.valueOf(maxBytes));
+        for (int i = 0; i < props.length; i += 2) {
+            properties.put(props[i], props[i + 1]);
+        }
+        return SharedRowCache.create("test", properties);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        assertNull(SharedRowCache.create("test",
+                new HashMap<String, String>()));
+    }
+
+    @Test
+    public void testGetPut() throws Exception {
+        cache = newCache(1000000);
+        RowId rowId = new RowId("dublincore", "id1");
+        assertNull(cache.get(rowId));
+        cache.put(row("dublincore", "id1", "foo"), cache.getStamp());
+        Row row = cache.get(rowId);
+        assertNotNull(row);
+        assertEquals("foo", row.get("title"));
+        // a copy is returned
+        row.put("title", "bar");
+        assertEquals("foo", cache.get(rowId).get("title"));
+        assertEquals(1, cache.getSize());
+        assertTrue(cache.getBytes() > 0);
+
+        RowId absent = new RowId("dublincore", "id2");
+        cache.putAbsent(absent, cache.getStamp());
+        assertSame(SharedRowCache.ABSENT, cache.get(absent));
+
+        assertEquals(2, cache.getPolicy("dublincore").hits.getCount()
+                - cache.getPolicy("dublincore").misses.getCount());
+    }
+
+    @Test
+    public void testInvalidationStamp() throws Exception {
+        cache = newCache(1000000);
+        RowId rowId = new RowId("dublincore", "id1");
+        long stamp = cache.getStamp();
+        // concurrent commit invalidates while we read the old row
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(rowId);
+        cache.invalidate(invalidations);
+        cache.put(row("dublincore", "id1", "old"), stamp);
+        assertNull(cache.get(rowId));
+        // read started after the invalidation
+        cache.put(row("dublincore", "id1", "new"), cache.getStamp());
+        assertEquals("new", cache.get(rowId).get("title"));
+        // invalidation removes
+        cache.invalidate(rowId);
+        assertNull(cache.get(rowId));
+        // invalidate all
+        cache.put(row("dublincore", "id1", "new"), cache.getStamp());
+        cache.invalidate(new Invalidations(true));
+        assertNull(cache.get(rowId));
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        long size = SharedRowCache.estimateSize(row("dublincore", "id0", "x"));
+        // room for about 2 rows per segment
+        cache = newCache(SharedRowCache.SEGMENTS * size * 2);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(row("dublincore", "id" + i, "x"), cache.getStamp());
+        }
+        assertTrue(cache.getBytes() <= SharedRowCache.SEGMENTS * size * 2);
+        assertTrue(cache.getSize() <= SharedRowCache.SEGMENTS * 2);
+        assertTrue(cache.getPolicy("dublincore").evictions.getCount() >= 1000 - SharedRowCache.SEGMENTS * 2);
+    }
+
+    @Test
+    public void testTablePolicies() throws Exception {
+        cache = newCache(1000000, //
+                SharedRowCache.TABLE_PROP_PREFIX + "misc.enabled", "false", //
+                SharedRowCache.TABLE_PROP_PREFIX + "dublincore.ttl", "1");
+        assertFalse(cache.isCached("misc"));
+        assertTrue(cache.isCached("hierarchy"));
+        cache.put(row("misc", "id1", "foo"), cache.getStamp());
+        assertNull(cache.get(new RowId("misc", "id1")));
+
+        cache.put(row("hierarchy", "id1", "foo"), cache.getStamp());
+        cache.put(row("dublincore", "id1", "foo"), cache.getStamp());
+        Thread.sleep(10);
+        assertNotNull(cache.get(new RowId("hierarchy", "id1")));
+        assertNull(cache.get(new RowId("dublincore", "id1")));
+    }
+
+}
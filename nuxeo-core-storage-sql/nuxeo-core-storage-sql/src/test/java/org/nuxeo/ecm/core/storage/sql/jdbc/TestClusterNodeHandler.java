@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.ClusterInvalidator;
+import org.nuxeo.ecm.core.storage.sql.HierarchyCache;
+import org.nuxeo.ecm.core.storage.sql.Invalidations;
+import org.nuxeo.ecm.core.storage.sql.InvalidationsPropagator;
+import org.nuxeo.ecm.core.storage.sql.InvalidationsQueue;
+import org.nuxeo.ecm.core.storage.sql.Mapper;
+import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor;
+import org.nuxeo.ecm.core.storage.sql.RowId;
+
+public class TestClusterNodeHandler {
+
+    /** Cluster invalidator whose transport is driven by the test. */
+    public static class DummyClusterInvalidator implements
+            ClusterInvalidator {
+
+        protected static DummyClusterInvalidator instance;
+
+        protected InvalidationsPropagator propagator;
+
+        protected final List<Invalidations> sent = new ArrayList<Invalidations>();
+
+        protected boolean recoveryNeeded;
+
+        protected int recoveries;
+
+        @Override
+        public void initialize(String nodeId,
+                RepositoryDescriptor repositoryDescriptor,
+                InvalidationsPropagator propagator) {
+            this.propagator = propagator;
+            instance = this;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void sendInvalidations(Invalidations invalidations) {
+            sent.add(invalidations);
+        }
+
+        @Override
+        public boolean isRecoveryNeeded() {
+            return recoveryNeeded;
+        }
+
+        @Override
+        public void startRecovery() {
+            recoveryNeeded = false;
+            recoveries++;
+        }
+
+        /** Simulates invalidations pushed by another node. */
+        public void receive(Invalidations invalidations) {
+            propagator.propagateInvalidations(invalidations, null);
+        }
+    }
+
+    /** The database log, as seen by the cluster node mapper. */
+    protected Invalidations dbLog;
+
+    protected final List<Invalidations> dbInserted = new ArrayList<Invalidations>();
+
+    protected int dbReads;
+
+    protected ClusterNodeHandler handler;
+
+    protected static Invalidations inval(String id) {
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(new RowId("hierarchy", id));
+        return invalidations;
+    }
+
+    protected Mapper newMapper() {
+        return (Mapper) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Mapper.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("createClusterNode")) {
+                            return "1";
+                        } else if (name.equals("getClusterInvalidations")) {
+                            dbReads++;
+                            Invalidations invalidations = dbLog;
+                            dbLog = new Invalidations();
+                            return invalidations;
+                        } else if (name.equals("insertClusterInvalidations")) {
+                            dbInserted.add((Invalidations) args[0]);
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    protected ClusterNodeHandler newHandler(long recoveryDelay)
+            throws StorageException {
+        RepositoryDescriptor descriptor = new RepositoryDescriptor();
+        descriptor.name = "test";
+        descriptor.clusteringDelay = 0;
+        descriptor.clusteringRecoveryDelay = recoveryDelay;
+        descriptor.clusterInvalidatorClass = DummyClusterInvalidator.class;
+        return new ClusterNodeHandler(newMapper(), descriptor);
+    }
+
+    @Before
+    public void setUp() {
+        dbLog = new Invalidations();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (handler != null) {
+            handler.close();
+        }
+        DummyClusterInvalidator.instance = null;
+    }
+
+    @Test
+    public void testPushDelivery() throws Exception {
+        handler = newHandler(60000);
+        DummyClusterInvalidator invalidator = DummyClusterInvalidator.instance;
+        assertNotNull(invalidator);
+        InvalidationsQueue queue = new InvalidationsQueue("q");
+        handler.addQueue(queue);
+
+        // pushed invalidations reach the queues without database access
+        invalidator.receive(inval("a"));
+        assertEquals(inval("a").modified, queue.getInvalidations().modified);
+        assertNull(handler.receiveClusterInvalidations());
+        assertEquals(0, dbReads);
+
+        // sent invalidations are pushed and logged in the database
+        handler.sendClusterInvalidations(inval("b"));
+        assertEquals(1, invalidator.sent.size());
+        assertEquals(1, dbInserted.size());
+        assertEquals(inval("b").modified, dbInserted.get(0).modified);
+    }
+
+    @Test
+    public void testRecoveryAfterDisconnect() throws Exception {
+        handler = newHandler(60000);
+        DummyClusterInvalidator invalidator = DummyClusterInvalidator.instance;
+        dbLog = inval("lost");
+
+        // transport reports a possible loss, the log is read at once
+        invalidator.recoveryNeeded = true;
+        Invalidations invalidations = handler.receiveClusterInvalidations();
+        assertEquals(1, dbReads);
+        assertEquals(1, invalidator.recoveries);
+        assertEquals(inval("lost").modified, invalidations.modified);
+
+        // back to push mode, log not read before the recovery delay
+        assertNull(handler.receiveClusterInvalidations());
+        assertEquals(1, dbReads);
+    }
+
+    @Test
+    public void testRecoveryOfUnnoticedLoss() throws Exception {
+        // no recovery delay: the log is read at each transaction start
+        handler = newHandler(0);
+        DummyClusterInvalidator invalidator = DummyClusterInvalidator.instance;
+        InvalidationsQueue queue = new InvalidationsQueue("q");
+        handler.addQueue(queue);
+
+        // "a" was pushed, "lost" was not but is in the log
+        invalidator.receive(inval("a"));
+        dbLog = inval("a");
+        dbLog.add(inval("lost"));
+        Invalidations invalidations = handler.receiveClusterInvalidations();
+        assertEquals(0, invalidator.recoveries);
+        assertNotNull(invalidations);
+        assertTrue(invalidations.modified.contains(new RowId("hierarchy",
+                "lost")));
+        // the duplicate "a" is harmless
+        assertEquals(2, invalidations.modified.size());
+        assertEquals(inval("a").modified, queue.getInvalidations().modified);
+    }
+
+    @Test
+    public void testSharedCachesInvalidatedOnce() throws Exception {
+        handler = newHandler(0);
+        DummyClusterInvalidator invalidator = DummyClusterInvalidator.instance;
+        HierarchyCache hierarchyCache = new HierarchyCache("test", 100);
+        handler.setSharedCaches(null, hierarchyCache, null);
+        InvalidationsQueue q1 = new InvalidationsQueue("q1");
+        InvalidationsQueue q2 = new InvalidationsQueue("q2");
+        handler.addQueue(q1);
+        handler.addQueue(q2);
+        hierarchyCache.put("a", null, "", 0);
+        assertEquals("/", hierarchyCache.getPath("a", 0));
+
+        // pushed invalidations, applied once whatever the number of sessions
+        invalidator.receive(inval("a"));
+        assertEquals(1, hierarchyCache.getStamp());
+        assertNull(hierarchyCache.getPath("a", 1));
+        q1.getInvalidations();
+        q2.getInvalidations();
+        assertEquals(1, hierarchyCache.getStamp());
+
+        // invalidations read from the database log, as done by the mappers
+        dbLog = inval("b");
+        handler.propagateInvalidations(handler.receiveClusterInvalidations(),
+                null);
+        assertEquals(2, hierarchyCache.getStamp());
+    }
+
+}
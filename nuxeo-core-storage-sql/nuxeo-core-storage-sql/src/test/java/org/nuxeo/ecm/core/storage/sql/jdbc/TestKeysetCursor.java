@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.storage.StorageException;
+
+public class TestKeysetCursor {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Calendar cal = new GregorianCalendar(
+                TimeZone.getTimeZone("Europe/Paris"));
+        cal.setTimeInMillis(1234567890123L);
+        List<Serializable> values = Arrays.<Serializable> asList("caf\u00e9",
+                null, Long.valueOf(-3), Double.valueOf(2.5), Boolean.TRUE,
+                cal, "12345678-9abc-def0-1234-56789abcdef0");
+        String cursor = KeysetCursor.encode(values);
+        assertFalse(cursor.contains("+"));
+        assertFalse(cursor.contains("/"));
+        assertEquals(values, KeysetCursor.decode(cursor));
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        String cursor = KeysetCursor.encode(Arrays.<Serializable> asList("foo"));
+        for (String bad : Arrays.asList("", "xyz", cursor + "AAAA",
+                cursor.substring(0, cursor.length() - 2))) {
+            try {
+                KeysetCursor.decode(bad);
+                fail("should fail for: " + bad);
+            } catch (StorageException e) {
+                // ok
+            }
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2006-2013 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.storage.sql.jdbc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.query.QueryFilter;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.storage.sql.ColumnType.WrappedId;
+import org.nuxeo.ecm.core.storage.sql.jdbc.QueryMaker.Query;
+import org.nuxeo.ecm.core.storage.sql.jdbc.QueryPlanCache.NormalizedQuery;
+import org.nuxeo.ecm.core.storage.sql.jdbc.QueryPlanCache.Plan;
+
+public class TestQueryPlanCache {
+
+    protected static final QueryFilter SECURITY_FILTER = new QueryFilter(null,
+            new String[] { "bob" }, new String[] { "Browse" }, null,
+            Collections.<SQLQuery.Transformer> emptyList(), 0, 0);
+
+    @Test
+    public void testNormalize() throws Exception {
+        NormalizedQuery nq = QueryPlanCache.normalize("SELECT * FROM Document"
+                + " WHERE dc:title = 'foo' AND ecm:primaryType = 'File'"
+                + " AND tst:count > 12 AND ecm:isProxy = 0"
+                + " AND dc:created > DATE '2010-01-01'"
+                + " AND ecm:parentId = \"abc\""
+                + " AND tst:friends/0/lastname = 'x'"
+                + " AND dc:subjects IN ('a', 'b\\'c')");
+        assertEquals("SELECT * FROM Document"
+                + " WHERE dc:title = ?S AND ecm:primaryType = 'File'"
+                + " AND tst:count > ?L AND ecm:isProxy = 0"
+                + " AND dc:created > DATE '2010-01-01'"
+                + " AND ecm:parentId = ?S"
+                + " AND tst:friends/0/lastname = ?S"
+                + " AND dc:subjects IN (?S, ?S)", nq.query);
+        assertEquals(Arrays.<Serializable> asList("foo", Long.valueOf(12),
+                "abc", "x", "a", "b'c"), nq.literals);
+
+        // same template, same normalized query
+        assertEquals(nq.query, QueryPlanCache.normalize("SELECT * FROM Document"
+                + " WHERE dc:title = 'bar' AND ecm:primaryType = 'File'"
+                + " AND tst:count > 5 AND ecm:isProxy = 0"
+                + " AND dc:created > DATE '2010-01-01'"
+                + " AND ecm:parentId = \"def\""
+                + " AND tst:friends/0/lastname = 'y'"
+                + " AND dc:subjects IN ('c', 'd')").query);
+
+        // not integers
+        nq = QueryPlanCache.normalize("SELECT * FROM Document WHERE tst:d = 1.5 AND tst:i = 007");
+        assertEquals("SELECT * FROM Document WHERE tst:d = 1.5 AND tst:i = 007",
+                nq.query);
+        assertEquals(0, nq.literals.size());
+    }
+
+    protected static Query newQuery(Serializable... params) {
+        Query q = new Query();
+        q.selectParams = new ArrayList<Serializable>(Arrays.asList(params));
+        return q;
+    }
+
+    @Test
+    public void testPlan() throws Exception {
+        QueryPlanCache cache = new QueryPlanCache("test", 10);
+        List<Serializable> literals = Arrays.<Serializable> asList("foo",
+                Long.valueOf(12), "abc");
+        Query q = newQuery("File", QueryPlanCache.PRINCIPALS_MARKER,
+                new WrappedId("abc"), "foo", Long.valueOf(12),
+                QueryPlanCache.PERMISSIONS_MARKER);
+        Plan plan = cache.newPlan(q, literals, SECURITY_FILTER);
+        assertNotNull(plan);
+        assertArrayEquals(new int[] { 3, 4, 2 }, plan.literalPositions);
+        assertArrayEquals(new int[] { 1 }, plan.principalsPositions);
+        assertArrayEquals(new int[] { 5 }, plan.permissionsPositions);
+        assertEquals(0, plan.cursorParamsCount);
+
+        // joined principals
+        q = newQuery("\u0000principals", "\u0000permissions");
+        plan = cache.newPlan(q, Collections.<Serializable> emptyList(),
+                SECURITY_FILTER);
+        assertArrayEquals(new int[] { 0 }, plan.principalsPositions);
+        assertArrayEquals(new int[] { 1 }, plan.permissionsPositions);
+    }
+
+    @Test
+    public void testPlanNotNormalizable() throws Exception {
+        QueryPlanCache cache = new QueryPlanCache("test", 10);
+        // literal not found
+        Query q = newQuery(Boolean.TRUE);
+        assertNull(cache.newPlan(q,
+                Arrays.<Serializable> asList(Long.valueOf(1)),
+                QueryFilter.EMPTY));
+        // ambiguous
+        q = newQuery("a", "a");
+        assertNull(cache.newPlan(q, Arrays.<Serializable> asList("a"),
+                QueryFilter.EMPTY));
+        assertNull(cache.newPlan(q, Arrays.<Serializable> asList("a", "a"),
+                QueryFilter.EMPTY));
+        // derived parameter
+        q = newQuery("foo", "foo/%");
+        assertNull(cache.newPlan(q, Arrays.<Serializable> asList("foo"),
+                QueryFilter.EMPTY));
+    }
+
+}
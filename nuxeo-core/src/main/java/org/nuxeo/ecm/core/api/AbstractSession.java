@@ -72,6 +72,7 @@ import org.nuxeo.ecm.core.api.operation.OperationHandler;
 import org.nuxeo.ecm.core.api.operation.ProgressMonitor;
 import org.nuxeo.ecm.core.api.operation.Status;
 import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.NameSet;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.api.security.SecuritySummaryEntry;
 import org.nuxeo.ecm.core.api.security.UserEntry;
@@ -90,6 +91,7 @@ import org.nuxeo.ecm.core.model.PathComparator;
 import org.nuxeo.ecm.core.model.Session;
 import org.nuxeo.ecm.core.query.FilterableQuery;
 import org.nuxeo.ecm.core.query.Query;
+import org.nuxeo.ecm.core.query.QueryException;
 import org.nuxeo.ecm.core.query.QueryFilter;
 import org.nuxeo.ecm.core.query.QueryParseException;
 import org.nuxeo.ecm.core.query.QueryResult;
@@ -142,6 +144,12 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
 
     public static final String LIMIT_RESULTS_PROPERTY = "org.nuxeo.ecm.core.limit.results";
 
+    /** Number of documents fetched at once when post-filtering a query. */
+    protected static final int POST_FILTER_BATCH_SIZE = 100;
+
+    /** Schemas prefetched for the document models returned by a query. */
+    protected static final String[] QUERY_SCHEMAS = { "common" };
+
     // the repository name
     protected String repositoryName;
 
@@ -196,6 +204,9 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
      */
     private transient SecurityService securityService;
 
+    /** Interned principals to check for the session principal. */
+    private transient NameSet principalNames;
+
     protected SecurityService getSecurityService() {
         if (securityService == null) {
             securityService = NXCore.getSecurityService();
@@ -499,11 +510,24 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
         // -> cache ACP at securitymanager level or try to reuse the ACP when
         // it is known
         return getSecurityService().checkPermission(doc, getPrincipal(),
-                permission);
+                getPrincipalNames(), permission);
         // return doc.getSession().getSecurityManager().checkPermission(doc,
         // getPrincipal().getName(), permission);
     }
 
+    /**
+     * Gets the principals to check for the session principal, computed once
+     * per session.
+     *
+     * @since 5.9.1
+     */
+    protected NameSet getPrincipalNames() {
+        if (principalNames == null) {
+            principalNames = SecurityService.getPrincipalNamesToCheck(getPrincipal());
+        }
+        return principalNames;
+    }
+
     protected final Document resolveReference(DocumentRef docRef)
             throws DocumentException, ClientException {
         return DocumentResolver.resolveReference(getSession(), docRef);
@@ -859,26 +883,55 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
     @Override
     public DocumentModel createDocument(DocumentModel docModel)
             throws ClientException {
-        String typeName = docModel.getType();
+        checkCreateDocument(docModel);
         DocumentRef parentRef = docModel.getParentRef();
-        if (typeName == null) {
+        Document folder;
+        try {
+            folder = parentRef == null ? null : resolveReference(parentRef);
+            if (folder != null) {
+                checkPermission(folder, ADD_CHILDREN);
+            } else {
+                folder = getSession().getNullDocument();
+            }
+        } catch (DocumentException e) {
+            throw new ClientException("Failed to create document: "
+                    + docModel.getName(), e);
+        }
+        return createDocument(docModel, folder);
+    }
+
+    /**
+     * Checks that a document model can be created, before resolving its
+     * parent.
+     *
+     * @since 5.9.1
+     */
+    protected void checkCreateDocument(DocumentModel docModel)
+            throws ClientException {
+        if (docModel.getType() == null) {
             throw new ClientException(String.format(
                     "cannot create document '%s' with undefined type name",
                     docModel.getTitle()));
         }
-        if (parentRef == null && !isAdministrator()) {
+        if (docModel.getParentRef() == null && !isAdministrator()) {
             throw new ClientException(
                     "Only Administrators can create placeless documents");
         }
-        try {
-            Document folder = parentRef == null ? null
-                    : resolveReference(parentRef);
-            if (folder != null) {
-                checkPermission(folder, ADD_CHILDREN);
-            } else {
-                folder = getSession().getNullDocument();
-            }
+    }
 
+    /**
+     * Creates a document in a folder already resolved and checked for the
+     * {@code AddChildren} permission.
+     *
+     * @param docModel the document model
+     * @param folder the folder, or the null document for placeless documents
+     * @since 5.9.1
+     */
+    protected DocumentModel createDocument(DocumentModel docModel,
+            Document folder) throws ClientException {
+        String typeName = docModel.getType();
+        DocumentRef parentRef = docModel.getParentRef();
+        try {
             // get initial life cycle state info
             String initialLifecycleState = null;
             Object lifecycleStateInfo = docModel.getContextData(LifeCycleConstants.INITIAL_LIFECYCLE_STATE_OPTION_NAME);
@@ -1002,11 +1055,47 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
     @Override
     public DocumentModel[] createDocument(DocumentModel[] docModels)
             throws ClientException {
-        DocumentModel[] models = new DocumentModel[docModels.length];
-        int i = 0;
-        // TODO: optimize this (do not call at each iteration createDocument())
+        // check all the documents and group the names per folder reference,
+        // before creating anything
+        Map<DocumentRef, List<String>> names = new HashMap<DocumentRef, List<String>>();
         for (DocumentModel docModel : docModels) {
-            models[i++] = createDocument(docModel);
+            checkCreateDocument(docModel);
+            DocumentRef parentRef = docModel.getParentRef();
+            List<String> list = names.get(parentRef);
+            if (list == null) {
+                list = new ArrayList<String>();
+                names.put(parentRef, list);
+            }
+            list.add(docModel.getName());
+        }
+        // folders are resolved lazily, as one may be created earlier in the
+        // array; events are bundled with those of the transaction, but
+        // synchronous listeners still see each document
+        Map<DocumentRef, Document> folders = new HashMap<DocumentRef, Document>();
+        DocumentModel[] models = new DocumentModel[docModels.length];
+        for (int i = 0; i < docModels.length; i++) {
+            DocumentRef parentRef = docModels[i].getParentRef();
+            Document folder = folders.get(parentRef);
+            if (folder == null) {
+                try {
+                    if (parentRef == null) {
+                        folder = getSession().getNullDocument();
+                    } else {
+                        folder = resolveReference(parentRef);
+                        checkPermission(folder, ADD_CHILDREN);
+                    }
+                    // allocate ids and load the existing children with the
+                    // same names once per folder
+                    List<String> folderNames = names.get(parentRef);
+                    if (folderNames.size() > 1) {
+                        getSession().prepareAddChildren(folder, folderNames);
+                    }
+                } catch (DocumentException e) {
+                    throw new ClientException("Failed to create documents", e);
+                }
+                folders.put(parentRef, folder);
+            }
+            models[i] = createDocument(docModels[i], folder);
         }
         return models;
     }
@@ -1166,11 +1255,20 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
     @Override
     public DocumentModelList getDocuments(DocumentRef[] docRefs)
             throws ClientException {
+        Map<String, Document> docsById = getDocumentsByIds(docRefs);
         List<DocumentModel> docs = new ArrayList<DocumentModel>(docRefs.length);
         for (DocumentRef docRef : docRefs) {
             Document doc;
             try {
-                doc = resolveReference(docRef);
+                if (docsById.containsKey(docRef.reference())) {
+                    doc = docsById.get(docRef.reference());
+                    if (doc == null) {
+                        // not found
+                        continue;
+                    }
+                } else {
+                    doc = resolveReference(docRef);
+                }
                 checkPermission(doc, READ);
             } catch (DocumentException e) {
                 // no permission, or other low-level error
@@ -1181,6 +1279,41 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
         return new DocumentModelListImpl(docs);
     }
 
+    /**
+     * Fetches in bulk the documents referenced by id.
+     * <p>
+     * If the bulk fetch fails, an empty map is returned so that the documents
+     * are resolved one by one and only those in error are skipped.
+     *
+     * @return the documents by id, with {@code null} values for documents not
+     *         found
+     * @since 5.9.1
+     */
+    protected Map<String, Document> getDocumentsByIds(DocumentRef[] docRefs)
+            throws ClientException {
+        List<String> ids = new ArrayList<String>(docRefs.length);
+        for (DocumentRef docRef : docRefs) {
+            if (docRef.type() == DocumentRef.ID) {
+                ids.add((String) docRef.reference());
+            }
+        }
+        Map<String, Document> docsById = new HashMap<String, Document>();
+        if (ids.isEmpty()) {
+            return docsById;
+        }
+        List<Document> docs;
+        try {
+            docs = getSession().getDocumentsByUUIDs(ids);
+        } catch (DocumentException e) {
+            log.debug("Cannot fetch documents in bulk: " + e.getMessage());
+            return docsById;
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            docsById.put(ids.get(i), docs.get(i));
+        }
+        return docsById;
+    }
+
     @Override
     public DocumentModelList getFiles(DocumentRef parent)
             throws ClientException {
@@ -1440,6 +1573,22 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
     public DocumentModelList query(String query, String queryType,
             Filter filter, long limit, long offset, long countUpTo)
             throws ClientException {
+        return query(query, queryType, filter, limit, offset, null, countUpTo);
+    }
+
+    @Override
+    public DocumentModelList query(String query, String queryType,
+            Filter filter, long limit, String cursor, long countUpTo)
+            throws ClientException {
+        if (cursor == null) {
+            cursor = QueryFilter.CURSOR_FIRST;
+        }
+        return query(query, queryType, filter, limit, 0, cursor, countUpTo);
+    }
+
+    protected DocumentModelList query(String query, String queryType,
+            Filter filter, long limit, long offset, String cursor,
+            long countUpTo) throws ClientException {
         SecurityService securityService = getSecurityService();
         Principal principal = getPrincipal();
         try {
@@ -1457,6 +1606,10 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
                 postFilterFilter = filter != null
                         && !(filter instanceof FacetFilter);
                 postFilter = postFilterPolicies || postFilterFilter;
+                if (postFilter && cursor != null) {
+                    throw new QueryException(
+                            "Cannot use a cursor with a filter or security policies not expressible in the query");
+                }
                 String[] principals;
                 if (isAdministrator()) {
                     principals = null; // means: no security check needed
@@ -1469,15 +1622,21 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
                         filter instanceof FacetFilter ? (FacetFilter) filter
                                 : null,
                         securityService.getPoliciesQueryTransformers(repoName),
-                        postFilter ? 0 : limit, postFilter ? 0 : offset);
+                        postFilter ? 0 : limit, postFilter ? 0 : offset,
+                        cursor);
                 if (postFilter) {
-                    results = ((FilterableQuery) compiledQuery).execute(
-                            queryFilter, -1);
+                    // ids read by batches, total size counted while
+                    // post-filtering
+                    results = ((FilterableQuery) compiledQuery).executeStreamed(queryFilter);
                 } else {
                     results = ((FilterableQuery) compiledQuery).execute(
                             queryFilter, countUpTo);
                 }
             } else {
+                if (cursor != null) {
+                    throw new QueryException("Cannot use a cursor with query type: "
+                            + queryType);
+                }
                 postFilterPermission = true;
                 postFilterPolicies = securityService.arePoliciesRestrictingPermission(permission);
                 postFilterFilter = filter != null;
@@ -1485,46 +1644,68 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
                 results = compiledQuery.execute();
             }
 
-            DocumentModelList dms = results.getDocumentModels();
-
             if (!postFilter) {
                 // the backend has done all the needed filtering
-                return dms;
+                return results.getDocumentModels();
             }
 
             // post-filter the results "by hand", the backend couldn't do it
+            // documents are fetched by batches, and only the ones in the
+            // requested page get a document model unless the filter needs it
             long start = limit == 0 || offset < 0 ? 0 : offset;
-            long stop = start + (limit == 0 ? dms.size() : limit);
-            int n = 0;
+            long stop = limit == 0 ? Long.MAX_VALUE : start + limit;
+            long n = 0;
+            boolean truncated = false;
             DocumentModelListImpl docs = new DocumentModelListImpl();
-            for (DocumentModel model : dms) {
-                if (postFilterPermission || postFilterPolicies) {
-                    if (!hasPermission(model.getRef(), permission)) {
-                        continue;
-                    }
-                }
-                if (postFilterFilter) {
-                    if (!filter.accept(model)) {
-                        continue;
-                    }
-                }
-                if (n < start) {
-                    n++;
-                    continue;
-                }
-                if (n >= stop) {
-                    if (countUpTo == 0) {
-                        // can break early
+            try {
+                BATCHES: for (;;) {
+                    List<?> batch = results.nextDocuments(POST_FILTER_BATCH_SIZE);
+                    if (batch.isEmpty()) {
                         break;
                     }
-                    n++;
-                    continue;
+                    for (Object o : batch) {
+                        Document doc = (Document) o;
+                        if (postFilterPermission || postFilterPolicies) {
+                            if (!hasPermission(doc, permission)) {
+                                continue;
+                            }
+                        }
+                        DocumentModel model = null;
+                        if (postFilterFilter) {
+                            model = DocumentModelFactory.createDocumentModel(
+                                    doc, QUERY_SCHEMAS);
+                            if (!filter.accept(model)) {
+                                continue;
+                            }
+                        }
+                        if (n >= stop) {
+                            if (countUpTo == 0) {
+                                // can break early
+                                break BATCHES;
+                            }
+                            if (countUpTo > 0 && n >= countUpTo) {
+                                // more than countUpTo, total size is unknown
+                                truncated = true;
+                                break BATCHES;
+                            }
+                        } else if (n >= start) {
+                            if (model == null) {
+                                model = DocumentModelFactory.createDocumentModel(
+                                        doc, QUERY_SCHEMAS);
+                            }
+                            docs.add(model);
+                        }
+                        n++;
+                    }
                 }
-                n++;
-                docs.add(model);
+            } finally {
+                results.close();
             }
             if (countUpTo != 0) {
-                docs.setTotalSize(n);
+                if (countUpTo > 0 && n > countUpTo) {
+                    truncated = true;
+                }
+                docs.setTotalSize(truncated ? -2 : n);
             }
             return docs;
         } catch (Exception e) {
@@ -1790,14 +1971,7 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
     public DocumentModel saveDocument(DocumentModel docModel)
             throws ClientException {
         try {
-            if (docModel.getRef() == null) {
-                throw new ClientException(String.format(
-                        "cannot save document '%s' with null reference: "
-                                + "document has probably not yet been created "
-                                + "in the repository with "
-                                + "'CoreSession.createDocument(docModel)'",
-                        docModel.getTitle()));
-            }
+            checkSaveDocument(docModel);
             Document doc = resolveReference(docModel.getRef());
             checkPermission(doc, WRITE_PROPERTIES);
 
@@ -1902,9 +2076,34 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
         }
     }
 
+    /**
+     * Checks that a document model can be saved.
+     *
+     * @since 5.9.1
+     */
+    protected void checkSaveDocument(DocumentModel docModel)
+            throws ClientException {
+        if (docModel.getRef() == null) {
+            throw new ClientException(String.format(
+                    "cannot save document '%s' with null reference: "
+                            + "document has probably not yet been created "
+                            + "in the repository with "
+                            + "'CoreSession.createDocument(docModel)'",
+                    docModel.getTitle()));
+        }
+    }
+
     @Override
     public void saveDocuments(DocumentModel[] docModels) throws ClientException {
-        // TODO: optimize this - avoid calling at each iteration saveDoc...
+        DocumentRef[] docRefs = new DocumentRef[docModels.length];
+        for (int i = 0; i < docModels.length; i++) {
+            docRefs[i] = docModels[i].getRef();
+            // fail before saving any of them
+            checkSaveDocument(docModels[i]);
+        }
+        // fetch the documents in bulk, each save then resolves its document
+        // from the session without a database round trip
+        getDocumentsByIds(docRefs);
         for (DocumentModel docModel : docModels) {
             saveDocument(docModel);
         }
@@ -17,6 +17,7 @@ package org.nuxeo.ecm.core.model;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import javax.transaction.xa.XAResource;
@@ -179,6 +180,22 @@ public interface Session {
      */
     Document getDocumentByUUID(String uuid) throws DocumentException;
 
+    /**
+     * Gets several documents given their IDs.
+     * <p>
+     * The data needed to build their document models (parents, proxy targets,
+     * live documents of versions, prefetched fields and ACLs) is fetched in
+     * bulk.
+     *
+     * @param uuids the document ids
+     * @return the documents, in the same order as the ids, with elements
+     *         being {@code null} if not found
+     * @throws DocumentException if any error occurs
+     * @since 5.9.1
+     */
+    List<Document> getDocumentsByUUIDs(List<String> uuids)
+            throws DocumentException;
+
     /**
      * Gets the root document in this repository.
      *
@@ -196,6 +213,20 @@ public interface Session {
      */
     Document getNullDocument() throws DocumentException;
 
+    /**
+     * Prepares the creation of many children in the given folder, so that
+     * the following creations allocate ids and check names without a
+     * database round trip per document.
+     *
+     * @param parent the folder, or the null document for placeless documents
+     * @param names the names of the children that will be created (a name
+     *            may be {@code null} if not known yet)
+     * @throws DocumentException if any error occurs
+     * @since 5.9.1
+     */
+    void prepareAddChildren(Document parent, List<String> names)
+            throws DocumentException;
+
     /**
      * Copies the source document to the given folder.
      * <p>
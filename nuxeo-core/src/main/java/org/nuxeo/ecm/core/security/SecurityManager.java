@@ -16,6 +16,7 @@ package org.nuxeo.ecm.core.security;
 
 import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.api.security.NameSet;
 import org.nuxeo.ecm.core.model.Document;
 
 /**
@@ -61,4 +62,22 @@ public interface SecurityManager {
     Access getAccess(Document doc, String username,
             String permission) throws SecurityException;
 
+    /**
+     * Checks whether the merged ACP of the document grants or denies one of
+     * the given permissions to one of the given principals.
+     * <p>
+     * Unlike {@link #getMergedACP}, this doesn't copy the merged ACP, so it
+     * can be evaluated on a shared instance.
+     *
+     * @param doc the document
+     * @param principals the interned principals to check
+     * @param permissions the interned permissions to check
+     * @return Access.GRANT if granted, Access.DENY if denied or
+     *         Access.UNKNOWN if no rule for these permissions exists, or if
+     *         the document has no ACP. Never return null
+     * @since 5.9.1
+     */
+    Access getAccess(Document doc, NameSet principals, NameSet permissions)
+            throws SecurityException;
+
 }
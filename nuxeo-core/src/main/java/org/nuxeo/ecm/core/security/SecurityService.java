@@ -19,6 +19,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,6 +32,7 @@ import org.nuxeo.ecm.core.api.PathRef;
 import org.nuxeo.ecm.core.api.security.ACL;
 import org.nuxeo.ecm.core.api.security.ACP;
 import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.api.security.NameSet;
 import org.nuxeo.ecm.core.api.security.PermissionProvider;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.api.security.SecuritySummaryEntry;
@@ -66,6 +69,9 @@ public class SecurityService extends DefaultComponent {
 
     private SecurityPolicyService securityPolicyService;
 
+    /** Interned permissions to check, by permission. */
+    private final ConcurrentMap<String, NameSet> permissionNameSets = new ConcurrentHashMap<String, NameSet>();
+
     // private SecurityManager securityManager;
 
     @Override
@@ -89,6 +95,7 @@ public class SecurityService extends DefaultComponent {
         if (PERMISSIONS_EXTENSION_POINT.equals(extensionPoint)
                 && contribution instanceof PermissionDescriptor) {
             permissionProvider.registerDescriptor((PermissionDescriptor) contribution);
+            permissionNameSets.clear();
         } else if (PERMISSIONS_VISIBILITY_EXTENSION_POINT.equals(extensionPoint)
                 && contribution instanceof PermissionVisibilityDescriptor) {
             permissionProvider.registerDescriptor((PermissionVisibilityDescriptor) contribution);
@@ -105,6 +112,7 @@ public class SecurityService extends DefaultComponent {
         if (PERMISSIONS_EXTENSION_POINT.equals(extensionPoint)
                 && contribution instanceof PermissionDescriptor) {
             permissionProvider.unregisterDescriptor((PermissionDescriptor) contribution);
+            permissionNameSets.clear();
         } else if (PERMISSIONS_VISIBILITY_EXTENSION_POINT.equals(extensionPoint)
                 && contribution instanceof PermissionVisibilityDescriptor) {
             permissionProvider.unregisterDescriptor((PermissionVisibilityDescriptor) contribution);
@@ -133,6 +141,21 @@ public class SecurityService extends DefaultComponent {
 
     public boolean checkPermission(Document doc, Principal principal,
             String permission) throws SecurityException {
+        return checkPermission(doc, principal, null, permission);
+    }
+
+    /**
+     * Checks a permission, reusing the principals to check computed once by
+     * the caller.
+     *
+     * @param principalNames the result of
+     *            {@link #getPrincipalNamesToCheck} for the principal, or
+     *            {@code null} to compute it
+     * @since 5.9.1
+     */
+    public boolean checkPermission(Document doc, Principal principal,
+            NameSet principalNames, String permission)
+            throws SecurityException {
         String username = principal.getName();
 
         // system bypass
@@ -150,26 +173,50 @@ public class SecurityService extends DefaultComponent {
         SecurityManager securityManager = doc.getSession().getRepository().getNuxeoSecurityManager();
 
         // fully check each ACE in turn
-        String[] resolvedPermissions = getPermissionsToCheck(permission);
-        String[] additionalPrincipals = getPrincipalsToCheck(principal);
-
-        // get the ordered list of ACE
-        ACP acp = securityManager.getMergedACP(doc);
-
-        // check pluggable policies
-        Access access = securityPolicyService.checkPermission(doc, acp,
-                principal, permission, resolvedPermissions,
-                additionalPrincipals);
-        if (access != null && !Access.UNKNOWN.equals(access)) {
-            return access.toBoolean();
+        NameSet permissionNames = getPermissionNamesToCheck(permission);
+        if (principalNames == null) {
+            principalNames = getPrincipalNamesToCheck(principal);
         }
 
-        if (acp == null) {
-            return false; // no ACP on that doc - by default deny
+        // check pluggable policies, which get their own copy of the ACP
+        if (!securityPolicyService.getPolicies().isEmpty()) {
+            ACP acp = securityManager.getMergedACP(doc);
+            Access access = securityPolicyService.checkPermission(doc, acp,
+                    principal, permission, permissionNames.getNames(),
+                    principalNames.getNames());
+            if (access != null && !Access.UNKNOWN.equals(access)) {
+                return access.toBoolean();
+            }
         }
-        access = acp.getAccess(additionalPrincipals, resolvedPermissions);
 
-        return access.toBoolean();
+        // check the shared merged ACP, no ACP on that doc denies by default
+        return securityManager.getAccess(doc, principalNames,
+                permissionNames).toBoolean();
+    }
+
+    /**
+     * Gets the permissions to check for a permission, interned.
+     *
+     * @see #getPermissionsToCheck
+     * @since 5.9.1
+     */
+    public NameSet getPermissionNamesToCheck(String permission) {
+        NameSet names = permissionNameSets.get(permission);
+        if (names == null) {
+            names = new NameSet(getPermissionsToCheck(permission));
+            permissionNameSets.put(permission, names);
+        }
+        return names;
+    }
+
+    /**
+     * Gets the principals to check for a principal, interned.
+     *
+     * @see #getPrincipalsToCheck
+     * @since 5.9.1
+     */
+    public static NameSet getPrincipalNamesToCheck(Principal principal) {
+        return new NameSet(getPrincipalsToCheck(principal));
     }
 
     /**